@@ -5,11 +5,14 @@ import com.google.inject.assistedinject.AssistedInject;
 import events.EventManager;
 import handlers.ConsoleLogger;
 import handlers.FileLogger;
-import org.j3d.loaders.stl.STLFileReader;
+import handlers.WebSocketLogger;
+import viewfactor.Configuration;
 import viewfactor.ViewFactorCalculator;
 
 import java.io.File;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Application {
   public interface Factory {
@@ -22,23 +25,43 @@ public class Application {
       EventManager eventManager,
       ConsoleLogger consoleLogger,
       FileLogger fileLogger,
+      Configuration configuration,
       @Assisted String[] args
   ) {
     eventManager.registerSubscriber(consoleLogger);
     eventManager.registerSubscriber(fileLogger);
 
-    // Manual run.
-    File emitterFile = new File(args[0]);
-    File receiverFile = new File(args[1]);
-    File interconnectFile = args.length == 3 ? new File(args[2]) : null;
+    // Flags (--name=value) may appear anywhere; everything else is an STL file.
+    List<String> files = new ArrayList<>();
+    for (String arg : args) {
+      if (Configuration.isFlag(arg)) {
+        configuration.parseFlag(arg);
+      } else {
+        files.add(arg);
+      }
+    }
+    WebSocketLogger webSocketLogger = null;
+    if (configuration.getMonitorPort() > 0) {
+      webSocketLogger = new WebSocketLogger(configuration.getMonitorPort());
+      webSocketLogger.start();
+      eventManager.registerSubscriber(webSocketLogger);
+    }
 
     try {
-      STLFileReader emitterReader = new STLFileReader(emitterFile);
-      STLFileReader receiverReader = new STLFileReader(receiverFile);
-      STLFileReader interconnectReader = interconnectFile == null ? null : new STLFileReader(interconnectFile);
-      viewFactorCalculator.run(emitterReader, receiverReader, interconnectReader);
+      if (configuration.getBatchManifest() != null) {
+        viewFactorCalculator.runBatch(configuration.getBatchManifest());
+      } else {
+        // Manual run.
+        File emitterFile = new File(files.get(0));
+        File receiverFile = new File(files.get(1));
+        File interconnectFile = files.size() == 3 ? new File(files.get(2)) : null;
+        viewFactorCalculator.run(emitterFile, receiverFile, interconnectFile);
+      }
 
       eventManager.shutdown();
+      if (webSocketLogger != null) {
+        webSocketLogger.close();
+      }
       System.exit(0);
     } catch (Exception e) {
       e.printStackTrace();
@@ -2,12 +2,14 @@ import com.google.inject.AbstractModule;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
 import events.EventModule;
 import handlers.LoggerModule;
+import viewfactor.ViewFactorModule;
 
 public class ApplicationModule extends AbstractModule {
   @Override
   protected void configure() {
     install(new LoggerModule());
     install(new EventModule());
+    install(new ViewFactorModule());
     install(new FactoryModuleBuilder().build(Application.Factory.class));
   }
 }
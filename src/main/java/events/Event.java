@@ -69,22 +69,56 @@ public abstract class Event {
   }
 
   static class ParseStlStart extends Event {
+    private static final String CACHE_DIRECTORY_JSON_KEY = "cache_directory";
+
+    // Null when there's no geometry cache.
+    private final String cacheDirectory;
+
+    ParseStlStart(String cacheDirectory) {
+      this.cacheDirectory = cacheDirectory;
+    }
+
+    @Override
+    public JSONObject toJson() {
+      JSONObject json = super.toJson();
+      return cacheDirectory == null ? json : json.put(CACHE_DIRECTORY_JSON_KEY, cacheDirectory);
+    }
+
     @Override
     public String getMessage() {
-      return "Reading STL files and precomputing geometry...";
+      if (cacheDirectory == null) {
+        return "Reading STL files and precomputing geometry...";
+      }
+      return "Loading geometry from the cache in " + cacheDirectory + ", reading STL files it doesn't hold...";
     }
   }
 
   static class ParseStlFinish extends Event {
+    private static final String CACHE_HITS_JSON_KEY = "cache_hits";
+    private static final String CACHE_MISSES_JSON_KEY = "cache_misses";
+
     private final Stopwatch stlStopwatch;
+    private final int cacheHits;
+    private final int cacheMisses;
 
-    ParseStlFinish(Stopwatch stlStopwatch) {
+    ParseStlFinish(Stopwatch stlStopwatch, int cacheHits, int cacheMisses) {
       this.stlStopwatch = stlStopwatch;
+      this.cacheHits = cacheHits;
+      this.cacheMisses = cacheMisses;
+    }
+
+    @Override
+    public JSONObject toJson() {
+      return super.toJson().put(CACHE_HITS_JSON_KEY, cacheHits).put(CACHE_MISSES_JSON_KEY, cacheMisses);
     }
 
     @Override
     public String getMessage() {
-      return "STLs parsed and geometry precomputed in: " + getReasonableTimeUnit(stlStopwatch);
+      String message = "STLs parsed and geometry precomputed in: " + getReasonableTimeUnit(stlStopwatch);
+      if (cacheHits + cacheMisses == 0) {
+        return message;
+      }
+      return message + " Geometry cache hits: " + cacheHits + ", misses: " + cacheMisses + ".";
     }
   }
 
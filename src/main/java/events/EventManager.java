@@ -6,6 +6,7 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +45,10 @@ public class EventManager implements KernelEvents {
     put(State.POST_COMPUTATION, State.IDLE);
   }};
 
+  // A pose sweep runs one computation per pose on the geometry parsed at the start of the job.
+  private static final Map<State, State> REPEAT_STATES = Collections.singletonMap(
+      State.POST_COMPUTATION, State.BUFFER_TRANSFER);
+
   private final Provider<Stopwatch> stopwatchProvider;
   private final List<Event> events;
   private final List<Subscriber> subscribers;
@@ -85,23 +90,33 @@ public class EventManager implements KernelEvents {
 
   @Override
   public void startParseStl() {
+    startParseStl(null);
+  }
+
+  @Override
+  public void startParseStl(String cacheDirectory) {
     changeState(State.PARSE_STL);
-    recordAndAlertSubscribers(new Event.ParseStlStart());
+    recordAndAlertSubscribers(new Event.ParseStlStart(cacheDirectory));
     stlStopwatch.start();
   }
 
   @Override
   public void finishParseStl() {
+    finishParseStl(0, 0);
+  }
+
+  @Override
+  public void finishParseStl(int cacheHits, int cacheMisses) {
     changeState(State.POST_PARSE_STL);
     stlStopwatch.stop();
-    recordAndAlertSubscribers(new Event.ParseStlFinish(stlStopwatch));
+    recordAndAlertSubscribers(new Event.ParseStlFinish(stlStopwatch, cacheHits, cacheMisses));
   }
 
   @Override
   public void startBufferTransfer() {
     changeState(State.BUFFER_TRANSFER);
     recordAndAlertSubscribers(new Event.BufferTransferStart());
-    bufferTransferStopwatch.start();
+    bufferTransferStopwatch.reset().start();
   }
 
   @Override
@@ -115,7 +130,7 @@ public class EventManager implements KernelEvents {
   public void startComputation() {
     changeState(State.COMPUTATION);
     recordAndAlertSubscribers(new Event.ComputationStart());
-    computationStopwatch.start();
+    computationStopwatch.reset().start();
   }
 
   @Override
@@ -158,7 +173,8 @@ public class EventManager implements KernelEvents {
   }
 
   private void changeState(State newState) {
-    Preconditions.checkState(VALID_STATES.get(state) == newState || newState == State.EXCEPTION);
+    Preconditions.checkState(
+        VALID_STATES.get(state) == newState || REPEAT_STATES.get(state) == newState || newState == State.EXCEPTION);
     state = newState;
   }
 
@@ -4,7 +4,9 @@ interface KernelEvents {
   void start();
   void finish();
   void startParseStl();
+  void startParseStl(String cacheDirectory);
   void finishParseStl();
+  void finishParseStl(int cacheHits, int cacheMisses);
   void startBufferTransfer();
   void finishBufferTransfer();
   void startComputation();
@@ -0,0 +1,201 @@
+package handlers;
+
+import events.Event;
+import events.EventManager;
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams events to dashboards over a WebSocket, one Event.toJson() object per message, for --monitor.
+ *
+ * onEvent only queues messages, so a dashboard never holds up the EventManager, let alone the computation. Progress
+ * events are coalesced: only the latest is kept, and it's sent at most once per progressIntervalMillis, or just
+ * before the next other event so that events stay in order. A single sender thread moves each client's queue to its
+ * connection whenever the connection has sent what it was given before. A burst that fills a queue between two runs
+ * of the sender goes to the connection straight away instead. Only a client whose queue is full while its connection
+ * has been unable to send for slowClientMillis is too slow to keep up, and is disconnected.
+ */
+public class WebSocketLogger extends WebSocketServer implements EventManager.Subscriber {
+
+  private static final long PROGRESS_INTERVAL_MILLIS = 250;
+  private static final int QUEUE_CAPACITY = 256;
+  private static final long SLOW_CLIENT_MILLIS = 1000;
+  // How often the sender thread looks for messages to send.
+  private static final long SEND_INTERVAL_MILLIS = 20;
+  // How long close() waits for queued messages to go out.
+  private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+  private final long progressIntervalMillis;
+  private final int queueCapacity;
+  private final long slowClientMillis;
+  private final Map<WebSocket, Client> clients = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "websocket-logger");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // Guarded by this, as are the clients' queues and backedUpSinceMillis.
+  private Event pendingProgress;
+  private long lastProgressMillis;
+
+  /**
+   * A dashboard's messages that haven't been given to its connection yet, and since when its connection has been
+   * unable to send what it was given, or 0 if it last sent everything.
+   */
+  private static final class Client {
+    private final BlockingQueue<String> queue;
+    private long backedUpSinceMillis;
+
+    private Client(int queueCapacity) {
+      this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+  }
+
+  public WebSocketLogger(int port) {
+    this(port, PROGRESS_INTERVAL_MILLIS, QUEUE_CAPACITY, SLOW_CLIENT_MILLIS);
+  }
+
+  WebSocketLogger(int port, long progressIntervalMillis, int queueCapacity, long slowClientMillis) {
+    super(new InetSocketAddress(port));
+    this.progressIntervalMillis = progressIntervalMillis;
+    this.queueCapacity = queueCapacity;
+    this.slowClientMillis = slowClientMillis;
+  }
+
+  @Override
+  public void onEvent(Event event) {
+    if (event instanceof Event.ComputationProgress) {
+      synchronized (this) {
+        pendingProgress = event;
+      }
+      return;
+    }
+    synchronized (this) {
+      broadcastPendingProgress();
+      broadcast(event.toJson().toString());
+    }
+  }
+
+  @Override
+  public void onStart() {
+    sender.scheduleWithFixedDelay(this::send, SEND_INTERVAL_MILLIS, SEND_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onOpen(WebSocket connection, ClientHandshake handshake) {
+    clients.put(connection, new Client(queueCapacity));
+  }
+
+  @Override
+  public void onClose(WebSocket connection, int code, String reason, boolean remote) {
+    clients.remove(connection);
+  }
+
+  // Dashboards only listen.
+  @Override
+  public void onMessage(WebSocket connection, String message) {}
+
+  @Override
+  public void onError(WebSocket connection, Exception e) {
+    if (connection == null) {
+      System.out.println("Error: cannot serve events on port " + getPort() + ". Calculations will continue.");
+    }
+  }
+
+  /**
+   * Sends what's queued, waiting up to CLOSE_TIMEOUT_MILLIS for it to go out, and stops the server.
+   */
+  public void close() throws InterruptedException {
+    synchronized (this) {
+      broadcastPendingProgress();
+    }
+    long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+    while (System.currentTimeMillis() < deadline && !allSent()) {
+      Thread.sleep(SEND_INTERVAL_MILLIS);
+    }
+    sender.shutdownNow();
+    stop((int) CLOSE_TIMEOUT_MILLIS);
+  }
+
+  // Called with this held.
+  private void broadcastPendingProgress() {
+    if (pendingProgress != null) {
+      broadcast(pendingProgress.toJson().toString());
+      pendingProgress = null;
+      lastProgressMillis = System.currentTimeMillis();
+    }
+  }
+
+  // Called with this held.
+  private void broadcast(String message) {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<WebSocket, Client> entry : clients.entrySet()) {
+      WebSocket connection = entry.getKey();
+      Client client = entry.getValue();
+      if (client.queue.offer(message)) {
+        continue;
+      }
+      if (client.backedUpSinceMillis != 0 && now - client.backedUpSinceMillis >= slowClientMillis) {
+        clients.remove(connection);
+        connection.close(CloseFrame.POLICY_VALIDATION, "Too slow to keep up with the events.");
+      } else {
+        // A burst rather than a slow client, which the connection's own buffer takes.
+        flush(connection, client);
+        client.queue.offer(message);
+      }
+    }
+  }
+
+  // Called with this held. Gives everything queued for client to its connection.
+  private static void flush(WebSocket connection, Client client) {
+    for (String message = client.queue.poll(); message != null; message = client.queue.poll()) {
+      if (connection.isOpen()) {
+        connection.send(message);
+      }
+    }
+  }
+
+  // Runs on the sender thread.
+  private void send() {
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      if (now - lastProgressMillis >= progressIntervalMillis) {
+        broadcastPendingProgress();
+      }
+      for (Map.Entry<WebSocket, Client> entry : clients.entrySet()) {
+        WebSocket connection = entry.getKey();
+        Client client = entry.getValue();
+        // The connection's own buffer is unbounded, so it only gets more once it has sent what it has.
+        if (connection.hasBufferedData()) {
+          if (client.backedUpSinceMillis == 0) {
+            client.backedUpSinceMillis = now;
+          }
+        } else {
+          client.backedUpSinceMillis = 0;
+          flush(connection, client);
+        }
+      }
+    }
+  }
+
+  private boolean allSent() {
+    for (Map.Entry<WebSocket, Client> entry : clients.entrySet()) {
+      if (entry.getKey().isOpen() && (!entry.getValue().queue.isEmpty() || entry.getKey().hasBufferedData())) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
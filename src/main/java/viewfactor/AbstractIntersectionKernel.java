@@ -0,0 +1,380 @@
+package viewfactor;
+
+import com.aparapi.Kernel;
+import com.aparapi.Range;
+import com.google.common.base.Preconditions;
+import com.google.inject.Provider;
+import events.EventManager;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * The host side of IntersectionKernel and FloatIntersectionKernel: building them, giving them geometry, and launching
+ * them one batch of emitters at a time. Aparapi translates run() and what it calls from the kernel class itself, so
+ * that and the geometry fields it reads are kept once per precision; everything else is here.
+ */
+public abstract class AbstractIntersectionKernel extends Kernel implements RangedEngine {
+
+  /**
+   * Builds kernels of type K. The subclasses, B, only add how a K is constructed.
+   */
+  public abstract static class Builder<K extends AbstractIntersectionKernel, B extends Builder<K, B>> {
+    private final Provider<Geometry> geometryProvider;
+    private final EventManager eventManager;
+
+    private Geometry emitters;
+    private Geometry receivers;
+    private Geometry interconnects;
+    private Configuration.OcclusionIndex occlusionIndex = Configuration.OcclusionIndex.BVH;
+    private int batchSize = 1;
+    private boolean reduceOnDevice;
+    private Configuration.Culling culling = Configuration.Culling.NONE;
+    private boolean upperTriangle;
+    private double refineDistance;
+    private int maxSubdivision = 1;
+
+    Builder(Provider<Geometry> geometryProvider, EventManager eventManager) {
+      this.geometryProvider = geometryProvider;
+      this.eventManager = eventManager;
+    }
+
+    B setEmitters(Geometry emitters) {
+      this.emitters = emitters;
+      return self();
+    }
+
+    B setInterconnects(Geometry interconnects) {
+      this.interconnects = interconnects;
+      return self();
+    }
+
+    B setReceivers(Geometry receivers) {
+      this.receivers = receivers;
+      return self();
+    }
+
+    B setOcclusionIndex(Configuration.OcclusionIndex occlusionIndex) {
+      this.occlusionIndex = occlusionIndex;
+      return self();
+    }
+
+    B setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return self();
+    }
+
+    B setReduceOnDevice(boolean reduceOnDevice) {
+      this.reduceOnDevice = reduceOnDevice;
+      return self();
+    }
+
+    B setCulling(Configuration.Culling culling) {
+      this.culling = culling;
+      return self();
+    }
+
+    /**
+     * Only computes pairs with receiverIndex > emitterIndex, leaving the rest of each row zero. For emitters and
+     * receivers that are the same surface; see ReciprocalRows.
+     */
+    B setUpperTriangle(boolean upperTriangle) {
+      this.upperTriangle = upperTriangle;
+      return self();
+    }
+
+    B setRefineDistance(double refineDistance) {
+      this.refineDistance = refineDistance;
+      return self();
+    }
+
+    B setMaxSubdivision(int maxSubdivision) {
+      this.maxSubdivision = maxSubdivision;
+      return self();
+    }
+
+    K build() {
+      return withGeometry(newKernel(
+          eventManager,
+          batchSize,
+          reduceOnDevice,
+          kernelOcclusionIndex(occlusionIndex),
+          refineDistance,
+          maxSubdivision));
+    }
+
+    /**
+     * Gives kernel, built earlier by a builder with the same settings, this builder's geometry in place of its own and
+     * returns it, so a --batch compiles one kernel rather than one per job. The kernel must not be running.
+     */
+    K rebind(K kernel) {
+      AbstractIntersectionKernel built = kernel;
+      Preconditions.checkArgument(
+          built.eventManager == eventManager
+              && built.batchSize == batchSize
+              && built.reduceOnDevice == reduceOnDevice
+              && built.occlusionIndex == kernelOcclusionIndex(occlusionIndex)
+              && built.refinesAt(refineDistance)
+              && built.maxSubdivision == maxSubdivision,
+          "Error: a kernel can only be given the geometry of a builder with the same settings.");
+      return withGeometry(kernel);
+    }
+
+    @SuppressWarnings("unchecked")
+    private B self() {
+      return (B) this;
+    }
+
+    // Constructs a kernel with these settings and no geometry yet.
+    abstract K newKernel(
+        EventManager eventManager,
+        int batchSize,
+        boolean reduceOnDevice,
+        int occlusionIndex,
+        double refineDistance,
+        int maxSubdivision);
+
+    // Builds what kernel needs of the geometry, the occlusion index among it, and hands it over.
+    private K withGeometry(K kernel) {
+      // Only the selected index is built; the others get placeholders so the kernel always has arrays to transfer.
+      BoundingVolumeHierarchy interconnectHierarchy = BoundingVolumeHierarchy.of(
+          occlusionIndex == Configuration.OcclusionIndex.BVH ? interconnects : geometryProvider.get().empty());
+      UniformGrid interconnectGrid = UniformGrid.of(
+          occlusionIndex == Configuration.OcclusionIndex.GRID ? interconnects : geometryProvider.get().empty());
+      // Indexed interconnects go over as their vertex pool and triangle indices, with placeholder corner arrays.
+      Geometry interconnectCorners = interconnects.isIndexed() ? geometryProvider.get().empty() : interconnects;
+      Geometry interconnectPool = interconnects.isIndexed() ? interconnects : geometryProvider.get().indexed().empty();
+
+      ((AbstractIntersectionKernel) kernel).setGeometry(
+          PairCuller.of(culling, upperTriangle, emitters, receivers, interconnects),
+          emitters,
+          interconnects,
+          interconnectCorners,
+          interconnectPool,
+          interconnectHierarchy,
+          interconnectGrid,
+          receivers);
+      return kernel;
+    }
+
+    private static int kernelOcclusionIndex(Configuration.OcclusionIndex occlusionIndex) {
+      switch (occlusionIndex) {
+        case BVH:
+          return OCCLUSION_BVH;
+        case GRID:
+          return OCCLUSION_GRID;
+        case BRUTE_FORCE:
+        default:
+          return OCCLUSION_BRUTE_FORCE;
+      }
+    }
+  }
+
+  // Aparapi can't use enums, so Configuration.OcclusionIndex is passed in as one of these.
+  static final int OCCLUSION_BRUTE_FORCE = 0;
+  static final int OCCLUSION_BVH = 1;
+  static final int OCCLUSION_GRID = 2;
+
+  @Constant final int occlusionIndex;
+  @Constant final int maxSubdivision;
+
+  // One row of receiverCount values per emitter in the current batch, or one sum per emitter if reducing.
+  double[] result;
+  // Index of the first emitter in the current batch.
+  int emitterOffset;
+  int receiverCount;
+
+  // Must be a power of two for the tree reduction.
+  static final int REDUCTION_GROUP_SIZE = 128;
+  @Constant final boolean reduceOnDevice;
+
+  // Pairs of the current batch that survived the PairCuller, as one run of receivers per emitter. pairRow is the
+  // emitter's row in the batch and rowPairOffset[row] the start of its run. Placeholders unless cullPairs is set.
+  private static final int CULLED_GROUP_SIZE = 64;
+  @Constant boolean cullPairs;
+  int[] pairRow = new int[1];
+  int[] pairReceiver = new int[1];
+  int[] rowPairOffset = new int[1];
+  int pairCount;
+  private PairCuller pairCuller;
+
+  // The emitters' areas in double whatever the kernel's precision, for the total calculate reports.
+  private double[] hostEmitterAreas;
+  // The emitters calculate computes. See setEmitterRange.
+  private int emitterStart;
+  private int emitterEnd;
+
+  private final EventManager eventManager;
+  private final int batchSize;
+  // Whether an earlier calculate has sent the geometry, which stays on the device until the kernel is disposed.
+  private boolean geometryOnDevice;
+
+  /**
+   * Constructor, used only by the subclasses' constructors, which the Builder calls before giving the kernel its
+   * geometry with setGeometry. The geometry fields aren't final so that a --batch can keep one compiled kernel and give
+   * it each job's geometry in turn, see Builder.rebind. Aparapi picks up the new arrays with the next transfer.
+   */
+  AbstractIntersectionKernel(
+      EventManager eventManager,
+      int batchSize,
+      boolean reduceOnDevice,
+      int occlusionIndex,
+      int maxSubdivision) {
+    this.eventManager = eventManager;
+    this.batchSize = batchSize;
+    this.reduceOnDevice = reduceOnDevice;
+    this.occlusionIndex = occlusionIndex;
+    this.maxSubdivision = maxSubdivision;
+  }
+
+  // Whether the kernel was built with refineDistance, as well as its precision holds it.
+  abstract boolean refinesAt(double refineDistance);
+
+  // Replaces the kernel's geometry fields with the given geometry, in the kernel's precision.
+  abstract void setGeometryArrays(
+      Geometry emitters,
+      Geometry interconnects,
+      Geometry interconnectCorners,
+      Geometry interconnectPool,
+      BoundingVolumeHierarchy interconnectHierarchy,
+      UniformGrid interconnectGrid,
+      Geometry receivers);
+
+  // Sends the kernel's geometry fields to the device.
+  abstract void putGeometryArrays();
+
+  // Sends what changes between calls to calculate on the same geometry, if the kernel has any.
+  void putPerCall() {}
+
+  // Used only by the Builder class. Replaces all of the geometry, and the pair culler that goes with it.
+  private void setGeometry(
+      PairCuller pairCuller,
+      Geometry emitters,
+      Geometry interconnects,
+      Geometry interconnectCorners,
+      Geometry interconnectPool,
+      BoundingVolumeHierarchy interconnectHierarchy,
+      UniformGrid interconnectGrid,
+      Geometry receivers) {
+    this.pairCuller = pairCuller;
+    this.cullPairs = pairCuller != null && pairCuller.isEnabled();
+    setGeometryArrays(
+        emitters,
+        interconnects,
+        interconnectCorners,
+        interconnectPool,
+        interconnectHierarchy,
+        interconnectGrid,
+        receivers);
+    receiverCount = receivers.size();
+    hostEmitterAreas = emitters.getArea();
+    geometryOnDevice = false;
+    emitterStart = 0;
+    emitterEnd = hostEmitterAreas.length;
+  }
+
+  @Override
+  public void setEmitterRange(int start, int end) {
+    Preconditions.checkPositionIndexes(start, end, hostEmitterAreas.length);
+    emitterStart = start;
+    emitterEnd = end;
+  }
+
+  /**
+   * Runs the kernel for each batch of emitter triangles, passing the view factor result of each triangle's dA
+   * incrementally back to resultConsumer. Calls completionHandler onComplete when the task is finished.
+   *
+   * Each launch covers batchSize emitters x all receivers as a 2D range, so launch and transfer overhead is paid once
+   * per batch rather than once per emitter.
+   *
+   * If reduceOnDevice is set, each emitter instead gets one work-group that sums over all receivers, and only that sum
+   * is read back and passed on, as a single element array.
+   *
+   * Only the emitters of the current range are computed, all of them unless a ShardWorker sets another.
+   *
+   * The geometry is only sent on the first call. Later calls, one per pose of a --poses sweep or per shard of a
+   * ShardWorker, just send what putPerCall does.
+   */
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+    eventManager.startBufferTransfer();
+    setExplicit(true);
+    int emitterCount = emitterEnd - emitterStart;
+    // Sized for all of the emitters rather than the range, so the buffers fit whatever range a later call gets.
+    int rows = Math.max(1, Math.min(batchSize, hostEmitterAreas.length));
+    if (!geometryOnDevice) {
+      putGeometry(rows);
+      geometryOnDevice = true;
+    }
+    putPerCall();
+
+    int rowLength = reduceOnDevice ? 1 : receiverCount;
+    boolean scatterPairs = cullPairs && !reduceOnDevice;
+    double[] row = rows == 1 && !scatterPairs ? result : new double[rowLength];
+
+    eventManager.finishBufferTransfer();
+    eventManager.startComputation();
+    for (emitterOffset = emitterStart; emitterOffset < emitterEnd; emitterOffset += rows) {
+      int batchRows = Math.min(rows, emitterEnd - emitterOffset);
+      if (cullPairs) {
+        compactPairs(batchRows);
+      }
+      if (reduceOnDevice) {
+        super.execute(Range.create2D(REDUCTION_GROUP_SIZE, batchRows, REDUCTION_GROUP_SIZE, 1));
+      } else if (!cullPairs) {
+        super.execute(Range.create2D(receiverCount, batchRows));
+      } else if (pairCount > 0) {
+        int groups = (pairCount + CULLED_GROUP_SIZE - 1) / CULLED_GROUP_SIZE;
+        super.execute(Range.create(groups * CULLED_GROUP_SIZE, CULLED_GROUP_SIZE));
+      }
+      eventManager.updateComputationProgress(emitterOffset - emitterStart, emitterCount);
+      get(result);
+      for (int batchRow = 0; batchRow < batchRows; batchRow++) {
+        if (scatterPairs) {
+          Arrays.fill(row, 0);
+          for (int pair = rowPairOffset[batchRow]; pair < rowPairOffset[batchRow + 1]; pair++) {
+            row[PairCuller.receiverOf(pairReceiver[pair])] = result[pair];
+          }
+        } else if (row != result) {
+          System.arraycopy(result, batchRow * rowLength, row, 0, rowLength);
+        }
+        resultConsumer.accept(row);
+      }
+    }
+    eventManager.updateComputationProgress(emitterCount, emitterCount);
+    eventManager.finishComputation(
+        completionHandler.onComplete() / sum(Arrays.copyOfRange(hostEmitterAreas, emitterStart, emitterEnd)));
+  }
+
+  // Sends the geometry and sizes the result and pair arrays for batches of rows emitters. All of it is reused by later
+  // calls to calculate.
+  private void putGeometry(int rows) {
+    putGeometryArrays();
+    result = new double[rows * (reduceOnDevice ? 1 : receiverCount)];
+    if (cullPairs) {
+      pairRow = new int[Math.max(1, rows * receiverCount)];
+      pairReceiver = new int[Math.max(1, rows * receiverCount)];
+      rowPairOffset = new int[rows + 1];
+    }
+  }
+
+  // Fills the pair lists for the emitters of the current batch and sends them to the device.
+  private void compactPairs(int batchRows) {
+    pairCount = 0;
+    for (int batchRow = 0; batchRow < batchRows; batchRow++) {
+      rowPairOffset[batchRow] = pairCount;
+      int count = pairCuller.cullRow(emitterOffset + batchRow, pairReceiver, pairCount);
+      Arrays.fill(pairRow, pairCount, pairCount + count, batchRow);
+      pairCount += count;
+    }
+    rowPairOffset[batchRows] = pairCount;
+    put(pairRow).put(pairReceiver).put(rowPairOffset);
+  }
+
+  private static double sum(double...values) {
+    double result = 0;
+    for (double value:values)
+      result += value;
+    return result;
+  }
+}
@@ -0,0 +1,89 @@
+package viewfactor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The jobs of a --batch run. A manifest is a text file with one job per line: the emitter, receiver and optionally
+ * interconnect STL files, separated by whitespace. Blank lines and lines starting with # are skipped. Relative paths
+ * are resolved against the manifest's directory, so a manifest can sit next to the meshes it lists.
+ */
+class BatchManifest {
+
+  /**
+   * One emitter, receiver and interconnect combination.
+   */
+  static final class Job {
+    private final File emitterFile;
+    private final File receiverFile;
+    private final File interconnectFile;
+
+    Job(File emitterFile, File receiverFile, File interconnectFile) {
+      this.emitterFile = emitterFile;
+      this.receiverFile = receiverFile;
+      this.interconnectFile = interconnectFile;
+    }
+
+    File getEmitterFile() {
+      return emitterFile;
+    }
+
+    File getReceiverFile() {
+      return receiverFile;
+    }
+
+    /**
+     * Null if the job has no interconnects.
+     */
+    File getInterconnectFile() {
+      return interconnectFile;
+    }
+
+    @Override
+    public String toString() {
+      return emitterFile + " " + receiverFile + (interconnectFile == null ? "" : " " + interconnectFile);
+    }
+  }
+
+  private final List<Job> jobs;
+
+  private BatchManifest(List<Job> jobs) {
+    this.jobs = jobs;
+  }
+
+  static BatchManifest read(Path manifest) throws IOException {
+    Path directory = manifest.toAbsolutePath().getParent();
+    List<Job> jobs = new ArrayList<>();
+    List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+    for (int lineIndex = 0; lineIndex < lines.size(); lineIndex++) {
+      String line = lines.get(lineIndex).trim();
+      if (line.isEmpty() || line.startsWith("#")) continue;
+
+      String[] files = line.split("\\s+");
+      if (files.length < 2 || files.length > 3) {
+        throw new IllegalArgumentException(String.format(
+            "Error: line %d of %s should list an emitter, a receiver and optionally an interconnect file.",
+            lineIndex + 1, manifest));
+      }
+      jobs.add(new Job(
+          resolve(directory, files[0]),
+          resolve(directory, files[1]),
+          files.length == 3 ? resolve(directory, files[2]) : null));
+    }
+    return new BatchManifest(Collections.unmodifiableList(jobs));
+  }
+
+  private static File resolve(Path directory, String file) {
+    return directory.resolve(file).normalize().toFile();
+  }
+
+  List<Job> getJobs() {
+    return jobs;
+  }
+}
@@ -0,0 +1,386 @@
+package viewfactor;
+
+/**
+ * Bounding volume hierarchy over the triangles of a Geometry, flattened into primitive arrays so the same structure
+ * can be walked by IntersectionKernel and on the CPU. A hierarchy can also be built over plain boxes, see ofBoxes,
+ * which then take the triangles' place.
+ *
+ * Nodes are stored in depth-first order: an internal node is immediately followed by its left subtree, then its right
+ * subtree. Each node also stores an escape index, the node to visit when its box is missed or its leaf is finished.
+ * That makes traversal a single loop with no recursion or stack, neither of which Aparapi supports.
+ */
+class BoundingVolumeHierarchy implements Occluders {
+
+  private static final int MAX_LEAF_SIZE = 4;
+
+  private final Geometry triangles;
+  // Six values per box, minimum x, y, z then maximum x, y, z, or null for a hierarchy over triangles.
+  private final double[] boxes;
+
+  private int nodeCount;
+  // Boxes are grown by this much so that rays grazing a box face, e.g. along a shared edge, still enter it.
+  private double padding;
+
+  private double[] minX;
+  private double[] minY;
+  private double[] minZ;
+  private double[] maxX;
+  private double[] maxY;
+  private double[] maxZ;
+
+  private int[] escapeIndex;
+  // Leaves reference a run of triangleIndex; internal nodes have a triangle count of zero.
+  private int[] firstTriangle;
+  private int[] triangleCount;
+  private int[] triangleIndex;
+
+  // Per-triangle bounds and centroids, only kept while building.
+  private double[][] triangleMin;
+  private double[][] triangleMax;
+  private double[][] triangleCentroid;
+
+  private BoundingVolumeHierarchy(Geometry triangles, double[] boxes) {
+    this.triangles = triangles;
+    this.boxes = boxes;
+  }
+
+  static BoundingVolumeHierarchy of(Geometry triangles) {
+    BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(triangles, null);
+    hierarchy.build();
+    return hierarchy;
+  }
+
+  /**
+   * A hierarchy over boxes, six values each (minimum x, y, z then maximum x, y, z), for segmentHitsBox and
+   * overlapsBox. The node boxes aren't padded, so the queries are exact.
+   */
+  static BoundingVolumeHierarchy ofBoxes(double[] boxes) {
+    BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(null, boxes);
+    hierarchy.build();
+    return hierarchy;
+  }
+
+  int getNodeCount() {
+    return nodeCount;
+  }
+
+  double[] getMinX() {
+    return minX;
+  }
+
+  double[] getMinY() {
+    return minY;
+  }
+
+  double[] getMinZ() {
+    return minZ;
+  }
+
+  double[] getMaxX() {
+    return maxX;
+  }
+
+  double[] getMaxY() {
+    return maxY;
+  }
+
+  double[] getMaxZ() {
+    return maxZ;
+  }
+
+  int[] getEscapeIndex() {
+    return escapeIndex;
+  }
+
+  int[] getFirstTriangle() {
+    return firstTriangle;
+  }
+
+  int[] getTriangleCount() {
+    return triangleCount;
+  }
+
+  int[] getTriangleIndex() {
+    return triangleIndex;
+  }
+
+  /**
+   * Whether any triangle blocks the segment from origin to origin + ray. Mirrors the traversal in IntersectionKernel.
+   */
+  @Override
+  public boolean isOccluded(double originX, double originY, double originZ, double rayX, double rayY, double rayZ) {
+    double inverseRayX = Intersections.inverseOf(rayX);
+    double inverseRayY = Intersections.inverseOf(rayY);
+    double inverseRayZ = Intersections.inverseOf(rayZ);
+
+    int node = 0;
+    while (node < nodeCount) {
+      if (!Intersections.segmentHitsBox(
+          originX, originY, originZ,
+          inverseRayX, inverseRayY, inverseRayZ,
+          minX[node], minY[node], minZ[node],
+          maxX[node], maxY[node], maxZ[node])) {
+        node = escapeIndex[node];
+      } else if (triangleCount[node] == 0) {
+        node++;
+      } else {
+        int end = firstTriangle[node] + triangleCount[node];
+        for (int slot = firstTriangle[node]; slot < end; slot++) {
+          double distance = Intersections.intersectionDistance(
+              triangles, triangleIndex[slot], originX, originY, originZ, rayX, rayY, rayZ);
+          if (Intersections.blocksSegment(distance)) {
+            return true;
+          }
+        }
+        node = escapeIndex[node];
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Index of the first triangle the segment from origin to origin + ray hits, or -1 if it hits none. The walk is the
+   * same as isOccluded's, except that the segment is cut back to each hit found so that farther boxes are skipped.
+   */
+  int firstHit(double originX, double originY, double originZ, double rayX, double rayY, double rayZ) {
+    int hit = -1;
+    double nearest = 1;
+    double inverseRayX = Intersections.inverseOf(rayX);
+    double inverseRayY = Intersections.inverseOf(rayY);
+    double inverseRayZ = Intersections.inverseOf(rayZ);
+
+    int node = 0;
+    while (node < nodeCount) {
+      if (!Intersections.segmentHitsBox(
+          originX, originY, originZ,
+          inverseRayX, inverseRayY, inverseRayZ,
+          minX[node], minY[node], minZ[node],
+          maxX[node], maxY[node], maxZ[node])) {
+        node = escapeIndex[node];
+      } else if (triangleCount[node] == 0) {
+        node++;
+      } else {
+        int end = firstTriangle[node] + triangleCount[node];
+        for (int slot = firstTriangle[node]; slot < end; slot++) {
+          double distance = Intersections.intersectionDistance(
+              triangles, triangleIndex[slot], originX, originY, originZ, rayX, rayY, rayZ);
+          if (distance > 0 && distance < nearest) {
+            hit = triangleIndex[slot];
+            nearest = distance;
+            inverseRayX = Intersections.inverseOf(rayX * nearest);
+            inverseRayY = Intersections.inverseOf(rayY * nearest);
+            inverseRayZ = Intersections.inverseOf(rayZ * nearest);
+          }
+        }
+        node = escapeIndex[node];
+      }
+    }
+    return hit;
+  }
+
+  /**
+   * Whether the segment from origin to origin + ray passes through any of ofBoxes' boxes.
+   */
+  boolean segmentHitsBox(double originX, double originY, double originZ, double rayX, double rayY, double rayZ) {
+    double inverseRayX = Intersections.inverseOf(rayX);
+    double inverseRayY = Intersections.inverseOf(rayY);
+    double inverseRayZ = Intersections.inverseOf(rayZ);
+
+    int node = 0;
+    while (node < nodeCount) {
+      if (!Intersections.segmentHitsBox(
+          originX, originY, originZ,
+          inverseRayX, inverseRayY, inverseRayZ,
+          minX[node], minY[node], minZ[node],
+          maxX[node], maxY[node], maxZ[node])) {
+        node = escapeIndex[node];
+      } else if (triangleCount[node] == 0) {
+        node++;
+      } else {
+        int end = firstTriangle[node] + triangleCount[node];
+        for (int slot = firstTriangle[node]; slot < end; slot++) {
+          int box = triangleIndex[slot] * 6;
+          if (Intersections.segmentHitsBox(
+              originX, originY, originZ,
+              inverseRayX, inverseRayY, inverseRayZ,
+              boxes[box], boxes[box + 1], boxes[box + 2],
+              boxes[box + 3], boxes[box + 4], boxes[box + 5])) {
+            return true;
+          }
+        }
+        node = escapeIndex[node];
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether any of ofBoxes' boxes overlaps other, given the same way.
+   */
+  boolean overlapsBox(double[] other) {
+    int node = 0;
+    while (node < nodeCount) {
+      if (other[0] > maxX[node] || other[1] > maxY[node] || other[2] > maxZ[node]
+          || other[3] < minX[node] || other[4] < minY[node] || other[5] < minZ[node]) {
+        node = escapeIndex[node];
+      } else if (triangleCount[node] == 0) {
+        node++;
+      } else {
+        int end = firstTriangle[node] + triangleCount[node];
+        for (int slot = firstTriangle[node]; slot < end; slot++) {
+          int box = triangleIndex[slot] * 6;
+          if (other[0] <= boxes[box + 3] && other[1] <= boxes[box + 4] && other[2] <= boxes[box + 5]
+              && other[3] >= boxes[box] && other[4] >= boxes[box + 1] && other[5] >= boxes[box + 2]) {
+            return true;
+          }
+        }
+        node = escapeIndex[node];
+      }
+    }
+    return false;
+  }
+
+  private void build() {
+    int size = triangles != null ? triangles.size() : boxes.length / 6;
+
+    // Aparapi can't transfer empty arrays, so always allocate at least one slot.
+    int capacity = Math.max(1, 2 * size - 1);
+    minX = new double[capacity];
+    minY = new double[capacity];
+    minZ = new double[capacity];
+    maxX = new double[capacity];
+    maxY = new double[capacity];
+    maxZ = new double[capacity];
+    escapeIndex = new int[capacity];
+    firstTriangle = new int[capacity];
+    triangleCount = new int[capacity];
+    triangleIndex = new int[Math.max(1, size)];
+
+    if (size == 0) {
+      nodeCount = 0;
+      return;
+    }
+
+    triangleMin = new double[3][size];
+    triangleMax = new double[3][size];
+    triangleCentroid = new double[3][size];
+    double[] lower = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] upper = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int index = 0; index < size; index++) {
+      triangleIndex[index] = index;
+      computeTriangleBounds(index);
+      for (int axis = 0; axis < 3; axis++) {
+        lower[axis] = Math.min(lower[axis], triangleMin[axis][index]);
+        upper[axis] = Math.max(upper[axis], triangleMax[axis][index]);
+      }
+    }
+    double largestExtent = Math.max(upper[0] - lower[0], Math.max(upper[1] - lower[1], upper[2] - lower[2]));
+    padding = boxes != null ? 0 : Math.max(largestExtent, 1) * 1e-6;
+
+    nodeCount = 0;
+    buildNode(0, size);
+
+    triangleMin = null;
+    triangleMax = null;
+    triangleCentroid = null;
+  }
+
+  private void computeTriangleBounds(int index) {
+    if (boxes != null) {
+      for (int axis = 0; axis < 3; axis++) {
+        triangleMin[axis][index] = boxes[index * 6 + axis];
+        triangleMax[axis][index] = boxes[index * 6 + 3 + axis];
+        triangleCentroid[axis][index] = (triangleMin[axis][index] + triangleMax[axis][index]) / 2;
+      }
+      return;
+    }
+    for (int axis = 0; axis < 3; axis++) {
+      double a = triangles.cornerOf(index, 0, axis);
+      double b = triangles.cornerOf(index, 1, axis);
+      double c = triangles.cornerOf(index, 2, axis);
+      triangleMin[axis][index] = Math.min(a, Math.min(b, c));
+      triangleMax[axis][index] = Math.max(a, Math.max(b, c));
+      triangleCentroid[axis][index] = (a + b + c) / 3;
+    }
+  }
+
+  /**
+   * Builds the subtree over triangleIndex[start, end) in depth-first order, splitting at the median centroid along the
+   * widest axis.
+   */
+  private void buildNode(int start, int end) {
+    int node = nodeCount++;
+
+    double[] lower = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] upper = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    double[] centroidLower = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] centroidUpper = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int slot = start; slot < end; slot++) {
+      int index = triangleIndex[slot];
+      for (int axis = 0; axis < 3; axis++) {
+        lower[axis] = Math.min(lower[axis], triangleMin[axis][index]);
+        upper[axis] = Math.max(upper[axis], triangleMax[axis][index]);
+        centroidLower[axis] = Math.min(centroidLower[axis], triangleCentroid[axis][index]);
+        centroidUpper[axis] = Math.max(centroidUpper[axis], triangleCentroid[axis][index]);
+      }
+    }
+    minX[node] = lower[0] - padding;
+    minY[node] = lower[1] - padding;
+    minZ[node] = lower[2] - padding;
+    maxX[node] = upper[0] + padding;
+    maxY[node] = upper[1] + padding;
+    maxZ[node] = upper[2] + padding;
+
+    int axis = 0;
+    for (int candidate = 1; candidate < 3; candidate++) {
+      if (centroidUpper[candidate] - centroidLower[candidate] > centroidUpper[axis] - centroidLower[axis]) {
+        axis = candidate;
+      }
+    }
+
+    // Small ranges, and ranges whose centroids coincide, can't be split usefully.
+    if (end - start <= MAX_LEAF_SIZE || centroidUpper[axis] == centroidLower[axis]) {
+      firstTriangle[node] = start;
+      triangleCount[node] = end - start;
+      escapeIndex[node] = nodeCount;
+      return;
+    }
+
+    int middle = (start + end) >>> 1;
+    selectNth(triangleCentroid[axis], start, end - 1, middle);
+
+    buildNode(start, middle);
+    buildNode(middle, end);
+    escapeIndex[node] = nodeCount;
+  }
+
+  /**
+   * Quickselect: partially orders triangleIndex[left, right] by key so that slot n holds the element that would be
+   * there if the range were sorted.
+   */
+  private void selectNth(double[] key, int left, int right, int n) {
+    while (left < right) {
+      double pivot = key[triangleIndex[(left + right) >>> 1]];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (key[triangleIndex[i]] < pivot) i++;
+        while (key[triangleIndex[j]] > pivot) j--;
+        if (i <= j) {
+          int swap = triangleIndex[i];
+          triangleIndex[i] = triangleIndex[j];
+          triangleIndex[j] = swap;
+          i++;
+          j--;
+        }
+      }
+      if (n <= j) {
+        right = j;
+      } else if (n >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package viewfactor;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import events.EventManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records how many emitters' rows a run has passed on and what they sum to, so --resume can skip them after a crash.
+ *
+ * The file is BYTES little-endian bytes: magic, version, a fingerprint of the geometry, the emitter count, the number
+ * of completed emitters and their partial sum. Rows only arrive in emitter order, so the completed emitters are always
+ * the first ones. Writes go to a temporary file that is then moved into place, so a crash mid-write leaves the previous
+ * checkpoint intact.
+ *
+ * Counting and summing happens on the engine's thread as rows arrive, which is no more than ThreadedAdder does. Files
+ * are written on a thread of their own, at most once per interval, and a checkpoint that comes due while the last one
+ * is still being written is skipped, so the engine never waits on the disk.
+ */
+class CheckpointWriter implements RowWriter {
+
+  static final int MAGIC = 0x56464350; // "VFCP"
+  static final int VERSION = 1;
+  static final int BYTES = 32;
+
+  /**
+   * What a checkpoint file says has been done.
+   */
+  static final class Progress {
+    private final int completedEmitters;
+    private final double partialSum;
+
+    Progress(int completedEmitters, double partialSum) {
+      this.completedEmitters = completedEmitters;
+      this.partialSum = partialSum;
+    }
+
+    int getCompletedEmitters() {
+      return completedEmitters;
+    }
+
+    double getPartialSum() {
+      return partialSum;
+    }
+  }
+
+  private final Path file;
+  private final long fingerprint;
+  private final int emitterCount;
+  private final long intervalNanos;
+  private final EventManager eventManager;
+  private final ExecutorService writer = Executors.newSingleThreadExecutor();
+  private final AtomicBoolean writing = new AtomicBoolean();
+
+  private int completedEmitters;
+  private double partialSum;
+  private long lastCheckpoint = System.nanoTime();
+
+  /**
+   * Continues from resumed, or from scratch if it's null.
+   */
+  CheckpointWriter(
+      Path file,
+      long fingerprint,
+      int emitterCount,
+      Progress resumed,
+      long intervalMillis,
+      EventManager eventManager) {
+    this.file = file;
+    this.fingerprint = fingerprint;
+    this.emitterCount = emitterCount;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.eventManager = eventManager;
+    if (resumed != null) {
+      completedEmitters = resumed.getCompletedEmitters();
+      partialSum = resumed.getPartialSum();
+    }
+  }
+
+  /**
+   * Identifies the job a checkpoint belongs to, from every facet of its geometry.
+   */
+  static long fingerprintOf(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (Geometry geometry : new Geometry[] {emitters, receivers, interconnects}) {
+      hasher.putInt(geometry.size());
+      for (int index = 0; index < geometry.size(); index++) {
+        hasher.putDouble(geometry.normalX(index)).putDouble(geometry.normalY(index)).putDouble(geometry.normalZ(index))
+            .putDouble(geometry.vertexAX(index)).putDouble(geometry.vertexAY(index)).putDouble(geometry.vertexAZ(index))
+            .putDouble(geometry.edgeBAX(index)).putDouble(geometry.edgeBAY(index)).putDouble(geometry.edgeBAZ(index))
+            .putDouble(geometry.edgeCAX(index)).putDouble(geometry.edgeCAY(index)).putDouble(geometry.edgeCAZ(index));
+      }
+    }
+    return hasher.hash().asLong();
+  }
+
+  /**
+   * The progress recorded in file, or null if there's no file yet. Throws IllegalArgumentException if it's from a
+   * different job or not a checkpoint.
+   */
+  static Progress read(Path file, long fingerprint, int emitterCount) throws IOException {
+    if (!Files.exists(file)) return null;
+    byte[] bytes = Files.readAllBytes(file);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    if (bytes.length != BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IllegalArgumentException("Error: " + file + " is not a checkpoint.");
+    }
+    if (buffer.getLong() != fingerprint || buffer.getInt() != emitterCount) {
+      throw new IllegalArgumentException("Error: checkpoint " + file + " is from a job with other geometry.");
+    }
+    int completedEmitters = buffer.getInt();
+    double partialSum = buffer.getDouble();
+    if (completedEmitters < 0 || completedEmitters > emitterCount) {
+      throw new IllegalArgumentException("Error: checkpoint " + file + " is corrupt.");
+    }
+    return new Progress(completedEmitters, partialSum);
+  }
+
+  @Override
+  public void accept(double[] row) {
+    completedEmitters++;
+    for (double value : row) {
+      partialSum += value;
+    }
+
+    long now = System.nanoTime();
+    if (now - lastCheckpoint >= intervalNanos && writing.compareAndSet(false, true)) {
+      lastCheckpoint = now;
+      int completed = completedEmitters;
+      double sum = partialSum;
+      writer.execute(() -> {
+        try {
+          write(completed, sum);
+        } catch (IOException e) {
+          eventManager.info("Could not write checkpoint " + file + ": " + e);
+        } finally {
+          writing.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Waits for a write in progress, then records every row passed on so far.
+   */
+  @Override
+  public void close() {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(1, TimeUnit.HOURS);
+      write(completedEmitters, partialSum);
+    } catch (IOException e) {
+      eventManager.info("Could not write checkpoint " + file + ": " + e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write(int completed, double sum) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putInt(emitterCount).putInt(completed).putDouble(sum);
+
+    Path directory = file.toAbsolutePath().getParent();
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temporary, buffer.array());
+      try {
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+}
@@ -0,0 +1,611 @@
+package viewfactor;
+
+import com.google.inject.Inject;
+
+import java.io.File;
+import java.net.URI;
+
+/**
+ * Run options, set from command line flags of the form --name=value.
+ */
+public class Configuration {
+
+  public enum Culling {
+    NONE,
+    EDGE_ON,
+    BACK_FACING
+  }
+
+  public enum Engine {
+    APARAPI,
+    FORK_JOIN,
+    HEMICUBE,
+    MONTE_CARLO
+  }
+
+  public enum OcclusionIndex {
+    BRUTE_FORCE,
+    BVH,
+    GRID
+  }
+
+  public enum Precision {
+    DOUBLE(Double.BYTES),
+    FLOAT(Float.BYTES);
+
+    private final int bytes;
+
+    Precision(int bytes) {
+      this.bytes = bytes;
+    }
+
+    int getBytes() {
+      return bytes;
+    }
+  }
+
+  private static final String FLAG_PREFIX = "--";
+  private static final String BATCH_FLAG = "batch";
+  private static final String BATCH_SIZE_FLAG = "batch-size";
+  private static final String CHECKPOINT_FLAG = "checkpoint";
+  private static final String CHECKPOINT_INTERVAL_FLAG = "checkpoint-interval";
+  private static final String COORDINATOR_PORT_FLAG = "coordinator";
+  private static final String CULLING_FLAG = "cull";
+  private static final String ENGINE_FLAG = "engine";
+  private static final String GEOMETRY_CACHE_FLAG = "geometry-cache";
+  private static final String HEMICUBE_RESOLUTION_FLAG = "hemicube-resolution";
+  private static final String INCREMENTAL_FLAG = "incremental";
+  private static final String INDEXED_MESH_FLAG = "indexed-mesh";
+  private static final String KERNEL_PRECISION_FLAG = "kernel-precision";
+  private static final String MATRIX_FILE_FLAG = "matrix";
+  private static final String MATRIX_PRECISION_FLAG = "matrix-precision";
+  private static final String MAX_SUBDIVISION_FLAG = "max-subdivision";
+  private static final String MONITOR_PORT_FLAG = "monitor";
+  private static final String MONTE_CARLO_MAX_SAMPLES_FLAG = "monte-carlo-max-samples";
+  private static final String MONTE_CARLO_SEED_FLAG = "monte-carlo-seed";
+  private static final String MONTE_CARLO_TOLERANCE_FLAG = "monte-carlo-tolerance";
+  private static final String OCCLUSION_INDEX_FLAG = "occlusion";
+  private static final String OFF_HEAP_GEOMETRY_FLAG = "off-heap-geometry";
+  private static final String POSES_FLAG = "poses";
+  private static final String REDUCE_ON_DEVICE_FLAG = "reduce-on-device";
+  private static final String REFINE_DISTANCE_FLAG = "refine";
+  private static final String RESUME_FLAG = "resume";
+  private static final String SAME_SURFACE_FLAG = "same-surface";
+  private static final String SHARD_SIZE_FLAG = "shard-size";
+  private static final String SHARD_TIMEOUT_FLAG = "shard-timeout";
+  private static final String SPARSE_MATRIX_FILE_FLAG = "sparse-matrix";
+  private static final String SPARSE_THRESHOLD_FLAG = "sparse-threshold";
+  private static final String THREADS_FLAG = "threads";
+  private static final String TILE_MEMORY_FLAG = "tile-memory";
+  private static final String VALIDATE_PRECISION_FLAG = "validate-precision";
+  private static final String WORKER_FLAG = "worker";
+
+  private File batchManifest = null;
+  private int batchSize = 1;
+  private File checkpointFile = null;
+  private long checkpointInterval = 60_000;
+  private int coordinatorPort = 0;
+  private Culling culling = Culling.NONE;
+  private Engine engine = Engine.APARAPI;
+  private File geometryCacheDirectory = null;
+  private int hemicubeResolution = 128;
+  private File incrementalStore = null;
+  private boolean indexedMesh = false;
+  private Precision kernelPrecision = Precision.DOUBLE;
+  private File matrixFile = null;
+  private Precision matrixPrecision = Precision.DOUBLE;
+  private int maxSubdivision = 8;
+  private int monitorPort = 0;
+  private long monteCarloMaxSamples = 1L << 26;
+  private long monteCarloSeed = 0;
+  private double monteCarloTolerance = 1e-3;
+  private OcclusionIndex occlusionIndex = OcclusionIndex.BVH;
+  private boolean offHeapGeometry = false;
+  private File poseFile = null;
+  private boolean reduceOnDevice = false;
+  private double refineDistance = 0;
+  private boolean resume = false;
+  private boolean sameSurface = false;
+  private int shardSize = 256;
+  private long shardTimeout = 30 * 60_000;
+  private File sparseMatrixFile = null;
+  private double sparseThreshold = 0;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private long tileMemory = 0;
+  private boolean validatePrecision = false;
+  private URI workerCoordinator = null;
+
+  @Inject
+  public Configuration() {}
+
+  public static boolean isFlag(String arg) {
+    return arg.startsWith(FLAG_PREFIX);
+  }
+
+  public Configuration parseFlag(String flag) {
+    String[] nameAndValue = flag.substring(FLAG_PREFIX.length()).split("=", 2);
+    String name = nameAndValue[0];
+    String value = nameAndValue.length == 2 ? nameAndValue[1] : "";
+
+    switch (name) {
+      case BATCH_FLAG:
+        return setBatchManifest(new File(value));
+      case BATCH_SIZE_FLAG:
+        return setBatchSize(Integer.parseInt(value));
+      case CHECKPOINT_FLAG:
+        return setCheckpointFile(new File(value));
+      case CHECKPOINT_INTERVAL_FLAG:
+        return setCheckpointInterval(Long.parseLong(value) * 1000);
+      case COORDINATOR_PORT_FLAG:
+        return setCoordinatorPort(Integer.parseInt(value));
+      case CULLING_FLAG:
+        return setCulling(enumValue(Culling.class, value));
+      case ENGINE_FLAG:
+        return setEngine(enumValue(Engine.class, value));
+      case GEOMETRY_CACHE_FLAG:
+        return setGeometryCacheDirectory(new File(value));
+      case HEMICUBE_RESOLUTION_FLAG:
+        return setHemicubeResolution(Integer.parseInt(value));
+      case INCREMENTAL_FLAG:
+        return setIncrementalStore(new File(value));
+      case INDEXED_MESH_FLAG:
+        return setIndexedMesh(booleanValue(value));
+      case KERNEL_PRECISION_FLAG:
+        return setKernelPrecision(enumValue(Precision.class, value));
+      case MATRIX_FILE_FLAG:
+        return setMatrixFile(new File(value));
+      case MATRIX_PRECISION_FLAG:
+        return setMatrixPrecision(enumValue(Precision.class, value));
+      case MAX_SUBDIVISION_FLAG:
+        return setMaxSubdivision(Integer.parseInt(value));
+      case MONITOR_PORT_FLAG:
+        return setMonitorPort(Integer.parseInt(value));
+      case MONTE_CARLO_MAX_SAMPLES_FLAG:
+        return setMonteCarloMaxSamples(Long.parseLong(value));
+      case MONTE_CARLO_SEED_FLAG:
+        return setMonteCarloSeed(Long.parseLong(value));
+      case MONTE_CARLO_TOLERANCE_FLAG:
+        return setMonteCarloTolerance(Double.parseDouble(value));
+      case OCCLUSION_INDEX_FLAG:
+        return setOcclusionIndex(enumValue(OcclusionIndex.class, value));
+      case OFF_HEAP_GEOMETRY_FLAG:
+        return setOffHeapGeometry(booleanValue(value));
+      case POSES_FLAG:
+        return setPoseFile(new File(value));
+      case REDUCE_ON_DEVICE_FLAG:
+        return setReduceOnDevice(booleanValue(value));
+      case REFINE_DISTANCE_FLAG:
+        return setRefineDistance(Double.parseDouble(value));
+      case RESUME_FLAG:
+        return setResume(booleanValue(value));
+      case SAME_SURFACE_FLAG:
+        return setSameSurface(booleanValue(value));
+      case SHARD_SIZE_FLAG:
+        return setShardSize(Integer.parseInt(value));
+      case SHARD_TIMEOUT_FLAG:
+        return setShardTimeout(Long.parseLong(value) * 1000);
+      case SPARSE_MATRIX_FILE_FLAG:
+        return setSparseMatrixFile(new File(value));
+      case SPARSE_THRESHOLD_FLAG:
+        return setSparseThreshold(Double.parseDouble(value));
+      case THREADS_FLAG:
+        return setThreads(Integer.parseInt(value));
+      case TILE_MEMORY_FLAG:
+        return setTileMemory(Long.parseLong(value) << 20);
+      case VALIDATE_PRECISION_FLAG:
+        return setValidatePrecision(booleanValue(value));
+      case WORKER_FLAG:
+        return setWorkerCoordinator(URI.create(value));
+      default:
+        throw new IllegalArgumentException("Error: unknown flag " + flag);
+    }
+  }
+
+  /**
+   * Job manifest to run instead of the files on the command line, see BatchManifest, or null.
+   */
+  public File getBatchManifest() {
+    return batchManifest;
+  }
+
+  Configuration setBatchManifest(File batchManifest) {
+    this.batchManifest = batchManifest;
+    return this;
+  }
+
+  int getBatchSize() {
+    return batchSize;
+  }
+
+  Configuration setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * File to record progress in, see CheckpointWriter, or null for none.
+   */
+  File getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  Configuration setCheckpointFile(File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+    return this;
+  }
+
+  /**
+   * Least time between checkpoints, in milliseconds. Given in seconds on the command line.
+   */
+  long getCheckpointInterval() {
+    return checkpointInterval;
+  }
+
+  Configuration setCheckpointInterval(long checkpointInterval) {
+    this.checkpointInterval = checkpointInterval;
+    return this;
+  }
+
+  /**
+   * Port to hand shards of the emitters out to --worker JVMs on, see ShardCoordinator, or 0 to compute locally.
+   */
+  int getCoordinatorPort() {
+    return coordinatorPort;
+  }
+
+  Configuration setCoordinatorPort(int coordinatorPort) {
+    this.coordinatorPort = coordinatorPort;
+    return this;
+  }
+
+  /**
+   * Which emitter/receiver pairs are dropped before the occlusion stage. See PairCuller.
+   */
+  Culling getCulling() {
+    return culling;
+  }
+
+  Configuration setCulling(Culling culling) {
+    this.culling = culling;
+    return this;
+  }
+
+  Engine getEngine() {
+    return engine;
+  }
+
+  Configuration setEngine(Engine engine) {
+    this.engine = engine;
+    return this;
+  }
+
+  /**
+   * Where to keep precomputed geometry between runs, or null to parse every time. See GeometryCache.
+   */
+  File getGeometryCacheDirectory() {
+    return geometryCacheDirectory;
+  }
+
+  Configuration setGeometryCacheDirectory(File geometryCacheDirectory) {
+    this.geometryCacheDirectory = geometryCacheDirectory;
+    return this;
+  }
+
+  /**
+   * Pixels along each edge of the hemicube engine's cube faces.
+   */
+  int getHemicubeResolution() {
+    return hemicubeResolution;
+  }
+
+  Configuration setHemicubeResolution(int hemicubeResolution) {
+    this.hemicubeResolution = hemicubeResolution;
+    return this;
+  }
+
+  /**
+   * Pair store of the previous run, see PairStore, to only recompute the pairs changed geometry can affect, or null.
+   * It's replaced by this run's store when done.
+   */
+  File getIncrementalStore() {
+    return incrementalStore;
+  }
+
+  Configuration setIncrementalStore(File incrementalStore) {
+    this.incrementalStore = incrementalStore;
+    return this;
+  }
+
+  /**
+   * Whether to load the interconnects as an indexed mesh, with shared vertices stored once. See Geometry.indexed().
+   */
+  boolean isIndexedMesh() {
+    return indexedMesh;
+  }
+
+  Configuration setIndexedMesh(boolean indexedMesh) {
+    this.indexedMesh = indexedMesh;
+    return this;
+  }
+
+  /**
+   * Whether the Aparapi engine runs FloatIntersectionKernel or the double precision IntersectionKernel.
+   */
+  Precision getKernelPrecision() {
+    return kernelPrecision;
+  }
+
+  Configuration setKernelPrecision(Precision kernelPrecision) {
+    this.kernelPrecision = kernelPrecision;
+    return this;
+  }
+
+  /**
+   * Where to write the full view factor matrix, or null for no matrix. See MatrixFileWriter for the format.
+   */
+  File getMatrixFile() {
+    return matrixFile;
+  }
+
+  Configuration setMatrixFile(File matrixFile) {
+    this.matrixFile = matrixFile;
+    return this;
+  }
+
+  /**
+   * Precision of the values in both the dense and the sparse matrix files.
+   */
+  Precision getMatrixPrecision() {
+    return matrixPrecision;
+  }
+
+  Configuration setMatrixPrecision(Precision matrixPrecision) {
+    this.matrixPrecision = matrixPrecision;
+    return this;
+  }
+
+  /**
+   * Most sub-triangles per edge a triangle is split into by --refine, so at most this squared per triangle.
+   */
+  int getMaxSubdivision() {
+    return maxSubdivision;
+  }
+
+  Configuration setMaxSubdivision(int maxSubdivision) {
+    this.maxSubdivision = maxSubdivision;
+    return this;
+  }
+
+  /**
+   * Port to stream events to dashboards on over a WebSocket, see WebSocketLogger, or 0 for none.
+   */
+  public int getMonitorPort() {
+    return monitorPort;
+  }
+
+  Configuration setMonitorPort(int monitorPort) {
+    this.monitorPort = monitorPort;
+    return this;
+  }
+
+  /**
+   * Most samples the Monte Carlo engine takes before stopping, whether or not it reached the tolerance.
+   */
+  long getMonteCarloMaxSamples() {
+    return monteCarloMaxSamples;
+  }
+
+  Configuration setMonteCarloMaxSamples(long monteCarloMaxSamples) {
+    this.monteCarloMaxSamples = monteCarloMaxSamples;
+    return this;
+  }
+
+  long getMonteCarloSeed() {
+    return monteCarloSeed;
+  }
+
+  Configuration setMonteCarloSeed(long monteCarloSeed) {
+    this.monteCarloSeed = monteCarloSeed;
+    return this;
+  }
+
+  /**
+   * The Monte Carlo engine stops once the 95% confidence interval of the view factor is within +/- this.
+   */
+  double getMonteCarloTolerance() {
+    return monteCarloTolerance;
+  }
+
+  Configuration setMonteCarloTolerance(double monteCarloTolerance) {
+    this.monteCarloTolerance = monteCarloTolerance;
+    return this;
+  }
+
+  OcclusionIndex getOcclusionIndex() {
+    return occlusionIndex;
+  }
+
+  Configuration setOcclusionIndex(OcclusionIndex occlusionIndex) {
+    this.occlusionIndex = occlusionIndex;
+    return this;
+  }
+
+  /**
+   * Whether to keep the meshes' per-facet arrays in memory-mapped files rather than on the heap. See
+   * Geometry.offHeap(); indexed interconnects stay indexed.
+   */
+  boolean isOffHeapGeometry() {
+    return offHeapGeometry;
+  }
+
+  Configuration setOffHeapGeometry(boolean offHeapGeometry) {
+    this.offHeapGeometry = offHeapGeometry;
+    return this;
+  }
+
+  /**
+   * File of rigid transforms to sweep the receivers through, one view factor per pose, or null. See Pose.read().
+   */
+  File getPoseFile() {
+    return poseFile;
+  }
+
+  Configuration setPoseFile(File poseFile) {
+    this.poseFile = poseFile;
+    return this;
+  }
+
+  boolean isReduceOnDevice() {
+    return reduceOnDevice;
+  }
+
+  Configuration setReduceOnDevice(boolean reduceOnDevice) {
+    this.reduceOnDevice = reduceOnDevice;
+    return this;
+  }
+
+  /**
+   * Pairs closer than this many triangle sizes apart are split into sub-triangles until each sub-triangle is at most
+   * 1 / refineDistance of the distance across. 0 turns refinement off, so every pair is taken at its centers.
+   */
+  double getRefineDistance() {
+    return refineDistance;
+  }
+
+  Configuration setRefineDistance(double refineDistance) {
+    this.refineDistance = refineDistance;
+    return this;
+  }
+
+  /**
+   * Whether to skip the emitters the --checkpoint file says are done, rather than start over.
+   */
+  boolean isResume() {
+    return resume;
+  }
+
+  Configuration setResume(boolean resume) {
+    this.resume = resume;
+    return this;
+  }
+
+  /**
+   * Treat the emitters and receivers as the same surface, triangle for triangle, and compute each pair only once.
+   * Identical emitter and receiver meshes are detected without this, except with matrix output or
+   * --validate-precision: those need full rows, and mirroring them holds about half the matrix on the heap.
+   */
+  boolean isSameSurface() {
+    return sameSurface;
+  }
+
+  Configuration setSameSurface(boolean sameSurface) {
+    this.sameSurface = sameSurface;
+    return this;
+  }
+
+  /**
+   * Emitters per shard a --coordinator hands out.
+   */
+  int getShardSize() {
+    return shardSize;
+  }
+
+  Configuration setShardSize(int shardSize) {
+    this.shardSize = shardSize;
+    return this;
+  }
+
+  /**
+   * Most time a --coordinator's worker gets for a shard before it's given to another, in milliseconds. Given in
+   * seconds on the command line.
+   */
+  long getShardTimeout() {
+    return shardTimeout;
+  }
+
+  Configuration setShardTimeout(long shardTimeout) {
+    this.shardTimeout = shardTimeout;
+    return this;
+  }
+
+  /**
+   * Where to write the view factor matrix in CSR form, or null for no sparse matrix. See SparseMatrixWriter.
+   */
+  File getSparseMatrixFile() {
+    return sparseMatrixFile;
+  }
+
+  Configuration setSparseMatrixFile(File sparseMatrixFile) {
+    this.sparseMatrixFile = sparseMatrixFile;
+    return this;
+  }
+
+  /**
+   * View factors smaller than this are left out of the sparse matrix. Zeros are always left out.
+   */
+  double getSparseThreshold() {
+    return sparseThreshold;
+  }
+
+  Configuration setSparseThreshold(double sparseThreshold) {
+    this.sparseThreshold = sparseThreshold;
+    return this;
+  }
+
+  int getThreads() {
+    return threads;
+  }
+
+  Configuration setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * Bytes of receivers, interconnects and results one run of the Aparapi kernel may hold, given in megabytes on the
+   * command line. Larger meshes are run in tiles, see TiledEngine. 0 runs everything at once.
+   */
+  long getTileMemory() {
+    return tileMemory;
+  }
+
+  Configuration setTileMemory(long tileMemory) {
+    this.tileMemory = tileMemory;
+    return this;
+  }
+
+  /**
+   * Whether to check every row against the double precision path and report the largest deviation.
+   */
+  boolean isValidatePrecision() {
+    return validatePrecision;
+  }
+
+  Configuration setValidatePrecision(boolean validatePrecision) {
+    this.validatePrecision = validatePrecision;
+    return this;
+  }
+
+  /**
+   * WebSocket URI of the --coordinator to compute shards for, e.g. ws://host:port, or null to run the job itself. See
+   * ShardWorker.
+   */
+  URI getWorkerCoordinator() {
+    return workerCoordinator;
+  }
+
+  Configuration setWorkerCoordinator(URI workerCoordinator) {
+    this.workerCoordinator = workerCoordinator;
+    return this;
+  }
+
+  // A bare --name counts as true.
+  private static boolean booleanValue(String value) {
+    return value.isEmpty() || Boolean.parseBoolean(value);
+  }
+
+  // Accepts enum names in any case, with dashes for underscores, e.g. brute-force.
+  private static <T extends Enum<T>> T enumValue(Class<T> type, String value) {
+    return Enum.valueOf(type, value.toUpperCase().replace('-', '_'));
+  }
+}
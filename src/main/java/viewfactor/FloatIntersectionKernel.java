@@ -0,0 +1,771 @@
+package viewfactor;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import events.EventManager;
+
+/**
+ * Single precision variant of IntersectionKernel. Geometry, occlusion indices, the occlusion test and the cosine terms
+ * are all float, which halves device memory and transfer size and runs at full speed on devices with slow doubles.
+ * Each pair's view factor is widened to double before it's stored or summed, so results still accumulate in double.
+ *
+ * Kernel code is kept line for line with IntersectionKernel; changes to one should be made to both.
+ * --validate-precision reports how far this kernel's results are from the double path.
+ */
+public class FloatIntersectionKernel extends AbstractIntersectionKernel {
+
+  public static class Builder extends AbstractIntersectionKernel.Builder<FloatIntersectionKernel, Builder> {
+    @Inject
+    public Builder(Provider<Geometry> geometryProvider, EventManager eventManager) {
+      super(geometryProvider, eventManager);
+    }
+
+    @Override
+    FloatIntersectionKernel newKernel(
+        EventManager eventManager,
+        int batchSize,
+        boolean reduceOnDevice,
+        int occlusionIndex,
+        double refineDistance,
+        int maxSubdivision) {
+      return new FloatIntersectionKernel(
+          eventManager, batchSize, reduceOnDevice, occlusionIndex, (float) refineDistance, maxSubdivision);
+    }
+  }
+
+  @Constant private static final float PARALLEL_EPSILON = 1e-8f;
+  @Constant private static final float INFINITE_SLAB = 1e30f;
+  @Constant private static final float PI = (float) Math.PI;
+
+  // Adaptive subdivision of close pairs. See subdivisionOf.
+  @Constant private static final float ONE_THIRD = 1f / 3;
+  @Constant private static final float TWO_THIRDS = 2f / 3;
+  @Constant private final float refineDistance;
+
+  @Constant private float[] emitterNormalX;
+  @Constant private float[] emitterNormalY;
+  @Constant private float[] emitterNormalZ;
+  @Constant private float[] emitterVertexAX;
+  @Constant private float[] emitterVertexAY;
+  @Constant private float[] emitterVertexAZ;
+  @Constant private float[] emitterEdgeBAX;
+  @Constant private float[] emitterEdgeBAY;
+  @Constant private float[] emitterEdgeBAZ;
+  @Constant private float[] emitterEdgeCAX;
+  @Constant private float[] emitterEdgeCAY;
+  @Constant private float[] emitterEdgeCAZ;
+  @Constant private float[] emitterCenterX;
+  @Constant private float[] emitterCenterY;
+  @Constant private float[] emitterCenterZ;
+  @Constant private float[] emitterAreas;
+
+  @Constant private int interconnectSize;
+  @Constant private float[] interconnectNormalX;
+  @Constant private float[] interconnectNormalY;
+  @Constant private float[] interconnectNormalZ;
+  @Constant private float[] interconnectVertexAX;
+  @Constant private float[] interconnectVertexAY;
+  @Constant private float[] interconnectVertexAZ;
+  @Constant private float[] interconnectEdgeBAX;
+  @Constant private float[] interconnectEdgeBAY;
+  @Constant private float[] interconnectEdgeBAZ;
+  @Constant private float[] interconnectEdgeCAX;
+  @Constant private float[] interconnectEdgeCAY;
+  @Constant private float[] interconnectEdgeCAZ;
+  // With indexedInterconnects the corners come from a welded vertex pool instead, see Geometry.indexed(), and the
+  // vertex and edge arrays above are placeholders.
+  @Constant private boolean indexedInterconnects;
+  @Constant private float[] interconnectPoolX;
+  @Constant private float[] interconnectPoolY;
+  @Constant private float[] interconnectPoolZ;
+  @Constant private int[] interconnectTriangleA;
+  @Constant private int[] interconnectTriangleB;
+  @Constant private int[] interconnectTriangleC;
+
+  // Flattened BoundingVolumeHierarchy over the interconnects. See that class for the layout.
+  @Constant private int bvhNodeCount;
+  @Constant private float[] bvhMinX;
+  @Constant private float[] bvhMinY;
+  @Constant private float[] bvhMinZ;
+  @Constant private float[] bvhMaxX;
+  @Constant private float[] bvhMaxY;
+  @Constant private float[] bvhMaxZ;
+  @Constant private int[] bvhEscapeIndex;
+  @Constant private int[] bvhFirstTriangle;
+  @Constant private int[] bvhTriangleCount;
+  @Constant private int[] bvhTriangleIndex;
+
+  // Flattened UniformGrid over the interconnects. See that class for the layout.
+  @Constant private int gridDimX;
+  @Constant private int gridDimY;
+  @Constant private int gridDimZ;
+  @Constant private float gridMinX;
+  @Constant private float gridMinY;
+  @Constant private float gridMinZ;
+  @Constant private float gridMaxX;
+  @Constant private float gridMaxY;
+  @Constant private float gridMaxZ;
+  @Constant private float gridCellSizeX;
+  @Constant private float gridCellSizeY;
+  @Constant private float gridCellSizeZ;
+  @Constant private int[] gridCellOffset;
+  @Constant private int[] gridTriangleIndex;
+
+  @Constant private float[] receiverNormalX;
+  @Constant private float[] receiverNormalY;
+  @Constant private float[] receiverNormalZ;
+  @Constant private float[] receiverVertexAX;
+  @Constant private float[] receiverVertexAY;
+  @Constant private float[] receiverVertexAZ;
+  @Constant private float[] receiverEdgeBAX;
+  @Constant private float[] receiverEdgeBAY;
+  @Constant private float[] receiverEdgeBAZ;
+  @Constant private float[] receiverEdgeCAX;
+  @Constant private float[] receiverEdgeCAY;
+  @Constant private float[] receiverEdgeCAZ;
+  @Constant private float[] receiverCenterX;
+  @Constant private float[] receiverCenterY;
+  @Constant private float[] receiverCenterZ;
+  @Constant private float[] receiverAreas;
+
+  @Local private final double[] localSums = new double[REDUCTION_GROUP_SIZE];
+
+  // Used only by the Builder class, see AbstractIntersectionKernel.
+  private FloatIntersectionKernel(
+      EventManager eventManager,
+      int batchSize,
+      boolean reduceOnDevice,
+      int occlusionIndex,
+      float refineDistance,
+      int maxSubdivision) {
+    super(eventManager, batchSize, reduceOnDevice, occlusionIndex, maxSubdivision);
+    this.refineDistance = refineDistance;
+  }
+
+  @Override
+  boolean refinesAt(double refineDistance) {
+    return this.refineDistance == (float) refineDistance;
+  }
+
+  @Override
+  void setGeometryArrays(
+      Geometry emitters,
+      Geometry interconnects,
+      Geometry interconnectCorners,
+      Geometry interconnectPool,
+      BoundingVolumeHierarchy interconnectHierarchy,
+      UniformGrid interconnectGrid,
+      Geometry receivers) {
+    this.emitterNormalX = floats(emitters.getNormalX());
+    this.emitterNormalY = floats(emitters.getNormalY());
+    this.emitterNormalZ = floats(emitters.getNormalZ());
+    this.emitterVertexAX = floats(emitters.getVertexAX());
+    this.emitterVertexAY = floats(emitters.getVertexAY());
+    this.emitterVertexAZ = floats(emitters.getVertexAZ());
+    this.emitterEdgeBAX = floats(emitters.getEdgeBAX());
+    this.emitterEdgeBAY = floats(emitters.getEdgeBAY());
+    this.emitterEdgeBAZ = floats(emitters.getEdgeBAZ());
+    this.emitterEdgeCAX = floats(emitters.getEdgeCAX());
+    this.emitterEdgeCAY = floats(emitters.getEdgeCAY());
+    this.emitterEdgeCAZ = floats(emitters.getEdgeCAZ());
+    this.emitterCenterX = floats(emitters.getCenterX());
+    this.emitterCenterY = floats(emitters.getCenterY());
+    this.emitterCenterZ = floats(emitters.getCenterZ());
+    this.emitterAreas = floats(emitters.getArea());
+
+    this.interconnectSize = interconnects.size();
+    this.interconnectNormalX = floats(interconnects.getNormalX());
+    this.interconnectNormalY = floats(interconnects.getNormalY());
+    this.interconnectNormalZ = floats(interconnects.getNormalZ());
+    this.interconnectVertexAX = floats(interconnectCorners.getVertexAX());
+    this.interconnectVertexAY = floats(interconnectCorners.getVertexAY());
+    this.interconnectVertexAZ = floats(interconnectCorners.getVertexAZ());
+    this.interconnectEdgeBAX = floats(interconnectCorners.getEdgeBAX());
+    this.interconnectEdgeBAY = floats(interconnectCorners.getEdgeBAY());
+    this.interconnectEdgeBAZ = floats(interconnectCorners.getEdgeBAZ());
+    this.interconnectEdgeCAX = floats(interconnectCorners.getEdgeCAX());
+    this.interconnectEdgeCAY = floats(interconnectCorners.getEdgeCAY());
+    this.interconnectEdgeCAZ = floats(interconnectCorners.getEdgeCAZ());
+    this.indexedInterconnects = interconnects.isIndexed();
+    this.interconnectPoolX = floats(interconnectPool.getPoolX());
+    this.interconnectPoolY = floats(interconnectPool.getPoolY());
+    this.interconnectPoolZ = floats(interconnectPool.getPoolZ());
+    this.interconnectTriangleA = interconnectPool.getTriangleA();
+    this.interconnectTriangleB = interconnectPool.getTriangleB();
+    this.interconnectTriangleC = interconnectPool.getTriangleC();
+
+    this.bvhNodeCount = interconnectHierarchy.getNodeCount();
+    this.bvhMinX = floatsBelow(interconnectHierarchy.getMinX());
+    this.bvhMinY = floatsBelow(interconnectHierarchy.getMinY());
+    this.bvhMinZ = floatsBelow(interconnectHierarchy.getMinZ());
+    this.bvhMaxX = floatsAbove(interconnectHierarchy.getMaxX());
+    this.bvhMaxY = floatsAbove(interconnectHierarchy.getMaxY());
+    this.bvhMaxZ = floatsAbove(interconnectHierarchy.getMaxZ());
+    this.bvhEscapeIndex = interconnectHierarchy.getEscapeIndex();
+    this.bvhFirstTriangle = interconnectHierarchy.getFirstTriangle();
+    this.bvhTriangleCount = interconnectHierarchy.getTriangleCount();
+    this.bvhTriangleIndex = interconnectHierarchy.getTriangleIndex();
+
+    this.gridDimX = interconnectGrid.getDimX();
+    this.gridDimY = interconnectGrid.getDimY();
+    this.gridDimZ = interconnectGrid.getDimZ();
+    this.gridMinX = floatBelow(interconnectGrid.getMinX());
+    this.gridMinY = floatBelow(interconnectGrid.getMinY());
+    this.gridMinZ = floatBelow(interconnectGrid.getMinZ());
+    this.gridMaxX = floatAbove(interconnectGrid.getMaxX());
+    this.gridMaxY = floatAbove(interconnectGrid.getMaxY());
+    this.gridMaxZ = floatAbove(interconnectGrid.getMaxZ());
+    this.gridCellSizeX = (float) interconnectGrid.getCellSizeX();
+    this.gridCellSizeY = (float) interconnectGrid.getCellSizeY();
+    this.gridCellSizeZ = (float) interconnectGrid.getCellSizeZ();
+    this.gridCellOffset = interconnectGrid.getCellOffset();
+    this.gridTriangleIndex = interconnectGrid.getTriangleIndex();
+
+    this.receiverNormalX = floats(receivers.getNormalX());
+    this.receiverNormalY = floats(receivers.getNormalY());
+    this.receiverNormalZ = floats(receivers.getNormalZ());
+    this.receiverVertexAX = floats(receivers.getVertexAX());
+    this.receiverVertexAY = floats(receivers.getVertexAY());
+    this.receiverVertexAZ = floats(receivers.getVertexAZ());
+    this.receiverEdgeBAX = floats(receivers.getEdgeBAX());
+    this.receiverEdgeBAY = floats(receivers.getEdgeBAY());
+    this.receiverEdgeBAZ = floats(receivers.getEdgeBAZ());
+    this.receiverEdgeCAX = floats(receivers.getEdgeCAX());
+    this.receiverEdgeCAY = floats(receivers.getEdgeCAY());
+    this.receiverEdgeCAZ = floats(receivers.getEdgeCAZ());
+    this.receiverCenterX = floats(receivers.getCenterX());
+    this.receiverCenterY = floats(receivers.getCenterY());
+    this.receiverCenterZ = floats(receivers.getCenterZ());
+    this.receiverAreas = floats(receivers.getArea());
+  }
+
+  @Override
+  void putGeometryArrays() {
+    put(emitterNormalX).put(emitterNormalY).put(emitterNormalZ);
+    put(emitterVertexAX).put(emitterVertexAY).put(emitterVertexAZ);
+    put(emitterEdgeBAX).put(emitterEdgeBAY).put(emitterEdgeBAZ);
+    put(emitterEdgeCAX).put(emitterEdgeCAY).put(emitterEdgeCAZ);
+    put(emitterCenterX).put(emitterCenterY).put(emitterCenterZ);
+    put(emitterAreas);
+
+    put(interconnectNormalX).put(interconnectNormalY).put(interconnectNormalZ);
+    put(interconnectVertexAX).put(interconnectVertexAY).put(interconnectVertexAZ);
+    put(interconnectEdgeBAX).put(interconnectEdgeBAY).put(interconnectEdgeBAZ);
+    put(interconnectEdgeCAX).put(interconnectEdgeCAY).put(interconnectEdgeCAZ);
+    put(interconnectPoolX).put(interconnectPoolY).put(interconnectPoolZ);
+    put(interconnectTriangleA).put(interconnectTriangleB).put(interconnectTriangleC);
+
+    put(bvhMinX).put(bvhMinY).put(bvhMinZ);
+    put(bvhMaxX).put(bvhMaxY).put(bvhMaxZ);
+    put(bvhEscapeIndex).put(bvhFirstTriangle).put(bvhTriangleCount).put(bvhTriangleIndex);
+
+    put(gridCellOffset).put(gridTriangleIndex);
+
+    put(receiverNormalX).put(receiverNormalY).put(receiverNormalZ);
+    put(receiverVertexAX).put(receiverVertexAY).put(receiverVertexAZ);
+    put(receiverEdgeBAX).put(receiverEdgeBAY).put(receiverEdgeBAZ);
+    put(receiverEdgeCAX).put(receiverEdgeCAY).put(receiverEdgeCAZ);
+    put(receiverCenterX).put(receiverCenterY).put(receiverCenterZ);
+    put(receiverAreas);
+  }
+
+  private static float[] floats(double[] values) {
+    float[] rounded = new float[values.length];
+    for (int index = 0; index < values.length; index++) {
+      rounded[index] = (float) values[index];
+    }
+    return rounded;
+  }
+
+  // Box bounds are rounded outwards, so a float box still contains everything its double box did.
+  private static float[] floatsBelow(double[] values) {
+    float[] rounded = new float[values.length];
+    for (int index = 0; index < values.length; index++) {
+      rounded[index] = floatBelow(values[index]);
+    }
+    return rounded;
+  }
+
+  private static float[] floatsAbove(double[] values) {
+    float[] rounded = new float[values.length];
+    for (int index = 0; index < values.length; index++) {
+      rounded[index] = floatAbove(values[index]);
+    }
+    return rounded;
+  }
+
+  private static float floatBelow(double value) {
+    float rounded = (float) value;
+    return rounded > value ? Math.nextDown(rounded) : rounded;
+  }
+
+  private static float floatAbove(double value) {
+    float rounded = (float) value;
+    return rounded < value ? Math.nextUp(rounded) : rounded;
+  }
+
+  /**
+   * Kernel code goes here. This is public, but don't call this!
+   */
+  @Override
+  public void run() {
+    if (reduceOnDevice) {
+      reduceEmitter();
+    } else if (cullPairs) {
+      int pair = getGlobalId(0);
+      if (pair < pairCount) {
+        result[pair] = culledPairViewFactor(emitterOffset + pairRow[pair], pairReceiver[pair]);
+      }
+    } else {
+      int receiverIndex = getGlobalId(0);
+      result[getGlobalId(1) * getGlobalSize(0) + receiverIndex] =
+          pairViewFactor(emitterOffset + getGlobalId(1), receiverIndex);
+    }
+  }
+
+  /**
+   * Sums the view factors of one emitter over all receivers. The work-group's items stride over the receivers, then
+   * combine their partial sums with a tree reduction in local memory.
+   */
+  private void reduceEmitter() {
+    int localId = getLocalId(0);
+    int localSize = getLocalSize(0);
+    int emitterIndex = emitterOffset + getGlobalId(1);
+
+    double sum = 0;
+    if (cullPairs) {
+      int end = rowPairOffset[getGlobalId(1) + 1];
+      for (int pair = rowPairOffset[getGlobalId(1)] + localId; pair < end; pair += localSize) {
+        sum += culledPairViewFactor(emitterIndex, pairReceiver[pair]);
+      }
+    } else {
+      for (int receiverIndex = localId; receiverIndex < receiverCount; receiverIndex += localSize) {
+        sum += pairViewFactor(emitterIndex, receiverIndex);
+      }
+    }
+    localSums[localId] = sum;
+    localBarrier();
+
+    for (int stride = localSize / 2; stride > 0; stride /= 2) {
+      if (localId < stride) {
+        localSums[localId] += localSums[localId + stride];
+      }
+      localBarrier();
+    }
+
+    if (localId == 0) {
+      result[getGlobalId(1)] = localSums[0];
+    }
+  }
+
+  private float pairViewFactor(int emitterIndex, int receiverIndex) {
+    return refinedViewFactor(emitterIndex, receiverIndex, true);
+  }
+
+  // Entry of a PairCuller pair list. Receivers it marked unoccludable skip the occlusion test.
+  private float culledPairViewFactor(int emitterIndex, int pairReceiverIndex) {
+    if (pairReceiverIndex < 0) {
+      return refinedViewFactor(emitterIndex, -1 - pairReceiverIndex, false);
+    }
+    return refinedViewFactor(emitterIndex, pairReceiverIndex, true);
+  }
+
+  /**
+   * View factor contribution of one pair. Distant pairs are treated as points at the triangle centers. Pairs that are
+   * close for their size are split into sub-triangles, each triangle by its own size, and summed over every pair of
+   * sub-triangles. Sub-triangle rays are always tested for occlusion, as they can pass where the center ray doesn't.
+   */
+  private float refinedViewFactor(int emitterIndex, int receiverIndex, boolean testOcclusion) {
+    // Calculate the ray from the emitter to the destination triangle.
+    float originX = emitterCenterX[emitterIndex];
+    float originY = emitterCenterY[emitterIndex];
+    float originZ = emitterCenterZ[emitterIndex];
+    float rayX = receiverCenterX[receiverIndex] - originX;
+    float rayY = receiverCenterY[receiverIndex] - originY;
+    float rayZ = receiverCenterZ[receiverIndex] - originZ;
+
+    float distance = magnitude(rayX, rayY, rayZ);
+    int emitterSubdivision = subdivisionOf(emitterAreas[emitterIndex], distance);
+    int receiverSubdivision = subdivisionOf(receiverAreas[receiverIndex], distance);
+
+    if (emitterSubdivision == 1 && receiverSubdivision == 1) {
+      // If intersecting geometry exists, the contributed view factor is zero.
+      if (testOcclusion && isOccluded(originX, originY, originZ, rayX, rayY, rayZ)) {
+        return 0;
+      }
+      return pointViewFactor(
+          emitterIndex, receiverIndex, rayX, rayY, rayZ, emitterAreas[emitterIndex], receiverAreas[receiverIndex]);
+    }
+
+    int emitterPatches = emitterSubdivision * emitterSubdivision;
+    int receiverPatches = receiverSubdivision * receiverSubdivision;
+    float emitterPatchArea = emitterAreas[emitterIndex] / emitterPatches;
+    float receiverPatchArea = receiverAreas[receiverIndex] / receiverPatches;
+    float sum = 0;
+    for (int emitterPatch = 0; emitterPatch < emitterPatches; emitterPatch++) {
+      float emitterU = patchU(emitterSubdivision, emitterPatch);
+      float emitterV = patchV(emitterSubdivision, emitterPatch);
+      float patchX = emitterVertexAX[emitterIndex]
+          + emitterU * emitterEdgeBAX[emitterIndex] + emitterV * emitterEdgeCAX[emitterIndex];
+      float patchY = emitterVertexAY[emitterIndex]
+          + emitterU * emitterEdgeBAY[emitterIndex] + emitterV * emitterEdgeCAY[emitterIndex];
+      float patchZ = emitterVertexAZ[emitterIndex]
+          + emitterU * emitterEdgeBAZ[emitterIndex] + emitterV * emitterEdgeCAZ[emitterIndex];
+
+      for (int receiverPatch = 0; receiverPatch < receiverPatches; receiverPatch++) {
+        float receiverU = patchU(receiverSubdivision, receiverPatch);
+        float receiverV = patchV(receiverSubdivision, receiverPatch);
+        float patchRayX = receiverVertexAX[receiverIndex]
+            + receiverU * receiverEdgeBAX[receiverIndex] + receiverV * receiverEdgeCAX[receiverIndex] - patchX;
+        float patchRayY = receiverVertexAY[receiverIndex]
+            + receiverU * receiverEdgeBAY[receiverIndex] + receiverV * receiverEdgeCAY[receiverIndex] - patchY;
+        float patchRayZ = receiverVertexAZ[receiverIndex]
+            + receiverU * receiverEdgeBAZ[receiverIndex] + receiverV * receiverEdgeCAZ[receiverIndex] - patchZ;
+
+        if (!isOccluded(patchX, patchY, patchZ, patchRayX, patchRayY, patchRayZ)) {
+          sum += pointViewFactor(
+              emitterIndex, receiverIndex, patchRayX, patchRayY, patchRayZ, emitterPatchArea, receiverPatchArea);
+        }
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Sub-triangles per edge for a triangle of the given area at the given distance: the smallest split, up to
+   * maxSubdivision, that makes the sub-triangles no bigger than distance / refineDistance. A triangle's size is taken
+   * as the side of a square of the same area. Always 1 if refineDistance is 0.
+   */
+  private int subdivisionOf(float area, float distance) {
+    float size = refineDistance * sqrt(area);
+    int subdivision = 1;
+    while (subdivision < maxSubdivision && subdivision * distance < size) {
+      subdivision++;
+    }
+    return subdivision;
+  }
+
+  // A triangle split into n x n sub-triangles has rows of 1, 3, 5, ... sub-triangles counting from corner B, with
+  // upright and inverted sub-triangles alternating along each row. patchU and patchV give the centroid of sub-triangle
+  // patch in that order, as multiples of edge BA and edge CA.
+  private float patchU(int subdivision, int patch) {
+    int row = patchRow(patch);
+    int offset = patch - row * row;
+    return (subdivision - 1 - row + ((offset & 1) == 0 ? ONE_THIRD : TWO_THIRDS)) / subdivision;
+  }
+
+  private float patchV(int subdivision, int patch) {
+    int row = patchRow(patch);
+    int offset = patch - row * row;
+    return (offset / 2 + ((offset & 1) == 0 ? ONE_THIRD : TWO_THIRDS)) / subdivision;
+  }
+
+  // Integer square root of patch.
+  private int patchRow(int patch) {
+    int row = (int) sqrt((float) patch);
+    if ((row + 1) * (row + 1) <= patch) row++;
+    if (row * row > patch) row--;
+    return row;
+  }
+
+  // cos(theta1) cos(theta2) dA1 dA2 / (pi r^2) for a ray between points on the two triangles.
+  private float pointViewFactor(
+      int emitterIndex,
+      int receiverIndex,
+      float rayX,
+      float rayY,
+      float rayZ,
+      float emitterArea,
+      float receiverArea) {
+    float rayMagnitude = magnitude(rayX, rayY, rayZ);
+
+    float emitterDenominator =
+        magnitude(
+            emitterNormalX[emitterIndex],
+            emitterNormalY[emitterIndex],
+            emitterNormalZ[emitterIndex]) * rayMagnitude;
+    float receiverDenominator =
+        magnitude(
+            receiverNormalX[receiverIndex],
+            receiverNormalY[receiverIndex],
+            receiverNormalZ[receiverIndex]) * rayMagnitude;
+
+    float emitterNormalDotRay =
+        emitterNormalX[emitterIndex] * rayX
+            + emitterNormalY[emitterIndex] * rayY
+            + emitterNormalZ[emitterIndex] * rayZ;
+    float receiverNormalDotRay =
+        receiverNormalX[receiverIndex] * rayX
+            + receiverNormalY[receiverIndex] * rayY
+            + receiverNormalZ[receiverIndex] * rayZ;
+
+    float cosThetaOne = emitterNormalDotRay / emitterDenominator;
+    float cosThetaTwo = receiverNormalDotRay / receiverDenominator;
+
+    // Facing away from the ray only flips the sign of a dot product, so the cosines are taken as magnitudes.
+    if (cosThetaOne < 0) cosThetaOne = -cosThetaOne;
+    if (cosThetaTwo < 0) cosThetaTwo = -cosThetaTwo;
+
+    return cosThetaOne * cosThetaTwo * emitterArea * receiverArea / (PI * rayMagnitude * rayMagnitude);
+  }
+
+  /**
+   * Whether any interconnect triangle lies between the origin and the end of the ray, using the index picked by
+   * occlusionIndex.
+   */
+  private boolean isOccluded(
+      float originX, float originY, float originZ, float rayX, float rayY, float rayZ) {
+    if (occlusionIndex == OCCLUSION_BVH) {
+      return isOccludedInHierarchy(originX, originY, originZ, rayX, rayY, rayZ);
+    } else if (occlusionIndex == OCCLUSION_GRID) {
+      return isOccludedInGrid(originX, originY, originZ, rayX, rayY, rayZ);
+    }
+
+    for (int interconnectIndex = 0; interconnectIndex < interconnectSize; interconnectIndex++) {
+      float intersectionDistance =
+          intersectionDistance(originX, originY, originZ, interconnectIndex, rayX, rayY, rayZ);
+      // Rays aren't normalized, so only hits strictly between the two centers block the ray.
+      if (intersectionDistance > 0 && intersectionDistance < 1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Same traversal as BoundingVolumeHierarchy.isOccluded.
+  private boolean isOccludedInHierarchy(
+      float originX, float originY, float originZ, float rayX, float rayY, float rayZ) {
+    float inverseRayX = inverseOf(rayX);
+    float inverseRayY = inverseOf(rayY);
+    float inverseRayZ = inverseOf(rayZ);
+
+    int node = 0;
+    while (node < bvhNodeCount) {
+      if (!segmentHitsBox(originX, originY, originZ, node, inverseRayX, inverseRayY, inverseRayZ)) {
+        node = bvhEscapeIndex[node];
+      } else if (bvhTriangleCount[node] == 0) {
+        node++;
+      } else {
+        int end = bvhFirstTriangle[node] + bvhTriangleCount[node];
+        for (int slot = bvhFirstTriangle[node]; slot < end; slot++) {
+          float intersectionDistance =
+              intersectionDistance(originX, originY, originZ, bvhTriangleIndex[slot], rayX, rayY, rayZ);
+          if (intersectionDistance > 0 && intersectionDistance < 1) {
+            return true;
+          }
+        }
+        node = bvhEscapeIndex[node];
+      }
+    }
+    return false;
+  }
+
+  // Same 3D-DDA walk as UniformGrid.isOccluded.
+  private boolean isOccludedInGrid(
+      float originX, float originY, float originZ, float rayX, float rayY, float rayZ) {
+    if (interconnectSize == 0) return false;
+
+    float inverseRayX = inverseOf(rayX);
+    float inverseRayY = inverseOf(rayY);
+    float inverseRayZ = inverseOf(rayZ);
+
+    // Clip the segment to the grid.
+    float tNear = 0;
+    float tFar = 1;
+    float t1 = (gridMinX - originX) * inverseRayX;
+    float t2 = (gridMaxX - originX) * inverseRayX;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+    t1 = (gridMinY - originY) * inverseRayY;
+    t2 = (gridMaxY - originY) * inverseRayY;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+    t1 = (gridMinZ - originZ) * inverseRayZ;
+    t2 = (gridMaxZ - originZ) * inverseRayZ;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+    if (tNear > tFar) return false;
+
+    int cellX = clampCell((int) ((originX + tNear * rayX - gridMinX) / gridCellSizeX), gridDimX);
+    int cellY = clampCell((int) ((originY + tNear * rayY - gridMinY) / gridCellSizeY), gridDimY);
+    int cellZ = clampCell((int) ((originZ + tNear * rayZ - gridMinZ) / gridCellSizeZ), gridDimZ);
+
+    int stepX = 0;
+    int stepY = 0;
+    int stepZ = 0;
+    float tMaxX = INFINITE_SLAB;
+    float tMaxY = INFINITE_SLAB;
+    float tMaxZ = INFINITE_SLAB;
+    if (rayX > 0) {
+      stepX = 1;
+      tMaxX = (gridMinX + (cellX + 1) * gridCellSizeX - originX) * inverseRayX;
+    } else if (rayX < 0) {
+      stepX = -1;
+      tMaxX = (gridMinX + cellX * gridCellSizeX - originX) * inverseRayX;
+    }
+    if (rayY > 0) {
+      stepY = 1;
+      tMaxY = (gridMinY + (cellY + 1) * gridCellSizeY - originY) * inverseRayY;
+    } else if (rayY < 0) {
+      stepY = -1;
+      tMaxY = (gridMinY + cellY * gridCellSizeY - originY) * inverseRayY;
+    }
+    if (rayZ > 0) {
+      stepZ = 1;
+      tMaxZ = (gridMinZ + (cellZ + 1) * gridCellSizeZ - originZ) * inverseRayZ;
+    } else if (rayZ < 0) {
+      stepZ = -1;
+      tMaxZ = (gridMinZ + cellZ * gridCellSizeZ - originZ) * inverseRayZ;
+    }
+    float tDeltaX = abs(gridCellSizeX * inverseRayX);
+    float tDeltaY = abs(gridCellSizeY * inverseRayY);
+    float tDeltaZ = abs(gridCellSizeZ * inverseRayZ);
+
+    boolean inGrid = true;
+    while (inGrid) {
+      int cell = cellX + gridDimX * (cellY + gridDimY * cellZ);
+      for (int slot = gridCellOffset[cell]; slot < gridCellOffset[cell + 1]; slot++) {
+        float intersectionDistance =
+            intersectionDistance(originX, originY, originZ, gridTriangleIndex[slot], rayX, rayY, rayZ);
+        if (intersectionDistance > 0 && intersectionDistance < 1) {
+          return true;
+        }
+      }
+
+      if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+        cellX += stepX;
+        inGrid = tMaxX <= tFar && cellX >= 0 && cellX < gridDimX;
+        tMaxX += tDeltaX;
+      } else if (tMaxY < tMaxZ) {
+        cellY += stepY;
+        inGrid = tMaxY <= tFar && cellY >= 0 && cellY < gridDimY;
+        tMaxY += tDeltaY;
+      } else {
+        cellZ += stepZ;
+        inGrid = tMaxZ <= tFar && cellZ >= 0 && cellZ < gridDimZ;
+        tMaxZ += tDeltaZ;
+      }
+    }
+    return false;
+  }
+
+  private int clampCell(int cell, int dim) {
+    int clamped = cell;
+    if (clamped < 0) clamped = 0;
+    if (clamped >= dim) clamped = dim - 1;
+    return clamped;
+  }
+
+  private float inverseOf(float rayComponent) {
+    return rayComponent == 0 ? INFINITE_SLAB : 1 / rayComponent;
+  }
+
+  // Slab test of the ray segment, t in [0, 1], against the bounds of a BVH node.
+  private boolean segmentHitsBox(
+      float originX,
+      float originY,
+      float originZ,
+      int node,
+      float inverseRayX,
+      float inverseRayY,
+      float inverseRayZ) {
+    float tNear = 0;
+    float tFar = 1;
+
+    float t1 = (bvhMinX[node] - originX) * inverseRayX;
+    float t2 = (bvhMaxX[node] - originX) * inverseRayX;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+
+    t1 = (bvhMinY[node] - originY) * inverseRayY;
+    t2 = (bvhMaxY[node] - originY) * inverseRayY;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+
+    t1 = (bvhMinZ[node] - originZ) * inverseRayZ;
+    t2 = (bvhMaxZ[node] - originZ) * inverseRayZ;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+
+    return tNear <= tFar;
+  }
+
+  // From https://en.wikipedia.org/wiki/M%C3%B6ller%E2%80%93Trumbore_intersection_algorithm
+  // Returns the distance along the ray in multiples of its length, or 0 if there's no intersection.
+  private float intersectionDistance(
+      float originX, float originY, float originZ, int interconnectIndex, float rayX, float rayY, float rayZ) {
+    float vertexAX;
+    float vertexAY;
+    float vertexAZ;
+    float edgeBAX;
+    float edgeBAY;
+    float edgeBAZ;
+    float edgeCAX;
+    float edgeCAY;
+    float edgeCAZ;
+    if (indexedInterconnects) {
+      int a = interconnectTriangleA[interconnectIndex];
+      int b = interconnectTriangleB[interconnectIndex];
+      int c = interconnectTriangleC[interconnectIndex];
+      vertexAX = interconnectPoolX[a];
+      vertexAY = interconnectPoolY[a];
+      vertexAZ = interconnectPoolZ[a];
+      edgeBAX = interconnectPoolX[b] - vertexAX;
+      edgeBAY = interconnectPoolY[b] - vertexAY;
+      edgeBAZ = interconnectPoolZ[b] - vertexAZ;
+      edgeCAX = interconnectPoolX[c] - vertexAX;
+      edgeCAY = interconnectPoolY[c] - vertexAY;
+      edgeCAZ = interconnectPoolZ[c] - vertexAZ;
+    } else {
+      vertexAX = interconnectVertexAX[interconnectIndex];
+      vertexAY = interconnectVertexAY[interconnectIndex];
+      vertexAZ = interconnectVertexAZ[interconnectIndex];
+      edgeBAX = interconnectEdgeBAX[interconnectIndex];
+      edgeBAY = interconnectEdgeBAY[interconnectIndex];
+      edgeBAZ = interconnectEdgeBAZ[interconnectIndex];
+      edgeCAX = interconnectEdgeCAX[interconnectIndex];
+      edgeCAY = interconnectEdgeCAY[interconnectIndex];
+      edgeCAZ = interconnectEdgeCAZ[interconnectIndex];
+    }
+
+    // pvec = cross product of ray and edge2.
+    float pvecX = rayY * edgeCAZ - rayZ * edgeCAY;
+    float pvecY = rayZ * edgeCAX - rayX * edgeCAZ;
+    float pvecZ = rayX * edgeCAY - rayY * edgeCAX;
+
+    // Dot product of edge1 and pvec.
+    float det = edgeBAX * pvecX + edgeBAY * pvecY + edgeBAZ * pvecZ;
+
+    // Ray is parallel to plane.
+    if (det < PARALLEL_EPSILON && det > -PARALLEL_EPSILON) return 0;
+
+    float invDet = 1 / det;
+
+    // tvec = ray from vertex A to the origin.
+    float tvecX = originX - vertexAX;
+    float tvecY = originY - vertexAY;
+    float tvecZ = originZ - vertexAZ;
+
+    // u = dot product of tvec and pvec * invDet.
+    float u = (tvecX * pvecX + tvecY * pvecY + tvecZ * pvecZ) * invDet;
+    if (u < 0 || u > 1) return 0;
+
+    // qvec = cross product of tvec and edge1.
+    float qvecX = tvecY * edgeBAZ - tvecZ * edgeBAY;
+    float qvecY = tvecZ * edgeBAX - tvecX * edgeBAZ;
+    float qvecZ = tvecX * edgeBAY - tvecY * edgeBAX;
+
+    // v = dot product of dir(ray) and qvec * invDet.
+    float v = (rayX * qvecX + rayY * qvecY + rayZ * qvecZ) * invDet;
+
+    if (v < 0 || u + v > 1) {
+      return 0;
+    } else {
+      return (edgeCAX * qvecX + edgeCAY * qvecY + edgeCAZ * qvecZ) * invDet;
+    }
+  }
+
+  private float magnitude(float a, float b, float c) {
+    return sqrt(a * a + b * b + c * c);
+  }
+}
@@ -0,0 +1,398 @@
+package viewfactor;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import events.EventManager;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Pure Java engine for machines without a GPU. Works directly on the Geometry arrays and computes the same per-pair
+ * view factors as IntersectionKernel.
+ *
+ * Emitters are processed in strips of rows. Each strip is split recursively into emitter x receiver tiles small
+ * enough that a tile's receiver data stays in cache while every emitter in the tile walks over it, and the tiles are
+ * run on a ForkJoinPool so idle workers steal from busy ones. Rows are handed to the consumer in emitter order once
+ * their strip is done.
+ *
+ * The receivers are read through the current Pose, the identity unless a --poses sweep sets another, and only the
+ * emitters of the current range are computed, all of them unless a ShardWorker sets another.
+ */
+class ForkJoinEngine implements PosedEngine, RangedEngine {
+
+  public static class Builder {
+    private final EventManager eventManager;
+
+    private Geometry emitters;
+    private Geometry receivers;
+    private Geometry interconnects;
+    private Configuration.OcclusionIndex occlusionIndex = Configuration.OcclusionIndex.BVH;
+    private Configuration.Culling culling = Configuration.Culling.NONE;
+    private boolean upperTriangle;
+    private double refineDistance;
+    private int maxSubdivision = 1;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    @Inject
+    public Builder(EventManager eventManager) {
+      this.eventManager = eventManager;
+    }
+
+    Builder setEmitters(Geometry emitters) {
+      this.emitters = emitters;
+      return this;
+    }
+
+    Builder setInterconnects(Geometry interconnects) {
+      this.interconnects = interconnects;
+      return this;
+    }
+
+    Builder setReceivers(Geometry receivers) {
+      this.receivers = receivers;
+      return this;
+    }
+
+    Builder setOcclusionIndex(Configuration.OcclusionIndex occlusionIndex) {
+      this.occlusionIndex = occlusionIndex;
+      return this;
+    }
+
+    Builder setCulling(Configuration.Culling culling) {
+      this.culling = culling;
+      return this;
+    }
+
+    /**
+     * Only computes pairs with receiverIndex > emitterIndex, leaving the rest of each row zero. For emitters and
+     * receivers that are the same surface; see ReciprocalRows.
+     */
+    Builder setUpperTriangle(boolean upperTriangle) {
+      this.upperTriangle = upperTriangle;
+      return this;
+    }
+
+    Builder setRefineDistance(double refineDistance) {
+      this.refineDistance = refineDistance;
+      return this;
+    }
+
+    Builder setMaxSubdivision(int maxSubdivision) {
+      this.maxSubdivision = maxSubdivision;
+      return this;
+    }
+
+    Builder setParallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    ForkJoinEngine build() {
+      return new ForkJoinEngine(
+          eventManager,
+          emitters,
+          receivers,
+          Occluders.of(interconnects, occlusionIndex),
+          PairCuller.of(culling, upperTriangle, emitters, receivers, interconnects),
+          refineDistance,
+          maxSubdivision,
+          parallelism);
+    }
+  }
+
+  private static final double PI = 3.141592653589793238462643383279502884197169399375105820974944592307816406286d;
+
+  // Tiles are at most this many emitters by receivers. 512 receivers is 512 * 8 doubles = 32KB of receiver data.
+  private static final int TILE_EMITTERS = 16;
+  private static final int TILE_RECEIVERS = 512;
+  // Upper bounds on the rows held per strip, in rows and in total doubles.
+  private static final int MAX_STRIP_ROWS = 256;
+  private static final int MAX_STRIP_DOUBLES = 1 << 22;
+
+  private final EventManager eventManager;
+  private final Geometry emitters;
+  private final Geometry receivers;
+  private final Occluders interconnects;
+  private final PairCuller pairCuller;
+  private final double refineDistance;
+  private final int maxSubdivision;
+  private final int parallelism;
+
+  private Pose receiverPose = Pose.IDENTITY;
+  private int emitterStart;
+  private int emitterEnd;
+
+  private ForkJoinEngine(
+      EventManager eventManager,
+      Geometry emitters,
+      Geometry receivers,
+      Occluders interconnects,
+      PairCuller pairCuller,
+      double refineDistance,
+      int maxSubdivision,
+      int parallelism) {
+    this.eventManager = eventManager;
+    this.emitters = emitters;
+    this.receivers = receivers;
+    this.interconnects = interconnects;
+    this.pairCuller = pairCuller;
+    this.refineDistance = refineDistance;
+    this.maxSubdivision = maxSubdivision;
+    this.parallelism = parallelism;
+    this.emitterEnd = emitters.size();
+  }
+
+  @Override
+  public void setReceiverPose(Pose receiverPose) {
+    this.receiverPose = receiverPose;
+  }
+
+  @Override
+  public void setEmitterRange(int start, int end) {
+    Preconditions.checkPositionIndexes(start, end, emitters.size());
+    this.emitterStart = start;
+    this.emitterEnd = end;
+  }
+
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+    // Nothing to transfer, but the event sequence is shared with the GPU engine.
+    eventManager.startBufferTransfer();
+    eventManager.finishBufferTransfer();
+
+    int emitterCount = emitterEnd - emitterStart;
+    int receiverCount = receivers.size();
+    int stripRows = Math.max(1, Math.min(MAX_STRIP_ROWS, MAX_STRIP_DOUBLES / Math.max(1, receiverCount)));
+    double[][] strip = new double[stripRows][receiverCount];
+
+    eventManager.startComputation();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      for (int stripStart = emitterStart; stripStart < emitterEnd; stripStart += stripRows) {
+        int stripEnd = Math.min(emitterEnd, stripStart + stripRows);
+        pool.invoke(new Tile(strip, stripStart, stripStart, stripEnd, 0, receiverCount));
+        for (int emitterIndex = stripStart; emitterIndex < stripEnd; emitterIndex++) {
+          resultConsumer.accept(strip[emitterIndex - stripStart]);
+        }
+        eventManager.updateComputationProgress(stripEnd - emitterStart, emitterCount);
+      }
+    } finally {
+      pool.shutdown();
+    }
+    eventManager.finishComputation(completionHandler.onComplete() / rangeArea());
+  }
+
+  // The area of the emitters in the current range.
+  private double rangeArea() {
+    double result = 0;
+    for (int emitterIndex = emitterStart; emitterIndex < emitterEnd; emitterIndex++)
+      result += emitters.area(emitterIndex);
+    return result;
+  }
+
+  /**
+   * View factor contribution of one emitter/receiver pair, computed at the triangle centers or, for close pairs, over
+   * sub-triangles. Same math as IntersectionKernel.run().
+   */
+  double pairViewFactor(int emitterIndex, int receiverIndex) {
+    return refinedViewFactor(emitterIndex, receiverIndex, true);
+  }
+
+  // pairViewFactor, skipping pairs the PairCuller drops and the occlusion test for pairs it says can't be occluded.
+  private double culledPairViewFactor(int emitterIndex, int receiverIndex) {
+    if (!pairCuller.isEnabled()) return pairViewFactor(emitterIndex, receiverIndex);
+    if (pairCuller.isCulled(emitterIndex, receiverIndex)) return 0;
+    return refinedViewFactor(emitterIndex, receiverIndex, pairCuller.mayBeOccluded(emitterIndex, receiverIndex));
+  }
+
+  // See IntersectionKernel.refinedViewFactor.
+  private double refinedViewFactor(int emitterIndex, int receiverIndex, boolean testOcclusion) {
+    double emitterX = emitters.centerX(emitterIndex);
+    double emitterY = emitters.centerY(emitterIndex);
+    double emitterZ = emitters.centerZ(emitterIndex);
+
+    double receiverX = receivers.centerX(receiverIndex);
+    double receiverY = receivers.centerY(receiverIndex);
+    double receiverZ = receivers.centerZ(receiverIndex);
+    double rayX = receiverPose.pointX(receiverX, receiverY, receiverZ) - emitterX;
+    double rayY = receiverPose.pointY(receiverX, receiverY, receiverZ) - emitterY;
+    double rayZ = receiverPose.pointZ(receiverX, receiverY, receiverZ) - emitterZ;
+
+    double distance = magnitude(rayX, rayY, rayZ);
+    double emitterArea = emitters.area(emitterIndex);
+    double receiverArea = receivers.area(receiverIndex);
+    int emitterSubdivision = subdivisionOf(emitterArea, distance);
+    int receiverSubdivision = subdivisionOf(receiverArea, distance);
+
+    if (emitterSubdivision == 1 && receiverSubdivision == 1) {
+      if (testOcclusion && interconnects.isOccluded(emitterX, emitterY, emitterZ, rayX, rayY, rayZ)) {
+        return 0;
+      }
+      return pointViewFactor(emitterIndex, receiverIndex, rayX, rayY, rayZ, emitterArea, receiverArea);
+    }
+
+    int emitterPatches = emitterSubdivision * emitterSubdivision;
+    int receiverPatches = receiverSubdivision * receiverSubdivision;
+    double emitterPatchArea = emitterArea / emitterPatches;
+    double receiverPatchArea = receiverArea / receiverPatches;
+    double vertexX = receivers.vertexAX(receiverIndex);
+    double vertexY = receivers.vertexAY(receiverIndex);
+    double vertexZ = receivers.vertexAZ(receiverIndex);
+    double edgeBX = receivers.edgeBAX(receiverIndex);
+    double edgeBY = receivers.edgeBAY(receiverIndex);
+    double edgeBZ = receivers.edgeBAZ(receiverIndex);
+    double edgeCX = receivers.edgeCAX(receiverIndex);
+    double edgeCY = receivers.edgeCAY(receiverIndex);
+    double edgeCZ = receivers.edgeCAZ(receiverIndex);
+    double receiverAX = receiverPose.pointX(vertexX, vertexY, vertexZ);
+    double receiverAY = receiverPose.pointY(vertexX, vertexY, vertexZ);
+    double receiverAZ = receiverPose.pointZ(vertexX, vertexY, vertexZ);
+    double receiverBAX = receiverPose.rotatedX(edgeBX, edgeBY, edgeBZ);
+    double receiverBAY = receiverPose.rotatedY(edgeBX, edgeBY, edgeBZ);
+    double receiverBAZ = receiverPose.rotatedZ(edgeBX, edgeBY, edgeBZ);
+    double receiverCAX = receiverPose.rotatedX(edgeCX, edgeCY, edgeCZ);
+    double receiverCAY = receiverPose.rotatedY(edgeCX, edgeCY, edgeCZ);
+    double receiverCAZ = receiverPose.rotatedZ(edgeCX, edgeCY, edgeCZ);
+    double sum = 0;
+    for (int emitterPatch = 0; emitterPatch < emitterPatches; emitterPatch++) {
+      double emitterU = patchU(emitterSubdivision, emitterPatch);
+      double emitterV = patchV(emitterSubdivision, emitterPatch);
+      double patchX = emitters.vertexAX(emitterIndex)
+          + emitterU * emitters.edgeBAX(emitterIndex) + emitterV * emitters.edgeCAX(emitterIndex);
+      double patchY = emitters.vertexAY(emitterIndex)
+          + emitterU * emitters.edgeBAY(emitterIndex) + emitterV * emitters.edgeCAY(emitterIndex);
+      double patchZ = emitters.vertexAZ(emitterIndex)
+          + emitterU * emitters.edgeBAZ(emitterIndex) + emitterV * emitters.edgeCAZ(emitterIndex);
+
+      for (int receiverPatch = 0; receiverPatch < receiverPatches; receiverPatch++) {
+        double receiverU = patchU(receiverSubdivision, receiverPatch);
+        double receiverV = patchV(receiverSubdivision, receiverPatch);
+        double patchRayX = receiverAX + receiverU * receiverBAX + receiverV * receiverCAX - patchX;
+        double patchRayY = receiverAY + receiverU * receiverBAY + receiverV * receiverCAY - patchY;
+        double patchRayZ = receiverAZ + receiverU * receiverBAZ + receiverV * receiverCAZ - patchZ;
+
+        if (!interconnects.isOccluded(patchX, patchY, patchZ, patchRayX, patchRayY, patchRayZ)) {
+          sum += pointViewFactor(
+              emitterIndex, receiverIndex, patchRayX, patchRayY, patchRayZ, emitterPatchArea, receiverPatchArea);
+        }
+      }
+    }
+    return sum;
+  }
+
+  private int subdivisionOf(double area, double distance) {
+    double size = refineDistance * Math.sqrt(area);
+    int subdivision = 1;
+    while (subdivision < maxSubdivision && subdivision * distance < size) {
+      subdivision++;
+    }
+    return subdivision;
+  }
+
+  // Barycentric centroid of a sub-triangle, in the order IntersectionKernel.patchU describes.
+  private static double patchU(int subdivision, int patch) {
+    int row = patchRow(patch);
+    int offset = patch - row * row;
+    return (subdivision - 1 - row + ((offset & 1) == 0 ? 1.0 / 3 : 2.0 / 3)) / subdivision;
+  }
+
+  private static double patchV(int subdivision, int patch) {
+    int row = patchRow(patch);
+    int offset = patch - row * row;
+    return (offset / 2 + ((offset & 1) == 0 ? 1.0 / 3 : 2.0 / 3)) / subdivision;
+  }
+
+  private static int patchRow(int patch) {
+    int row = (int) Math.sqrt(patch);
+    if ((row + 1) * (row + 1) <= patch) row++;
+    if (row * row > patch) row--;
+    return row;
+  }
+
+  private double pointViewFactor(
+      int emitterIndex,
+      int receiverIndex,
+      double rayX,
+      double rayY,
+      double rayZ,
+      double emitterArea,
+      double receiverArea) {
+    double rayMagnitude = magnitude(rayX, rayY, rayZ);
+
+    double emitterNormalX = emitters.normalX(emitterIndex);
+    double emitterNormalY = emitters.normalY(emitterIndex);
+    double emitterNormalZ = emitters.normalZ(emitterIndex);
+    double normalX = receivers.normalX(receiverIndex);
+    double normalY = receivers.normalY(receiverIndex);
+    double normalZ = receivers.normalZ(receiverIndex);
+    double receiverNormalX = receiverPose.rotatedX(normalX, normalY, normalZ);
+    double receiverNormalY = receiverPose.rotatedY(normalX, normalY, normalZ);
+    double receiverNormalZ = receiverPose.rotatedZ(normalX, normalY, normalZ);
+
+    double cosThetaOne = (emitterNormalX * rayX + emitterNormalY * rayY + emitterNormalZ * rayZ)
+        / (magnitude(emitterNormalX, emitterNormalY, emitterNormalZ) * rayMagnitude);
+    double cosThetaTwo = (receiverNormalX * rayX + receiverNormalY * rayY + receiverNormalZ * rayZ)
+        / (magnitude(receiverNormalX, receiverNormalY, receiverNormalZ) * rayMagnitude);
+
+    // See the TODO in IntersectionKernel.run() about the sign of these.
+    if (cosThetaOne < 0) cosThetaOne = -cosThetaOne;
+    if (cosThetaTwo < 0) cosThetaTwo = -cosThetaTwo;
+
+    return cosThetaOne * cosThetaTwo * emitterArea * receiverArea / (PI * rayMagnitude * rayMagnitude);
+  }
+
+  private static double magnitude(double a, double b, double c) {
+    return Math.sqrt(a * a + b * b + c * c);
+  }
+
+  /**
+   * Fills strip rows for emitters [emitterStart, emitterEnd) and receivers [receiverStart, receiverEnd), splitting the
+   * longer side in half until the tile is small enough to run directly.
+   */
+  private final class Tile extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final double[][] strip;
+    private final int stripStart;
+    private final int emitterStart;
+    private final int emitterEnd;
+    private final int receiverStart;
+    private final int receiverEnd;
+
+    private Tile(
+        double[][] strip, int stripStart, int emitterStart, int emitterEnd, int receiverStart, int receiverEnd) {
+      this.strip = strip;
+      this.stripStart = stripStart;
+      this.emitterStart = emitterStart;
+      this.emitterEnd = emitterEnd;
+      this.receiverStart = receiverStart;
+      this.receiverEnd = receiverEnd;
+    }
+
+    @Override
+    protected void compute() {
+      int emitterSpan = emitterEnd - emitterStart;
+      int receiverSpan = receiverEnd - receiverStart;
+      if (emitterSpan <= TILE_EMITTERS && receiverSpan <= TILE_RECEIVERS) {
+        for (int emitterIndex = emitterStart; emitterIndex < emitterEnd; emitterIndex++) {
+          double[] row = strip[emitterIndex - stripStart];
+          for (int receiverIndex = receiverStart; receiverIndex < receiverEnd; receiverIndex++) {
+            row[receiverIndex] = culledPairViewFactor(emitterIndex, receiverIndex);
+          }
+        }
+      } else if (receiverSpan * TILE_EMITTERS >= emitterSpan * TILE_RECEIVERS) {
+        int middle = (receiverStart + receiverEnd) >>> 1;
+        invokeAll(
+            new Tile(strip, stripStart, emitterStart, emitterEnd, receiverStart, middle),
+            new Tile(strip, stripStart, emitterStart, emitterEnd, middle, receiverEnd));
+      } else {
+        int middle = (emitterStart + emitterEnd) >>> 1;
+        invokeAll(
+            new Tile(strip, stripStart, emitterStart, middle, receiverStart, receiverEnd),
+            new Tile(strip, stripStart, middle, emitterEnd, receiverStart, receiverEnd));
+      }
+    }
+  }
+}
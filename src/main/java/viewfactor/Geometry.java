@@ -1,8 +1,14 @@
 package viewfactor;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.inject.Inject;
 import org.j3d.loaders.stl.STLFileReader;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
 public class Geometry {
@@ -15,6 +21,25 @@ public class Geometry {
   private static final int Y = 1;
   private static final int Z = 2;
 
+  // Column of each per-facet array in off-heap mode, in getColumns() order.
+  private static final int NORMAL_X = 0;
+  private static final int NORMAL_Y = 1;
+  private static final int NORMAL_Z = 2;
+  private static final int VERTEX_AX = 3;
+  private static final int VERTEX_AY = 4;
+  private static final int VERTEX_AZ = 5;
+  private static final int EDGE_BAX = 6;
+  private static final int EDGE_BAY = 7;
+  private static final int EDGE_BAZ = 8;
+  private static final int EDGE_CAX = 9;
+  private static final int EDGE_CAY = 10;
+  private static final int EDGE_CAZ = 11;
+  private static final int CENTER_X = 12;
+  private static final int CENTER_Y = 13;
+  private static final int CENTER_Z = 14;
+  private static final int AREA = 15;
+  private static final int COLUMNS = 16;
+
   // Loaded from specified file.
   private int size;
 
@@ -42,6 +67,26 @@ public class Geometry {
 
   private double[] area;
 
+  // Indexed mode, see indexed(). Corners are welded into a pool of distinct vertices that triangleA/B/C index into,
+  // and vertexA, the edges and the centers above are only computed if asked for.
+  private boolean indexed;
+  private int poolSize;
+  private double[] poolX;
+  private double[] poolY;
+  private double[] poolZ;
+  private int[] triangleA;
+  private int[] triangleB;
+  private int[] triangleC;
+  // Welds corners as setFacet stores them, until the mesh is complete.
+  private VertexPool vertexPool;
+  private volatile boolean cornersComputed = true;
+  private volatile boolean centersComputed = true;
+
+  // Off-heap mode, see offHeap(). The per-facet arrays above stay null and their values live in columns instead.
+  private boolean offHeap;
+  private OffHeapColumns offHeapColumns;
+  private DoubleBuffer[] columns;
+
   @Inject
   public Geometry() {}
 
@@ -49,31 +94,104 @@ public class Geometry {
     return size;
   }
 
+  /**
+   * Switches to an indexed mesh, for the next from() or empty(). An STL file repeats every shared vertex about six
+   * times; indexed, each distinct vertex is stored once and a triangle is three ints into that pool. Per triangle that
+   * leaves the normal, the area and the indices, instead of 16 doubles.
+   *
+   * Corners are welded as they're read, so parsing never holds the per-facet corners either, only the pool and its hash
+   * table on top of the final layout. That takes one thread, so an indexed ASCII file is parsed on one. Corners are
+   * welded only if they're bit-identical, so the pool reproduces every corner exactly. The getters for vertexA, the
+   * edges and the centers compute those arrays from the pool on first use. The Aparapi kernels read
+   * indexed interconnects from the pool instead, and BoundingVolumeHierarchy and UniformGrid go through cornerOf(), so
+   * on the default path the interconnects stay indexed throughout.
+   */
+  Geometry indexed() {
+    indexed = true;
+    return this;
+  }
+
+  boolean isIndexed() {
+    return indexed;
+  }
+
+  /**
+   * Switches to off-heap storage, for the next from() or empty() of a mesh that isn't indexed. The per-facet values
+   * go into memory-mapped columns, see OffHeapColumns, so a mesh of tens of millions of facets is bounded by RAM and
+   * disk rather than -Xmx, and the collector never scans or copies it.
+   *
+   * The CPU engines read through the scalar accessors such as centerX(index), which read the columns in place. The
+   * array getters copy a column onto the heap on every call: Aparapi only transfers Java arrays, so the kernel builders
+   * pay for one heap copy of what they upload, for as long as the kernel lives.
+   */
+  Geometry offHeap() {
+    offHeap = true;
+    return this;
+  }
+
+  boolean isOffHeap() {
+    return columns != null;
+  }
+
+  /**
+   * Unmaps an off-heap mesh's columns right away, see OffHeapColumns.release(), instead of leaving them for the
+   * collector. Nothing may read this geometry afterwards, or any engine still built on it. Does nothing for a mesh on
+   * the heap.
+   */
+  void release() {
+    if (offHeapColumns != null) {
+      columns = null;
+      offHeapColumns.release();
+      offHeapColumns = null;
+    }
+  }
+
   Geometry empty() {
     initWithSize(0);
+    if (indexed) finishPool();
     return this;
   }
 
   Geometry from(STLFileReader stlReader) {
     try {
       initFromStlFileReader(stlReader);
+      if (indexed) finishPool();
       return this;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
-  // From: https://math.stackexchange.com/questions/128991/how-to-calculate-area-of-3d-triangle
-  // TODO: tests.
-  private static double areaOf(double[][] triangle) {
-    double x1 = triangle[1][X] - triangle[0][X];
-    double x2 = triangle[1][Y] - triangle[0][Y];
-    double x3 = triangle[1][Z] - triangle[0][Z];
+  /**
+   * Initializes from a binary or ASCII STL file, see StlReader. Large ASCII files are parsed on up to parallelism
+   * threads.
+   */
+  Geometry from(Path stlFile, int parallelism) {
+    try {
+      StlReader.read(stlFile, this, parallelism);
+      if (indexed) finishPool();
+      return this;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 
-    double y1 = triangle[2][X] - triangle[0][X];
-    double y2 = triangle[2][Y] - triangle[0][Y];
-    double y3 = triangle[2][Z] - triangle[0][Z];
+  /**
+   * Initializes from raw facets, where facets[i] holds the three vertices of triangle i in A, B, C order.
+   */
+  @VisibleForTesting
+  Geometry from(double[][] normals, double[][][] facets) {
+    initWithSize(facets.length);
+    for (int index = 0; index < size; index++) {
+      setFacet(index, normals[index], facets[index]);
+    }
+    if (indexed) finishPool();
+    return this;
+  }
 
+  // From: https://math.stackexchange.com/questions/128991/how-to-calculate-area-of-3d-triangle
+  // TODO: tests.
+  private static double areaOf(double x1, double x2, double x3, double y1, double y2, double y3) {
     return .5 * Math.sqrt(
         (x2 * y3 - x3 * y2) * (x2 * y3 - x3 * y2)
             + (x3 * y1 - x1 * y3) * (x3 * y1 - x1 * y3)
@@ -81,67 +199,337 @@ public class Geometry {
   }
 
   double[] getNormalX() {
-    return normalX;
+    return columns == null ? normalX : copyOf(NORMAL_X);
   }
 
   double[] getNormalY() {
-    return normalY;
+    return columns == null ? normalY : copyOf(NORMAL_Y);
   }
 
   double[] getNormalZ() {
-    return normalZ;
+    return columns == null ? normalZ : copyOf(NORMAL_Z);
   }
 
   double[] getVertexAX() {
+    if (columns != null) return copyOf(VERTEX_AX);
+    if (!cornersComputed) computeCorners();
     return vertexAX;
   }
 
   double[] getVertexAY() {
+    if (columns != null) return copyOf(VERTEX_AY);
+    if (!cornersComputed) computeCorners();
     return vertexAY;
   }
 
   double[] getVertexAZ() {
+    if (columns != null) return copyOf(VERTEX_AZ);
+    if (!cornersComputed) computeCorners();
     return vertexAZ;
   }
 
   double[] getEdgeBAX() {
+    if (columns != null) return copyOf(EDGE_BAX);
+    if (!cornersComputed) computeCorners();
     return edgeBAX;
   }
 
   double[] getEdgeBAY() {
+    if (columns != null) return copyOf(EDGE_BAY);
+    if (!cornersComputed) computeCorners();
     return edgeBAY;
   }
 
   double[] getEdgeBAZ() {
+    if (columns != null) return copyOf(EDGE_BAZ);
+    if (!cornersComputed) computeCorners();
     return edgeBAZ;
   }
 
   double[] getEdgeCAX() {
+    if (columns != null) return copyOf(EDGE_CAX);
+    if (!cornersComputed) computeCorners();
     return edgeCAX;
   }
 
   double[] getEdgeCAY() {
+    if (columns != null) return copyOf(EDGE_CAY);
+    if (!cornersComputed) computeCorners();
     return edgeCAY;
   }
 
   double[] getEdgeCAZ() {
+    if (columns != null) return copyOf(EDGE_CAZ);
+    if (!cornersComputed) computeCorners();
     return edgeCAZ;
   }
 
   double[] getCenterX() {
+    if (columns != null) return copyOf(CENTER_X);
+    if (!centersComputed) computeCenters();
     return centerX;
   }
 
   double[] getCenterY() {
+    if (columns != null) return copyOf(CENTER_Y);
+    if (!centersComputed) computeCenters();
     return centerY;
   }
 
   double[] getCenterZ() {
+    if (columns != null) return copyOf(CENTER_Z);
+    if (!centersComputed) computeCenters();
     return centerZ;
   }
 
   double[] getArea() {
-    return area;
+    return columns == null ? area : copyOf(AREA);
+  }
+
+  /**
+   * Normal x of facet index, read in place whatever the storage. The CPU engines use these scalar accessors, so they
+   * run on off-heap and indexed meshes without materializing arrays.
+   */
+  double normalX(int index) {
+    return columns == null ? normalX[index] : columns[NORMAL_X].get(index);
+  }
+
+  double normalY(int index) {
+    return columns == null ? normalY[index] : columns[NORMAL_Y].get(index);
+  }
+
+  double normalZ(int index) {
+    return columns == null ? normalZ[index] : columns[NORMAL_Z].get(index);
+  }
+
+  double vertexAX(int index) {
+    if (columns != null) return columns[VERTEX_AX].get(index);
+    return indexed ? poolX[triangleA[index]] : vertexAX[index];
+  }
+
+  double vertexAY(int index) {
+    if (columns != null) return columns[VERTEX_AY].get(index);
+    return indexed ? poolY[triangleA[index]] : vertexAY[index];
+  }
+
+  double vertexAZ(int index) {
+    if (columns != null) return columns[VERTEX_AZ].get(index);
+    return indexed ? poolZ[triangleA[index]] : vertexAZ[index];
+  }
+
+  double edgeBAX(int index) {
+    if (columns != null) return columns[EDGE_BAX].get(index);
+    return indexed ? poolX[triangleB[index]] - poolX[triangleA[index]] : edgeBAX[index];
+  }
+
+  double edgeBAY(int index) {
+    if (columns != null) return columns[EDGE_BAY].get(index);
+    return indexed ? poolY[triangleB[index]] - poolY[triangleA[index]] : edgeBAY[index];
+  }
+
+  double edgeBAZ(int index) {
+    if (columns != null) return columns[EDGE_BAZ].get(index);
+    return indexed ? poolZ[triangleB[index]] - poolZ[triangleA[index]] : edgeBAZ[index];
+  }
+
+  double edgeCAX(int index) {
+    if (columns != null) return columns[EDGE_CAX].get(index);
+    return indexed ? poolX[triangleC[index]] - poolX[triangleA[index]] : edgeCAX[index];
+  }
+
+  double edgeCAY(int index) {
+    if (columns != null) return columns[EDGE_CAY].get(index);
+    return indexed ? poolY[triangleC[index]] - poolY[triangleA[index]] : edgeCAY[index];
+  }
+
+  double edgeCAZ(int index) {
+    if (columns != null) return columns[EDGE_CAZ].get(index);
+    return indexed ? poolZ[triangleC[index]] - poolZ[triangleA[index]] : edgeCAZ[index];
+  }
+
+  double centerX(int index) {
+    if (columns != null) return columns[CENTER_X].get(index);
+    if (indexed) {
+      return (poolX[triangleA[index]] + poolX[triangleB[index]] + poolX[triangleC[index]]) / 3;
+    }
+    return centerX[index];
+  }
+
+  double centerY(int index) {
+    if (columns != null) return columns[CENTER_Y].get(index);
+    if (indexed) {
+      return (poolY[triangleA[index]] + poolY[triangleB[index]] + poolY[triangleC[index]]) / 3;
+    }
+    return centerY[index];
+  }
+
+  double centerZ(int index) {
+    if (columns != null) return columns[CENTER_Z].get(index);
+    if (indexed) {
+      return (poolZ[triangleA[index]] + poolZ[triangleB[index]] + poolZ[triangleC[index]]) / 3;
+    }
+    return centerZ[index];
+  }
+
+  double area(int index) {
+    return columns == null ? area[index] : columns[AREA].get(index);
+  }
+
+  /**
+   * Distinct vertices of an indexed mesh, at least one slot even if empty. See indexed().
+   */
+  int getPoolSize() {
+    return poolSize;
+  }
+
+  double[] getPoolX() {
+    return poolX;
+  }
+
+  double[] getPoolY() {
+    return poolY;
+  }
+
+  double[] getPoolZ() {
+    return poolZ;
+  }
+
+  /**
+   * Pool index of corner A of each triangle of an indexed mesh. See indexed().
+   */
+  int[] getTriangleA() {
+    return triangleA;
+  }
+
+  int[] getTriangleB() {
+    return triangleB;
+  }
+
+  int[] getTriangleC() {
+    return triangleC;
+  }
+
+  /**
+   * Coordinate axis (0 to 2 for x to z) of corner (0 to 2 for A to C) of triangle index, without computing any arrays
+   * an indexed mesh doesn't hold.
+   */
+  double cornerOf(int index, int corner, int axis) {
+    if (indexed) {
+      int vertex = corner == A ? triangleA[index] : corner == B ? triangleB[index] : triangleC[index];
+      return axis == X ? poolX[vertex] : axis == Y ? poolY[vertex] : poolZ[vertex];
+    }
+    double vertexA = axis == X ? vertexAX(index) : axis == Y ? vertexAY(index) : vertexAZ(index);
+    if (corner == A) return vertexA;
+    if (corner == B) return vertexA + (axis == X ? edgeBAX(index) : axis == Y ? edgeBAY(index) : edgeBAZ(index));
+    return vertexA + (axis == X ? edgeCAX(index) : axis == Y ? edgeCAY(index) : edgeCAZ(index));
+  }
+
+  /**
+   * Every per-facet column, in a fixed order, for code that stores or restores them as a whole. Each holds at least
+   * size() values and is a view, so writes go through to this geometry. For an indexed mesh that's the normals and the
+   * area, the rest being the pool and the indices.
+   */
+  DoubleBuffer[] getColumns() {
+    if (columns != null) {
+      DoubleBuffer[] views = new DoubleBuffer[COLUMNS];
+      for (int column = 0; column < COLUMNS; column++) {
+        views[column] = columns[column].duplicate();
+      }
+      return views;
+    }
+    double[][] arrays = indexed
+        ? new double[][] {normalX, normalY, normalZ, area}
+        : new double[][] {
+            normalX, normalY, normalZ,
+            vertexAX, vertexAY, vertexAZ,
+            edgeBAX, edgeBAY, edgeBAZ,
+            edgeCAX, edgeCAY, edgeCAZ,
+            centerX, centerY, centerZ,
+            area,
+        };
+    DoubleBuffer[] views = new DoubleBuffer[arrays.length];
+    for (int column = 0; column < arrays.length; column++) {
+      views[column] = DoubleBuffer.wrap(arrays[column]);
+    }
+    return views;
+  }
+
+  // Length of getColumns(), also before anything is loaded.
+  int getColumnCount() {
+    return indexed ? 4 : COLUMNS;
+  }
+
+  // A heap copy of an off-heap column, at least one value long like the arrays.
+  private double[] copyOf(int column) {
+    double[] array = new double[Math.max(1, size)];
+    columns[column].duplicate().get(array, 0, size);
+    return array;
+  }
+
+  /**
+   * Facets start to end - 1 as a plain geometry on the heap, with the same values bit for bit, e.g. one tile of a mesh
+   * too large to upload at once.
+   */
+  Geometry slice(int start, int end) {
+    int[] indices = new int[end - start];
+    for (int index = start; index < end; index++) {
+      indices[index - start] = index;
+    }
+    return select(indices);
+  }
+
+  /**
+   * The given facets, in that order, as a plain geometry on the heap like slice().
+   */
+  Geometry select(int[] indices) {
+    Geometry selection = new Geometry();
+    selection.initWithSize(indices.length);
+    for (int target = 0; target < indices.length; target++) {
+      int index = indices[target];
+      selection.normalX[target] = normalX(index);
+      selection.normalY[target] = normalY(index);
+      selection.normalZ[target] = normalZ(index);
+      selection.vertexAX[target] = vertexAX(index);
+      selection.vertexAY[target] = vertexAY(index);
+      selection.vertexAZ[target] = vertexAZ(index);
+      selection.edgeBAX[target] = edgeBAX(index);
+      selection.edgeBAY[target] = edgeBAY(index);
+      selection.edgeBAZ[target] = edgeBAZ(index);
+      selection.edgeCAX[target] = edgeCAX(index);
+      selection.edgeCAY[target] = edgeCAY(index);
+      selection.edgeCAZ[target] = edgeCAZ(index);
+      selection.centerX[target] = centerX(index);
+      selection.centerY[target] = centerY(index);
+      selection.centerZ[target] = centerZ(index);
+      selection.area[target] = area(index);
+    }
+    return selection;
+  }
+
+  /**
+   * Whether other holds the same triangles in the same order, e.g. because both were loaded from the same surface.
+   */
+  boolean hasSameTrianglesAs(Geometry other) {
+    if (size != other.size) return false;
+    for (int index = 0; index < size; index++) {
+      if (!same(vertexAX(index), other.vertexAX(index))
+          || !same(vertexAY(index), other.vertexAY(index))
+          || !same(vertexAZ(index), other.vertexAZ(index))
+          || !same(edgeBAX(index), other.edgeBAX(index))
+          || !same(edgeBAY(index), other.edgeBAY(index))
+          || !same(edgeBAZ(index), other.edgeBAZ(index))
+          || !same(edgeCAX(index), other.edgeCAX(index))
+          || !same(edgeCAY(index), other.edgeCAY(index))
+          || !same(edgeCAZ(index), other.edgeCAZ(index))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Equality as in Arrays.equals(double[], double[]).
+  private static boolean same(double first, double second) {
+    return Double.doubleToLongBits(first) == Double.doubleToLongBits(second);
   }
 
   private void initFromStlFileReader(STLFileReader reader) {
@@ -153,44 +541,128 @@ public class Geometry {
         double[][] vertices = new double[3][3];
 
         reader.getNextFacet(normal, vertices);
+        setFacet(index, normal, vertices);
+      }
+      reader.close();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-        normalX[index] = normal[X];
-        normalY[index] = normal[Y];
-        normalZ[index] = normal[Z];
+  private void setFacet(int index, double[] normal, double[][] vertices) {
+    setFacet(
+        index,
+        normal[X], normal[Y], normal[Z],
+        vertices[A][X], vertices[A][Y], vertices[A][Z],
+        vertices[B][X], vertices[B][Y], vertices[B][Z],
+        vertices[C][X], vertices[C][Y], vertices[C][Z]);
+  }
 
-        vertexAX[index] = vertices[A][X];
-        vertexAY[index] = vertices[A][Y];
-        vertexAZ[index] = vertices[A][Z];
+  /**
+   * Stores facet index without allocating, for readers that decode straight into the arrays.
+   */
+  void setFacet(
+      int index,
+      double normalX, double normalY, double normalZ,
+      double aX, double aY, double aZ,
+      double bX, double bY, double bZ,
+      double cX, double cY, double cZ) {
+    if (columns != null) {
+      columns[NORMAL_X].put(index, normalX);
+      columns[NORMAL_Y].put(index, normalY);
+      columns[NORMAL_Z].put(index, normalZ);
+      columns[VERTEX_AX].put(index, aX);
+      columns[VERTEX_AY].put(index, aY);
+      columns[VERTEX_AZ].put(index, aZ);
+      columns[EDGE_BAX].put(index, bX - aX);
+      columns[EDGE_BAY].put(index, bY - aY);
+      columns[EDGE_BAZ].put(index, bZ - aZ);
+      columns[EDGE_CAX].put(index, cX - aX);
+      columns[EDGE_CAY].put(index, cY - aY);
+      columns[EDGE_CAZ].put(index, cZ - aZ);
+      columns[CENTER_X].put(index, (aX + bX + cX) / 3);
+      columns[CENTER_Y].put(index, (aY + bY + cY) / 3);
+      columns[CENTER_Z].put(index, (aZ + bZ + cZ) / 3);
+      columns[AREA].put(index, areaOf(bX - aX, bY - aY, bZ - aZ, cX - aX, cY - aY, cZ - aZ));
+      return;
+    }
 
-        edgeBAX[index] = vertices[B][X] - vertices[A][X];
-        edgeBAY[index] = vertices[B][Y] - vertices[A][Y];
-        edgeBAZ[index] = vertices[B][Z] - vertices[A][Z];
+    this.normalX[index] = normalX;
+    this.normalY[index] = normalY;
+    this.normalZ[index] = normalZ;
 
-        edgeCAX[index] = vertices[C][X] - vertices[A][X];
-        edgeCAY[index] = vertices[C][Y] - vertices[A][Y];
-        edgeCAZ[index] = vertices[C][Z] - vertices[A][Z];
+    if (indexed) {
+      triangleA[index] = vertexPool.indexOf(aX, aY, aZ);
+      triangleB[index] = vertexPool.indexOf(bX, bY, bZ);
+      triangleC[index] = vertexPool.indexOf(cX, cY, cZ);
+      area[index] = areaOf(bX - aX, bY - aY, bZ - aZ, cX - aX, cY - aY, cZ - aZ);
+      return;
+    }
 
-        centerX[index] = (vertices[A][X] + vertices[B][X] + vertices[C][X]) / 3;
-        centerY[index] = (vertices[A][Y] + vertices[B][Y] + vertices[C][Y]) / 3;
-        centerZ[index] = (vertices[A][Z] + vertices[B][Z] + vertices[C][Z]) / 3;
+    vertexAX[index] = aX;
+    vertexAY[index] = aY;
+    vertexAZ[index] = aZ;
 
-        area[index] = areaOf(vertices);
-      }
-      reader.close();
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+    edgeBAX[index] = bX - aX;
+    edgeBAY[index] = bY - aY;
+    edgeBAZ[index] = bZ - aZ;
+
+    edgeCAX[index] = cX - aX;
+    edgeCAY[index] = cY - aY;
+    edgeCAZ[index] = cZ - aZ;
+
+    centerX[index] = (aX + bX + cX) / 3;
+    centerY[index] = (aY + bY + cY) / 3;
+    centerZ[index] = (aZ + bZ + cZ) / 3;
+
+    area[index] = areaOf(
+        edgeBAX[index], edgeBAY[index], edgeBAZ[index], edgeCAX[index], edgeCAY[index], edgeCAZ[index]);
   }
 
-  private void initWithSize(int size) {
+  /**
+   * Allocates the arrays for size facets, to be filled in with setFacet. For an indexed mesh that's the normals, the
+   * area and the triangles' indices into a pool that grows as setFacet welds the corners into it.
+   */
+  void initWithSize(int size) {
     this.size = size;
     if (size == 0) {
       size = 1;
     }
 
+    offHeapColumns = null;
+    columns = null;
+    vertexPool = null;
+    if (offHeap && !indexed) {
+      try {
+        offHeapColumns = OffHeapColumns.allocate(COLUMNS, size);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      columns = offHeapColumns.getColumns();
+      normalX = normalY = normalZ = null;
+      vertexAX = vertexAY = vertexAZ = null;
+      edgeBAX = edgeBAY = edgeBAZ = null;
+      edgeCAX = edgeCAY = edgeCAZ = null;
+      centerX = centerY = centerZ = null;
+      area = null;
+      return;
+    }
+
     normalX = new double[size];
     normalY = new double[size];
     normalZ = new double[size];
+    area = new double[size];
+
+    if (indexed) {
+      int length = Math.max(1, size);
+      triangleA = new int[length];
+      triangleB = new int[length];
+      triangleC = new int[length];
+      // A closed mesh has about half as many vertices as triangles; the pool grows if there are more.
+      vertexPool = new VertexPool(this.size / 2);
+      setPool(0, null, null, null);
+      return;
+    }
 
     vertexAX = new double[size];
     vertexAY = new double[size];
@@ -207,7 +679,167 @@ public class Geometry {
     centerX = new double[size];
     centerY = new double[size];
     centerZ = new double[size];
+  }
 
-    area = new double[size];
+  /**
+   * Allocates an indexed mesh of size triangles over poolSize vertices, to be filled in through getColumns() and the
+   * pool and triangle getters.
+   */
+  void initIndexed(int size, int poolSize) {
+    indexed = true;
+    this.size = size;
+    offHeapColumns = null;
+    columns = null;
+    vertexPool = null;
+    int length = Math.max(1, size);
+    normalX = new double[length];
+    normalY = new double[length];
+    normalZ = new double[length];
+    area = new double[length];
+    triangleA = new int[length];
+    triangleB = new int[length];
+    triangleC = new int[length];
+    setPool(poolSize, new double[Math.max(1, poolSize)], new double[Math.max(1, poolSize)],
+        new double[Math.max(1, poolSize)]);
+  }
+
+  // Keeps the vertices setFacet welded the corners into, trimmed to size, and drops the hash table.
+  private void finishPool() {
+    VertexPool pool = vertexPool;
+    vertexPool = null;
+    int poolLength = Math.max(1, pool.size);
+    setPool(pool.size, Arrays.copyOf(pool.x, poolLength), Arrays.copyOf(pool.y, poolLength),
+        Arrays.copyOf(pool.z, poolLength));
+  }
+
+  private void setPool(int poolSize, double[] poolX, double[] poolY, double[] poolZ) {
+    this.poolSize = poolSize;
+    this.poolX = poolX;
+    this.poolY = poolY;
+    this.poolZ = poolZ;
+
+    // Computed again from the pool on first use.
+    vertexAX = vertexAY = vertexAZ = null;
+    edgeBAX = edgeBAY = edgeBAZ = null;
+    edgeCAX = edgeCAY = edgeCAZ = null;
+    centerX = centerY = centerZ = null;
+    cornersComputed = false;
+    centersComputed = false;
+  }
+
+  private synchronized void computeCorners() {
+    if (cornersComputed) return;
+    int length = Math.max(1, size);
+    vertexAX = new double[length];
+    vertexAY = new double[length];
+    vertexAZ = new double[length];
+    edgeBAX = new double[length];
+    edgeBAY = new double[length];
+    edgeBAZ = new double[length];
+    edgeCAX = new double[length];
+    edgeCAY = new double[length];
+    edgeCAZ = new double[length];
+    for (int index = 0; index < size; index++) {
+      int a = triangleA[index];
+      int b = triangleB[index];
+      int c = triangleC[index];
+      vertexAX[index] = poolX[a];
+      vertexAY[index] = poolY[a];
+      vertexAZ[index] = poolZ[a];
+      edgeBAX[index] = poolX[b] - poolX[a];
+      edgeBAY[index] = poolY[b] - poolY[a];
+      edgeBAZ[index] = poolZ[b] - poolZ[a];
+      edgeCAX[index] = poolX[c] - poolX[a];
+      edgeCAY[index] = poolY[c] - poolY[a];
+      edgeCAZ[index] = poolZ[c] - poolZ[a];
+    }
+    cornersComputed = true;
+  }
+
+  private synchronized void computeCenters() {
+    if (centersComputed) return;
+    int length = Math.max(1, size);
+    centerX = new double[length];
+    centerY = new double[length];
+    centerZ = new double[length];
+    for (int index = 0; index < size; index++) {
+      int a = triangleA[index];
+      int b = triangleB[index];
+      int c = triangleC[index];
+      centerX[index] = (poolX[a] + poolX[b] + poolX[c]) / 3;
+      centerY[index] = (poolY[a] + poolY[b] + poolY[c]) / 3;
+      centerZ[index] = (poolZ[a] + poolZ[b] + poolZ[c]) / 3;
+    }
+    centersComputed = true;
+  }
+
+  // Open addressing map from bit-identical coordinates to their index in the pool.
+  private static final class VertexPool {
+    private double[] x;
+    private double[] y;
+    private double[] z;
+    private int size;
+    // Pool index + 1 per slot, 0 for an empty slot. At most half full.
+    private int[] slots;
+
+    private VertexPool(int expected) {
+      int capacity = Math.max(16, expected);
+      x = new double[capacity];
+      y = new double[capacity];
+      z = new double[capacity];
+      slots = new int[Integer.highestOneBit(capacity - 1) << 2];
+    }
+
+    private int indexOf(double vertexX, double vertexY, double vertexZ) {
+      long bitsX = Double.doubleToLongBits(vertexX);
+      long bitsY = Double.doubleToLongBits(vertexY);
+      long bitsZ = Double.doubleToLongBits(vertexZ);
+      int mask = slots.length - 1;
+      for (int slot = hash(bitsX, bitsY, bitsZ) & mask; ; slot = (slot + 1) & mask) {
+        int entry = slots[slot] - 1;
+        if (entry < 0) {
+          int vertex = add(vertexX, vertexY, vertexZ);
+          slots[slot] = vertex + 1;
+          if (2 * size > slots.length) rehash();
+          return vertex;
+        }
+        if (Double.doubleToLongBits(x[entry]) == bitsX
+            && Double.doubleToLongBits(y[entry]) == bitsY
+            && Double.doubleToLongBits(z[entry]) == bitsZ) {
+          return entry;
+        }
+      }
+    }
+
+    private int add(double vertexX, double vertexY, double vertexZ) {
+      if (size == x.length) {
+        x = Arrays.copyOf(x, 2 * size);
+        y = Arrays.copyOf(y, 2 * size);
+        z = Arrays.copyOf(z, 2 * size);
+      }
+      x[size] = vertexX;
+      y[size] = vertexY;
+      z[size] = vertexZ;
+      return size++;
+    }
+
+    private void rehash() {
+      slots = new int[2 * slots.length];
+      int mask = slots.length - 1;
+      for (int vertex = 0; vertex < size; vertex++) {
+        int slot = hash(Double.doubleToLongBits(x[vertex]), Double.doubleToLongBits(y[vertex]),
+            Double.doubleToLongBits(z[vertex])) & mask;
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = vertex + 1;
+      }
+    }
+
+    private static int hash(long bitsX, long bitsY, long bitsZ) {
+      long hash = (bitsX * 0x9E3779B97F4A7C15L + bitsY) * 0x9E3779B97F4A7C15L + bitsZ;
+      hash *= 0x9E3779B97F4A7C15L;
+      return (int) (hash >>> 32);
+    }
   }
 }
@@ -0,0 +1,206 @@
+package viewfactor;
+
+import com.google.common.hash.Hashing;
+import events.EventManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the precomputed arrays of parsed STL files on disk, so later runs load them instead of parsing again.
+ *
+ * Entries are named after the SHA-256 of the STL file's contents: an edited file misses, a renamed or copied one hits.
+ * An entry is a little-endian header of magic, format version, whether the mesh is indexed, facet count and vertex
+ * pool size. Geometry's per-facet arrays follow one after another, size() doubles each, and for an indexed mesh the
+ * pool's coordinates and the triangles' int indices after that. Indexed and plain meshes are cached separately.
+ * Entries are read through a memory map. They are written to a temporary file that is then moved into place, so an
+ * interrupted run never leaves a truncated entry behind under a real name.
+ */
+class GeometryCache {
+
+  private static final int MAGIC = 0x56464743;
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 5 * Integer.BYTES;
+  private static final String SUFFIX = ".geometry";
+  private static final String INDEXED_SUFFIX = ".indexed.geometry";
+  // Values per mapped window when reading, well under the 2 GB a single mapping can hold.
+  private static final int WINDOW_VALUES = 1 << 27;
+  private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+  private final Path directory;
+  private final EventManager eventManager;
+
+  private int hits;
+  private int misses;
+
+  GeometryCache(Path directory, EventManager eventManager) {
+    this.directory = directory;
+    this.eventManager = eventManager;
+  }
+
+  /**
+   * Fills geometry from the cache entry for stlFile's contents, or parses stlFile and stores a new entry. Failing to
+   * store the entry is reported, but doesn't fail the load.
+   */
+  Geometry load(Path stlFile, Geometry geometry, int parallelism) {
+    try {
+      Path entry = directory.resolve(
+          com.google.common.io.Files.asByteSource(stlFile.toFile()).hash(Hashing.sha256())
+              + (geometry.isIndexed() ? INDEXED_SUFFIX : SUFFIX));
+      if (Files.isRegularFile(entry) && read(entry, geometry)) {
+        hits++;
+        return geometry;
+      }
+
+      misses++;
+      geometry.from(stlFile, parallelism);
+      try {
+        write(entry, geometry);
+      } catch (IOException e) {
+        eventManager.info("Could not cache the geometry of " + stlFile + ": " + e);
+      }
+      return geometry;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  int getHits() {
+    return hits;
+  }
+
+  int getMisses() {
+    return misses;
+  }
+
+  // False if the entry is from another format version or isn't complete.
+  private static boolean read(Path entry, Geometry geometry) throws IOException {
+    try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_BYTES) return false;
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      boolean indexed = header.getInt(2 * Integer.BYTES) != 0;
+      int size = header.getInt(3 * Integer.BYTES);
+      int poolSize = header.getInt(4 * Integer.BYTES);
+      if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION || indexed != geometry.isIndexed()
+          || size < 0 || poolSize < 0) {
+        return false;
+      }
+      long arrayCount = geometry.getColumnCount();
+      long expectedBytes = HEADER_BYTES + arrayCount * size * Double.BYTES
+          + (indexed ? 3L * poolSize * Double.BYTES + 3L * size * Integer.BYTES : 0);
+      if (channel.size() != expectedBytes) return false;
+
+      if (indexed) {
+        geometry.initIndexed(size, poolSize);
+      } else {
+        geometry.initWithSize(size);
+      }
+      long offset = HEADER_BYTES;
+      for (DoubleBuffer column : geometry.getColumns()) {
+        offset = readDoubles(channel, offset, column, size);
+      }
+      if (indexed) {
+        offset = readDoubles(channel, offset, DoubleBuffer.wrap(geometry.getPoolX()), poolSize);
+        offset = readDoubles(channel, offset, DoubleBuffer.wrap(geometry.getPoolY()), poolSize);
+        offset = readDoubles(channel, offset, DoubleBuffer.wrap(geometry.getPoolZ()), poolSize);
+        offset = readInts(channel, offset, geometry.getTriangleA(), size);
+        offset = readInts(channel, offset, geometry.getTriangleB(), size);
+        readInts(channel, offset, geometry.getTriangleC(), size);
+      }
+      return true;
+    }
+  }
+
+  // Reads count doubles at offset into the start of column, returning the offset after them.
+  private static long readDoubles(FileChannel channel, long offset, DoubleBuffer column, int count)
+      throws IOException {
+    for (int start = 0; start < count; start += WINDOW_VALUES) {
+      int length = Math.min(WINDOW_VALUES, count - start);
+      column.position(start);
+      column.put(map(channel, offset, (long) length * Double.BYTES).asDoubleBuffer());
+      offset += (long) length * Double.BYTES;
+    }
+    return offset;
+  }
+
+  private static long readInts(FileChannel channel, long offset, int[] array, int count) throws IOException {
+    for (int start = 0; start < count; start += WINDOW_VALUES) {
+      int length = Math.min(WINDOW_VALUES, count - start);
+      map(channel, offset, (long) length * Integer.BYTES).asIntBuffer().get(array, start, length);
+      offset += (long) length * Integer.BYTES;
+    }
+    return offset;
+  }
+
+  private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void write(Path entry, Geometry geometry) throws IOException {
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        boolean indexed = geometry.isIndexed();
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(indexed ? 1 : 0).putInt(geometry.size())
+            .putInt(indexed ? geometry.getPoolSize() : 0);
+        for (DoubleBuffer column : geometry.getColumns()) {
+          writeDoubles(buffer, channel, column, geometry.size());
+        }
+        if (indexed) {
+          writeDoubles(buffer, channel, DoubleBuffer.wrap(geometry.getPoolX()), geometry.getPoolSize());
+          writeDoubles(buffer, channel, DoubleBuffer.wrap(geometry.getPoolY()), geometry.getPoolSize());
+          writeDoubles(buffer, channel, DoubleBuffer.wrap(geometry.getPoolZ()), geometry.getPoolSize());
+          writeInts(buffer, channel, geometry.getTriangleA(), geometry.size());
+          writeInts(buffer, channel, geometry.getTriangleB(), geometry.size());
+          writeInts(buffer, channel, geometry.getTriangleC(), geometry.size());
+        }
+        drain(buffer, channel);
+      }
+      try {
+        Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private static void writeDoubles(ByteBuffer buffer, FileChannel channel, DoubleBuffer column, int count)
+      throws IOException {
+    for (int index = 0; index < count; index++) {
+      if (buffer.remaining() < Double.BYTES) {
+        drain(buffer, channel);
+      }
+      buffer.putDouble(column.get(index));
+    }
+  }
+
+  private static void writeInts(ByteBuffer buffer, FileChannel channel, int[] array, int count) throws IOException {
+    for (int index = 0; index < count; index++) {
+      if (buffer.remaining() < Integer.BYTES) {
+        drain(buffer, channel);
+      }
+      buffer.putInt(array[index]);
+    }
+  }
+
+  private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
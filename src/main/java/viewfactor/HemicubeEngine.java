@@ -0,0 +1,387 @@
+package viewfactor;
+
+import com.google.inject.Inject;
+import events.EventManager;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Pure Java engine that finds each emitter's view of every receiver at once, by rasterizing the scene around it
+ * instead of casting one ray per pair. Cost per emitter is about O(R + I + pixels) rather than O(R * I).
+ *
+ * From each emitter's center, receivers and interconnects are projected onto the six faces of a cube aligned with the
+ * emitter's normal, keeping the nearest triangle per pixel. The cube is the usual hemicube plus its mirror image
+ * behind the emitter, matching the two-sided cosines of the other engines. Every pixel showing a receiver adds its
+ * delta form factor, times the emitter's area, to that receiver's entry in the emitter's row, so rows are in the same
+ * units as IntersectionKernel's.
+ *
+ * Unlike the ray casting engines, receivers can hide other receivers, and each pixel shows one triangle, so receivers
+ * much smaller than a pixel are undersampled. Raise the resolution for fine receiver meshes.
+ */
+class HemicubeEngine implements ViewFactorEngine {
+
+  public static class Builder {
+    private final EventManager eventManager;
+
+    private Geometry emitters;
+    private Geometry receivers;
+    private Geometry interconnects;
+    private int resolution = 128;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    @Inject
+    public Builder(EventManager eventManager) {
+      this.eventManager = eventManager;
+    }
+
+    Builder setEmitters(Geometry emitters) {
+      this.emitters = emitters;
+      return this;
+    }
+
+    Builder setInterconnects(Geometry interconnects) {
+      this.interconnects = interconnects;
+      return this;
+    }
+
+    Builder setReceivers(Geometry receivers) {
+      this.receivers = receivers;
+      return this;
+    }
+
+    Builder setResolution(int resolution) {
+      this.resolution = resolution;
+      return this;
+    }
+
+    Builder setParallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    HemicubeEngine build() {
+      return new HemicubeEngine(eventManager, emitters, receivers, interconnects, resolution, parallelism);
+    }
+  }
+
+  // Item buffer values other than a receiver index.
+  private static final int EMPTY = -1;
+  private static final int INTERCONNECT = -2;
+  // Triangles are clipped this far in front of the eye, in multiples of the scene size.
+  private static final double NEAR = 1e-9;
+  // Upper bound on the rows held per strip, in total doubles.
+  private static final int MAX_STRIP_DOUBLES = 1 << 22;
+
+  private final EventManager eventManager;
+  private final Geometry emitters;
+  private final Geometry receivers;
+  private final Geometry interconnects;
+  private final int resolution;
+  private final int parallelism;
+
+  // Delta form factors of the pixels of the faces facing along and across the normal. Both include the cosine at the
+  // emitter; the side faces' pixels are indexed with the normal component in the v direction.
+  private final double[] frontWeights;
+  private final double[] sideWeights;
+  private final double near;
+  private final ThreadLocal<ItemBuffer> itemBuffers;
+
+  private HemicubeEngine(
+      EventManager eventManager,
+      Geometry emitters,
+      Geometry receivers,
+      Geometry interconnects,
+      int resolution,
+      int parallelism) {
+    this.eventManager = eventManager;
+    this.emitters = emitters;
+    this.receivers = receivers;
+    this.interconnects = interconnects;
+    this.resolution = resolution;
+    this.parallelism = parallelism;
+
+    frontWeights = new double[resolution * resolution];
+    sideWeights = new double[resolution * resolution];
+    double pixelArea = (2.0 / resolution) * (2.0 / resolution);
+    for (int row = 0; row < resolution; row++) {
+      double v = pixelCenter(row);
+      for (int column = 0; column < resolution; column++) {
+        double u = pixelCenter(column);
+        double denominator = Math.PI * (u * u + v * v + 1) * (u * u + v * v + 1);
+        frontWeights[row * resolution + column] = pixelArea / denominator;
+        sideWeights[row * resolution + column] = Math.abs(v) * pixelArea / denominator;
+      }
+    }
+    near = NEAR * Math.max(1, sizeOf(receivers) + sizeOf(interconnects) + sizeOf(emitters));
+    itemBuffers = ThreadLocal.withInitial(() -> new ItemBuffer(resolution));
+  }
+
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+    // Nothing to transfer, but the event sequence is shared with the GPU engine.
+    eventManager.startBufferTransfer();
+    eventManager.finishBufferTransfer();
+
+    int emitterCount = emitters.size();
+    int receiverCount = receivers.size();
+    int stripRows = Math.max(1, Math.min(emitterCount, MAX_STRIP_DOUBLES / Math.max(1, receiverCount)));
+    double[][] strip = new double[stripRows][receiverCount];
+
+    eventManager.startComputation();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      for (int stripStart = 0; stripStart < emitterCount; stripStart += stripRows) {
+        int start = stripStart;
+        int stripEnd = Math.min(emitterCount, stripStart + stripRows);
+        RecursiveAction[] emitterTasks = new RecursiveAction[stripEnd - stripStart];
+        for (int emitterIndex = stripStart; emitterIndex < stripEnd; emitterIndex++) {
+          int index = emitterIndex;
+          emitterTasks[emitterIndex - stripStart] = new RecursiveAction() {
+            @Override
+            protected void compute() {
+              render(index, strip[index - start]);
+            }
+          };
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(emitterTasks)));
+        for (int emitterIndex = stripStart; emitterIndex < stripEnd; emitterIndex++) {
+          resultConsumer.accept(strip[emitterIndex - stripStart]);
+        }
+        eventManager.updateComputationProgress(stripEnd, emitterCount);
+      }
+    } finally {
+      pool.shutdown();
+    }
+    eventManager.finishComputation(completionHandler.onComplete() / sum(emitters.getArea()));
+  }
+
+  private static double sum(double...values) {
+    double result = 0;
+    for (double value:values)
+      result += value;
+    return result;
+  }
+
+  /**
+   * Fills row with the emitter's view factor contributions, overwriting what was there.
+   */
+  void render(int emitterIndex, double[] row) {
+    Arrays.fill(row, 0);
+    ItemBuffer buffer = itemBuffers.get();
+
+    double[] normal = {
+        emitters.normalX(emitterIndex), emitters.normalY(emitterIndex), emitters.normalZ(emitterIndex)};
+    double normalMagnitude = magnitude(normal[0], normal[1], normal[2]);
+    if (normalMagnitude == 0) return;
+    for (int axis = 0; axis < 3; axis++) {
+      normal[axis] /= normalMagnitude;
+    }
+    // Tangent = normal x an axis the normal isn't close to; bitangent = normal x tangent.
+    double[] tangent = Math.abs(normal[0]) < 0.9
+        ? new double[] {0, normal[2], -normal[1]}
+        : new double[] {-normal[2], 0, normal[0]};
+    double tangentMagnitude = magnitude(tangent[0], tangent[1], tangent[2]);
+    for (int axis = 0; axis < 3; axis++) {
+      tangent[axis] /= tangentMagnitude;
+    }
+    double[] bitangent = {
+        normal[1] * tangent[2] - normal[2] * tangent[1],
+        normal[2] * tangent[0] - normal[0] * tangent[2],
+        normal[0] * tangent[1] - normal[1] * tangent[0]};
+    double[][] frame = {tangent, bitangent, normal};
+    double[] eye = {
+        emitters.centerX(emitterIndex), emitters.centerY(emitterIndex), emitters.centerZ(emitterIndex)};
+
+    double emitterArea = emitters.area(emitterIndex);
+    for (int face = 0; face < 6; face++) {
+      // Faces 0 and 1 look along -normal and +normal, 2 to 5 along -tangent, +tangent, -bitangent, +bitangent.
+      int depthAxis = face < 2 ? 2 : face < 4 ? 0 : 1;
+      double sign = (face & 1) == 0 ? -1 : 1;
+      int uAxis = depthAxis == 0 ? 1 : 0;
+      int vAxis = depthAxis == 2 ? 1 : 2;
+
+      buffer.clear();
+      drawAll(buffer, receivers, false, eye, frame, depthAxis, sign, uAxis, vAxis);
+      drawAll(buffer, interconnects, true, eye, frame, depthAxis, sign, uAxis, vAxis);
+
+      double[] weights = depthAxis == 2 ? frontWeights : sideWeights;
+      for (int pixel = 0; pixel < weights.length; pixel++) {
+        int item = buffer.items[pixel];
+        if (item >= 0) {
+          row[item] += weights[pixel] * emitterArea;
+        }
+      }
+    }
+  }
+
+  private void drawAll(
+      ItemBuffer buffer,
+      Geometry triangles,
+      boolean occluders,
+      double[] eye,
+      double[][] frame,
+      int depthAxis,
+      double sign,
+      int uAxis,
+      int vAxis) {
+    double[][] corners = new double[3][3];
+    double[] depthDirection = frame[depthAxis];
+    double[] uDirection = frame[uAxis];
+    double[] vDirection = frame[vAxis];
+    for (int index = 0; index < triangles.size(); index++) {
+      // Corners relative to the eye, in face coordinates: u, v, and depth along the face's axis.
+      boolean anyInFront = false;
+      for (int corner = 0; corner < 3; corner++) {
+        double x = triangles.vertexAX(index) - eye[0];
+        double y = triangles.vertexAY(index) - eye[1];
+        double z = triangles.vertexAZ(index) - eye[2];
+        if (corner == 1) {
+          x += triangles.edgeBAX(index);
+          y += triangles.edgeBAY(index);
+          z += triangles.edgeBAZ(index);
+        } else if (corner == 2) {
+          x += triangles.edgeCAX(index);
+          y += triangles.edgeCAY(index);
+          z += triangles.edgeCAZ(index);
+        }
+        corners[corner][0] = x * uDirection[0] + y * uDirection[1] + z * uDirection[2];
+        corners[corner][1] = x * vDirection[0] + y * vDirection[1] + z * vDirection[2];
+        corners[corner][2] = sign * (x * depthDirection[0] + y * depthDirection[1] + z * depthDirection[2]);
+        anyInFront |= corners[corner][2] > near;
+      }
+      if (anyInFront) {
+        buffer.draw(corners, near, occluders ? INTERCONNECT : index);
+      }
+    }
+  }
+
+  private double pixelCenter(int pixel) {
+    return (pixel + 0.5) * 2 / resolution - 1;
+  }
+
+  private static double sizeOf(Geometry triangles) {
+    double size = 0;
+    for (int index = 0; index < triangles.size(); index++) {
+      size = Math.max(size, Math.abs(triangles.vertexAX(index)));
+      size = Math.max(size, Math.abs(triangles.vertexAY(index)));
+      size = Math.max(size, Math.abs(triangles.vertexAZ(index)));
+    }
+    return size;
+  }
+
+  private static double magnitude(double a, double b, double c) {
+    return Math.sqrt(a * a + b * b + c * c);
+  }
+
+  /**
+   * One face's item and depth buffers, plus scratch space for clipping. One per worker thread.
+   */
+  private static final class ItemBuffer {
+    // A triangle clipped by the five planes of a face's view volume has at most 8 corners.
+    private static final int MAX_CORNERS = 8;
+
+    private final int resolution;
+    private final int[] items;
+    // 1 / depth of the nearest triangle so far, which interpolates linearly across the face.
+    private final double[] inverseDepths;
+    private double[][] polygon = new double[MAX_CORNERS][3];
+    private double[][] clipped = new double[MAX_CORNERS][3];
+
+    private ItemBuffer(int resolution) {
+      this.resolution = resolution;
+      this.items = new int[resolution * resolution];
+      this.inverseDepths = new double[resolution * resolution];
+    }
+
+    private void clear() {
+      Arrays.fill(items, EMPTY);
+      Arrays.fill(inverseDepths, 0);
+    }
+
+    /**
+     * Clips the triangle, corners as {u, v, depth}, to the face's view volume and rasterizes what's left.
+     */
+    private void draw(double[][] corners, double near, int item) {
+      int count = 3;
+      for (int corner = 0; corner < 3; corner++) {
+        System.arraycopy(corners[corner], 0, polygon[corner], 0, 3);
+      }
+      // Planes as (a, b, c, d): a * u + b * v + c * depth + d >= 0 is inside.
+      count = clip(count, 0, 0, 1, -near);
+      count = clip(count, -1, 0, 1, 0);
+      count = clip(count, 1, 0, 1, 0);
+      count = clip(count, 0, -1, 1, 0);
+      count = clip(count, 0, 1, 1, 0);
+      if (count < 3) return;
+
+      // Project to pixel coordinates, keeping 1 / depth.
+      for (int corner = 0; corner < count; corner++) {
+        double inverseDepth = 1 / polygon[corner][2];
+        polygon[corner][0] = (polygon[corner][0] * inverseDepth + 1) * resolution / 2;
+        polygon[corner][1] = (polygon[corner][1] * inverseDepth + 1) * resolution / 2;
+        polygon[corner][2] = inverseDepth;
+      }
+      for (int corner = 1; corner + 1 < count; corner++) {
+        rasterize(polygon[0], polygon[corner], polygon[corner + 1], item);
+      }
+    }
+
+    // Sutherland-Hodgman against one plane, from polygon into clipped, then swaps the two.
+    private int clip(int count, double a, double b, double c, double d) {
+      if (count < 3) return 0;
+      int clippedCount = 0;
+      for (int corner = 0; corner < count; corner++) {
+        double[] current = polygon[corner];
+        double[] next = polygon[(corner + 1) % count];
+        double currentSide = a * current[0] + b * current[1] + c * current[2] + d;
+        double nextSide = a * next[0] + b * next[1] + c * next[2] + d;
+        if (currentSide >= 0) {
+          System.arraycopy(current, 0, clipped[clippedCount++], 0, 3);
+        }
+        if ((currentSide >= 0) != (nextSide >= 0)) {
+          double t = currentSide / (currentSide - nextSide);
+          for (int axis = 0; axis < 3; axis++) {
+            clipped[clippedCount][axis] = current[axis] + t * (next[axis] - current[axis]);
+          }
+          clippedCount++;
+        }
+      }
+      double[][] swap = polygon;
+      polygon = clipped;
+      clipped = swap;
+      return clippedCount;
+    }
+
+    // Fills the pixels whose centers lie in the triangle and are nearer than what's there.
+    private void rasterize(double[] p0, double[] p1, double[] p2, int item) {
+      double area = (p1[0] - p0[0]) * (p2[1] - p0[1]) - (p2[0] - p0[0]) * (p1[1] - p0[1]);
+      if (area == 0) return;
+
+      int minColumn = Math.max(0, (int) Math.floor(Math.min(p0[0], Math.min(p1[0], p2[0]))));
+      int maxColumn = Math.min(resolution - 1, (int) Math.ceil(Math.max(p0[0], Math.max(p1[0], p2[0]))));
+      int minRow = Math.max(0, (int) Math.floor(Math.min(p0[1], Math.min(p1[1], p2[1]))));
+      int maxRow = Math.min(resolution - 1, (int) Math.ceil(Math.max(p0[1], Math.max(p1[1], p2[1]))));
+      for (int row = minRow; row <= maxRow; row++) {
+        double y = row + 0.5;
+        for (int column = minColumn; column <= maxColumn; column++) {
+          double x = column + 0.5;
+          double w0 = ((p1[0] - x) * (p2[1] - y) - (p2[0] - x) * (p1[1] - y)) / area;
+          double w1 = ((p2[0] - x) * (p0[1] - y) - (p0[0] - x) * (p2[1] - y)) / area;
+          double w2 = 1 - w0 - w1;
+          if (w0 < 0 || w1 < 0 || w2 < 0) continue;
+
+          int pixel = row * resolution + column;
+          double inverseDepth = w0 * p0[2] + w1 * p1[2] + w2 * p2[2];
+          if (inverseDepth > inverseDepths[pixel]) {
+            inverseDepths[pixel] = inverseDepth;
+            items[pixel] = item;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package viewfactor;
+
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import events.EventManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs another engine over only the pairs that changed since the run kept in a PairStore, for --incremental.
+ *
+ * IncrementalPlan matches the geometry against the stored run's. Pairs it doesn't mark are copied from the store,
+ * moved to where their emitter and receiver are now, and each block of pairs it does mark gets its own engine, with
+ * all the interconnects, which is run to completion and disposed of before the next one is built. The rows are then
+ * passed on in full, in emitter order, and the store is replaced by one for this run.
+ *
+ * Stored pairs are only reused if they were computed with the same settings, see Builder.setSettings.
+ */
+class IncrementalEngine implements ViewFactorEngine {
+
+  /**
+   * Builds the engine for one block. It has to pass on full rows, and report to the given EventManager rather than
+   * the application's, which only sees the incremental run as a whole.
+   */
+  interface BlockEngineFactory {
+    ViewFactorEngine build(Geometry emitters, Geometry receivers, EventManager eventManager);
+  }
+
+  public static class Builder {
+    private final EventManager eventManager;
+
+    private Geometry emitters;
+    private Geometry receivers;
+    private Geometry interconnects;
+    private Path storeFile;
+    private long settings;
+    private double refineDistance;
+    private int maxSubdivision = 1;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private BlockEngineFactory blockEngineFactory;
+
+    @Inject
+    public Builder(EventManager eventManager) {
+      this.eventManager = eventManager;
+    }
+
+    Builder setEmitters(Geometry emitters) {
+      this.emitters = emitters;
+      return this;
+    }
+
+    Builder setInterconnects(Geometry interconnects) {
+      this.interconnects = interconnects;
+      return this;
+    }
+
+    Builder setReceivers(Geometry receivers) {
+      this.receivers = receivers;
+      return this;
+    }
+
+    Builder setStoreFile(Path storeFile) {
+      this.storeFile = storeFile;
+      return this;
+    }
+
+    /**
+     * Whatever besides the geometry decides the pair values, such as the engine and its precision. A store written
+     * with different settings is recomputed in full.
+     */
+    Builder setSettings(String settings) {
+      this.settings = Hashing.murmur3_128().hashString(settings, StandardCharsets.UTF_8).asLong();
+      return this;
+    }
+
+    /**
+     * The block engines' refineDistance and maxSubdivision, which decide which rays a pair can have.
+     */
+    Builder setRefineDistance(double refineDistance) {
+      this.refineDistance = refineDistance;
+      return this;
+    }
+
+    Builder setMaxSubdivision(int maxSubdivision) {
+      this.maxSubdivision = maxSubdivision;
+      return this;
+    }
+
+    /**
+     * Threads IncrementalPlan tests the pairs on.
+     */
+    Builder setParallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    Builder setBlockEngineFactory(BlockEngineFactory blockEngineFactory) {
+      this.blockEngineFactory = blockEngineFactory;
+      return this;
+    }
+
+    IncrementalEngine build() {
+      return new IncrementalEngine(
+          eventManager,
+          emitters,
+          receivers,
+          interconnects,
+          storeFile,
+          settings,
+          refineDistance,
+          maxSubdivision,
+          parallelism,
+          blockEngineFactory);
+    }
+  }
+
+  private final EventManager eventManager;
+  private final Geometry emitters;
+  private final Geometry receivers;
+  private final Geometry interconnects;
+  private final Path storeFile;
+  private final long settings;
+  private final double refineDistance;
+  private final int maxSubdivision;
+  private final int parallelism;
+  private final BlockEngineFactory blockEngineFactory;
+
+  private IncrementalEngine(
+      EventManager eventManager,
+      Geometry emitters,
+      Geometry receivers,
+      Geometry interconnects,
+      Path storeFile,
+      long settings,
+      double refineDistance,
+      int maxSubdivision,
+      int parallelism,
+      BlockEngineFactory blockEngineFactory) {
+    this.eventManager = eventManager;
+    this.emitters = emitters;
+    this.receivers = receivers;
+    this.interconnects = interconnects;
+    this.storeFile = storeFile;
+    this.settings = settings;
+    this.refineDistance = refineDistance;
+    this.maxSubdivision = maxSubdivision;
+    this.parallelism = parallelism;
+    this.blockEngineFactory = blockEngineFactory;
+  }
+
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+    InnerEngineRun.skipBufferTransfer(eventManager);
+
+    eventManager.startComputation();
+    Path nextFile = storeFile.resolveSibling(storeFile.getFileName() + ".next");
+    try {
+      try (PairStore previous = openPrevious();
+          PairStore next = PairStore.create(nextFile, settings, emitters, receivers, interconnects);
+          InnerEngineRun blockRun = new InnerEngineRun()) {
+        IncrementalPlan plan = IncrementalPlan.of(
+            previous == null ? new double[0] : previous.readEmitterFacets(),
+            previous == null ? new double[0] : previous.readReceiverFacets(),
+            previous == null ? new double[0] : previous.readInterconnectFacets(),
+            emitters,
+            receivers,
+            interconnects,
+            refineDistance,
+            maxSubdivision,
+            parallelism);
+        long pairs = (long) emitters.size() * receivers.size();
+        eventManager.info(String.format(
+            "%d interconnects changed. Recomputing %d of %d pairs in %d blocks.",
+            plan.getChangedInterconnects(), plan.getRecomputedPairs(), pairs, plan.getBlocks().size()));
+
+        if (previous != null) {
+          copyReused(plan, previous, next);
+        }
+        List<IncrementalPlan.Block> blocks = plan.getBlocks();
+        for (int blockIndex = 0; blockIndex < blocks.size(); blockIndex++) {
+          runBlock(blockRun, blocks.get(blockIndex), next);
+          eventManager.updateComputationProgress(blockIndex + 1, blocks.size());
+        }
+
+        double[] row = new double[receivers.size()];
+        for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+          next.readRow(emitterIndex, row);
+          resultConsumer.accept(row);
+        }
+      }
+      Files.move(nextFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    eventManager.finishComputation(completionHandler.onComplete() / sum(emitters.getArea()));
+  }
+
+  // The stored run, or null if there's none or it was computed with other settings.
+  private PairStore openPrevious() throws IOException {
+    PairStore previous = PairStore.open(storeFile);
+    if (previous == null) {
+      eventManager.info("No pair store yet, computing every pair.");
+    } else if (previous.getSettings() != settings) {
+      eventManager.info("The pair store was computed with other settings, computing every pair.");
+      previous.close();
+      return null;
+    }
+    return previous;
+  }
+
+  // Writes the stored value of every pair whose emitter and receiver are both still there to its new place.
+  private void copyReused(IncrementalPlan plan, PairStore previous, PairStore next) throws IOException {
+    double[] previousRow = new double[previous.getReceiverCount()];
+    double[] row = new double[receivers.size()];
+    for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+      int previousEmitter = plan.previousEmitterOf(emitterIndex);
+      if (previousEmitter < 0) continue;
+      previous.readRow(previousEmitter, previousRow);
+      for (int receiverIndex = 0; receiverIndex < row.length; receiverIndex++) {
+        int previousReceiver = plan.previousReceiverOf(receiverIndex);
+        row[receiverIndex] = previousReceiver < 0 ? 0 : previousRow[previousReceiver];
+      }
+      next.writeRow(emitterIndex, row);
+    }
+  }
+
+  // Builds and runs the engine for one block, writing its pairs to next.
+  private void runBlock(InnerEngineRun blockRun, IncrementalPlan.Block block, PairStore next) {
+    int[] blockEmitters = block.getEmitters();
+    int[] blockReceivers = block.getReceivers();
+    double[] row = new double[receivers.size()];
+    int[] nextEmitter = {0};
+    Consumer<double[]> rowConsumer = blockRow -> {
+      int emitterIndex = blockEmitters[nextEmitter[0]++];
+      try {
+        next.readRow(emitterIndex, row);
+        for (int column = 0; column < blockReceivers.length; column++) {
+          row[blockReceivers[column]] = blockRow[column];
+        }
+        next.writeRow(emitterIndex, row);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    };
+
+    blockRun.setEngine(blockEngineFactory.build(
+        emitters.select(blockEmitters), receivers.select(blockReceivers), blockRun.getEventManager()))
+        .calculate(rowConsumer, () -> 0);
+  }
+
+  private static double sum(double...values) {
+    double result = 0;
+    for (double value:values)
+      result += value;
+    return result;
+  }
+}
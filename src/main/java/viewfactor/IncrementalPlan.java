@@ -0,0 +1,412 @@
+package viewfactor;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static viewfactor.PairStore.FACET_VALUES;
+
+/**
+ * Which pairs an --incremental run has to recompute, worked out from how its geometry differs from the stored run's.
+ * See IncrementalEngine.
+ *
+ * Facets are matched by value, so a mesh whose facets were reordered or partly edited keeps the pairs of every facet
+ * that's still there. A pair's value only depends on its emitter, its receiver and the interconnects its rays can
+ * hit, so the pairs to recompute are those of new emitters, those of new receivers, and those whose rays may pass
+ * through the bounding box of an interconnect that was added or removed. A pair's rays are the one between the
+ * triangle centers, or for a pair close enough for refineDistance to split it, any ray between the two triangles,
+ * which stay within the bounding box of both.
+ *
+ * The changed boxes go into a BoundingVolumeHierarchy, so each pair only tests the boxes near its rays, and the pairs
+ * are tested on a ForkJoinPool, split into tiles like ForkJoinEngine's.
+ *
+ * The pairs are recomputed in up to three blocks, each a set of emitters by a set of receivers: new emitters by all
+ * receivers, the other emitters by new receivers, and the emitters by the receivers of pairs an interconnect change
+ * may affect. The last block may include some pairs nothing affects, when their emitter and receiver are each in
+ * another affected pair.
+ */
+final class IncrementalPlan {
+
+  /**
+   * Emitters by receivers to recompute, as indices into the current geometry.
+   */
+  static final class Block {
+    private final int[] emitters;
+    private final int[] receivers;
+
+    Block(int[] emitters, int[] receivers) {
+      this.emitters = emitters;
+      this.receivers = receivers;
+    }
+
+    int[] getEmitters() {
+      return emitters;
+    }
+
+    int[] getReceivers() {
+      return receivers;
+    }
+  }
+
+  // Boxes around changed interconnects are grown by this much of their largest coordinate, so rays that only graze
+  // one, which the occlusion test may count as either a hit or a miss, are recomputed.
+  private static final double BOX_PADDING = 1e-9;
+  // Largest tile of pairs tested as one task.
+  private static final int TILE_EMITTERS = 16;
+  private static final int TILE_RECEIVERS = 512;
+
+  private final int[] previousEmitters;
+  private final int[] previousReceivers;
+  private final int changedInterconnects;
+  private final List<Block> blocks;
+
+  private IncrementalPlan(
+      int[] previousEmitters, int[] previousReceivers, int changedInterconnects, List<Block> blocks) {
+    this.previousEmitters = previousEmitters;
+    this.previousReceivers = previousReceivers;
+    this.changedInterconnects = changedInterconnects;
+    this.blocks = blocks;
+  }
+
+  /**
+   * The plan for going from the stored facets, see PairStore.facetsOf, to the current geometry. With no stored facets
+   * that's recomputing every pair.
+   */
+  static IncrementalPlan of(
+      double[] previousEmitterFacets,
+      double[] previousReceiverFacets,
+      double[] previousInterconnectFacets,
+      Geometry emitters,
+      Geometry receivers,
+      Geometry interconnects,
+      double refineDistance,
+      int maxSubdivision,
+      int parallelism) {
+    int[] previousEmitters = match(previousEmitterFacets, PairStore.facetsOf(emitters));
+    int[] previousReceivers = match(previousReceiverFacets, PairStore.facetsOf(receivers));
+    double[] boxes = changedBoxes(previousInterconnectFacets, PairStore.facetsOf(interconnects));
+
+    List<Block> blocks = new ArrayList<>();
+    int[] newEmitters = indicesWhere(previousEmitters, true);
+    int[] oldEmitters = indicesWhere(previousEmitters, false);
+    int[] newReceivers = indicesWhere(previousReceivers, true);
+    int[] oldReceivers = indicesWhere(previousReceivers, false);
+    if (newEmitters.length > 0 && receivers.size() > 0) {
+      blocks.add(new Block(newEmitters, indicesOf(new boolean[receivers.size()], true)));
+    }
+    if (oldEmitters.length > 0 && newReceivers.length > 0) {
+      blocks.add(new Block(oldEmitters, newReceivers));
+    }
+    if (boxes.length > 0 && oldEmitters.length > 0 && oldReceivers.length > 0) {
+      AffectedPairs affected = new AffectedPairs(
+          emitters, oldEmitters, receivers, oldReceivers, BoundingVolumeHierarchy.ofBoxes(boxes), refineDistance,
+          maxSubdivision);
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(affected.new Tile(0, oldEmitters.length, 0, oldReceivers.length));
+      } finally {
+        pool.shutdown();
+      }
+      int[] blockEmitters = indicesOf(affected.affectedEmitters, false);
+      if (blockEmitters.length > 0) {
+        blocks.add(new Block(blockEmitters, indicesOf(affected.affectedReceivers, false)));
+      }
+    }
+    return new IncrementalPlan(
+        previousEmitters, previousReceivers, boxes.length / 6, Collections.unmodifiableList(blocks));
+  }
+
+  /**
+   * Index of emitterIndex in the stored run, or -1 if it's new.
+   */
+  int previousEmitterOf(int emitterIndex) {
+    return previousEmitters[emitterIndex];
+  }
+
+  /**
+   * Index of receiverIndex in the stored run, or -1 if it's new.
+   */
+  int previousReceiverOf(int receiverIndex) {
+    return previousReceivers[receiverIndex];
+  }
+
+  /**
+   * Interconnects added or removed since the stored run.
+   */
+  int getChangedInterconnects() {
+    return changedInterconnects;
+  }
+
+  List<Block> getBlocks() {
+    return blocks;
+  }
+
+  long getRecomputedPairs() {
+    long pairs = 0;
+    for (Block block : blocks) {
+      pairs += (long) block.getEmitters().length * block.getReceivers().length;
+    }
+    return pairs;
+  }
+
+  /**
+   * For each facet of facets, the index of an equal facet of previousFacets, or -1 if there's none left. Each previous
+   * facet is matched at most once, so duplicated facets match as many times as they were stored.
+   */
+  @VisibleForTesting
+  static int[] match(double[] previousFacets, double[] facets) {
+    Map<Facet, Deque<Integer>> previous = new HashMap<>();
+    for (int index = 0; index < previousFacets.length / FACET_VALUES; index++) {
+      previous.computeIfAbsent(new Facet(previousFacets, index), facet -> new ArrayDeque<>()).add(index);
+    }
+    int[] matches = new int[facets.length / FACET_VALUES];
+    for (int index = 0; index < matches.length; index++) {
+      Deque<Integer> candidates = previous.get(new Facet(facets, index));
+      matches[index] = candidates == null || candidates.isEmpty() ? -1 : candidates.poll();
+    }
+    return matches;
+  }
+
+  /**
+   * Padded bounding boxes, six values each (minimum x, y, z then maximum x, y, z), of the facets only one of the two
+   * sets has.
+   */
+  @VisibleForTesting
+  static double[] changedBoxes(double[] previousFacets, double[] facets) {
+    int[] previousIndices = match(previousFacets, facets);
+    boolean[] kept = new boolean[previousFacets.length / FACET_VALUES];
+    List<double[]> boxes = new ArrayList<>();
+    for (int index = 0; index < previousIndices.length; index++) {
+      if (previousIndices[index] < 0) {
+        boxes.add(boxOf(facets, index));
+      } else {
+        kept[previousIndices[index]] = true;
+      }
+    }
+    for (int index = 0; index < kept.length; index++) {
+      if (!kept[index]) {
+        boxes.add(boxOf(previousFacets, index));
+      }
+    }
+    double[] flat = new double[boxes.size() * 6];
+    for (int box = 0; box < boxes.size(); box++) {
+      System.arraycopy(boxes.get(box), 0, flat, box * 6, 6);
+    }
+    return flat;
+  }
+
+  private static double[] boxOf(double[] facets, int index) {
+    int offset = index * FACET_VALUES;
+    double[] box = new double[6];
+    double largest = 0;
+    for (int axis = 0; axis < 3; axis++) {
+      double a = facets[offset + axis];
+      double b = a + facets[offset + 3 + axis];
+      double c = a + facets[offset + 6 + axis];
+      box[axis] = Math.min(a, Math.min(b, c));
+      box[axis + 3] = Math.max(a, Math.max(b, c));
+      largest = Math.max(largest, Math.max(Math.abs(box[axis]), Math.abs(box[axis + 3])));
+    }
+    double padding = BOX_PADDING * Math.max(1, largest);
+    for (int axis = 0; axis < 3; axis++) {
+      box[axis] -= padding;
+      box[axis + 3] += padding;
+    }
+    return box;
+  }
+
+  /**
+   * Whether any ray of the pair may pass through one of changedBoxes(), as described in the class comment. boxes is
+   * the hierarchy over them.
+   */
+  @VisibleForTesting
+  static boolean mayBeAffected(
+      Geometry emitters,
+      int emitterIndex,
+      Geometry receivers,
+      int receiverIndex,
+      BoundingVolumeHierarchy boxes,
+      double refineDistance,
+      int maxSubdivision) {
+    double[] origin = {emitters.centerX(emitterIndex), emitters.centerY(emitterIndex), emitters.centerZ(emitterIndex)};
+    double[] ray = {
+        receivers.centerX(receiverIndex) - origin[0],
+        receivers.centerY(receiverIndex) - origin[1],
+        receivers.centerZ(receiverIndex) - origin[2]};
+    double distance = Math.sqrt(ray[0] * ray[0] + ray[1] * ray[1] + ray[2] * ray[2]);
+    // As in IntersectionKernel.subdivisionOf: split if either triangle would be.
+    double size = refineDistance * Math.sqrt(Math.max(emitters.area(emitterIndex), receivers.area(receiverIndex)));
+    boolean refined = maxSubdivision > 1 && distance < size;
+
+    if (refined) {
+      return boxes.overlapsBox(hullOf(emitters, emitterIndex, receivers, receiverIndex));
+    }
+    return boxes.segmentHitsBox(origin[0], origin[1], origin[2], ray[0], ray[1], ray[2]);
+  }
+
+  // Bounding box of the pair's two triangles.
+  private static double[] hullOf(Geometry emitters, int emitterIndex, Geometry receivers, int receiverIndex) {
+    double[] hull = {
+        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    for (int corner = 0; corner < 3; corner++) {
+      for (int axis = 0; axis < 3; axis++) {
+        double emitterCorner = emitters.cornerOf(emitterIndex, corner, axis);
+        double receiverCorner = receivers.cornerOf(receiverIndex, corner, axis);
+        hull[axis] = Math.min(hull[axis], Math.min(emitterCorner, receiverCorner));
+        hull[axis + 3] = Math.max(hull[axis + 3], Math.max(emitterCorner, receiverCorner));
+      }
+    }
+    return hull;
+  }
+
+  // Indices of the new facets, those with no previous index, or of the others.
+  private static int[] indicesWhere(int[] previousIndices, boolean isNew) {
+    boolean[] selected = new boolean[previousIndices.length];
+    for (int index = 0; index < previousIndices.length; index++) {
+      selected[index] = (previousIndices[index] < 0) == isNew;
+    }
+    return indicesOf(selected, false);
+  }
+
+  // Indices of the selected entries, or of every entry if all is set.
+  private static int[] indicesOf(boolean[] selected, boolean all) {
+    int count = 0;
+    for (boolean value : selected) {
+      if (value || all) count++;
+    }
+    int[] indices = new int[count];
+    int next = 0;
+    for (int index = 0; index < selected.length; index++) {
+      if (selected[index] || all) indices[next++] = index;
+    }
+    return indices;
+  }
+
+  // Marks the emitters and receivers of the pairs mayBeAffected, out of the given old ones.
+  private static final class AffectedPairs {
+    private final Geometry emitters;
+    private final int[] oldEmitters;
+    private final Geometry receivers;
+    private final int[] oldReceivers;
+    private final BoundingVolumeHierarchy boxes;
+    private final double refineDistance;
+    private final int maxSubdivision;
+    // Only ever set, so tiles racing on an entry agree.
+    private final boolean[] affectedEmitters;
+    private final boolean[] affectedReceivers;
+
+    private AffectedPairs(
+        Geometry emitters,
+        int[] oldEmitters,
+        Geometry receivers,
+        int[] oldReceivers,
+        BoundingVolumeHierarchy boxes,
+        double refineDistance,
+        int maxSubdivision) {
+      this.emitters = emitters;
+      this.oldEmitters = oldEmitters;
+      this.receivers = receivers;
+      this.oldReceivers = oldReceivers;
+      this.boxes = boxes;
+      this.refineDistance = refineDistance;
+      this.maxSubdivision = maxSubdivision;
+      this.affectedEmitters = new boolean[emitters.size()];
+      this.affectedReceivers = new boolean[receivers.size()];
+    }
+
+    /**
+     * Tests oldEmitters[emitterStart, emitterEnd) by oldReceivers[receiverStart, receiverEnd), splitting the longer
+     * side in half until the tile is small enough to run directly.
+     */
+    private final class Tile extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final int emitterStart;
+      private final int emitterEnd;
+      private final int receiverStart;
+      private final int receiverEnd;
+
+      private Tile(int emitterStart, int emitterEnd, int receiverStart, int receiverEnd) {
+        this.emitterStart = emitterStart;
+        this.emitterEnd = emitterEnd;
+        this.receiverStart = receiverStart;
+        this.receiverEnd = receiverEnd;
+      }
+
+      @Override
+      protected void compute() {
+        int emitterSpan = emitterEnd - emitterStart;
+        int receiverSpan = receiverEnd - receiverStart;
+        if (emitterSpan <= TILE_EMITTERS && receiverSpan <= TILE_RECEIVERS) {
+          for (int emitter = emitterStart; emitter < emitterEnd; emitter++) {
+            int emitterIndex = oldEmitters[emitter];
+            for (int receiver = receiverStart; receiver < receiverEnd; receiver++) {
+              int receiverIndex = oldReceivers[receiver];
+              // A pair whose emitter and receiver are both in the block already can't add to it.
+              if (affectedEmitters[emitterIndex] && affectedReceivers[receiverIndex]) continue;
+              boolean affected = mayBeAffected(
+                  emitters, emitterIndex, receivers, receiverIndex, boxes, refineDistance, maxSubdivision);
+              if (affected) {
+                affectedEmitters[emitterIndex] = true;
+                affectedReceivers[receiverIndex] = true;
+              }
+            }
+          }
+        } else if (receiverSpan * TILE_EMITTERS >= emitterSpan * TILE_RECEIVERS) {
+          int middle = (receiverStart + receiverEnd) >>> 1;
+          invokeAll(
+              new Tile(emitterStart, emitterEnd, receiverStart, middle),
+              new Tile(emitterStart, emitterEnd, middle, receiverEnd));
+        } else {
+          int middle = (emitterStart + emitterEnd) >>> 1;
+          invokeAll(
+              new Tile(emitterStart, middle, receiverStart, receiverEnd),
+              new Tile(middle, emitterEnd, receiverStart, receiverEnd));
+        }
+      }
+    }
+  }
+
+  // A facet's FACET_VALUES values within a flat array, compared bit for bit like Geometry.hasSameTrianglesAs.
+  private static final class Facet {
+    private final double[] facets;
+    private final int offset;
+
+    private Facet(double[] facets, int index) {
+      this.facets = facets;
+      this.offset = index * FACET_VALUES;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Facet)) return false;
+      Facet facet = (Facet) other;
+      for (int value = 0; value < FACET_VALUES; value++) {
+        if (Double.doubleToLongBits(facets[offset + value])
+            != Double.doubleToLongBits(facet.facets[facet.offset + value])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = 1;
+      for (int value = 0; value < FACET_VALUES; value++) {
+        long bits = Double.doubleToLongBits(facets[offset + value]);
+        hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+      }
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package viewfactor;
+
+import com.aparapi.Kernel;
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+
+/**
+ * Engines run inside another engine's calculate: TiledEngine's tiles, IncrementalEngine's blocks and ShardWorker's
+ * shards. They report to an EventManager of their own, so their events don't interleave with the outer engine's, and
+ * the outer engine reports their buffer transfers as part of its computation, see skipBufferTransfer.
+ *
+ * The EventManager is walked through a job up to the end of parsing, where an engine's calculate starts, and takes any
+ * number of computations after that. The last engine set is disposed of on close if it's a kernel.
+ */
+final class InnerEngineRun implements AutoCloseable {
+
+  private final EventManager eventManager = new EventManager(Stopwatch::createUnstarted);
+  private ViewFactorEngine engine;
+
+  InnerEngineRun() {
+    eventManager.start();
+    eventManager.startParseStl();
+    eventManager.finishParseStl();
+  }
+
+  /**
+   * Reports an empty buffer transfer for an outer engine, whose inner engines each transfer their own buffers.
+   */
+  static void skipBufferTransfer(EventManager outerEvents) {
+    outerEvents.startBufferTransfer();
+    outerEvents.finishBufferTransfer();
+  }
+
+  /**
+   * What the inner engines report to.
+   */
+  EventManager getEventManager() {
+    return eventManager;
+  }
+
+  /**
+   * The engine set last, or null if there's none yet.
+   */
+  ViewFactorEngine getEngine() {
+    return engine;
+  }
+
+  /**
+   * Makes engine, built to report to getEventManager(), the one to dispose of on close, and returns it. The engine set
+   * before is disposed of now unless it's the same one, rebound to other geometry.
+   */
+  <E extends ViewFactorEngine> E setEngine(E engine) {
+    if (this.engine != engine) {
+      dispose();
+    }
+    this.engine = engine;
+    return engine;
+  }
+
+  @Override
+  public void close() {
+    try {
+      dispose();
+    } finally {
+      eventManager.shutdown();
+    }
+  }
+
+  private void dispose() {
+    if (engine instanceof Kernel) {
+      ((Kernel) engine).dispose();
+    }
+    engine = null;
+  }
+}
@@ -1,90 +1,30 @@
 package viewfactor;
 
-import com.aparapi.Kernel;
-import com.aparapi.Range;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import events.EventManager;
-import org.j3d.loaders.stl.STLFileReader;
 
 import java.util.function.Consumer;
 
-public class IntersectionKernel extends Kernel {
-
-  public static class Builder {
-    private final Provider<Geometry> geometryProvider;
-    private final EventManager eventManager;
-
-    private STLFileReader emitterReader;
-    private STLFileReader receiverReader;
-    private STLFileReader interconnectReader;
+public class IntersectionKernel extends AbstractIntersectionKernel implements PosedEngine {
 
+  public static class Builder extends AbstractIntersectionKernel.Builder<IntersectionKernel, Builder> {
     @Inject
     public Builder(Provider<Geometry> geometryProvider, EventManager eventManager) {
-      this.geometryProvider = geometryProvider;
-      this.eventManager = eventManager;
-    }
-
-    Builder setEmitterReader(STLFileReader emitterReader) {
-      this.emitterReader = emitterReader;
-      return this;
-    }
-
-    Builder setInterconnectReader(STLFileReader interconnectReader) {
-      this.interconnectReader = interconnectReader;
-      return this;
-    }
-
-    Builder setReceiverReader(STLFileReader receiverReader) {
-      this.receiverReader = receiverReader;
-      return this;
+      super(geometryProvider, eventManager);
     }
 
-    IntersectionKernel build() {
-      eventManager.startParseStl();
-      Geometry emitters = geometryProvider.get().from(emitterReader);
-      Geometry receivers = geometryProvider.get().from(receiverReader);
-      Geometry interconnects = interconnectReader == null
-          ? geometryProvider.get().empty() : geometryProvider.get().from(interconnectReader);
-      eventManager.finishParseStl();
-
+    @Override
+    IntersectionKernel newKernel(
+        EventManager eventManager,
+        int batchSize,
+        boolean reduceOnDevice,
+        int occlusionIndex,
+        double refineDistance,
+        int maxSubdivision) {
       return new IntersectionKernel(
-          eventManager,
-          emitters.getNormalX(),
-          emitters.getNormalY(),
-          emitters.getNormalZ(),
-          emitters.getVertexAX(),
-          emitters.getVertexAY(),
-          emitters.getVertexAZ(),
-          emitters.getCenterX(),
-          emitters.getCenterY(),
-          emitters.getCenterZ(),
-          emitters.getArea(),
-          interconnects.size(),
-          interconnects.getNormalX(),
-          interconnects.getNormalY(),
-          interconnects.getNormalZ(),
-          interconnects.getVertexAX(),
-          interconnects.getVertexAY(),
-          interconnects.getVertexAZ(),
-          interconnects.getEdgeBAX(),
-          interconnects.getEdgeBAY(),
-          interconnects.getEdgeBAZ(),
-          interconnects.getEdgeCAX(),
-          interconnects.getEdgeCAY(),
-          interconnects.getEdgeCAZ(),
-          receivers.getNormalX(),
-          receivers.getNormalY(),
-          receivers.getNormalZ(),
-          receivers.getVertexAX(),
-          receivers.getVertexAY(),
-          receivers.getVertexAZ(),
-          receivers.getCenterX(),
-          receivers.getCenterY(),
-          receivers.getCenterZ(),
-          receivers.getArea()
-      );
+          eventManager, batchSize, reduceOnDevice, occlusionIndex, refineDistance, maxSubdivision);
     }
   }
 
@@ -94,167 +34,219 @@ public class IntersectionKernel extends Kernel {
     }
   }
 
-  public interface KernelComplete {
-    double onComplete();
-  }
-
+  @Constant private static final double PARALLEL_EPSILON = 1e-8;
+  @Constant private static final double INFINITE_SLAB = 1e300;
   @Constant private static final double PI = 3.141592653589793238462643383279502884197169399375105820974944592307816406286d;
 
-  @Constant private final double[] emitterNormalX;
-  @Constant private final double[] emitterNormalY;
-  @Constant private final double[] emitterNormalZ;
-  @Constant private final double[] emitterVertexAX;
-  @Constant private final double[] emitterVertexAY;
-  @Constant private final double[] emitterVertexAZ;
-  @Constant private final double[] emitterCenterX;
-  @Constant private final double[] emitterCenterY;
-  @Constant private final double[] emitterCenterZ;
-  @Constant private final double[] emitterAreas;
-
-  @Constant private final int interconnectSize;
-  @Constant private final double[] interconnectNormalX;
-  @Constant private final double[] interconnectNormalY;
-  @Constant private final double[] interconnectNormalZ;
-  @Constant private final double[] interconnectVertexAX;
-  @Constant private final double[] interconnectVertexAY;
-  @Constant private final double[] interconnectVertexAZ;
-  @Constant private final double[] interconnectEdgeBAX;
-  @Constant private final double[] interconnectEdgeBAY;
-  @Constant private final double[] interconnectEdgeBAZ;
-  @Constant private final double[] interconnectEdgeCAX;
-  @Constant private final double[] interconnectEdgeCAY;
-  @Constant private final double[] interconnectEdgeCAZ;
-
-  @Constant private final double[] receiverNormalX;
-  @Constant private final double[] receiverNormalY;
-  @Constant private final double[] receiverNormalZ;
-  @Constant private final double[] receiverVertexAX;
-  @Constant private final double[] receiverVertexAY;
-  @Constant private final double[] receiverVertexAZ;
-  @Constant private final double[] receiverCenterX;
-  @Constant private final double[] receiverCenterY;
-  @Constant private final double[] receiverCenterZ;
-  @Constant private final double[] receiverAreas;
-
-  private double[] result;
-  private int emitterIndex; // TODO(justinying): does the GPU properly get this number?
-
-  private final EventManager eventManager;
-  /**
-   * Constructor, used only by the Builder class. The builder exists so the above fields can be final, allowing Aparapi
-   * to put them in faster memory.
-   */
+  // Adaptive subdivision of close pairs. See subdivisionOf.
+  @Constant private static final double ONE_THIRD = 1.0 / 3;
+  @Constant private static final double TWO_THIRDS = 2.0 / 3;
+  @Constant private final double refineDistance;
+
+  @Constant private double[] emitterNormalX;
+  @Constant private double[] emitterNormalY;
+  @Constant private double[] emitterNormalZ;
+  @Constant private double[] emitterVertexAX;
+  @Constant private double[] emitterVertexAY;
+  @Constant private double[] emitterVertexAZ;
+  @Constant private double[] emitterEdgeBAX;
+  @Constant private double[] emitterEdgeBAY;
+  @Constant private double[] emitterEdgeBAZ;
+  @Constant private double[] emitterEdgeCAX;
+  @Constant private double[] emitterEdgeCAY;
+  @Constant private double[] emitterEdgeCAZ;
+  @Constant private double[] emitterCenterX;
+  @Constant private double[] emitterCenterY;
+  @Constant private double[] emitterCenterZ;
+  @Constant private double[] emitterAreas;
+
+  @Constant private int interconnectSize;
+  @Constant private double[] interconnectNormalX;
+  @Constant private double[] interconnectNormalY;
+  @Constant private double[] interconnectNormalZ;
+  @Constant private double[] interconnectVertexAX;
+  @Constant private double[] interconnectVertexAY;
+  @Constant private double[] interconnectVertexAZ;
+  @Constant private double[] interconnectEdgeBAX;
+  @Constant private double[] interconnectEdgeBAY;
+  @Constant private double[] interconnectEdgeBAZ;
+  @Constant private double[] interconnectEdgeCAX;
+  @Constant private double[] interconnectEdgeCAY;
+  @Constant private double[] interconnectEdgeCAZ;
+  // With indexedInterconnects the corners come from a welded vertex pool instead, see Geometry.indexed(), and the
+  // vertex and edge arrays above are placeholders.
+  @Constant private boolean indexedInterconnects;
+  @Constant private double[] interconnectPoolX;
+  @Constant private double[] interconnectPoolY;
+  @Constant private double[] interconnectPoolZ;
+  @Constant private int[] interconnectTriangleA;
+  @Constant private int[] interconnectTriangleB;
+  @Constant private int[] interconnectTriangleC;
+
+  // Flattened BoundingVolumeHierarchy over the interconnects. See that class for the layout.
+  @Constant private int bvhNodeCount;
+  @Constant private double[] bvhMinX;
+  @Constant private double[] bvhMinY;
+  @Constant private double[] bvhMinZ;
+  @Constant private double[] bvhMaxX;
+  @Constant private double[] bvhMaxY;
+  @Constant private double[] bvhMaxZ;
+  @Constant private int[] bvhEscapeIndex;
+  @Constant private int[] bvhFirstTriangle;
+  @Constant private int[] bvhTriangleCount;
+  @Constant private int[] bvhTriangleIndex;
+
+  // Flattened UniformGrid over the interconnects. See that class for the layout.
+  @Constant private int gridDimX;
+  @Constant private int gridDimY;
+  @Constant private int gridDimZ;
+  @Constant private double gridMinX;
+  @Constant private double gridMinY;
+  @Constant private double gridMinZ;
+  @Constant private double gridMaxX;
+  @Constant private double gridMaxY;
+  @Constant private double gridMaxZ;
+  @Constant private double gridCellSizeX;
+  @Constant private double gridCellSizeY;
+  @Constant private double gridCellSizeZ;
+  @Constant private int[] gridCellOffset;
+  @Constant private int[] gridTriangleIndex;
+
+  @Constant private double[] receiverNormalX;
+  @Constant private double[] receiverNormalY;
+  @Constant private double[] receiverNormalZ;
+  @Constant private double[] receiverVertexAX;
+  @Constant private double[] receiverVertexAY;
+  @Constant private double[] receiverVertexAZ;
+  @Constant private double[] receiverEdgeBAX;
+  @Constant private double[] receiverEdgeBAY;
+  @Constant private double[] receiverEdgeBAZ;
+  @Constant private double[] receiverEdgeCAX;
+  @Constant private double[] receiverEdgeCAY;
+  @Constant private double[] receiverEdgeCAZ;
+  @Constant private double[] receiverCenterX;
+  @Constant private double[] receiverCenterY;
+  @Constant private double[] receiverCenterZ;
+  @Constant private double[] receiverAreas;
+  // Where the receivers are moved to, in Pose's layout. The identity unless a --poses sweep sets another.
+  @Constant private final double[] receiverPose = Pose.IDENTITY.toArray();
+
+  @Local private final double[] localSums = new double[REDUCTION_GROUP_SIZE];
+
+  // Used only by the Builder class, see AbstractIntersectionKernel.
   private IntersectionKernel(
       EventManager eventManager,
-      double[] emitterNormalX,
-      double[] emitterNormalY,
-      double[] emitterNormalZ,
-      double[] emitterVertexAX,
-      double[] emitterVertexAY,
-      double[] emitterVertexAZ,
-      double[] emitterCenterX,
-      double[] emitterCenterY,
-      double[] emitterCenterZ,
-      double[] emitterAreas,
-      int interconnectSize,
-      double[] interconnectNormalX,
-      double[] interconnectNormalY,
-      double[] interconnectNormalZ,
-      double[] interconnectVertexAX,
-      double[] interconnectVertexAY,
-      double[] interconnectVertexAZ,
-      double[] interconnectEdgeBAX,
-      double[] interconnectEdgeBAY,
-      double[] interconnectEdgeBAZ,
-      double[] interconnectEdgeCAX,
-      double[] interconnectEdgeCAY,
-      double[] interconnectEdgeCAZ,
-      double[] receiverNormalX,
-      double[] receiverNormalY,
-      double[] receiverNormalZ,
-      double[] receiverVertexAX,
-      double[] receiverVertexAY,
-      double[] receiverVertexAZ,
-      double[] receiverCenterX,
-      double[] receiverCenterY,
-      double[] receiverCenterZ,
-      double[] receiverAreas) {
-    this.eventManager = eventManager;
-
-    this.emitterNormalX = emitterNormalX;
-    this.emitterNormalY = emitterNormalY;
-    this.emitterNormalZ = emitterNormalZ;
-    this.emitterVertexAX = emitterVertexAX;
-    this.emitterVertexAY = emitterVertexAY;
-    this.emitterVertexAZ = emitterVertexAZ;
-    this.emitterCenterX = emitterCenterX;
-    this.emitterCenterY = emitterCenterY;
-    this.emitterCenterZ = emitterCenterZ;
-    this.emitterAreas = emitterAreas;
-
-    this.interconnectSize = interconnectSize;
-    this.interconnectNormalX = interconnectNormalX;
-    this.interconnectNormalY = interconnectNormalY;
-    this.interconnectNormalZ = interconnectNormalZ;
-    this.interconnectVertexAX = interconnectVertexAX;
-    this.interconnectVertexAY = interconnectVertexAY;
-    this.interconnectVertexAZ = interconnectVertexAZ;
-    this.interconnectEdgeBAX = interconnectEdgeBAX;
-    this.interconnectEdgeBAY = interconnectEdgeBAY;
-    this.interconnectEdgeBAZ = interconnectEdgeBAZ;
-    this.interconnectEdgeCAX = interconnectEdgeCAX;
-    this.interconnectEdgeCAY = interconnectEdgeCAY;
-    this.interconnectEdgeCAZ = interconnectEdgeCAZ;
-
-    this.receiverNormalX = receiverNormalX;
-    this.receiverNormalY = receiverNormalY;
-    this.receiverNormalZ = receiverNormalZ;
-    this.receiverVertexAX = receiverVertexAX;
-    this.receiverVertexAY = receiverVertexAY;
-    this.receiverVertexAZ = receiverVertexAZ;
-    this.receiverCenterX = receiverCenterX;
-    this.receiverCenterY = receiverCenterY;
-    this.receiverCenterZ = receiverCenterZ;
-    this.receiverAreas = receiverAreas;
+      int batchSize,
+      boolean reduceOnDevice,
+      int occlusionIndex,
+      double refineDistance,
+      int maxSubdivision) {
+    super(eventManager, batchSize, reduceOnDevice, occlusionIndex, maxSubdivision);
+    this.refineDistance = refineDistance;
+  }
+
+  @Override
+  boolean refinesAt(double refineDistance) {
+    return this.refineDistance == refineDistance;
+  }
+
+  @Override
+  void setGeometryArrays(
+      Geometry emitters,
+      Geometry interconnects,
+      Geometry interconnectCorners,
+      Geometry interconnectPool,
+      BoundingVolumeHierarchy interconnectHierarchy,
+      UniformGrid interconnectGrid,
+      Geometry receivers) {
+    this.emitterNormalX = emitters.getNormalX();
+    this.emitterNormalY = emitters.getNormalY();
+    this.emitterNormalZ = emitters.getNormalZ();
+    this.emitterVertexAX = emitters.getVertexAX();
+    this.emitterVertexAY = emitters.getVertexAY();
+    this.emitterVertexAZ = emitters.getVertexAZ();
+    this.emitterEdgeBAX = emitters.getEdgeBAX();
+    this.emitterEdgeBAY = emitters.getEdgeBAY();
+    this.emitterEdgeBAZ = emitters.getEdgeBAZ();
+    this.emitterEdgeCAX = emitters.getEdgeCAX();
+    this.emitterEdgeCAY = emitters.getEdgeCAY();
+    this.emitterEdgeCAZ = emitters.getEdgeCAZ();
+    this.emitterCenterX = emitters.getCenterX();
+    this.emitterCenterY = emitters.getCenterY();
+    this.emitterCenterZ = emitters.getCenterZ();
+    this.emitterAreas = emitters.getArea();
+
+    this.interconnectSize = interconnects.size();
+    this.interconnectNormalX = interconnects.getNormalX();
+    this.interconnectNormalY = interconnects.getNormalY();
+    this.interconnectNormalZ = interconnects.getNormalZ();
+    this.interconnectVertexAX = interconnectCorners.getVertexAX();
+    this.interconnectVertexAY = interconnectCorners.getVertexAY();
+    this.interconnectVertexAZ = interconnectCorners.getVertexAZ();
+    this.interconnectEdgeBAX = interconnectCorners.getEdgeBAX();
+    this.interconnectEdgeBAY = interconnectCorners.getEdgeBAY();
+    this.interconnectEdgeBAZ = interconnectCorners.getEdgeBAZ();
+    this.interconnectEdgeCAX = interconnectCorners.getEdgeCAX();
+    this.interconnectEdgeCAY = interconnectCorners.getEdgeCAY();
+    this.interconnectEdgeCAZ = interconnectCorners.getEdgeCAZ();
+    this.indexedInterconnects = interconnects.isIndexed();
+    this.interconnectPoolX = interconnectPool.getPoolX();
+    this.interconnectPoolY = interconnectPool.getPoolY();
+    this.interconnectPoolZ = interconnectPool.getPoolZ();
+    this.interconnectTriangleA = interconnectPool.getTriangleA();
+    this.interconnectTriangleB = interconnectPool.getTriangleB();
+    this.interconnectTriangleC = interconnectPool.getTriangleC();
+
+    this.bvhNodeCount = interconnectHierarchy.getNodeCount();
+    this.bvhMinX = interconnectHierarchy.getMinX();
+    this.bvhMinY = interconnectHierarchy.getMinY();
+    this.bvhMinZ = interconnectHierarchy.getMinZ();
+    this.bvhMaxX = interconnectHierarchy.getMaxX();
+    this.bvhMaxY = interconnectHierarchy.getMaxY();
+    this.bvhMaxZ = interconnectHierarchy.getMaxZ();
+    this.bvhEscapeIndex = interconnectHierarchy.getEscapeIndex();
+    this.bvhFirstTriangle = interconnectHierarchy.getFirstTriangle();
+    this.bvhTriangleCount = interconnectHierarchy.getTriangleCount();
+    this.bvhTriangleIndex = interconnectHierarchy.getTriangleIndex();
+
+    this.gridDimX = interconnectGrid.getDimX();
+    this.gridDimY = interconnectGrid.getDimY();
+    this.gridDimZ = interconnectGrid.getDimZ();
+    this.gridMinX = interconnectGrid.getMinX();
+    this.gridMinY = interconnectGrid.getMinY();
+    this.gridMinZ = interconnectGrid.getMinZ();
+    this.gridMaxX = interconnectGrid.getMaxX();
+    this.gridMaxY = interconnectGrid.getMaxY();
+    this.gridMaxZ = interconnectGrid.getMaxZ();
+    this.gridCellSizeX = interconnectGrid.getCellSizeX();
+    this.gridCellSizeY = interconnectGrid.getCellSizeY();
+    this.gridCellSizeZ = interconnectGrid.getCellSizeZ();
+    this.gridCellOffset = interconnectGrid.getCellOffset();
+    this.gridTriangleIndex = interconnectGrid.getTriangleIndex();
+
+    this.receiverNormalX = receivers.getNormalX();
+    this.receiverNormalY = receivers.getNormalY();
+    this.receiverNormalZ = receivers.getNormalZ();
+    this.receiverVertexAX = receivers.getVertexAX();
+    this.receiverVertexAY = receivers.getVertexAY();
+    this.receiverVertexAZ = receivers.getVertexAZ();
+    this.receiverEdgeBAX = receivers.getEdgeBAX();
+    this.receiverEdgeBAY = receivers.getEdgeBAY();
+    this.receiverEdgeBAZ = receivers.getEdgeBAZ();
+    this.receiverEdgeCAX = receivers.getEdgeCAX();
+    this.receiverEdgeCAY = receivers.getEdgeCAY();
+    this.receiverEdgeCAZ = receivers.getEdgeCAZ();
+    this.receiverCenterX = receivers.getCenterX();
+    this.receiverCenterY = receivers.getCenterY();
+    this.receiverCenterZ = receivers.getCenterZ();
+    this.receiverAreas = receivers.getArea();
+    setReceiverPose(Pose.IDENTITY);
   }
 
   @VisibleForTesting
   static IntersectionKernel forMathOnly() {
-    return new IntersectionKernel(
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        0,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null,
-        null);
+    // Without geometry, isMathOnly() holds.
+    return new IntersectionKernel(null, 0, false, OCCLUSION_BRUTE_FORCE, 0, 0);
   }
 
   private boolean isMathOnly() {
@@ -264,6 +256,12 @@ public class IntersectionKernel extends Kernel {
         || emitterVertexAX == null
         || emitterVertexAY == null
         || emitterVertexAZ == null
+        || emitterEdgeBAX == null
+        || emitterEdgeBAY == null
+        || emitterEdgeBAZ == null
+        || emitterEdgeCAX == null
+        || emitterEdgeCAY == null
+        || emitterEdgeCAZ == null
         || emitterCenterX == null
         || emitterCenterY == null
         || emitterCenterZ == null
@@ -280,29 +278,59 @@ public class IntersectionKernel extends Kernel {
         || interconnectEdgeCAX == null
         || interconnectEdgeCAY == null
         || interconnectEdgeCAZ == null
+        || interconnectPoolX == null
+        || interconnectPoolY == null
+        || interconnectPoolZ == null
+        || interconnectTriangleA == null
+        || interconnectTriangleB == null
+        || interconnectTriangleC == null
+        || bvhMinX == null
+        || bvhMinY == null
+        || bvhMinZ == null
+        || bvhMaxX == null
+        || bvhMaxY == null
+        || bvhMaxZ == null
+        || bvhEscapeIndex == null
+        || bvhFirstTriangle == null
+        || bvhTriangleCount == null
+        || bvhTriangleIndex == null
+        || gridCellOffset == null
+        || gridTriangleIndex == null
         || receiverNormalX == null
         || receiverNormalY == null
         || receiverNormalZ == null
         || receiverVertexAX == null
         || receiverVertexAY == null
         || receiverVertexAZ == null
+        || receiverEdgeBAX == null
+        || receiverEdgeBAY == null
+        || receiverEdgeBAZ == null
+        || receiverEdgeCAX == null
+        || receiverEdgeCAY == null
+        || receiverEdgeCAZ == null
         || receiverCenterX == null
         || receiverCenterY == null
         || receiverCenterZ == null
         || receiverAreas == null;
   }
 
-  /**
-   * Runs the kernel for each emitter triangle, passing the view factor result of that triangle's dA incrementally back
-   * to resultConsumer. Calls completionHandler onComplete when the task is finished.
-   */
-  void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+  @Override
+  public void setReceiverPose(Pose pose) {
+    System.arraycopy(pose.toArray(), 0, receiverPose, 0, Pose.LENGTH);
+  }
+
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
     if (isMathOnly()) throw new MathOnlyKernelException();
+    super.calculate(resultConsumer, completionHandler);
+  }
 
-    eventManager.startBufferTransfer();
-    setExplicit(true);
+  @Override
+  void putGeometryArrays() {
     put(emitterNormalX).put(emitterNormalY).put(emitterNormalZ);
     put(emitterVertexAX).put(emitterVertexAY).put(emitterVertexAZ);
+    put(emitterEdgeBAX).put(emitterEdgeBAY).put(emitterEdgeBAZ);
+    put(emitterEdgeCAX).put(emitterEdgeCAY).put(emitterEdgeCAZ);
     put(emitterCenterX).put(emitterCenterY).put(emitterCenterZ);
     put(emitterAreas);
 
@@ -310,31 +338,26 @@ public class IntersectionKernel extends Kernel {
     put(interconnectVertexAX).put(interconnectVertexAY).put(interconnectVertexAZ);
     put(interconnectEdgeBAX).put(interconnectEdgeBAY).put(interconnectEdgeBAZ);
     put(interconnectEdgeCAX).put(interconnectEdgeCAY).put(interconnectEdgeCAZ);
+    put(interconnectPoolX).put(interconnectPoolY).put(interconnectPoolZ);
+    put(interconnectTriangleA).put(interconnectTriangleB).put(interconnectTriangleC);
+
+    put(bvhMinX).put(bvhMinY).put(bvhMinZ);
+    put(bvhMaxX).put(bvhMaxY).put(bvhMaxZ);
+    put(bvhEscapeIndex).put(bvhFirstTriangle).put(bvhTriangleCount).put(bvhTriangleIndex);
+
+    put(gridCellOffset).put(gridTriangleIndex);
 
     put(receiverNormalX).put(receiverNormalY).put(receiverNormalZ);
     put(receiverVertexAX).put(receiverVertexAY).put(receiverVertexAZ);
+    put(receiverEdgeBAX).put(receiverEdgeBAY).put(receiverEdgeBAZ);
+    put(receiverEdgeCAX).put(receiverEdgeCAY).put(receiverEdgeCAZ);
     put(receiverCenterX).put(receiverCenterY).put(receiverCenterZ);
     put(receiverAreas);
-
-    result = new double[receiverAreas.length];
-
-    eventManager.finishBufferTransfer();
-    eventManager.startComputation();
-    for (emitterIndex = 0; emitterIndex < receiverAreas.length; emitterIndex++) {
-      super.execute(Range.create(receiverAreas.length));
-      eventManager.updateComputationProgress(emitterIndex, receiverAreas.length);
-      get(result);
-      resultConsumer.accept(result);
-    }
-    eventManager.updateComputationProgress(emitterIndex, receiverAreas.length);
-    eventManager.finishComputation(completionHandler.onComplete() / sum(emitterAreas));
   }
 
-  private static double sum(double...values) {
-    double result = 0;
-    for (double value:values)
-      result += value;
-    return result;
+  @Override
+  void putPerCall() {
+    put(receiverPose);
   }
 
   /**
@@ -342,43 +365,212 @@ public class IntersectionKernel extends Kernel {
    */
   @Override
   public void run() {
-    int receiverIndex = getGlobalId();
+    if (reduceOnDevice) {
+      reduceEmitter();
+    } else if (cullPairs) {
+      int pair = getGlobalId(0);
+      if (pair < pairCount) {
+        result[pair] = culledPairViewFactor(emitterOffset + pairRow[pair], pairReceiver[pair]);
+      }
+    } else {
+      int receiverIndex = getGlobalId(0);
+      result[getGlobalId(1) * getGlobalSize(0) + receiverIndex] =
+          pairViewFactor(emitterOffset + getGlobalId(1), receiverIndex);
+    }
+  }
 
-    // Calculate the ray from the emitter to the destination triangle.
-    double rayX = receiverCenterX[receiverIndex] - emitterCenterX[emitterIndex];
-    double rayY = receiverCenterY[receiverIndex] - emitterCenterY[emitterIndex];
-    double rayZ = receiverCenterZ[receiverIndex] - emitterCenterZ[emitterIndex];
-    double rayMagnitude = magnitude(rayX, rayY, rayZ);
+  /**
+   * Sums the view factors of one emitter over all receivers. The work-group's items stride over the receivers, then
+   * combine their partial sums with a tree reduction in local memory.
+   */
+  private void reduceEmitter() {
+    int localId = getLocalId(0);
+    int localSize = getLocalSize(0);
+    int emitterIndex = emitterOffset + getGlobalId(1);
+
+    double sum = 0;
+    if (cullPairs) {
+      int end = rowPairOffset[getGlobalId(1) + 1];
+      for (int pair = rowPairOffset[getGlobalId(1)] + localId; pair < end; pair += localSize) {
+        sum += culledPairViewFactor(emitterIndex, pairReceiver[pair]);
+      }
+    } else {
+      for (int receiverIndex = localId; receiverIndex < receiverCount; receiverIndex += localSize) {
+        sum += pairViewFactor(emitterIndex, receiverIndex);
+      }
+    }
+    localSums[localId] = sum;
+    localBarrier();
 
-    // Check if any intersecting geometry exists.
-    for (int interconnectIndex = 0; interconnectIndex < interconnectSize; interconnectIndex++) {
-      double intersectionDistance = intersectionDistance(interconnectIndex, rayX, rayY, rayZ);
+    for (int stride = localSize / 2; stride > 0; stride /= 2) {
+      if (localId < stride) {
+        localSums[localId] += localSums[localId + stride];
+      }
+      localBarrier();
+    }
+
+    if (localId == 0) {
+      result[getGlobalId(1)] = localSums[0];
+    }
+  }
+
+  private double pairViewFactor(int emitterIndex, int receiverIndex) {
+    return refinedViewFactor(emitterIndex, receiverIndex, true);
+  }
+
+  // Entry of a PairCuller pair list. Receivers it marked unoccludable skip the occlusion test.
+  private double culledPairViewFactor(int emitterIndex, int pairReceiverIndex) {
+    if (pairReceiverIndex < 0) {
+      return refinedViewFactor(emitterIndex, -1 - pairReceiverIndex, false);
+    }
+    return refinedViewFactor(emitterIndex, pairReceiverIndex, true);
+  }
+
+  /**
+   * View factor contribution of one pair. Distant pairs are treated as points at the triangle centers. Pairs that are
+   * close for their size are split into sub-triangles, each triangle by its own size, and summed over every pair of
+   * sub-triangles. Sub-triangle rays are always tested for occlusion, as they can pass where the center ray doesn't.
+   */
+  private double refinedViewFactor(int emitterIndex, int receiverIndex, boolean testOcclusion) {
+    // Calculate the ray from the emitter to the destination triangle.
+    double originX = emitterCenterX[emitterIndex];
+    double originY = emitterCenterY[emitterIndex];
+    double originZ = emitterCenterZ[emitterIndex];
+    double centerX = receiverCenterX[receiverIndex];
+    double centerY = receiverCenterY[receiverIndex];
+    double centerZ = receiverCenterZ[receiverIndex];
+    double rayX = posedPointX(centerX, centerY, centerZ) - originX;
+    double rayY = posedPointY(centerX, centerY, centerZ) - originY;
+    double rayZ = posedPointZ(centerX, centerY, centerZ) - originZ;
+
+    double distance = magnitude(rayX, rayY, rayZ);
+    int emitterSubdivision = subdivisionOf(emitterAreas[emitterIndex], distance);
+    int receiverSubdivision = subdivisionOf(receiverAreas[receiverIndex], distance);
+
+    if (emitterSubdivision == 1 && receiverSubdivision == 1) {
       // If intersecting geometry exists, the contributed view factor is zero.
-      if (intersectionDistance != 0 && intersectionDistance <= rayMagnitude) {
-        result[receiverIndex] = 0;
-        return;
+      if (testOcclusion && isOccluded(originX, originY, originZ, rayX, rayY, rayZ)) {
+        return 0;
+      }
+      return pointViewFactor(
+          emitterIndex, receiverIndex, rayX, rayY, rayZ, emitterAreas[emitterIndex], receiverAreas[receiverIndex]);
+    }
+
+    int emitterPatches = emitterSubdivision * emitterSubdivision;
+    int receiverPatches = receiverSubdivision * receiverSubdivision;
+    double emitterPatchArea = emitterAreas[emitterIndex] / emitterPatches;
+    double receiverPatchArea = receiverAreas[receiverIndex] / receiverPatches;
+    double vertexX = receiverVertexAX[receiverIndex];
+    double vertexY = receiverVertexAY[receiverIndex];
+    double vertexZ = receiverVertexAZ[receiverIndex];
+    double edgeBX = receiverEdgeBAX[receiverIndex];
+    double edgeBY = receiverEdgeBAY[receiverIndex];
+    double edgeBZ = receiverEdgeBAZ[receiverIndex];
+    double edgeCX = receiverEdgeCAX[receiverIndex];
+    double edgeCY = receiverEdgeCAY[receiverIndex];
+    double edgeCZ = receiverEdgeCAZ[receiverIndex];
+    double receiverAX = posedPointX(vertexX, vertexY, vertexZ);
+    double receiverAY = posedPointY(vertexX, vertexY, vertexZ);
+    double receiverAZ = posedPointZ(vertexX, vertexY, vertexZ);
+    double receiverBAX = posedDirectionX(edgeBX, edgeBY, edgeBZ);
+    double receiverBAY = posedDirectionY(edgeBX, edgeBY, edgeBZ);
+    double receiverBAZ = posedDirectionZ(edgeBX, edgeBY, edgeBZ);
+    double receiverCAX = posedDirectionX(edgeCX, edgeCY, edgeCZ);
+    double receiverCAY = posedDirectionY(edgeCX, edgeCY, edgeCZ);
+    double receiverCAZ = posedDirectionZ(edgeCX, edgeCY, edgeCZ);
+    double sum = 0;
+    for (int emitterPatch = 0; emitterPatch < emitterPatches; emitterPatch++) {
+      double emitterU = patchU(emitterSubdivision, emitterPatch);
+      double emitterV = patchV(emitterSubdivision, emitterPatch);
+      double patchX = emitterVertexAX[emitterIndex]
+          + emitterU * emitterEdgeBAX[emitterIndex] + emitterV * emitterEdgeCAX[emitterIndex];
+      double patchY = emitterVertexAY[emitterIndex]
+          + emitterU * emitterEdgeBAY[emitterIndex] + emitterV * emitterEdgeCAY[emitterIndex];
+      double patchZ = emitterVertexAZ[emitterIndex]
+          + emitterU * emitterEdgeBAZ[emitterIndex] + emitterV * emitterEdgeCAZ[emitterIndex];
+
+      for (int receiverPatch = 0; receiverPatch < receiverPatches; receiverPatch++) {
+        double receiverU = patchU(receiverSubdivision, receiverPatch);
+        double receiverV = patchV(receiverSubdivision, receiverPatch);
+        double patchRayX = receiverAX + receiverU * receiverBAX + receiverV * receiverCAX - patchX;
+        double patchRayY = receiverAY + receiverU * receiverBAY + receiverV * receiverCAY - patchY;
+        double patchRayZ = receiverAZ + receiverU * receiverBAZ + receiverV * receiverCAZ - patchZ;
+
+        if (!isOccluded(patchX, patchY, patchZ, patchRayX, patchRayY, patchRayZ)) {
+          sum += pointViewFactor(
+              emitterIndex, receiverIndex, patchRayX, patchRayY, patchRayZ, emitterPatchArea, receiverPatchArea);
+        }
       }
     }
+    return sum;
+  }
+
+  /**
+   * Sub-triangles per edge for a triangle of the given area at the given distance: the smallest split, up to
+   * maxSubdivision, that makes the sub-triangles no bigger than distance / refineDistance. A triangle's size is taken
+   * as the side of a square of the same area. Always 1 if refineDistance is 0.
+   */
+  private int subdivisionOf(double area, double distance) {
+    double size = refineDistance * Math.sqrt(area);
+    int subdivision = 1;
+    while (subdivision < maxSubdivision && subdivision * distance < size) {
+      subdivision++;
+    }
+    return subdivision;
+  }
+
+  // A triangle split into n x n sub-triangles has rows of 1, 3, 5, ... sub-triangles counting from corner B, with
+  // upright and inverted sub-triangles alternating along each row. patchU and patchV give the centroid of sub-triangle
+  // patch in that order, as multiples of edge BA and edge CA.
+  private double patchU(int subdivision, int patch) {
+    int row = patchRow(patch);
+    int offset = patch - row * row;
+    return (subdivision - 1 - row + ((offset & 1) == 0 ? ONE_THIRD : TWO_THIRDS)) / subdivision;
+  }
+
+  private double patchV(int subdivision, int patch) {
+    int row = patchRow(patch);
+    int offset = patch - row * row;
+    return (offset / 2 + ((offset & 1) == 0 ? ONE_THIRD : TWO_THIRDS)) / subdivision;
+  }
+
+  // Integer square root of patch.
+  private int patchRow(int patch) {
+    int row = (int) Math.sqrt((double) patch);
+    if ((row + 1) * (row + 1) <= patch) row++;
+    if (row * row > patch) row--;
+    return row;
+  }
+
+  // cos(theta1) cos(theta2) dA1 dA2 / (pi r^2) for a ray between points on the two triangles.
+  private double pointViewFactor(
+      int emitterIndex,
+      int receiverIndex,
+      double rayX,
+      double rayY,
+      double rayZ,
+      double emitterArea,
+      double receiverArea) {
+    double rayMagnitude = magnitude(rayX, rayY, rayZ);
+    double normalX = receiverNormalX[receiverIndex];
+    double normalY = receiverNormalY[receiverIndex];
+    double normalZ = receiverNormalZ[receiverIndex];
+    double posedNormalX = posedDirectionX(normalX, normalY, normalZ);
+    double posedNormalY = posedDirectionY(normalX, normalY, normalZ);
+    double posedNormalZ = posedDirectionZ(normalX, normalY, normalZ);
 
     double emitterDenominator =
         magnitude(
             emitterNormalX[emitterIndex],
             emitterNormalY[emitterIndex],
             emitterNormalZ[emitterIndex]) * rayMagnitude;
-    double receiverDenominator =
-        magnitude(
-            receiverNormalX[receiverIndex],
-            receiverNormalY[receiverIndex],
-            receiverNormalZ[receiverIndex]) * rayMagnitude;
+    double receiverDenominator = magnitude(posedNormalX, posedNormalY, posedNormalZ) * rayMagnitude;
 
     double emitterNormalDotRay =
         emitterNormalX[emitterIndex] * rayX
             + emitterNormalY[emitterIndex] * rayY
             + emitterNormalZ[emitterIndex] * rayZ;
-    double receiverNormalDotRay =
-        receiverNormalX[receiverIndex] * rayX
-            + receiverNormalY[receiverIndex] * rayY
-            + receiverNormalZ[receiverIndex] * rayZ;
+    double receiverNormalDotRay = posedNormalX * rayX + posedNormalY * rayY + posedNormalZ * rayZ;
 
     double cosThetaOne = emitterNormalDotRay / emitterDenominator;
     double cosThetaTwo = receiverNormalDotRay / receiverDenominator;
@@ -390,43 +582,281 @@ public class IntersectionKernel extends Kernel {
     if (cosThetaOne < 0) cosThetaOne = -cosThetaOne;
     if (cosThetaTwo < 0) cosThetaTwo = -cosThetaTwo;
 
-    result[receiverIndex] = cosThetaOne * cosThetaTwo * emitterAreas[emitterIndex] * receiverAreas[receiverIndex]
-        / (PI * rayMagnitude * rayMagnitude);
+    return cosThetaOne * cosThetaTwo * emitterArea * receiverArea / (PI * rayMagnitude * rayMagnitude);
+  }
+
+  // A receiver point moved by receiverPose: rotated, then translated. See Pose.
+  private double posedPointX(double x, double y, double z) {
+    return posedDirectionX(x, y, z) + receiverPose[9];
+  }
+
+  private double posedPointY(double x, double y, double z) {
+    return posedDirectionY(x, y, z) + receiverPose[10];
+  }
+
+  private double posedPointZ(double x, double y, double z) {
+    return posedDirectionZ(x, y, z) + receiverPose[11];
+  }
+
+  // A receiver edge or normal turned by receiverPose, which only rotates it.
+  private double posedDirectionX(double x, double y, double z) {
+    return receiverPose[0] * x + receiverPose[1] * y + receiverPose[2] * z;
+  }
+
+  private double posedDirectionY(double x, double y, double z) {
+    return receiverPose[3] * x + receiverPose[4] * y + receiverPose[5] * z;
+  }
+
+  private double posedDirectionZ(double x, double y, double z) {
+    return receiverPose[6] * x + receiverPose[7] * y + receiverPose[8] * z;
+  }
+
+  /**
+   * Whether any interconnect triangle lies between the origin and the end of the ray, using the index picked by
+   * occlusionIndex.
+   */
+  private boolean isOccluded(
+      double originX, double originY, double originZ, double rayX, double rayY, double rayZ) {
+    if (occlusionIndex == OCCLUSION_BVH) {
+      return isOccludedInHierarchy(originX, originY, originZ, rayX, rayY, rayZ);
+    } else if (occlusionIndex == OCCLUSION_GRID) {
+      return isOccludedInGrid(originX, originY, originZ, rayX, rayY, rayZ);
+    }
+
+    for (int interconnectIndex = 0; interconnectIndex < interconnectSize; interconnectIndex++) {
+      double intersectionDistance =
+          intersectionDistance(originX, originY, originZ, interconnectIndex, rayX, rayY, rayZ);
+      // Rays aren't normalized, so only hits strictly between the two centers block the ray.
+      if (intersectionDistance > 0 && intersectionDistance < 1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Same traversal as BoundingVolumeHierarchy.isOccluded.
+  private boolean isOccludedInHierarchy(
+      double originX, double originY, double originZ, double rayX, double rayY, double rayZ) {
+    double inverseRayX = inverseOf(rayX);
+    double inverseRayY = inverseOf(rayY);
+    double inverseRayZ = inverseOf(rayZ);
+
+    int node = 0;
+    while (node < bvhNodeCount) {
+      if (!segmentHitsBox(originX, originY, originZ, node, inverseRayX, inverseRayY, inverseRayZ)) {
+        node = bvhEscapeIndex[node];
+      } else if (bvhTriangleCount[node] == 0) {
+        node++;
+      } else {
+        int end = bvhFirstTriangle[node] + bvhTriangleCount[node];
+        for (int slot = bvhFirstTriangle[node]; slot < end; slot++) {
+          double intersectionDistance =
+              intersectionDistance(originX, originY, originZ, bvhTriangleIndex[slot], rayX, rayY, rayZ);
+          if (intersectionDistance > 0 && intersectionDistance < 1) {
+            return true;
+          }
+        }
+        node = bvhEscapeIndex[node];
+      }
+    }
+    return false;
+  }
+
+  // Same 3D-DDA walk as UniformGrid.isOccluded.
+  private boolean isOccludedInGrid(
+      double originX, double originY, double originZ, double rayX, double rayY, double rayZ) {
+    if (interconnectSize == 0) return false;
+
+    double inverseRayX = inverseOf(rayX);
+    double inverseRayY = inverseOf(rayY);
+    double inverseRayZ = inverseOf(rayZ);
+
+    // Clip the segment to the grid.
+    double tNear = 0;
+    double tFar = 1;
+    double t1 = (gridMinX - originX) * inverseRayX;
+    double t2 = (gridMaxX - originX) * inverseRayX;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+    t1 = (gridMinY - originY) * inverseRayY;
+    t2 = (gridMaxY - originY) * inverseRayY;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+    t1 = (gridMinZ - originZ) * inverseRayZ;
+    t2 = (gridMaxZ - originZ) * inverseRayZ;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+    if (tNear > tFar) return false;
+
+    int cellX = clampCell((int) ((originX + tNear * rayX - gridMinX) / gridCellSizeX), gridDimX);
+    int cellY = clampCell((int) ((originY + tNear * rayY - gridMinY) / gridCellSizeY), gridDimY);
+    int cellZ = clampCell((int) ((originZ + tNear * rayZ - gridMinZ) / gridCellSizeZ), gridDimZ);
+
+    int stepX = 0;
+    int stepY = 0;
+    int stepZ = 0;
+    double tMaxX = INFINITE_SLAB;
+    double tMaxY = INFINITE_SLAB;
+    double tMaxZ = INFINITE_SLAB;
+    if (rayX > 0) {
+      stepX = 1;
+      tMaxX = (gridMinX + (cellX + 1) * gridCellSizeX - originX) * inverseRayX;
+    } else if (rayX < 0) {
+      stepX = -1;
+      tMaxX = (gridMinX + cellX * gridCellSizeX - originX) * inverseRayX;
+    }
+    if (rayY > 0) {
+      stepY = 1;
+      tMaxY = (gridMinY + (cellY + 1) * gridCellSizeY - originY) * inverseRayY;
+    } else if (rayY < 0) {
+      stepY = -1;
+      tMaxY = (gridMinY + cellY * gridCellSizeY - originY) * inverseRayY;
+    }
+    if (rayZ > 0) {
+      stepZ = 1;
+      tMaxZ = (gridMinZ + (cellZ + 1) * gridCellSizeZ - originZ) * inverseRayZ;
+    } else if (rayZ < 0) {
+      stepZ = -1;
+      tMaxZ = (gridMinZ + cellZ * gridCellSizeZ - originZ) * inverseRayZ;
+    }
+    double tDeltaX = abs(gridCellSizeX * inverseRayX);
+    double tDeltaY = abs(gridCellSizeY * inverseRayY);
+    double tDeltaZ = abs(gridCellSizeZ * inverseRayZ);
+
+    boolean inGrid = true;
+    while (inGrid) {
+      int cell = cellX + gridDimX * (cellY + gridDimY * cellZ);
+      for (int slot = gridCellOffset[cell]; slot < gridCellOffset[cell + 1]; slot++) {
+        double intersectionDistance =
+            intersectionDistance(originX, originY, originZ, gridTriangleIndex[slot], rayX, rayY, rayZ);
+        if (intersectionDistance > 0 && intersectionDistance < 1) {
+          return true;
+        }
+      }
+
+      if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+        cellX += stepX;
+        inGrid = tMaxX <= tFar && cellX >= 0 && cellX < gridDimX;
+        tMaxX += tDeltaX;
+      } else if (tMaxY < tMaxZ) {
+        cellY += stepY;
+        inGrid = tMaxY <= tFar && cellY >= 0 && cellY < gridDimY;
+        tMaxY += tDeltaY;
+      } else {
+        cellZ += stepZ;
+        inGrid = tMaxZ <= tFar && cellZ >= 0 && cellZ < gridDimZ;
+        tMaxZ += tDeltaZ;
+      }
+    }
+    return false;
+  }
+
+  private int clampCell(int cell, int dim) {
+    int clamped = cell;
+    if (clamped < 0) clamped = 0;
+    if (clamped >= dim) clamped = dim - 1;
+    return clamped;
+  }
+
+  private double inverseOf(double rayComponent) {
+    return rayComponent == 0 ? INFINITE_SLAB : 1 / rayComponent;
+  }
+
+  // Slab test of the ray segment, t in [0, 1], against the bounds of a BVH node.
+  private boolean segmentHitsBox(
+      double originX,
+      double originY,
+      double originZ,
+      int node,
+      double inverseRayX,
+      double inverseRayY,
+      double inverseRayZ) {
+    double tNear = 0;
+    double tFar = 1;
+
+    double t1 = (bvhMinX[node] - originX) * inverseRayX;
+    double t2 = (bvhMaxX[node] - originX) * inverseRayX;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+
+    t1 = (bvhMinY[node] - originY) * inverseRayY;
+    t2 = (bvhMaxY[node] - originY) * inverseRayY;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+
+    t1 = (bvhMinZ[node] - originZ) * inverseRayZ;
+    t2 = (bvhMaxZ[node] - originZ) * inverseRayZ;
+    tNear = max(tNear, min(t1, t2));
+    tFar = min(tFar, max(t1, t2));
+
+    return tNear <= tFar;
   }
 
   // TODO: tests.
   // From https://en.wikipedia.org/wiki/M%C3%B6ller%E2%80%93Trumbore_intersection_algorithm
-  private double intersectionDistance(int interconnectIndex, double rayX, double rayY, double rayZ) {
-    // pvec = cross product of ray and edge2.
-    double pvecX = rayY * interconnectEdgeCAZ[interconnectIndex] - rayZ * interconnectEdgeCAY[interconnectIndex];
-    double pvecY = rayZ * interconnectEdgeCAX[interconnectIndex] - rayX * interconnectEdgeCAZ[interconnectIndex];
-    double pvecZ = rayX * interconnectEdgeCAY[interconnectIndex] - rayY * interconnectEdgeCAX[interconnectIndex];
+  // Returns the distance along the ray in multiples of its length, or 0 if there's no intersection.
+  private double intersectionDistance(
+      double originX, double originY, double originZ, int interconnectIndex, double rayX, double rayY, double rayZ) {
+    double vertexAX;
+    double vertexAY;
+    double vertexAZ;
+    double edgeBAX;
+    double edgeBAY;
+    double edgeBAZ;
+    double edgeCAX;
+    double edgeCAY;
+    double edgeCAZ;
+    if (indexedInterconnects) {
+      int a = interconnectTriangleA[interconnectIndex];
+      int b = interconnectTriangleB[interconnectIndex];
+      int c = interconnectTriangleC[interconnectIndex];
+      vertexAX = interconnectPoolX[a];
+      vertexAY = interconnectPoolY[a];
+      vertexAZ = interconnectPoolZ[a];
+      edgeBAX = interconnectPoolX[b] - vertexAX;
+      edgeBAY = interconnectPoolY[b] - vertexAY;
+      edgeBAZ = interconnectPoolZ[b] - vertexAZ;
+      edgeCAX = interconnectPoolX[c] - vertexAX;
+      edgeCAY = interconnectPoolY[c] - vertexAY;
+      edgeCAZ = interconnectPoolZ[c] - vertexAZ;
+    } else {
+      vertexAX = interconnectVertexAX[interconnectIndex];
+      vertexAY = interconnectVertexAY[interconnectIndex];
+      vertexAZ = interconnectVertexAZ[interconnectIndex];
+      edgeBAX = interconnectEdgeBAX[interconnectIndex];
+      edgeBAY = interconnectEdgeBAY[interconnectIndex];
+      edgeBAZ = interconnectEdgeBAZ[interconnectIndex];
+      edgeCAX = interconnectEdgeCAX[interconnectIndex];
+      edgeCAY = interconnectEdgeCAY[interconnectIndex];
+      edgeCAZ = interconnectEdgeCAZ[interconnectIndex];
+    }
 
-    double intersectionDistance = -1;
+    // pvec = cross product of ray and edge2.
+    double pvecX = rayY * edgeCAZ - rayZ * edgeCAY;
+    double pvecY = rayZ * edgeCAX - rayX * edgeCAZ;
+    double pvecZ = rayX * edgeCAY - rayY * edgeCAX;
 
     // Dot product of edge1 and pvec.
-    double det = interconnectEdgeBAX[interconnectIndex] * pvecX
-        + interconnectEdgeBAY[interconnectIndex] * pvecY
-        + interconnectEdgeBAZ[interconnectIndex] * pvecZ;
+    double det = edgeBAX * pvecX + edgeBAY * pvecY + edgeBAZ * pvecZ;
 
     // Ray is parallel to plane.
-    if (det < 1e-8 && det > -1e-8) return 0;
+    if (det < PARALLEL_EPSILON && det > -PARALLEL_EPSILON) return 0;
 
     double invDet = 1 / det;
 
-    // tvec = ray from center vertex to emitterCenter.
-    double tvecX = emitterCenterX[emitterIndex] - interconnectVertexAX[interconnectIndex];
-    double tvecY = emitterCenterY[emitterIndex] - interconnectVertexAY[interconnectIndex];
-    double tvecZ = emitterCenterZ[emitterIndex] - interconnectVertexAZ[interconnectIndex];
+    // tvec = ray from vertex A to the origin.
+    double tvecX = originX - vertexAX;
+    double tvecY = originY - vertexAY;
+    double tvecZ = originZ - vertexAZ;
 
-    // u = dot product of tvec and pvec.
-    double u = tvecX * pvecX + tvecY * pvecY + tvecZ * pvecZ;
+    // u = dot product of tvec and pvec * invDet.
+    double u = (tvecX * pvecX + tvecY * pvecY + tvecZ * pvecZ) * invDet;
     if (u < 0 || u > 1) return 0;
 
     // qvec = cross product of tvec and edge1.
-    double qvecX = tvecY * interconnectEdgeBAZ[interconnectIndex] - tvecZ * interconnectEdgeBAY[interconnectIndex];
-    double qvecY = tvecZ * interconnectEdgeBAX[interconnectIndex] - tvecX * interconnectEdgeBAZ[interconnectIndex];
-    double qvecZ = tvecX * interconnectEdgeBAY[interconnectIndex] - tvecY * interconnectEdgeBAX[interconnectIndex];
+    double qvecX = tvecY * edgeBAZ - tvecZ * edgeBAY;
+    double qvecY = tvecZ * edgeBAX - tvecX * edgeBAZ;
+    double qvecZ = tvecX * edgeBAY - tvecY * edgeBAX;
 
     // v = dot product of dir(ray) and qvec * invDet.
     double v = (rayX * qvecX + rayY * qvecY + rayZ * qvecZ) * invDet;
@@ -434,9 +864,7 @@ public class IntersectionKernel extends Kernel {
     if (v < 0 || u + v > 1) {
       return 0;
     } else {
-      return (interconnectEdgeCAX[interconnectIndex] * qvecX
-          + interconnectEdgeCAY[interconnectIndex] * qvecY
-          + interconnectEdgeCAZ[interconnectIndex] * qvecZ) * invDet;
+      return (edgeCAX * qvecX + edgeCAY * qvecY + edgeCAZ * qvecZ) * invDet;
     }
   }
 
@@ -0,0 +1,116 @@
+package viewfactor;
+
+/**
+ * Plain Java versions of the ray tests in IntersectionKernel, for code that walks geometry on the CPU. The kernel keeps
+ * its own copies because Aparapi can only translate methods declared on the kernel itself.
+ */
+final class Intersections {
+
+  private static final double PARALLEL_EPSILON = 1e-8;
+  // Stands in for 1 / 0 in slab tests. Unlike infinity it can't produce NaN when a box face lies on the origin.
+  private static final double INFINITE_SLAB = 1e300;
+
+  private Intersections() {}
+
+  /**
+   * Whether a Moller-Trumbore distance lies strictly between the origin (0) and the end of the ray (1). Rays are not
+   * normalized, so a ray from one centroid to another is blocked only by hits inside that open interval.
+   */
+  static boolean blocksSegment(double intersectionDistance) {
+    return intersectionDistance > 0 && intersectionDistance < 1;
+  }
+
+  // From https://en.wikipedia.org/wiki/M%C3%B6ller%E2%80%93Trumbore_intersection_algorithm
+  // Returns the distance along the ray in multiples of its length, or 0 if there's no intersection.
+  static double intersectionDistance(
+      Geometry triangles,
+      int index,
+      double originX,
+      double originY,
+      double originZ,
+      double rayX,
+      double rayY,
+      double rayZ) {
+    double edgeBAX = triangles.edgeBAX(index);
+    double edgeBAY = triangles.edgeBAY(index);
+    double edgeBAZ = triangles.edgeBAZ(index);
+    double edgeCAX = triangles.edgeCAX(index);
+    double edgeCAY = triangles.edgeCAY(index);
+    double edgeCAZ = triangles.edgeCAZ(index);
+
+    // pvec = cross product of ray and edge2.
+    double pvecX = rayY * edgeCAZ - rayZ * edgeCAY;
+    double pvecY = rayZ * edgeCAX - rayX * edgeCAZ;
+    double pvecZ = rayX * edgeCAY - rayY * edgeCAX;
+
+    // Dot product of edge1 and pvec.
+    double det = edgeBAX * pvecX + edgeBAY * pvecY + edgeBAZ * pvecZ;
+
+    // Ray is parallel to plane.
+    if (det < PARALLEL_EPSILON && det > -PARALLEL_EPSILON) return 0;
+
+    double invDet = 1 / det;
+
+    // tvec = ray from vertex A to the origin.
+    double tvecX = originX - triangles.vertexAX(index);
+    double tvecY = originY - triangles.vertexAY(index);
+    double tvecZ = originZ - triangles.vertexAZ(index);
+
+    // u = dot product of tvec and pvec * invDet.
+    double u = (tvecX * pvecX + tvecY * pvecY + tvecZ * pvecZ) * invDet;
+    if (u < 0 || u > 1) return 0;
+
+    // qvec = cross product of tvec and edge1.
+    double qvecX = tvecY * edgeBAZ - tvecZ * edgeBAY;
+    double qvecY = tvecZ * edgeBAX - tvecX * edgeBAZ;
+    double qvecZ = tvecX * edgeBAY - tvecY * edgeBAX;
+
+    // v = dot product of dir(ray) and qvec * invDet.
+    double v = (rayX * qvecX + rayY * qvecY + rayZ * qvecZ) * invDet;
+    if (v < 0 || u + v > 1) return 0;
+
+    return (edgeCAX * qvecX + edgeCAY * qvecY + edgeCAZ * qvecZ) * invDet;
+  }
+
+  static double inverseOf(double rayComponent) {
+    return rayComponent == 0 ? INFINITE_SLAB : 1 / rayComponent;
+  }
+
+  /**
+   * Slab test of the segment origin + t * ray, t in [0, 1], against an axis-aligned box. Takes the ray's inverse
+   * components, as computed by inverseOf, so that a segment is only divided once for all the boxes it visits.
+   */
+  static boolean segmentHitsBox(
+      double originX,
+      double originY,
+      double originZ,
+      double inverseRayX,
+      double inverseRayY,
+      double inverseRayZ,
+      double minX,
+      double minY,
+      double minZ,
+      double maxX,
+      double maxY,
+      double maxZ) {
+    double tNear = 0;
+    double tFar = 1;
+
+    double t1 = (minX - originX) * inverseRayX;
+    double t2 = (maxX - originX) * inverseRayX;
+    tNear = Math.max(tNear, Math.min(t1, t2));
+    tFar = Math.min(tFar, Math.max(t1, t2));
+
+    t1 = (minY - originY) * inverseRayY;
+    t2 = (maxY - originY) * inverseRayY;
+    tNear = Math.max(tNear, Math.min(t1, t2));
+    tFar = Math.min(tFar, Math.max(t1, t2));
+
+    t1 = (minZ - originZ) * inverseRayZ;
+    t2 = (maxZ - originZ) * inverseRayZ;
+    tNear = Math.max(tNear, Math.min(t1, t2));
+    tFar = Math.min(tFar, Math.max(t1, t2));
+
+    return tNear <= tFar;
+  }
+}
@@ -0,0 +1,120 @@
+package viewfactor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams per-emitter result rows into a dense emitter x receiver view factor matrix on disk. Row i, column j holds
+ * F_ij, the view factor from emitter i to receiver j. Rows must arrive in emitter order, as engines deliver them.
+ *
+ * The file is little-endian: a HEADER_BYTES header (magic, version, row count, column count, bytes per value) followed
+ * by the rows, row-major, as doubles or floats. It's written through memory-mapped windows of whole rows, so values go
+ * straight from the engine's row into the page cache and matrices larger than the heap work.
+ */
+class MatrixFileWriter implements RowWriter {
+
+  static final int MAGIC = 0x56464D58; // "VFMX"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 32;
+
+  // MappedByteBuffers are int indexed, so windows can't exceed 2GB.
+  private static final long MAX_WINDOW_BYTES = 1 << 30;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final double[] emitterAreas;
+  private final long rows;
+  private final int columns;
+  private final Configuration.Precision precision;
+  private final long rowBytes;
+  private final long windowRows;
+
+  private MappedByteBuffer window;
+  private DoubleBuffer doubleWindow;
+  private FloatBuffer floatWindow;
+  private long windowStartRow;
+  private long nextRow;
+
+  MatrixFileWriter(File output, Geometry emitters, Geometry receivers, Configuration.Precision precision)
+      throws IOException {
+    this.emitterAreas = emitters.getArea();
+    this.rows = emitters.size();
+    this.columns = receivers.size();
+    this.precision = precision;
+    this.rowBytes = (long) columns * precision.getBytes();
+    if (rowBytes > MAX_WINDOW_BYTES) {
+      throw new IllegalArgumentException("Error: matrix rows of " + columns + " receivers are too long to map.");
+    }
+    this.windowRows = Math.max(1, MAX_WINDOW_BYTES / Math.max(1, rowBytes));
+
+    file = new RandomAccessFile(output, "rw");
+    file.setLength(HEADER_BYTES + rows * rowBytes);
+    channel = file.getChannel();
+
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(VERSION).putLong(rows).putLong(columns).putInt(precision.getBytes());
+    header.force();
+  }
+
+  @Override
+  public void accept(double[] row) {
+    if (row.length != columns) {
+      throw new IllegalArgumentException(
+          "Error: expected a row of " + columns + " view factors but got " + row.length + ".");
+    }
+    if (nextRow >= rows) {
+      throw new IllegalStateException("Error: the matrix already has all " + rows + " rows.");
+    }
+    try {
+      if (window == null || nextRow - windowStartRow >= windowRows) {
+        mapWindowAt(nextRow);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    // Degenerate emitters see nothing; don't let them fill the row with NaNs.
+    double emitterArea = emitterAreas[(int) nextRow];
+    if (emitterArea == 0) emitterArea = Double.POSITIVE_INFINITY;
+    int offset = (int) (nextRow - windowStartRow) * columns;
+    if (precision == Configuration.Precision.DOUBLE) {
+      for (int column = 0; column < columns; column++) {
+        doubleWindow.put(offset + column, row[column] / emitterArea);
+      }
+    } else {
+      for (int column = 0; column < columns; column++) {
+        floatWindow.put(offset + column, (float) (row[column] / emitterArea));
+      }
+    }
+    nextRow++;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (window != null) {
+      window.force();
+    }
+    channel.close();
+    file.close();
+  }
+
+  private void mapWindowAt(long row) throws IOException {
+    if (window != null) {
+      window.force();
+    }
+    long windowBytes = Math.min(windowRows, rows - row) * rowBytes;
+    window = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + row * rowBytes, windowBytes);
+    window.order(ByteOrder.LITTLE_ENDIAN);
+    doubleWindow = window.asDoubleBuffer();
+    floatWindow = window.asFloatBuffer();
+    windowStartRow = row;
+  }
+}
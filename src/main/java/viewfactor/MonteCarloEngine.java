@@ -0,0 +1,365 @@
+package viewfactor;
+
+import com.google.inject.Inject;
+import events.EventManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Stochastic engine for when only the aggregate view factor matters. Instead of visiting every emitter/receiver pair it
+ * traces random rays: a sample picks an emitter triangle with probability proportional to its area, a uniform point
+ * on it, and a cosine-weighted direction, then traces that direction out of both faces of the triangle, matching the
+ * two-sided cosines of the other engines. A ray scores if the first receiver it hits isn't behind an interconnect.
+ * The view factor is the mean score per sample.
+ *
+ * Samples are taken in rounds until the 95% confidence interval of the mean is within the tolerance or the sample
+ * budget is spent, so the cost depends on the accuracy asked for rather than on E * R * I. Each round is split into
+ * fixed chunks, each with its own random stream split off in order from the seed, so results don't depend on
+ * scheduling.
+ *
+ * Emits one single-value row per emitter, its estimated share of the total, like IntersectionKernel does with
+ * reduceOnDevice.
+ */
+class MonteCarloEngine implements ViewFactorEngine {
+
+  public static class Builder {
+    private final EventManager eventManager;
+
+    private Geometry emitters;
+    private Geometry receivers;
+    private Geometry interconnects;
+    private Configuration.OcclusionIndex occlusionIndex = Configuration.OcclusionIndex.BVH;
+    private double tolerance = 1e-3;
+    private long maxSamples = 1L << 26;
+    private long seed;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    @Inject
+    public Builder(EventManager eventManager) {
+      this.eventManager = eventManager;
+    }
+
+    Builder setEmitters(Geometry emitters) {
+      this.emitters = emitters;
+      return this;
+    }
+
+    Builder setInterconnects(Geometry interconnects) {
+      this.interconnects = interconnects;
+      return this;
+    }
+
+    Builder setReceivers(Geometry receivers) {
+      this.receivers = receivers;
+      return this;
+    }
+
+    Builder setOcclusionIndex(Configuration.OcclusionIndex occlusionIndex) {
+      this.occlusionIndex = occlusionIndex;
+      return this;
+    }
+
+    Builder setTolerance(double tolerance) {
+      this.tolerance = tolerance;
+      return this;
+    }
+
+    Builder setMaxSamples(long maxSamples) {
+      this.maxSamples = maxSamples;
+      return this;
+    }
+
+    Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    Builder setParallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    MonteCarloEngine build() {
+      return new MonteCarloEngine(
+          eventManager,
+          emitters,
+          receivers,
+          BoundingVolumeHierarchy.of(receivers),
+          Occluders.of(interconnects, occlusionIndex),
+          tolerance,
+          maxSamples,
+          seed,
+          parallelism);
+    }
+  }
+
+  // Two-sided z for a 95% confidence interval.
+  private static final double Z_95 = 1.959963984540054;
+  private static final int ROUND_SAMPLES = 1 << 16;
+  private static final int CHUNK_SAMPLES = 1 << 12;
+
+  private final EventManager eventManager;
+  private final Geometry emitters;
+  private final Geometry receivers;
+  private final BoundingVolumeHierarchy receiverHierarchy;
+  private final Occluders interconnects;
+  private final double tolerance;
+  private final long maxSamples;
+  private final long seed;
+  private final int parallelism;
+
+  // cumulativeArea[i] is the total area of emitters [0, i], for picking emitters by area.
+  private final double[] cumulativeArea;
+  // Long enough to cross the bounding box of emitters and receivers from anywhere inside it.
+  private final double rayLength;
+
+  private double halfWidth;
+  private long samples;
+
+  private MonteCarloEngine(
+      EventManager eventManager,
+      Geometry emitters,
+      Geometry receivers,
+      BoundingVolumeHierarchy receiverHierarchy,
+      Occluders interconnects,
+      double tolerance,
+      long maxSamples,
+      long seed,
+      int parallelism) {
+    this.eventManager = eventManager;
+    this.emitters = emitters;
+    this.receivers = receivers;
+    this.receiverHierarchy = receiverHierarchy;
+    this.interconnects = interconnects;
+    this.tolerance = tolerance;
+    this.maxSamples = maxSamples;
+    this.seed = seed;
+    this.parallelism = parallelism;
+
+    cumulativeArea = new double[emitters.size()];
+    double area = 0;
+    for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+      area += emitters.area(emitterIndex);
+      cumulativeArea[emitterIndex] = area;
+    }
+    rayLength = 2 * Math.max(1, diagonalOf(emitters, receivers));
+  }
+
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+    // Nothing to transfer, but the event sequence is shared with the GPU engine.
+    eventManager.startBufferTransfer();
+    eventManager.finishBufferTransfer();
+
+    int emitterCount = emitters.size();
+    double totalArea = emitterCount == 0 ? 0 : cumulativeArea[emitterCount - 1];
+    AtomicLongArray emitterScores = new AtomicLongArray(Math.max(1, emitterCount));
+    long scoreSum = 0;
+    long scoreSquareSum = 0;
+    samples = 0;
+    halfWidth = Double.POSITIVE_INFINITY;
+
+    eventManager.startComputation();
+    SplittableRandom streams = new SplittableRandom(seed);
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      while (totalArea > 0 && samples < maxSamples && !(halfWidth <= tolerance)) {
+        long roundSamples = Math.min(ROUND_SAMPLES, maxSamples - samples);
+        List<Chunk> chunks = new ArrayList<>();
+        for (long chunkStart = 0; chunkStart < roundSamples; chunkStart += CHUNK_SAMPLES) {
+          chunks.add(new Chunk(streams.split(), (int) Math.min(CHUNK_SAMPLES, roundSamples - chunkStart),
+              emitterScores));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+
+        for (Chunk chunk : chunks) {
+          scoreSum += chunk.scoreSum;
+          scoreSquareSum += chunk.scoreSquareSum;
+        }
+        samples += roundSamples;
+
+        double mean = (double) scoreSum / samples;
+        double variance = Math.max(0, (double) scoreSquareSum / samples - mean * mean);
+        halfWidth = Z_95 * Math.sqrt(variance / Math.max(1, samples - 1));
+        eventManager.updateComputationProgress(
+            (int) Math.min(Integer.MAX_VALUE, samples / ROUND_SAMPLES),
+            (int) Math.min(Integer.MAX_VALUE, (maxSamples + ROUND_SAMPLES - 1) / ROUND_SAMPLES));
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    for (int emitterIndex = 0; emitterIndex < emitterCount; emitterIndex++) {
+      resultConsumer.accept(new double[] {
+          samples == 0 ? 0 : totalArea * emitterScores.get(emitterIndex) / samples});
+    }
+    eventManager.info(String.format(
+        "Monte Carlo: %d samples, 95%% confidence interval +/- %g.", samples, halfWidth));
+    eventManager.finishComputation(completionHandler.onComplete() / totalArea);
+  }
+
+  /**
+   * Half the width of the 95% confidence interval reached by the last calculate().
+   */
+  double getHalfWidth() {
+    return halfWidth;
+  }
+
+  /**
+   * Samples taken by the last calculate().
+   */
+  long getSamples() {
+    return samples;
+  }
+
+  // Scores one sample: 0, 1 or 2 rays, one from each face, reach a receiver.
+  private int sample(SplittableRandom random, AtomicLongArray emitterScores) {
+    int emitterIndex = emitterAt(random.nextDouble() * cumulativeArea[cumulativeArea.length - 1]);
+
+    // Uniform point on the triangle.
+    double root = Math.sqrt(random.nextDouble());
+    double u = root * (1 - random.nextDouble());
+    double v = root - u;
+    double originX = emitters.vertexAX(emitterIndex)
+        + u * emitters.edgeBAX(emitterIndex) + v * emitters.edgeCAX(emitterIndex);
+    double originY = emitters.vertexAY(emitterIndex)
+        + u * emitters.edgeBAY(emitterIndex) + v * emitters.edgeCAY(emitterIndex);
+    double originZ = emitters.vertexAZ(emitterIndex)
+        + u * emitters.edgeBAZ(emitterIndex) + v * emitters.edgeCAZ(emitterIndex);
+
+    double normalX = emitters.normalX(emitterIndex);
+    double normalY = emitters.normalY(emitterIndex);
+    double normalZ = emitters.normalZ(emitterIndex);
+    double normalMagnitude = magnitude(normalX, normalY, normalZ);
+    if (normalMagnitude == 0) return 0;
+    normalX /= normalMagnitude;
+    normalY /= normalMagnitude;
+    normalZ /= normalMagnitude;
+
+    // Tangent = normal x an axis the normal isn't close to; bitangent = normal x tangent.
+    double tangentX;
+    double tangentY;
+    double tangentZ;
+    if (Math.abs(normalX) < 0.9) {
+      tangentX = 0;
+      tangentY = normalZ;
+      tangentZ = -normalY;
+    } else {
+      tangentX = -normalZ;
+      tangentY = 0;
+      tangentZ = normalX;
+    }
+    double tangentMagnitude = magnitude(tangentX, tangentY, tangentZ);
+    tangentX /= tangentMagnitude;
+    tangentY /= tangentMagnitude;
+    tangentZ /= tangentMagnitude;
+    double bitangentX = normalY * tangentZ - normalZ * tangentY;
+    double bitangentY = normalZ * tangentX - normalX * tangentZ;
+    double bitangentZ = normalX * tangentY - normalY * tangentX;
+
+    // Cosine-weighted direction: uniform on the unit disk, projected up onto the hemisphere.
+    double radius = Math.sqrt(random.nextDouble());
+    double angle = 2 * Math.PI * random.nextDouble();
+    double along = radius * Math.cos(angle);
+    double across = radius * Math.sin(angle);
+    double up = Math.sqrt(Math.max(0, 1 - radius * radius));
+    double planeX = along * tangentX + across * bitangentX;
+    double planeY = along * tangentY + across * bitangentY;
+    double planeZ = along * tangentZ + across * bitangentZ;
+
+    int score = trace(originX, originY, originZ, planeX + up * normalX, planeY + up * normalY, planeZ + up * normalZ)
+        + trace(originX, originY, originZ, planeX - up * normalX, planeY - up * normalY, planeZ - up * normalZ);
+    if (score > 0) {
+      emitterScores.addAndGet(emitterIndex, score);
+    }
+    return score;
+  }
+
+  // 1 if the unit direction reaches a receiver before any interconnect, else 0.
+  private int trace(
+      double originX, double originY, double originZ, double directionX, double directionY, double directionZ) {
+    double rayX = directionX * rayLength;
+    double rayY = directionY * rayLength;
+    double rayZ = directionZ * rayLength;
+    int receiverIndex = receiverHierarchy.firstHit(originX, originY, originZ, rayX, rayY, rayZ);
+    if (receiverIndex < 0) return 0;
+
+    double distance = Intersections.intersectionDistance(
+        receivers, receiverIndex, originX, originY, originZ, rayX, rayY, rayZ);
+    return interconnects.isOccluded(originX, originY, originZ, rayX * distance, rayY * distance, rayZ * distance)
+        ? 0 : 1;
+  }
+
+  // Index of the first emitter whose cumulative area exceeds the given area.
+  private int emitterAt(double area) {
+    int low = 0;
+    int high = cumulativeArea.length - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (cumulativeArea[middle] > area) {
+        high = middle;
+      } else {
+        low = middle + 1;
+      }
+    }
+    return low;
+  }
+
+  private static double diagonalOf(Geometry... geometries) {
+    double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (Geometry triangles : geometries) {
+      for (int index = 0; index < triangles.size(); index++) {
+        double[] a = {triangles.vertexAX(index), triangles.vertexAY(index), triangles.vertexAZ(index)};
+        double[] ba = {triangles.edgeBAX(index), triangles.edgeBAY(index), triangles.edgeBAZ(index)};
+        double[] ca = {triangles.edgeCAX(index), triangles.edgeCAY(index), triangles.edgeCAZ(index)};
+        for (int axis = 0; axis < 3; axis++) {
+          min[axis] = Math.min(min[axis], Math.min(a[axis], Math.min(a[axis] + ba[axis], a[axis] + ca[axis])));
+          max[axis] = Math.max(max[axis], Math.max(a[axis], Math.max(a[axis] + ba[axis], a[axis] + ca[axis])));
+        }
+      }
+    }
+    if (min[0] > max[0]) return 0;
+    return magnitude(max[0] - min[0], max[1] - min[1], max[2] - min[2]);
+  }
+
+  private static double magnitude(double a, double b, double c) {
+    return Math.sqrt(a * a + b * b + c * c);
+  }
+
+  /**
+   * A fixed run of samples with its own random stream.
+   */
+  private final class Chunk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final SplittableRandom random;
+    private final int sampleCount;
+    private final AtomicLongArray emitterScores;
+
+    private long scoreSum;
+    private long scoreSquareSum;
+
+    private Chunk(SplittableRandom random, int sampleCount, AtomicLongArray emitterScores) {
+      this.random = random;
+      this.sampleCount = sampleCount;
+      this.emitterScores = emitterScores;
+    }
+
+    @Override
+    protected void compute() {
+      for (int sample = 0; sample < sampleCount; sample++) {
+        int score = sample(random, emitterScores);
+        scoreSum += score;
+        scoreSquareSum += score * score;
+      }
+    }
+  }
+}
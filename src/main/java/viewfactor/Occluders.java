@@ -0,0 +1,33 @@
+package viewfactor;
+
+/**
+ * CPU-side occlusion test over interconnect geometry, backed by one of the indices in Configuration.OcclusionIndex.
+ */
+interface Occluders {
+
+  /**
+   * Whether any triangle blocks the segment from origin to origin + ray.
+   */
+  boolean isOccluded(double originX, double originY, double originZ, double rayX, double rayY, double rayZ);
+
+  static Occluders of(Geometry triangles, Configuration.OcclusionIndex occlusionIndex) {
+    switch (occlusionIndex) {
+      case BVH:
+        return BoundingVolumeHierarchy.of(triangles);
+      case GRID:
+        return UniformGrid.of(triangles);
+      case BRUTE_FORCE:
+      default:
+        return (originX, originY, originZ, rayX, rayY, rayZ) -> {
+          for (int index = 0; index < triangles.size(); index++) {
+            double distance = Intersections.intersectionDistance(
+                triangles, index, originX, originY, originZ, rayX, rayY, rayZ);
+            if (Intersections.blocksSegment(distance)) {
+              return true;
+            }
+          }
+          return false;
+        };
+    }
+  }
+}
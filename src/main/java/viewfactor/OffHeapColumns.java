@@ -0,0 +1,95 @@
+package viewfactor;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Columns of doubles in a memory-mapped temporary file, for Geometry's off-heap mode.
+ *
+ * The file is deleted when its channel closes, right after mapping, so nothing is left behind, and the mapping lives
+ * on until release() or until the buffers are collected. Pages are backed by the page cache rather than the Java heap:
+ * the operating system decides what stays in RAM, and the garbage collector only sees the small buffer objects.
+ */
+final class OffHeapColumns {
+
+  // A single mapping holds at most Integer.MAX_VALUE bytes.
+  static final int MAX_LENGTH = Integer.MAX_VALUE / Double.BYTES;
+
+  private final MappedByteBuffer[] mappings;
+  private final DoubleBuffer[] columns;
+
+  private OffHeapColumns(MappedByteBuffer[] mappings, DoubleBuffer[] columns) {
+    this.mappings = mappings;
+    this.columns = columns;
+  }
+
+  /**
+   * Maps count zeroed columns of length doubles each, in native byte order.
+   */
+  static OffHeapColumns allocate(int count, int length) throws IOException {
+    Preconditions.checkArgument(length <= MAX_LENGTH, "%s doubles don't fit in one mapped column", length);
+    Path file = Files.createTempFile("viewfactor-geometry", ".columns");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.DELETE_ON_CLOSE)) {
+      MappedByteBuffer[] mappings = new MappedByteBuffer[count];
+      DoubleBuffer[] columns = new DoubleBuffer[count];
+      long bytes = (long) length * Double.BYTES;
+      for (int column = 0; column < count; column++) {
+        mappings[column] = channel.map(FileChannel.MapMode.READ_WRITE, column * bytes, bytes);
+        columns[column] = mappings[column].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+      }
+      return new OffHeapColumns(mappings, columns);
+    }
+  }
+
+  DoubleBuffer[] getColumns() {
+    return columns;
+  }
+
+  /**
+   * Unmaps the columns now rather than whenever the collector gets to them, which also frees the deleted file's disk
+   * space. Any access to the columns or views of them afterwards crashes the JVM, so only call this once nothing reads
+   * them anymore. Where the JVM offers no way to unmap, they're left to the collector.
+   */
+  void release() {
+    for (MappedByteBuffer mapping : mappings) {
+      unmap(mapping);
+    }
+  }
+
+  private static void unmap(ByteBuffer mapping) {
+    try {
+      // Java 9 and later.
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), mapping);
+    } catch (NoSuchMethodException e) {
+      // Java 8.
+      try {
+        Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(mapping);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      } catch (ReflectiveOperationException | RuntimeException ignored) {
+        // Left to the collector.
+      }
+    } catch (ReflectiveOperationException | RuntimeException ignored) {
+      // Left to the collector.
+    }
+  }
+}
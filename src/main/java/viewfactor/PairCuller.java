@@ -0,0 +1,211 @@
+package viewfactor;
+
+/**
+ * Pre-pass that drops emitter/receiver pairs which can't exchange any radiation before the occlusion stage sees them,
+ * and flags the survivors whose ray can't reach any interconnect so the occlusion test can be skipped for them.
+ *
+ * What counts as a culled pair depends on Configuration.Culling:
+ * <ul>
+ *   <li>EDGE_ON drops pairs where either cosine is exactly zero, e.g. coplanar triangles. These contribute nothing
+ *   even with the two-sided cosines the engines use, so results are unchanged.
+ *   <li>BACK_FACING treats normals as oriented, the STL convention, and also drops pairs where the receiver is behind
+ *   the emitter or the emitter is behind the receiver. Whole rows and columns are first rejected by testing the corners
+ *   of the receiver and emitter bounding boxes against each triangle's plane. Only use this if the normals of the two
+ *   surfaces face each other; the bundled parallel plates, for example, have both normals pointing +y.
+ * </ul>
+ *
+ * With upperTriangle set, emitters and receivers are the same surface and only pairs with receiverIndex >
+ * emitterIndex survive; ReciprocalRows fills in the rest. This applies on top of any culling.
+ *
+ * Surviving pairs are written as compact receiver index lists, one run per emitter. Receivers whose ray from the
+ * emitter misses the interconnects' bounding box are stored as unoccludable(receiverIndex), a negative number.
+ */
+class PairCuller {
+
+  private final Configuration.Culling culling;
+  private final boolean upperTriangle;
+  private final Geometry emitters;
+  private final Geometry receivers;
+
+  // Corners of the receiver and emitter bounding boxes, as {x, y, z}.
+  private final double[][] receiverCorners;
+  private final double[][] emitterCorners;
+  // BACK_FACING only: receivers whose plane has every emitter behind it.
+  private final boolean[] receiverFacesAway;
+
+  private final boolean hasInterconnects;
+  private final double[] interconnectMin = new double[3];
+  private final double[] interconnectMax = new double[3];
+
+  private PairCuller(
+      Configuration.Culling culling,
+      boolean upperTriangle,
+      Geometry emitters,
+      Geometry receivers,
+      Geometry interconnects) {
+    this.culling = culling;
+    this.upperTriangle = upperTriangle;
+    this.emitters = emitters;
+    this.receivers = receivers;
+    this.receiverCorners = cornersOf(receivers);
+    this.emitterCorners = cornersOf(emitters);
+    this.receiverFacesAway = new boolean[receivers.size()];
+    if (culling == Configuration.Culling.BACK_FACING) {
+      for (int receiverIndex = 0; receiverIndex < receivers.size(); receiverIndex++) {
+        receiverFacesAway[receiverIndex] = !anyCornerInFront(receivers, receiverIndex, emitterCorners);
+      }
+    }
+
+    hasInterconnects = interconnects.size() > 0;
+    if (hasInterconnects) {
+      boundsOf(interconnects, interconnectMin, interconnectMax);
+    }
+  }
+
+  static PairCuller of(
+      Configuration.Culling culling, Geometry emitters, Geometry receivers, Geometry interconnects) {
+    return of(culling, false, emitters, receivers, interconnects);
+  }
+
+  static PairCuller of(
+      Configuration.Culling culling,
+      boolean upperTriangle,
+      Geometry emitters,
+      Geometry receivers,
+      Geometry interconnects) {
+    return new PairCuller(culling, upperTriangle, emitters, receivers, interconnects);
+  }
+
+  boolean isEnabled() {
+    return culling != Configuration.Culling.NONE || upperTriangle;
+  }
+
+  /**
+   * Encodes a surviving receiver whose ray can't hit an interconnect. Negative, so it can be told apart in the kernel.
+   */
+  static int unoccludable(int receiverIndex) {
+    return -1 - receiverIndex;
+  }
+
+  /**
+   * Undoes unoccludable() on an entry of a pair list, if needed.
+   */
+  static int receiverOf(int pairReceiver) {
+    return pairReceiver < 0 ? -1 - pairReceiver : pairReceiver;
+  }
+
+  /**
+   * Writes the surviving receivers of emitterIndex into pairReceivers from offset, and returns how many there are.
+   * pairReceivers must have room for every receiver.
+   */
+  int cullRow(int emitterIndex, int[] pairReceivers, int offset) {
+    int count = 0;
+    if (culling == Configuration.Culling.BACK_FACING && !anyCornerInFront(emitters, emitterIndex, receiverCorners)) {
+      return 0;
+    }
+    for (int receiverIndex = upperTriangle ? emitterIndex + 1 : 0; receiverIndex < receivers.size(); receiverIndex++) {
+      if (isCulled(emitterIndex, receiverIndex)) continue;
+      pairReceivers[offset + count++] =
+          mayBeOccluded(emitterIndex, receiverIndex) ? receiverIndex : unoccludable(receiverIndex);
+    }
+    return count;
+  }
+
+  /**
+   * Whether the pair can be skipped. Always false when culling is disabled.
+   */
+  boolean isCulled(int emitterIndex, int receiverIndex) {
+    if (upperTriangle && receiverIndex <= emitterIndex) return true;
+    if (culling == Configuration.Culling.NONE) return false;
+    if (receiverFacesAway[receiverIndex]) return true;
+
+    double rayX = receivers.centerX(receiverIndex) - emitters.centerX(emitterIndex);
+    double rayY = receivers.centerY(receiverIndex) - emitters.centerY(emitterIndex);
+    double rayZ = receivers.centerZ(receiverIndex) - emitters.centerZ(emitterIndex);
+    double emitterNormalDotRay = emitters.normalX(emitterIndex) * rayX
+        + emitters.normalY(emitterIndex) * rayY
+        + emitters.normalZ(emitterIndex) * rayZ;
+    double receiverNormalDotRay = receivers.normalX(receiverIndex) * rayX
+        + receivers.normalY(receiverIndex) * rayY
+        + receivers.normalZ(receiverIndex) * rayZ;
+
+    if (culling == Configuration.Culling.BACK_FACING) {
+      // The ray runs from emitter to receiver, so a facing receiver's normal points against it.
+      return emitterNormalDotRay <= 0 || receiverNormalDotRay >= 0;
+    }
+    return emitterNormalDotRay == 0 || receiverNormalDotRay == 0;
+  }
+
+  /**
+   * False if the ray between the pair's centers misses the bounding box of all interconnects.
+   */
+  boolean mayBeOccluded(int emitterIndex, int receiverIndex) {
+    if (!hasInterconnects) return false;
+
+    double originX = emitters.centerX(emitterIndex);
+    double originY = emitters.centerY(emitterIndex);
+    double originZ = emitters.centerZ(emitterIndex);
+    return Intersections.segmentHitsBox(
+        originX, originY, originZ,
+        Intersections.inverseOf(receivers.centerX(receiverIndex) - originX),
+        Intersections.inverseOf(receivers.centerY(receiverIndex) - originY),
+        Intersections.inverseOf(receivers.centerZ(receiverIndex) - originZ),
+        interconnectMin[0], interconnectMin[1], interconnectMin[2],
+        interconnectMax[0], interconnectMax[1], interconnectMax[2]);
+  }
+
+  // Whether any of the corners lies strictly in front of the triangle's plane.
+  private static boolean anyCornerInFront(Geometry triangles, int index, double[][] corners) {
+    for (double[] corner : corners) {
+      double dot = triangles.normalX(index) * (corner[0] - triangles.centerX(index))
+          + triangles.normalY(index) * (corner[1] - triangles.centerY(index))
+          + triangles.normalZ(index) * (corner[2] - triangles.centerZ(index));
+      if (dot > 0) return true;
+    }
+    return false;
+  }
+
+  // The eight corners of the bounding box of the triangles' centers, the points the engines cast rays between.
+  private static double[][] cornersOf(Geometry triangles) {
+    double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int index = 0; index < triangles.size(); index++) {
+      double[] center = {triangles.centerX(index), triangles.centerY(index), triangles.centerZ(index)};
+      for (int axis = 0; axis < 3; axis++) {
+        min[axis] = Math.min(min[axis], center[axis]);
+        max[axis] = Math.max(max[axis], center[axis]);
+      }
+    }
+    double[][] corners = new double[8][];
+    for (int corner = 0; corner < 8; corner++) {
+      corners[corner] = new double[] {
+          (corner & 1) == 0 ? min[0] : max[0],
+          (corner & 2) == 0 ? min[1] : max[1],
+          (corner & 4) == 0 ? min[2] : max[2]};
+    }
+    return corners;
+  }
+
+  // Vertex bounds of the triangles, padded the same way as BoundingVolumeHierarchy's boxes.
+  private static void boundsOf(Geometry triangles, double[] min, double[] max) {
+    for (int axis = 0; axis < 3; axis++) {
+      min[axis] = Double.MAX_VALUE;
+      max[axis] = -Double.MAX_VALUE;
+    }
+    for (int index = 0; index < triangles.size(); index++) {
+      double[] a = {triangles.vertexAX(index), triangles.vertexAY(index), triangles.vertexAZ(index)};
+      double[] ba = {triangles.edgeBAX(index), triangles.edgeBAY(index), triangles.edgeBAZ(index)};
+      double[] ca = {triangles.edgeCAX(index), triangles.edgeCAY(index), triangles.edgeCAZ(index)};
+      for (int axis = 0; axis < 3; axis++) {
+        min[axis] = Math.min(min[axis], Math.min(a[axis], Math.min(a[axis] + ba[axis], a[axis] + ca[axis])));
+        max[axis] = Math.max(max[axis], Math.max(a[axis], Math.max(a[axis] + ba[axis], a[axis] + ca[axis])));
+      }
+    }
+    double largestExtent = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+    double padding = Math.max(largestExtent, 1) * 1e-6;
+    for (int axis = 0; axis < 3; axis++) {
+      min[axis] -= padding;
+      max[axis] += padding;
+    }
+  }
+}
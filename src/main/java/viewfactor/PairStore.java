@@ -0,0 +1,214 @@
+package viewfactor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The geometry and per-pair results of a run, kept by --incremental so the next run only recomputes the pairs its
+ * geometry changes can affect. See IncrementalEngine.
+ *
+ * The file is little-endian: a HEADER_BYTES header (magic, version, a hash of the settings the pairs were computed
+ * with, emitter, receiver and interconnect counts), then FACET_VALUES doubles per facet for the emitters, receivers
+ * and interconnects in turn, then the emitter x receiver pair values, row-major, as the engines pass them on. Rows are
+ * read and written one at a time at their offsets, so the matrix is never on the heap as a whole.
+ */
+class PairStore implements Closeable {
+
+  static final int MAGIC = 0x56465053; // "VFPS"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 32;
+  // Vertex A, edge BA and edge CA: what identifies a facet. The rest of Geometry's columns follow from them.
+  static final int FACET_VALUES = 9;
+
+  private final FileChannel channel;
+  private final long settings;
+  private final int emitterCount;
+  private final int receiverCount;
+  private final int interconnectCount;
+  private final ByteBuffer rowBuffer;
+
+  private PairStore(FileChannel channel, long settings, int emitterCount, int receiverCount, int interconnectCount) {
+    this.channel = channel;
+    this.settings = settings;
+    this.emitterCount = emitterCount;
+    this.receiverCount = receiverCount;
+    this.interconnectCount = interconnectCount;
+    this.rowBuffer = ByteBuffer.allocate(receiverCount * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * The store in file, or null if there's none yet. Throws IllegalArgumentException if file isn't a store.
+   */
+  static PairStore open(Path file) throws IOException {
+    if (!Files.exists(file)) return null;
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      if (channel.size() >= HEADER_BYTES) {
+        readFully(channel, header, 0);
+      }
+      header.flip();
+      if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IllegalArgumentException("Error: " + file + " is not a pair store.");
+      }
+      long settings = header.getLong();
+      int emitterCount = header.getInt();
+      int receiverCount = header.getInt();
+      int interconnectCount = header.getInt();
+      if (emitterCount < 0 || receiverCount < 0 || interconnectCount < 0) {
+        throw new IllegalArgumentException("Error: pair store " + file + " is corrupt.");
+      }
+      PairStore store = new PairStore(channel, settings, emitterCount, receiverCount, interconnectCount);
+      if (channel.size() != store.fileBytes()) {
+        throw new IllegalArgumentException("Error: pair store " + file + " is corrupt.");
+      }
+      return store;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * A new store in file for the given geometry, with every pair value 0 until written.
+   */
+  static PairStore create(Path file, long settings, Geometry emitters, Geometry receivers, Geometry interconnects)
+      throws IOException {
+    FileChannel channel = FileChannel.open(
+        file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      PairStore store = new PairStore(channel, settings, emitters.size(), receivers.size(), interconnects.size());
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putLong(settings)
+          .putInt(emitters.size()).putInt(receivers.size()).putInt(interconnects.size());
+      header.rewind();
+      writeFully(channel, header, 0);
+      long offset = HEADER_BYTES;
+      for (Geometry geometry : new Geometry[] {emitters, receivers, interconnects}) {
+        offset = writeFacets(channel, geometry, offset);
+      }
+      if (store.fileBytes() > offset) {
+        // Extends the file with zeros for the pair values.
+        writeFully(channel, ByteBuffer.allocate(1), store.fileBytes() - 1);
+      }
+      return store;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * FACET_VALUES values per facet of geometry, in the order they're stored.
+   */
+  static double[] facetsOf(Geometry geometry) {
+    double[] facets = new double[geometry.size() * FACET_VALUES];
+    for (int index = 0; index < geometry.size(); index++) {
+      int offset = index * FACET_VALUES;
+      facets[offset] = geometry.vertexAX(index);
+      facets[offset + 1] = geometry.vertexAY(index);
+      facets[offset + 2] = geometry.vertexAZ(index);
+      facets[offset + 3] = geometry.edgeBAX(index);
+      facets[offset + 4] = geometry.edgeBAY(index);
+      facets[offset + 5] = geometry.edgeBAZ(index);
+      facets[offset + 6] = geometry.edgeCAX(index);
+      facets[offset + 7] = geometry.edgeCAY(index);
+      facets[offset + 8] = geometry.edgeCAZ(index);
+    }
+    return facets;
+  }
+
+  long getSettings() {
+    return settings;
+  }
+
+  int getEmitterCount() {
+    return emitterCount;
+  }
+
+  int getReceiverCount() {
+    return receiverCount;
+  }
+
+  double[] readEmitterFacets() throws IOException {
+    return readFacets(0, emitterCount);
+  }
+
+  double[] readReceiverFacets() throws IOException {
+    return readFacets(emitterCount, receiverCount);
+  }
+
+  double[] readInterconnectFacets() throws IOException {
+    return readFacets(emitterCount + receiverCount, interconnectCount);
+  }
+
+  /**
+   * Reads the pair values of emitterIndex into the first getReceiverCount() values of row.
+   */
+  void readRow(int emitterIndex, double[] row) throws IOException {
+    rowBuffer.clear();
+    readFully(channel, rowBuffer, rowOffset(emitterIndex));
+    rowBuffer.flip();
+    rowBuffer.asDoubleBuffer().get(row, 0, receiverCount);
+  }
+
+  void writeRow(int emitterIndex, double[] row) throws IOException {
+    rowBuffer.clear();
+    rowBuffer.asDoubleBuffer().put(row, 0, receiverCount);
+    writeFully(channel, rowBuffer, rowOffset(emitterIndex));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private long matrixOffset() {
+    return HEADER_BYTES + (long) (emitterCount + receiverCount + interconnectCount) * FACET_VALUES * Double.BYTES;
+  }
+
+  private long rowOffset(int emitterIndex) {
+    return matrixOffset() + (long) emitterIndex * receiverCount * Double.BYTES;
+  }
+
+  private long fileBytes() {
+    return rowOffset(emitterCount);
+  }
+
+  private double[] readFacets(int firstFacet, int count) throws IOException {
+    double[] facets = new double[count * FACET_VALUES];
+    ByteBuffer buffer = ByteBuffer.allocate(facets.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, buffer, HEADER_BYTES + (long) firstFacet * FACET_VALUES * Double.BYTES);
+    buffer.flip();
+    buffer.asDoubleBuffer().get(facets);
+    return facets;
+  }
+
+  // Writes geometry's facets at offset, returning the offset after them.
+  private static long writeFacets(FileChannel channel, Geometry geometry, long offset) throws IOException {
+    double[] facets = facetsOf(geometry);
+    ByteBuffer buffer = ByteBuffer.allocate(facets.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.asDoubleBuffer().put(facets);
+    writeFully(channel, buffer, offset);
+    return offset + buffer.capacity();
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) break;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, offset + buffer.position());
+    }
+  }
+}
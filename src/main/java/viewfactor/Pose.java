@@ -0,0 +1,147 @@
+package viewfactor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A rigid transform of the receivers for a --poses sweep: a rotation about the origin followed by a translation.
+ * Emitters and interconnects stay where they are, so one upload of the untransformed geometry serves every pose and
+ * only the transform changes between them.
+ *
+ * The transform is held as LENGTH doubles, the rotation matrix row by row and then the translation, which is the
+ * layout IntersectionKernel reads it in.
+ */
+final class Pose {
+
+  static final int LENGTH = 12;
+  static final Pose IDENTITY = new Pose(new double[] {1, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0});
+
+  // Largest difference from an orthonormal matrix a rotation may have, to allow for rounding in the pose file.
+  private static final double ROTATION_TOLERANCE = 1e-6;
+
+  private final double[] transform;
+
+  private Pose(double[] transform) {
+    this.transform = transform;
+  }
+
+  /**
+   * Translation by (x, y, z) after rotating by angleX, then angleY, then angleZ degrees about the coordinate axes.
+   */
+  static Pose of(double x, double y, double z, double angleX, double angleY, double angleZ) {
+    double sinX = Math.sin(Math.toRadians(angleX));
+    double cosX = Math.cos(Math.toRadians(angleX));
+    double sinY = Math.sin(Math.toRadians(angleY));
+    double cosY = Math.cos(Math.toRadians(angleY));
+    double sinZ = Math.sin(Math.toRadians(angleZ));
+    double cosZ = Math.cos(Math.toRadians(angleZ));
+    // Rz * Ry * Rx.
+    return new Pose(new double[] {
+        cosZ * cosY, cosZ * sinY * sinX - sinZ * cosX, cosZ * sinY * cosX + sinZ * sinX,
+        sinZ * cosY, sinZ * sinY * sinX + cosZ * cosX, sinZ * sinY * cosX - cosZ * sinX,
+        -sinY, cosY * sinX, cosY * cosX,
+        x, y, z});
+  }
+
+  /**
+   * The pose with the given rotation matrix, row by row, and translation. Throws IllegalArgumentException if the
+   * matrix isn't a rotation, as scaling or shearing the receivers would change their areas.
+   */
+  static Pose of(double[] rotation, double x, double y, double z) {
+    if (rotation.length != 9) {
+      throw new IllegalArgumentException("Error: a rotation matrix has 9 values, not " + rotation.length + ".");
+    }
+    for (int row = 0; row < 3; row++) {
+      for (int other = 0; other < 3; other++) {
+        double dot = rotation[row * 3] * rotation[other * 3]
+            + rotation[row * 3 + 1] * rotation[other * 3 + 1]
+            + rotation[row * 3 + 2] * rotation[other * 3 + 2];
+        if (Math.abs(dot - (row == other ? 1 : 0)) > ROTATION_TOLERANCE) {
+          throw new IllegalArgumentException("Error: a pose's matrix must be a rotation, without scaling or shear.");
+        }
+      }
+    }
+    double[] transform = new double[LENGTH];
+    System.arraycopy(rotation, 0, transform, 0, 9);
+    transform[9] = x;
+    transform[10] = y;
+    transform[11] = z;
+    return new Pose(transform);
+  }
+
+  /**
+   * Reads a pose file: one pose per line, either six numbers "x y z angleX angleY angleZ" as for of(x, y, z, angleX,
+   * angleY, angleZ), or twelve numbers, a rotation matrix row by row followed by the translation. Values are separated
+   * by whitespace or commas. Blank lines and lines starting with # are skipped.
+   */
+  static List<Pose> read(Path file) throws IOException {
+    List<Pose> poses = new ArrayList<>();
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    for (int lineIndex = 0; lineIndex < lines.size(); lineIndex++) {
+      String line = lines.get(lineIndex).trim();
+      if (line.isEmpty() || line.startsWith("#")) continue;
+
+      String[] fields = line.split("[\\s,]+");
+      try {
+        double[] values = new double[fields.length];
+        for (int field = 0; field < fields.length; field++) {
+          values[field] = Double.parseDouble(fields[field]);
+        }
+        if (values.length == 6) {
+          poses.add(of(values[0], values[1], values[2], values[3], values[4], values[5]));
+        } else if (values.length == LENGTH) {
+          double[] rotation = new double[9];
+          System.arraycopy(values, 0, rotation, 0, 9);
+          poses.add(of(rotation, values[9], values[10], values[11]));
+        } else {
+          throw new IllegalArgumentException("Error: a pose has 6 or 12 values, not " + values.length + ".");
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            String.format("Error: line %d of %s: %s", lineIndex + 1, file, e.getMessage()), e);
+      }
+    }
+    if (poses.isEmpty()) {
+      throw new IllegalArgumentException("Error: " + file + " has no poses.");
+    }
+    return Collections.unmodifiableList(poses);
+  }
+
+  /**
+   * A copy of the transform, in the layout described above.
+   */
+  double[] toArray() {
+    return transform.clone();
+  }
+
+  // Points are rotated, then translated.
+  double pointX(double x, double y, double z) {
+    return rotatedX(x, y, z) + transform[9];
+  }
+
+  double pointY(double x, double y, double z) {
+    return rotatedY(x, y, z) + transform[10];
+  }
+
+  double pointZ(double x, double y, double z) {
+    return rotatedZ(x, y, z) + transform[11];
+  }
+
+  // Directions, such as edges and normals, are only rotated.
+  double rotatedX(double x, double y, double z) {
+    return transform[0] * x + transform[1] * y + transform[2] * z;
+  }
+
+  double rotatedY(double x, double y, double z) {
+    return transform[3] * x + transform[4] * y + transform[5] * z;
+  }
+
+  double rotatedZ(double x, double y, double z) {
+    return transform[6] * x + transform[7] * y + transform[8] * z;
+  }
+}
@@ -0,0 +1,10 @@
+package viewfactor;
+
+/**
+ * An engine that can move its receivers by a Pose between calculations, so a --poses sweep builds it and sends it the
+ * geometry once. The pose applies from the next call to calculate.
+ */
+interface PosedEngine extends ViewFactorEngine {
+
+  void setReceiverPose(Pose pose);
+}
@@ -0,0 +1,93 @@
+package viewfactor;
+
+import events.EventManager;
+
+import java.util.stream.IntStream;
+
+/**
+ * Checks each row an engine produces against the double precision path on the same inputs, and reports the largest
+ * deviation through the EventManager once the engine is done. ForkJoinEngine computes the reference; it matches
+ * IntersectionKernel pair for pair.
+ *
+ * Rows reduced on the device are compared against the sum of the reference row.
+ */
+class PrecisionValidator implements RowWriter {
+
+  private final EventManager eventManager;
+  private final ForkJoinEngine reference;
+  private final double[] referenceRow;
+
+  private int nextRow;
+  private double maxAbsoluteDeviation;
+  private double maxRelativeDeviation;
+  private int worstEmitter = -1;
+  private int worstReceiver = -1;
+  // Pairs one path sees as occluded and the other doesn't, usually rays grazing an interconnect edge.
+  private long visibilityMismatches;
+  private double total;
+  private double referenceTotal;
+
+  PrecisionValidator(EventManager eventManager, ForkJoinEngine reference, int receiverCount) {
+    this.eventManager = eventManager;
+    this.reference = reference;
+    this.referenceRow = new double[receiverCount];
+  }
+
+  @Override
+  public void accept(double[] row) {
+    int emitterIndex = nextRow++;
+    IntStream.range(0, referenceRow.length)
+        .parallel()
+        .forEach(receiverIndex -> referenceRow[receiverIndex] = reference.pairViewFactor(emitterIndex, receiverIndex));
+
+    if (row.length == referenceRow.length) {
+      for (int receiverIndex = 0; receiverIndex < row.length; receiverIndex++) {
+        compare(emitterIndex, receiverIndex, row[receiverIndex], referenceRow[receiverIndex]);
+      }
+    } else {
+      double referenceSum = 0;
+      for (double value : referenceRow) {
+        referenceSum += value;
+      }
+      compare(emitterIndex, -1, row[0], referenceSum);
+    }
+  }
+
+  @Override
+  public void close() {
+    eventManager.info(String.format(
+        "Precision validation: max absolute deviation %g (emitter %d, receiver %d), max relative deviation %g, "
+            + "%d pairs differ in visibility, sum %.12g vs %.12g for the double path.",
+        maxAbsoluteDeviation, worstEmitter, worstReceiver, maxRelativeDeviation, visibilityMismatches, total,
+        referenceTotal));
+  }
+
+  double getMaxAbsoluteDeviation() {
+    return maxAbsoluteDeviation;
+  }
+
+  double getMaxRelativeDeviation() {
+    return maxRelativeDeviation;
+  }
+
+  long getVisibilityMismatches() {
+    return visibilityMismatches;
+  }
+
+  private void compare(int emitterIndex, int receiverIndex, double value, double referenceValue) {
+    total += value;
+    referenceTotal += referenceValue;
+    if ((value == 0) != (referenceValue == 0)) {
+      visibilityMismatches++;
+    }
+    double deviation = Math.abs(value - referenceValue);
+    if (deviation > maxAbsoluteDeviation) {
+      maxAbsoluteDeviation = deviation;
+      worstEmitter = emitterIndex;
+      worstReceiver = receiverIndex;
+    }
+    if (referenceValue != 0) {
+      maxRelativeDeviation = Math.max(maxRelativeDeviation, deviation / Math.abs(referenceValue));
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package viewfactor;
+
+/**
+ * An engine that can compute just a range of its emitters, so a ShardWorker builds it and sends it the geometry once
+ * rather than once per shard. The range applies from the next call to calculate, which then only passes on the rows of
+ * emitters start to end, and reports the view factor of just those.
+ */
+interface RangedEngine extends ViewFactorEngine {
+
+  void setEmitterRange(int start, int end);
+}
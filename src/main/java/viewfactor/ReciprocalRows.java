@@ -0,0 +1,54 @@
+package viewfactor;
+
+import java.util.function.Consumer;
+
+/**
+ * Completes the rows of an engine that only computed the upper triangle of a same-surface run, see
+ * PairCuller's upperTriangle. With abs() on both cosines the pair value A_i * F_ij is symmetric, so entry (i, j) for
+ * j < i is entry (j, i) of an earlier row.
+ *
+ * With fullRows, every row is passed on complete, which means holding the strict upper triangle of the rows seen so
+ * far: about n^2 / 2 doubles. Without, only each row's total is passed on, as a single value like a reduced row, and
+ * only the n column sums are held.
+ */
+class ReciprocalRows implements Consumer<double[]> {
+
+  private final Consumer<double[]> downstream;
+  private final boolean fullRows;
+  // fullRows: upperRows[j][k] is entry (j, j + 1 + k). Otherwise columnSums[i] is the sum of entries (j, i), j < i.
+  private final double[][] upperRows;
+  private final double[] columnSums;
+
+  private int nextRow;
+
+  ReciprocalRows(Consumer<double[]> downstream, int size, boolean fullRows) {
+    this.downstream = downstream;
+    this.fullRows = fullRows;
+    this.upperRows = fullRows ? new double[size][] : null;
+    this.columnSums = fullRows ? null : new double[size];
+  }
+
+  @Override
+  public void accept(double[] row) {
+    int rowIndex = nextRow++;
+    if (fullRows) {
+      double[] upper = new double[row.length - rowIndex - 1];
+      System.arraycopy(row, rowIndex + 1, upper, 0, upper.length);
+      upperRows[rowIndex] = upper;
+
+      double[] full = row.clone();
+      for (int column = 0; column < rowIndex; column++) {
+        full[column] = upperRows[column][rowIndex - column - 1];
+      }
+      downstream.accept(full);
+      return;
+    }
+
+    double sum = columnSums[rowIndex];
+    for (int column = rowIndex + 1; column < row.length; column++) {
+      sum += row[column];
+      columnSums[column] += row[column];
+    }
+    downstream.accept(new double[] {sum});
+  }
+}
@@ -0,0 +1,10 @@
+package viewfactor;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+/**
+ * Output stage fed the per-emitter rows passed to a ViewFactorEngine's result consumer, in emitter order. Closed once
+ * the engine has passed its last row.
+ */
+interface RowWriter extends Consumer<double[]>, Closeable {}
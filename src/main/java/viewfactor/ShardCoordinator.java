@@ -0,0 +1,415 @@
+package viewfactor;
+
+import com.google.inject.Inject;
+import events.EventManager;
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hands the emitters out to ShardWorkers in other JVMs, for --coordinator. The workers load the same STL files and
+ * connect over a WebSocket; each gets one shard, a range of shardSize emitters, at a time and a new one when it sends
+ * back the sums of the shard's rows. A shard whose worker fails, disconnects or takes longer than shardTimeout goes
+ * back to the front of the queue for the next free worker, up to MAX_FAILURES times. A worker that times out is
+ * disconnected, so a stalled one doesn't hold on to its shard.
+ *
+ * The coordinator computes nothing itself. Rows are passed on reduced, as a single element array like with
+ * reduceOnDevice, one per emitter but shard by shard in the order the shards finish, so only consumers that add
+ * them up, like ThreadedAdder, make sense.
+ *
+ * Messages are JSON objects with a TYPE_JSON_KEY:
+ *   worker: HELLO with the geometry's fingerprint and emitter count, see CheckpointWriter.fingerprintOf, once
+ *   coordinator: SHARD with its index and emitter range, or REJECTED if the worker has other geometry
+ *   worker: ROWS with the shard's index and row sums, or FAILED with its index and a message
+ *   coordinator: DONE once every shard is in
+ */
+class ShardCoordinator implements ViewFactorEngine {
+
+  static final String TYPE_JSON_KEY = "type";
+  static final String FINGERPRINT_JSON_KEY = "fingerprint";
+  static final String EMITTERS_JSON_KEY = "emitters";
+  static final String SHARD_JSON_KEY = "shard";
+  static final String START_JSON_KEY = "start";
+  static final String END_JSON_KEY = "end";
+  static final String ROW_SUMS_JSON_KEY = "row_sums";
+  static final String MESSAGE_JSON_KEY = "message";
+
+  static final String HELLO = "hello";
+  static final String SHARD = "shard";
+  static final String REJECTED = "rejected";
+  static final String ROWS = "rows";
+  static final String FAILED = "failed";
+  static final String DONE = "done";
+
+  // Times a shard may fail before the run is given up, as it's then more likely the shard than the workers.
+  static final int MAX_FAILURES = 3;
+  // How long the workers get to hang up after DONE. Stopping the server any earlier may drop DONE unsent.
+  private static final long HANG_UP_MILLIS = 5000;
+  // Most time between checks for shards past their deadline.
+  private static final long DEADLINE_CHECK_MILLIS = 1000;
+
+  public static class Builder {
+    private final EventManager eventManager;
+
+    private Geometry emitters;
+    private Geometry receivers;
+    private Geometry interconnects;
+    private int port;
+    private int shardSize = 256;
+    private long shardTimeout = 30 * 60_000;
+
+    @Inject
+    public Builder(EventManager eventManager) {
+      this.eventManager = eventManager;
+    }
+
+    Builder setEmitters(Geometry emitters) {
+      this.emitters = emitters;
+      return this;
+    }
+
+    Builder setInterconnects(Geometry interconnects) {
+      this.interconnects = interconnects;
+      return this;
+    }
+
+    Builder setReceivers(Geometry receivers) {
+      this.receivers = receivers;
+      return this;
+    }
+
+    Builder setPort(int port) {
+      this.port = port;
+      return this;
+    }
+
+    Builder setShardSize(int shardSize) {
+      this.shardSize = shardSize;
+      return this;
+    }
+
+    /**
+     * Milliseconds a worker gets to send back a shard's rows before the shard is given to another.
+     */
+    Builder setShardTimeout(long shardTimeout) {
+      this.shardTimeout = shardTimeout;
+      return this;
+    }
+
+    ShardCoordinator build() {
+      return new ShardCoordinator(
+          eventManager,
+          emitters,
+          CheckpointWriter.fingerprintOf(emitters, receivers, interconnects),
+          port,
+          Math.max(1, shardSize),
+          Math.max(1, shardTimeout));
+    }
+  }
+
+  private final EventManager eventManager;
+  private final Geometry emitters;
+  private final long fingerprint;
+  private final int port;
+  private final int shardSize;
+  private final long shardTimeout;
+
+  private ShardCoordinator(
+      EventManager eventManager, Geometry emitters, long fingerprint, int port, int shardSize, long shardTimeout) {
+    this.eventManager = eventManager;
+    this.emitters = emitters;
+    this.fingerprint = fingerprint;
+    this.port = port;
+    this.shardSize = shardSize;
+    this.shardTimeout = shardTimeout;
+  }
+
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+    InnerEngineRun.skipBufferTransfer(eventManager);
+
+    int emitterCount = emitters.size();
+    int shards = (emitterCount + shardSize - 1) / shardSize;
+    BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+    Server server = new Server(shards, outcomes);
+
+    eventManager.startComputation();
+    server.start();
+    try {
+      int completedEmitters = 0;
+      double[] row = new double[1];
+      long checkMillis = Math.min(DEADLINE_CHECK_MILLIS, shardTimeout);
+      for (int completedShards = 0; completedShards < shards; ) {
+        server.reassignStalled();
+        Outcome outcome = outcomes.poll(checkMillis, TimeUnit.MILLISECONDS);
+        if (outcome == null) continue;
+        if (outcome.rowSums == null) {
+          if (outcome.fatal) throw new IllegalStateException(outcome.message);
+          eventManager.info(outcome.message);
+          continue;
+        }
+        for (double rowSum : outcome.rowSums) {
+          row[0] = rowSum;
+          resultConsumer.accept(row);
+        }
+        completedShards++;
+        completedEmitters += outcome.rowSums.length;
+        eventManager.updateComputationProgress(completedEmitters, emitterCount);
+      }
+      server.finish();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Error: interrupted while waiting for the workers.", e);
+    } finally {
+      try {
+        server.stop(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    eventManager.finishComputation(completionHandler.onComplete() / sum(emitters.getArea()));
+  }
+
+  private static double sum(double...values) {
+    double result = 0;
+    for (double value:values)
+      result += value;
+    return result;
+  }
+
+  // A finished shard's row sums, or a message from the server, which is fatal if the run can't go on.
+  private static final class Outcome {
+    private final double[] rowSums;
+    private final String message;
+    private final boolean fatal;
+
+    private Outcome(double[] rowSums, String message, boolean fatal) {
+      this.rowSums = rowSums;
+      this.message = message;
+      this.fatal = fatal;
+    }
+
+    private static Outcome rows(double[] rowSums) {
+      return new Outcome(rowSums, null, false);
+    }
+
+    private static Outcome info(String message) {
+      return new Outcome(null, message, false);
+    }
+
+    private static Outcome error(String message) {
+      return new Outcome(null, message, true);
+    }
+  }
+
+  /**
+   * Keeps track of the shards and the workers. The WebSocket callbacks run on the server's threads, so they're
+   * synchronized, and leave the EventManager to calculate(), handing it finished shards and messages through outcomes.
+   */
+  private final class Server extends WebSocketServer {
+    private final BlockingQueue<Outcome> outcomes;
+    private final Deque<Integer> pending = new ArrayDeque<>();
+    private final Map<WebSocket, Integer> assigned = new HashMap<>();
+    // When each assigned shard is due, by System.nanoTime().
+    private final long[] deadlines;
+    private final Set<WebSocket> idle = new LinkedHashSet<>();
+    private final boolean[] finished;
+    private final int[] failures;
+
+    private Server(int shards, BlockingQueue<Outcome> outcomes) {
+      super(new InetSocketAddress(port));
+      this.outcomes = outcomes;
+      this.finished = new boolean[shards];
+      this.failures = new int[shards];
+      this.deadlines = new long[shards];
+      for (int shard = 0; shard < shards; shard++) {
+        pending.add(shard);
+      }
+    }
+
+    @Override
+    public void onStart() {
+      outcomes.add(Outcome.info(String.format(
+          "Waiting for workers on port %d, %d shards of up to %d emitters.", getPort(), finished.length, shardSize)));
+    }
+
+    @Override
+    public void onOpen(WebSocket connection, ClientHandshake handshake) {}
+
+    @Override
+    public synchronized void onMessage(WebSocket connection, String text) {
+      try {
+        JSONObject message = new JSONObject(text);
+        switch (message.getString(TYPE_JSON_KEY)) {
+          case HELLO:
+            if (message.getLong(FINGERPRINT_JSON_KEY) != fingerprint
+                || message.getInt(EMITTERS_JSON_KEY) != emitters.size()) {
+              connection.send(new JSONObject()
+                  .put(TYPE_JSON_KEY, REJECTED)
+                  .put(MESSAGE_JSON_KEY, "Error: the worker's STL files differ from the coordinator's.")
+                  .toString());
+              connection.close();
+              return;
+            }
+            if (assigned.containsKey(connection) || idle.contains(connection)) {
+              outcomes.add(Outcome.info(
+                  "Ignoring another hello from worker " + connection.getRemoteSocketAddress() + "."));
+              return;
+            }
+            outcomes.add(Outcome.info("Worker " + connection.getRemoteSocketAddress() + " joined."));
+            assignNext(connection);
+            break;
+          case ROWS:
+            int shard = message.getInt(SHARD_JSON_KEY);
+            JSONArray rowSums = message.getJSONArray(ROW_SUMS_JSON_KEY);
+            if (assigned.remove(connection, shard)) {
+              if (rowSums.length() == end(shard) - start(shard)) {
+                finished[shard] = true;
+                double[] sums = new double[rowSums.length()];
+                for (int index = 0; index < sums.length; index++) {
+                  sums[index] = rowSums.getDouble(index);
+                }
+                outcomes.add(Outcome.rows(sums));
+              } else {
+                reassign(shard, "wrong number of rows from " + connection.getRemoteSocketAddress());
+              }
+            }
+            assignNext(connection);
+            break;
+          case FAILED:
+            int failedShard = message.getInt(SHARD_JSON_KEY);
+            if (assigned.remove(connection, failedShard)) {
+              reassign(failedShard, message.optString(MESSAGE_JSON_KEY));
+            }
+            assignNext(connection);
+            break;
+          default:
+            break;
+        }
+      } catch (JSONException e) {
+        outcomes.add(Outcome.info(
+            "Ignoring a malformed message from " + connection.getRemoteSocketAddress() + "."));
+      }
+    }
+
+    @Override
+    public synchronized void onClose(WebSocket connection, int code, String reason, boolean remote) {
+      notifyAll();
+      idle.remove(connection);
+      Integer shard = assigned.remove(connection);
+      if (shard != null && !finished[shard]) {
+        reassign(shard, "lost worker " + connection.getRemoteSocketAddress());
+      }
+    }
+
+    @Override
+    public void onError(WebSocket connection, Exception e) {
+      if (connection == null) {
+        // The server itself failed, e.g. because the port is taken.
+        outcomes.add(Outcome.error("Error: the coordinator failed: " + e.getMessage()));
+      }
+    }
+
+    // Takes back the shards of workers past their deadline, and disconnects the workers. Closing a connection takes
+    // its lock, which the server holds while calling onClose, so it happens outside this one.
+    private void reassignStalled() {
+      for (WebSocket connection : takeStalled()) {
+        connection.close(CloseFrame.NORMAL, "Error: the shard timed out.");
+      }
+    }
+
+    private synchronized List<WebSocket> takeStalled() {
+      long now = System.nanoTime();
+      List<WebSocket> stalled = new ArrayList<>();
+      for (Map.Entry<WebSocket, Integer> entry : assigned.entrySet()) {
+        if (now - deadlines[entry.getValue()] >= 0) {
+          stalled.add(entry.getKey());
+        }
+      }
+      for (WebSocket connection : stalled) {
+        reassign(assigned.remove(connection), String.format(
+            "worker %s took longer than %d ms", connection.getRemoteSocketAddress(), shardTimeout));
+      }
+      return stalled;
+    }
+
+    // Tells every worker there's nothing left to do, and waits for them to hang up.
+    private synchronized void finish() throws InterruptedException {
+      String done = new JSONObject().put(TYPE_JSON_KEY, DONE).toString();
+      List<WebSocket> open;
+      // The server removes closed connections under this lock.
+      synchronized (connections()) {
+        open = new ArrayList<>(connections());
+      }
+      for (WebSocket connection : open) {
+        try {
+          connection.send(done);
+        } catch (WebsocketNotConnectedException e) {
+          // Already closing, e.g. a worker that timed out.
+        }
+      }
+      long deadline = System.currentTimeMillis() + HANG_UP_MILLIS;
+      while (!connections().isEmpty() && System.currentTimeMillis() < deadline) {
+        wait(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+    }
+
+    private void assignNext(WebSocket connection) {
+      Integer shard = pending.poll();
+      if (shard == null) {
+        idle.add(connection);
+        return;
+      }
+      idle.remove(connection);
+      assigned.put(connection, shard);
+      deadlines[shard] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shardTimeout);
+      connection.send(new JSONObject()
+          .put(TYPE_JSON_KEY, SHARD)
+          .put(SHARD_JSON_KEY, shard)
+          .put(START_JSON_KEY, start(shard))
+          .put(END_JSON_KEY, end(shard))
+          .toString());
+    }
+
+    private void reassign(int shard, String reason) {
+      failures[shard]++;
+      if (failures[shard] >= MAX_FAILURES) {
+        outcomes.add(Outcome.error(String.format(
+            "Error: shard %d failed %d times, last: %s", shard, failures[shard], reason)));
+        return;
+      }
+      outcomes.add(Outcome.info(String.format("Shard %d failed (%s), reassigning it.", shard, reason)));
+      pending.addFirst(shard);
+      if (!idle.isEmpty()) {
+        assignNext(idle.iterator().next());
+      }
+    }
+
+    private int start(int shard) {
+      return shard * shardSize;
+    }
+
+    private int end(int shard) {
+      return Math.min(emitters.size(), (shard + 1) * shardSize);
+    }
+  }
+}
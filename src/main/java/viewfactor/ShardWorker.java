@@ -0,0 +1,243 @@
+package viewfactor;
+
+import com.google.inject.Inject;
+import events.EventManager;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import static viewfactor.ShardCoordinator.DONE;
+import static viewfactor.ShardCoordinator.EMITTERS_JSON_KEY;
+import static viewfactor.ShardCoordinator.END_JSON_KEY;
+import static viewfactor.ShardCoordinator.FAILED;
+import static viewfactor.ShardCoordinator.FINGERPRINT_JSON_KEY;
+import static viewfactor.ShardCoordinator.HELLO;
+import static viewfactor.ShardCoordinator.MESSAGE_JSON_KEY;
+import static viewfactor.ShardCoordinator.REJECTED;
+import static viewfactor.ShardCoordinator.ROWS;
+import static viewfactor.ShardCoordinator.ROW_SUMS_JSON_KEY;
+import static viewfactor.ShardCoordinator.SHARD;
+import static viewfactor.ShardCoordinator.SHARD_JSON_KEY;
+import static viewfactor.ShardCoordinator.START_JSON_KEY;
+import static viewfactor.ShardCoordinator.TYPE_JSON_KEY;
+
+/**
+ * Computes the shards a ShardCoordinator hands out, for --worker. See ShardCoordinator for the protocol.
+ *
+ * The worker builds one RangedEngine over all of its emitters, so the occlusion index is built, and an Aparapi kernel
+ * compiled and sent its geometry, once rather than per shard. Each shard sets the engine's emitter range and runs it
+ * to completion before the sums of its rows are sent back. A shard whose engine throws is reported as failed, for the
+ * coordinator to give to another worker, and the worker carries on with the next one.
+ *
+ * The sums are also passed on locally, reduced like with reduceOnDevice, so the worker's own result is the view factor
+ * of just the emitters it computed. The coordinator reports that of all of them.
+ */
+class ShardWorker implements ViewFactorEngine {
+
+  /**
+   * Builds the engine for the shards, over all of the worker's emitters. It has to report to the given EventManager
+   * rather than the application's, which only sees the worker's run as a whole.
+   */
+  interface ShardEngineFactory {
+    RangedEngine build(EventManager eventManager);
+  }
+
+  public static class Builder {
+    private final EventManager eventManager;
+
+    private URI coordinator;
+    private Geometry emitters;
+    private Geometry receivers;
+    private Geometry interconnects;
+    private ShardEngineFactory shardEngineFactory;
+
+    @Inject
+    public Builder(EventManager eventManager) {
+      this.eventManager = eventManager;
+    }
+
+    Builder setCoordinator(URI coordinator) {
+      this.coordinator = coordinator;
+      return this;
+    }
+
+    Builder setEmitters(Geometry emitters) {
+      this.emitters = emitters;
+      return this;
+    }
+
+    Builder setInterconnects(Geometry interconnects) {
+      this.interconnects = interconnects;
+      return this;
+    }
+
+    Builder setReceivers(Geometry receivers) {
+      this.receivers = receivers;
+      return this;
+    }
+
+    Builder setShardEngineFactory(ShardEngineFactory shardEngineFactory) {
+      this.shardEngineFactory = shardEngineFactory;
+      return this;
+    }
+
+    ShardWorker build() {
+      return new ShardWorker(
+          eventManager,
+          coordinator,
+          emitters,
+          CheckpointWriter.fingerprintOf(emitters, receivers, interconnects),
+          shardEngineFactory);
+    }
+  }
+
+  // Put on the message queue when the connection closes.
+  private static final JSONObject CLOSED = new JSONObject();
+
+  private final EventManager eventManager;
+  private final URI coordinator;
+  private final Geometry emitters;
+  private final long fingerprint;
+  private final ShardEngineFactory shardEngineFactory;
+
+  private ShardWorker(
+      EventManager eventManager,
+      URI coordinator,
+      Geometry emitters,
+      long fingerprint,
+      ShardEngineFactory shardEngineFactory) {
+    this.eventManager = eventManager;
+    this.coordinator = coordinator;
+    this.emitters = emitters;
+    this.fingerprint = fingerprint;
+    this.shardEngineFactory = shardEngineFactory;
+  }
+
+  /**
+   * Works on shards until the coordinator says they're all done. Throws IllegalStateException if the coordinator
+   * can't be reached or goes away first.
+   */
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+    InnerEngineRun.skipBufferTransfer(eventManager);
+
+    eventManager.startComputation();
+    double computedArea;
+    try (InnerEngineRun shardRun = new InnerEngineRun()) {
+      RangedEngine engine = shardRun.setEngine(shardEngineFactory.build(shardRun.getEventManager()));
+      computedArea = work(engine, resultConsumer);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Error: interrupted while working for " + coordinator + ".", e);
+    }
+    eventManager.finishComputation(computedArea == 0 ? 0 : completionHandler.onComplete() / computedArea);
+  }
+
+  // Connects and computes shards with engine until they're all done, passing their row sums to resultConsumer. Returns
+  // the area of the emitters this worker computed.
+  private double work(RangedEngine engine, Consumer<double[]> resultConsumer) throws InterruptedException {
+    BlockingQueue<JSONObject> messages = new LinkedBlockingQueue<>();
+    WebSocketClient client = new WebSocketClient(coordinator) {
+      @Override
+      public void onOpen(ServerHandshake handshake) {}
+
+      @Override
+      public void onMessage(String message) {
+        messages.add(new JSONObject(message));
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+        messages.add(CLOSED);
+      }
+
+      @Override
+      public void onError(Exception e) {}
+    };
+    if (!client.connectBlocking()) {
+      throw new IllegalStateException("Error: couldn't reach the coordinator at " + coordinator + ".");
+    }
+    eventManager.info("Connected to the coordinator at " + coordinator + ".");
+    client.send(new JSONObject()
+        .put(TYPE_JSON_KEY, HELLO)
+        .put(FINGERPRINT_JSON_KEY, fingerprint)
+        .put(EMITTERS_JSON_KEY, emitters.size())
+        .toString());
+
+    int computedShards = 0;
+    int computedEmitters = 0;
+    double computedArea = 0;
+    double[] row = new double[1];
+    try {
+      while (true) {
+        JSONObject message = messages.take();
+        if (message == CLOSED) {
+          throw new IllegalStateException("Error: lost the coordinator at " + coordinator + ".");
+        }
+        switch (message.getString(TYPE_JSON_KEY)) {
+          case SHARD:
+            int shard = message.getInt(SHARD_JSON_KEY);
+            int start = message.getInt(START_JSON_KEY);
+            int end = message.getInt(END_JSON_KEY);
+            double[] rowSums;
+            try {
+              rowSums = computeShard(engine, shard, start, end);
+            } catch (RuntimeException e) {
+              eventManager.info(String.format("Shard %d failed: %s", shard, e));
+              client.send(new JSONObject().put(TYPE_JSON_KEY, FAILED).put(SHARD_JSON_KEY, shard)
+                  .put(MESSAGE_JSON_KEY, String.valueOf(e)).toString());
+              break;
+            }
+            client.send(new JSONObject().put(TYPE_JSON_KEY, ROWS).put(SHARD_JSON_KEY, shard)
+                .put(ROW_SUMS_JSON_KEY, new JSONArray(rowSums)).toString());
+            for (int emitterIndex = start; emitterIndex < end; emitterIndex++) {
+              row[0] = rowSums[emitterIndex - start];
+              resultConsumer.accept(row);
+              computedArea += emitters.area(emitterIndex);
+            }
+            computedShards++;
+            computedEmitters += end - start;
+            eventManager.updateComputationProgress(computedEmitters, emitters.size());
+            break;
+          case REJECTED:
+            throw new IllegalArgumentException(message.getString(MESSAGE_JSON_KEY));
+          case DONE:
+            eventManager.info(String.format(
+                "Computed %d shards, %d of %d emitters.", computedShards, computedEmitters, emitters.size()));
+            return computedArea;
+          default:
+            break;
+        }
+      }
+    } finally {
+      client.close();
+    }
+  }
+
+  // The row sums of emitters start to end.
+  private double[] computeShard(RangedEngine engine, int shard, int start, int end) {
+    eventManager.info(String.format("Shard %d: emitters %d to %d.", shard, start, end - 1));
+    double[] rowSums = new double[end - start];
+    int[] nextEmitter = {0};
+    engine.setEmitterRange(start, end);
+    engine.calculate(row -> rowSums[nextEmitter[0]++] = sum(row), () -> 0);
+    if (nextEmitter[0] != rowSums.length) {
+      throw new IllegalStateException(String.format(
+          "Error: shard %d's engine passed %d rows for %d emitters.", shard, nextEmitter[0], rowSums.length));
+    }
+    return rowSums;
+  }
+
+  private static double sum(double...values) {
+    double result = 0;
+    for (double value:values)
+      result += value;
+    return result;
+  }
+}
@@ -0,0 +1,144 @@
+package viewfactor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams per-emitter result rows to disk as a compressed sparse row (CSR) view factor matrix, dropping view factors
+ * smaller in magnitude than a threshold. Row i, column j holds F_ij, the view factor from emitter i to receiver j.
+ * Rows must arrive in emitter order, as engines deliver them.
+ *
+ * The file is little-endian: a HEADER_BYTES header (magic, version, row count, column count, non-zero count, bytes per
+ * value), then rows + 1 long row pointers, then the int column indices, then the doubles or floats values. The entries
+ * of row i are at [rowPointer[i], rowPointer[i + 1]) in both the column and value arrays.
+ *
+ * Column indices are written straight after the row pointer region as rows arrive. Values are spooled to a temporary
+ * file next to the output and appended on close, so only the row pointers, 8 bytes per emitter, are kept in memory.
+ */
+class SparseMatrixWriter implements RowWriter {
+
+  static final int MAGIC = 0x56465352; // "VFSR"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 40;
+
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  private final FileChannel channel;
+  private final FileChannel valueChannel;
+  private final double[] emitterAreas;
+  private final int rows;
+  private final int columns;
+  private final Configuration.Precision precision;
+  private final double threshold;
+  private final long[] rowPointer;
+  private final ByteBuffer columnBuffer;
+  private final ByteBuffer valueBuffer;
+
+  private int nextRow;
+  private long nonZeros;
+
+  SparseMatrixWriter(
+      File output, Geometry emitters, Geometry receivers, Configuration.Precision precision, double threshold)
+      throws IOException {
+    this.emitterAreas = emitters.getArea();
+    this.rows = emitters.size();
+    this.columns = receivers.size();
+    this.precision = precision;
+    this.threshold = threshold;
+    this.rowPointer = new long[rows + 1];
+    this.columnBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    this.valueBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    channel = FileChannel.open(
+        output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    channel.position(HEADER_BYTES + (long) rowPointer.length * Long.BYTES);
+    File directory = output.getAbsoluteFile().getParentFile();
+    valueChannel = FileChannel.open(
+        Files.createTempFile(directory.toPath(), output.getName(), ".values"),
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+  }
+
+  @Override
+  public void accept(double[] row) {
+    if (row.length != columns) {
+      throw new IllegalArgumentException(
+          "Error: expected a row of " + columns + " view factors but got " + row.length + ".");
+    }
+    if (nextRow >= rows) {
+      throw new IllegalStateException("Error: the matrix already has all " + rows + " rows.");
+    }
+
+    // Degenerate emitters see nothing; don't let them fill the row with NaNs.
+    double emitterArea = emitterAreas[nextRow];
+    if (emitterArea == 0) emitterArea = Double.POSITIVE_INFINITY;
+    try {
+      for (int column = 0; column < columns; column++) {
+        double viewFactor = row[column] / emitterArea;
+        if (viewFactor == 0 || Math.abs(viewFactor) < threshold) continue;
+
+        if (!columnBuffer.hasRemaining()) drain(columnBuffer, channel);
+        if (!valueBuffer.hasRemaining()) drain(valueBuffer, valueChannel);
+        columnBuffer.putInt(column);
+        if (precision == Configuration.Precision.DOUBLE) {
+          valueBuffer.putDouble(viewFactor);
+        } else {
+          valueBuffer.putFloat((float) viewFactor);
+        }
+        nonZeros++;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    rowPointer[++nextRow] = nonZeros;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      drain(columnBuffer, channel);
+      drain(valueBuffer, valueChannel);
+
+      // Rows that never arrived are left empty.
+      for (int row = nextRow + 1; row <= rows; row++) {
+        rowPointer[row] = nonZeros;
+      }
+
+      long valueBytes = valueChannel.size();
+      for (long transferred = 0; transferred < valueBytes; ) {
+        transferred += valueChannel.transferTo(transferred, valueBytes - transferred, channel);
+      }
+
+      channel.position(0);
+      columnBuffer.putInt(MAGIC)
+          .putInt(VERSION)
+          .putLong(rows)
+          .putLong(columns)
+          .putLong(nonZeros)
+          .putInt(precision.getBytes())
+          .putInt(0);
+      for (long pointer : rowPointer) {
+        if (!columnBuffer.hasRemaining()) drain(columnBuffer, channel);
+        columnBuffer.putLong(pointer);
+      }
+      drain(columnBuffer, channel);
+      channel.force(false);
+    } finally {
+      valueChannel.close();
+      channel.close();
+    }
+  }
+
+  private static void drain(ByteBuffer buffer, FileChannel target) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,399 @@
+package viewfactor;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads binary and ASCII STL files straight into a Geometry's arrays, in place of j3d's STLFileReader, which
+ * allocates a normal and a vertex array per facet.
+ *
+ * The file is memory mapped a window at a time and decoded without allocating anything per facet. A file is binary if
+ * its length is exactly 84 + 50 * the facet count in its header, and ASCII otherwise; ASCII files start with "solid",
+ * but so do the headers of some binary ones.
+ *
+ * ASCII numbers are parsed by hand. Those with up to 15 significant digits and a decimal exponent within 22, which
+ * covers what exporters write, are converted exactly, with one correctly rounded division or multiplication; anything
+ * else falls back to Double.parseDouble.
+ *
+ * Large ASCII files are parsed in parallel. The file is cut into chunks just after an "endfacet", each chunk counts
+ * its facets, and a prefix sum over the counts gives every chunk the index of its first facet. The chunks then fill
+ * disjoint ranges of the arrays, so facets keep their order in the file however the chunks are scheduled. Indexed
+ * meshes are the exception and are read on one thread.
+ */
+final class StlReader {
+
+  private static final int HEADER_BYTES = 80;
+  private static final int BINARY_FACET_BYTES = 50;
+  private static final long WINDOW_BYTES = 1 << 30;
+  // Smaller files aren't worth the second thread.
+  private static final long MIN_CHUNK_BYTES = 1 << 20;
+  // Largest integer and power of ten a double holds exactly.
+  private static final long EXACT_MANTISSA = 1L << 53;
+  private static final int EXACT_POWER = 22;
+  private static final double[] POWERS_OF_TEN = new double[EXACT_POWER + 1];
+
+  private static final byte[] FACET = ascii("facet");
+  private static final byte[] VERTEX = ascii("vertex");
+  private static final byte[] END_FACET = ascii("endfacet");
+  private static final byte[] SOLID = ascii("solid");
+  private static final byte[] END_SOLID = ascii("endsolid");
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int power = 1; power <= EXACT_POWER; power++) {
+      POWERS_OF_TEN[power] = POWERS_OF_TEN[power - 1] * 10;
+    }
+  }
+
+  private final FileChannel channel;
+  private final long length;
+  // The part of the file this reader tokenizes. Chunk boundaries never fall inside a token.
+  private final long start;
+  private final long end;
+  private MappedByteBuffer window;
+  private long windowStart;
+  private long windowEnd;
+
+  // ASCII cursor and the last token, as a range of the file.
+  private long position;
+  private long tokenStart;
+  private long tokenEnd;
+
+  // Facet being assembled from ASCII: normal, then A, B and C.
+  private final double[] facet = new double[12];
+
+  // Facets in [start, end), and the index of the first of them.
+  private int count;
+  private int firstIndex;
+
+  private StlReader(FileChannel channel, long start, long end) throws IOException {
+    this.channel = channel;
+    this.length = channel.size();
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Replaces the contents of geometry with the facets of stlFile, using up to parallelism threads for ASCII files.
+   */
+  static void read(Path stlFile, Geometry geometry, int parallelism) throws IOException {
+    read(stlFile, geometry, parallelism, MIN_CHUNK_BYTES);
+  }
+
+  @VisibleForTesting
+  static void read(Path stlFile, Geometry geometry, int parallelism, long minChunkBytes) throws IOException {
+    try (FileChannel channel = FileChannel.open(stlFile, StandardOpenOption.READ)) {
+      StlReader reader = new StlReader(channel, 0, channel.size());
+      if (reader.isBinary()) {
+        reader.readBinary(geometry);
+        return;
+      }
+
+      // An indexed mesh welds its corners into one pool as they're stored, see Geometry.indexed().
+      long chunkCount = geometry.isIndexed()
+          ? 1 : Math.max(1, Math.min(parallelism, reader.length / Math.max(1, minChunkBytes)));
+      List<StlReader> chunks = reader.split((int) chunkCount);
+      if (chunks.size() == 1) {
+        reader.countFacets();
+        geometry.initWithSize(reader.count);
+        reader.readFacets(geometry);
+        return;
+      }
+
+      ForkJoinPool pool = new ForkJoinPool(chunks.size());
+      try {
+        inParallel(pool, chunks, StlReader::countFacets);
+        int total = 0;
+        for (StlReader chunk : chunks) {
+          chunk.firstIndex = total;
+          total = Math.addExact(total, chunk.count);
+        }
+        geometry.initWithSize(total);
+        inParallel(pool, chunks, chunk -> chunk.readFacets(geometry));
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  private interface ChunkAction {
+    void run(StlReader chunk) throws IOException;
+  }
+
+  private static void inParallel(ForkJoinPool pool, List<StlReader> chunks, ChunkAction action) throws IOException {
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (StlReader chunk : chunks) {
+      tasks.add(ForkJoinTask.adapt(() -> {
+        try {
+          action.run(chunk);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }));
+    }
+    try {
+      pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  // Cuts the file into up to chunkCount readers, each ending just after an "endfacet" or at the end of the file.
+  private List<StlReader> split(int chunkCount) throws IOException {
+    List<StlReader> chunks = new ArrayList<>();
+    long chunkStart = 0;
+    for (int chunk = 1; chunk < chunkCount; chunk++) {
+      long chunkEnd = facetBoundaryAfter(Math.max(chunkStart, length / chunkCount * chunk));
+      if (chunkEnd >= length) break;
+      if (chunkEnd > chunkStart) {
+        chunks.add(new StlReader(channel, chunkStart, chunkEnd));
+        chunkStart = chunkEnd;
+      }
+    }
+    chunks.add(new StlReader(channel, chunkStart, length));
+    return chunks;
+  }
+
+  // The end of the first "endfacet" after offset that is followed by another facet, or the end of the file.
+  private long facetBoundaryAfter(long offset) throws IOException {
+    position = offset;
+    while (nextToken()) {
+      if (!tokenIs(END_FACET)) continue;
+      long boundary = tokenEnd;
+      // Guards against "endfacet" in a solid's name: a real one is followed by a facet or the end of the solid.
+      if (!nextToken() || tokenIs(FACET) || tokenIs(END_SOLID)) {
+        return boundary;
+      }
+      position = boundary;
+    }
+    return length;
+  }
+
+  private boolean isBinary() throws IOException {
+    if (length < HEADER_BYTES + Integer.BYTES) return false;
+    return length == HEADER_BYTES + Integer.BYTES + BINARY_FACET_BYTES * binaryFacetCount();
+  }
+
+  private long binaryFacetCount() throws IOException {
+    return ensure(HEADER_BYTES, Integer.BYTES).getInt((int) (HEADER_BYTES - windowStart)) & 0xFFFFFFFFL;
+  }
+
+  private void readBinary(Geometry geometry) throws IOException {
+    long count = binaryFacetCount();
+    if (count > Integer.MAX_VALUE) {
+      throw new IOException("Too many facets: " + count);
+    }
+    geometry.initWithSize((int) count);
+
+    long offset = HEADER_BYTES + Integer.BYTES;
+    for (int index = 0; index < count; index++, offset += BINARY_FACET_BYTES) {
+      MappedByteBuffer bytes = ensure(offset, BINARY_FACET_BYTES);
+      int at = (int) (offset - windowStart);
+      geometry.setFacet(
+          index,
+          bytes.getFloat(at), bytes.getFloat(at + 4), bytes.getFloat(at + 8),
+          bytes.getFloat(at + 12), bytes.getFloat(at + 16), bytes.getFloat(at + 20),
+          bytes.getFloat(at + 24), bytes.getFloat(at + 28), bytes.getFloat(at + 32),
+          bytes.getFloat(at + 36), bytes.getFloat(at + 40), bytes.getFloat(at + 44));
+    }
+  }
+
+  // First pass: counts the facets so the arrays can be sized.
+  private void countFacets() throws IOException {
+    count = 0;
+    position = start;
+    while (nextToken()) {
+      if (tokenIs(SOLID) || tokenIs(END_SOLID)) {
+        skipLine();
+      } else if (tokenIs(END_FACET)) {
+        count++;
+      }
+    }
+  }
+
+  // Second pass: fills in the facets from firstIndex on.
+  private void readFacets(Geometry geometry) throws IOException {
+    int index = firstIndex;
+    int vertex = 0;
+    position = start;
+    while (nextToken()) {
+      if (tokenIs(SOLID) || tokenIs(END_SOLID)) {
+        // The rest of the line is the solid's name, which can be anything.
+        skipLine();
+      } else if (tokenIs(FACET)) {
+        // facet normal x y z
+        nextToken();
+        for (int axis = 0; axis < 3; axis++) {
+          facet[axis] = nextNumber();
+        }
+        vertex = 0;
+      } else if (tokenIs(VERTEX)) {
+        if (vertex == 3) {
+          throw new IOException("Facet " + index + " has more than 3 vertices");
+        }
+        for (int axis = 0; axis < 3; axis++) {
+          facet[3 + 3 * vertex + axis] = nextNumber();
+        }
+        vertex++;
+      } else if (tokenIs(END_FACET)) {
+        if (vertex != 3) {
+          throw new IOException("Facet " + index + " has " + vertex + " vertices");
+        }
+        geometry.setFacet(
+            index++,
+            facet[0], facet[1], facet[2],
+            facet[3], facet[4], facet[5],
+            facet[6], facet[7], facet[8],
+            facet[9], facet[10], facet[11]);
+      }
+      // "outer loop" and "endloop" carry nothing.
+    }
+  }
+
+  // Advances to the next whitespace separated token. False at the end of the file.
+  private boolean nextToken() throws IOException {
+    while (position < end && isWhitespace(byteAt(position))) {
+      position++;
+    }
+    if (position >= end) return false;
+    tokenStart = position;
+    while (position < end && !isWhitespace(byteAt(position))) {
+      position++;
+    }
+    tokenEnd = position;
+    return true;
+  }
+
+  private void skipLine() throws IOException {
+    while (position < end && byteAt(position) != '\n') {
+      position++;
+    }
+  }
+
+  private boolean tokenIs(byte[] keyword) throws IOException {
+    if (tokenEnd - tokenStart != keyword.length) return false;
+    for (int offset = 0; offset < keyword.length; offset++) {
+      if (byteAt(tokenStart + offset) != keyword[offset]) return false;
+    }
+    return true;
+  }
+
+  private double nextNumber() throws IOException {
+    if (!nextToken()) {
+      throw new IOException("Unexpected end of file");
+    }
+
+    long at = tokenStart;
+    boolean negative = false;
+    byte current = byteAt(at);
+    if (current == '-' || current == '+') {
+      negative = current == '-';
+      at++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean anyDigits = false;
+    boolean fraction = false;
+    for (; at < tokenEnd; at++) {
+      current = byteAt(at);
+      if (current >= '0' && current <= '9') {
+        anyDigits = true;
+        // Leading zeros don't count against the exact range.
+        if (mantissa != 0 || current != '0') digits++;
+        if (digits <= 18) {
+          mantissa = mantissa * 10 + (current - '0');
+          if (fraction) exponent--;
+        } else if (!fraction) {
+          exponent++;
+        }
+      } else if (current == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    if (at < tokenEnd && (current == 'e' || current == 'E')) {
+      at++;
+      boolean negativeExponent = false;
+      if (at < tokenEnd && (byteAt(at) == '-' || byteAt(at) == '+')) {
+        negativeExponent = byteAt(at) == '-';
+        at++;
+      }
+      int written = 0;
+      boolean anyExponentDigits = false;
+      for (; at < tokenEnd && byteAt(at) >= '0' && byteAt(at) <= '9'; at++) {
+        anyExponentDigits = true;
+        written = Math.min(written * 10 + (byteAt(at) - '0'), 100_000);
+      }
+      if (!anyExponentDigits) return parseSlowly();
+      exponent += negativeExponent ? -written : written;
+    }
+    if (!anyDigits || at != tokenEnd) return parseSlowly();
+
+    double value;
+    if (mantissa == 0) {
+      value = 0;
+    } else if (digits <= 15 && mantissa < EXACT_MANTISSA && Math.abs(exponent) <= EXACT_POWER) {
+      value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    } else {
+      return parseSlowly();
+    }
+    return negative ? -value : value;
+  }
+
+  // The current token through Double.parseDouble, for numbers outside the exact fast path.
+  private double parseSlowly() throws IOException {
+    StringBuilder token = new StringBuilder();
+    for (long at = tokenStart; at < tokenEnd; at++) {
+      token.append((char) byteAt(at));
+    }
+    try {
+      return Double.parseDouble(token.toString());
+    } catch (NumberFormatException e) {
+      throw new IOException("Expected a number at byte " + tokenStart + ", found " + token, e);
+    }
+  }
+
+  private byte byteAt(long offset) throws IOException {
+    if (offset < windowStart || offset >= windowEnd) {
+      ensure(offset, 1);
+    }
+    return window.get((int) (offset - windowStart));
+  }
+
+  // Maps a window holding [offset, offset + count) if the current one doesn't.
+  private MappedByteBuffer ensure(long offset, int count) throws IOException {
+    if (window == null || offset < windowStart || offset + count > windowEnd) {
+      windowStart = offset;
+      windowEnd = Math.min(end, offset + WINDOW_BYTES);
+      window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+      window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return window;
+  }
+
+  private static boolean isWhitespace(byte value) {
+    return value == ' ' || value == '\n' || value == '\r' || value == '\t' || value == '\f';
+  }
+
+  private static byte[] ascii(String keyword) {
+    byte[] bytes = new byte[keyword.length()];
+    for (int index = 0; index < bytes.length; index++) {
+      bytes[index] = (byte) keyword.charAt(index);
+    }
+    return bytes;
+  }
+}
@@ -37,4 +37,9 @@ class ThreadedAdder {
     }
     return sum.doubleValue();
   }
+
+  // Stops the threads without waiting for the sum, for a calculation that failed. Does nothing after finishAndGet.
+  void shutdown() {
+    threadPool.shutdownNow();
+  }
 }
@@ -0,0 +1,277 @@
+package viewfactor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import events.EventManager;
+
+import java.util.function.Consumer;
+
+/**
+ * Runs another engine over receivers, and if need be interconnects, too large for the device or the heap in one go.
+ *
+ * The receivers are cut into tiles, and each tile is run with all the emitters to completion before the next. The
+ * tiles share one kernel, rebound to each tile's geometry in turn, see TileEngineFactory. Only the per-emitter totals
+ * are kept across tiles, so rows are passed on reduced, as a single element array like with reduceOnDevice, once the
+ * last tile is done.
+ *
+ * If the interconnects don't fit next to a receiver tile either, each receiver tile is also run once per interconnect
+ * tile, unreduced. A pair is blocked if any interconnect tile blocks it, and a blocked pair is 0 while an unblocked
+ * one has the same value in every run, so the pair's value is its minimum over the runs. That only holds for the
+ * value of a single ray, so interconnect tiles need refineDistance 0.
+ *
+ * Tile sizes come from memoryBudget, using the bytes per facet below. They cover the arrays a tile's kernel uploads
+ * plus an allowance for the occlusion index, and the result, pair list and running minimum space per receiver.
+ */
+class TiledEngine implements ViewFactorEngine {
+
+  /**
+   * Builds the engine for one tile. It has to report to the given EventManager rather than the application's, which
+   * only sees the tiled run as a whole. previous is the engine built for the tile before, or null for the first; a
+   * kernel can be rebound to the new tile rather than compiling one per tile.
+   */
+  interface TileEngineFactory {
+    ViewFactorEngine build(
+        Geometry receivers,
+        Geometry interconnects,
+        boolean reduceOnDevice,
+        EventManager eventManager,
+        ViewFactorEngine previous);
+  }
+
+  public static class Builder {
+    private final EventManager eventManager;
+
+    private Geometry emitters;
+    private Geometry receivers;
+    private Geometry interconnects;
+    private long memoryBudget;
+    private int batchSize = 1;
+    private boolean reduceOnDevice;
+    private double refineDistance;
+    private TileEngineFactory tileEngineFactory;
+
+    @Inject
+    public Builder(EventManager eventManager) {
+      this.eventManager = eventManager;
+    }
+
+    Builder setEmitters(Geometry emitters) {
+      this.emitters = emitters;
+      return this;
+    }
+
+    Builder setInterconnects(Geometry interconnects) {
+      this.interconnects = interconnects;
+      return this;
+    }
+
+    Builder setReceivers(Geometry receivers) {
+      this.receivers = receivers;
+      return this;
+    }
+
+    /**
+     * Bytes one tile may hold, see the class comment.
+     */
+    Builder setMemoryBudget(long memoryBudget) {
+      this.memoryBudget = memoryBudget;
+      return this;
+    }
+
+    Builder setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Whether tiles that see all the interconnects reduce on the device. Interconnect tiles never do.
+     */
+    Builder setReduceOnDevice(boolean reduceOnDevice) {
+      this.reduceOnDevice = reduceOnDevice;
+      return this;
+    }
+
+    Builder setRefineDistance(double refineDistance) {
+      this.refineDistance = refineDistance;
+      return this;
+    }
+
+    Builder setTileEngineFactory(TileEngineFactory tileEngineFactory) {
+      this.tileEngineFactory = tileEngineFactory;
+      return this;
+    }
+
+    TiledEngine build() {
+      int interconnectTileSize = interconnectTileSize(memoryBudget, emitters.size(), interconnects.size());
+      boolean tiledInterconnects = interconnectTileSize < interconnects.size();
+      Preconditions.checkArgument(
+          !tiledInterconnects || refineDistance == 0,
+          "Error: the interconnects need tiles too, which doesn't work with --refine. Raise --tile-memory.");
+      int receiverTileSize = receiverTileSize(
+          memoryBudget, emitters.size(), receivers.size(), interconnectTileSize, tiledInterconnects, batchSize);
+      return new TiledEngine(
+          eventManager,
+          emitters,
+          receivers,
+          interconnects,
+          receiverTileSize,
+          interconnectTileSize,
+          reduceOnDevice && !tiledInterconnects,
+          tileEngineFactory);
+    }
+  }
+
+  // Device bytes per facet: the 16 arrays of an emitter or receiver, and the 12 of an interconnect with room for its
+  // bounding volume hierarchy or grid.
+  private static final long EMITTER_BYTES = 16 * Double.BYTES;
+  private static final long RECEIVER_BYTES = 16 * Double.BYTES;
+  private static final long INTERCONNECT_BYTES = 256;
+  // Per receiver and emitter of a batch: the result and, with culling, two pair list entries.
+  private static final long BATCH_BYTES = Double.BYTES + 2 * Integer.BYTES;
+
+  private final EventManager eventManager;
+  private final Geometry emitters;
+  private final Geometry receivers;
+  private final Geometry interconnects;
+  private final int receiverTileSize;
+  private final int interconnectTileSize;
+  private final boolean reduceOnDevice;
+  private final TileEngineFactory tileEngineFactory;
+
+  private TiledEngine(
+      EventManager eventManager,
+      Geometry emitters,
+      Geometry receivers,
+      Geometry interconnects,
+      int receiverTileSize,
+      int interconnectTileSize,
+      boolean reduceOnDevice,
+      TileEngineFactory tileEngineFactory) {
+    this.eventManager = eventManager;
+    this.emitters = emitters;
+    this.receivers = receivers;
+    this.interconnects = interconnects;
+    this.receiverTileSize = receiverTileSize;
+    this.interconnectTileSize = interconnectTileSize;
+    this.reduceOnDevice = reduceOnDevice;
+    this.tileEngineFactory = tileEngineFactory;
+  }
+
+  /**
+   * Interconnects per tile: all of them if they take at most half of what the emitters leave of memoryBudget,
+   * otherwise as many as fit in that half.
+   */
+  @VisibleForTesting
+  static int interconnectTileSize(long memoryBudget, int emitterCount, int interconnectCount) {
+    long available = memoryBudget - EMITTER_BYTES * emitterCount;
+    Preconditions.checkArgument(
+        available > 2 * INTERCONNECT_BYTES,
+        "Error: --tile-memory of %s bytes doesn't hold the %s emitters.", memoryBudget, emitterCount);
+    if (INTERCONNECT_BYTES * interconnectCount <= available / 2) {
+      return interconnectCount;
+    }
+    return (int) (available / 2 / INTERCONNECT_BYTES);
+  }
+
+  /**
+   * Receivers per tile, filling what the emitters and an interconnect tile leave of memoryBudget.
+   */
+  @VisibleForTesting
+  static int receiverTileSize(
+      long memoryBudget,
+      int emitterCount,
+      int receiverCount,
+      int interconnectTileSize,
+      boolean tiledInterconnects,
+      int batchSize) {
+    long available = memoryBudget - EMITTER_BYTES * emitterCount - INTERCONNECT_BYTES * interconnectTileSize;
+    long perReceiver = RECEIVER_BYTES + BATCH_BYTES * Math.max(1, batchSize)
+        + (tiledInterconnects ? (long) Double.BYTES * emitterCount : 0);
+    Preconditions.checkArgument(
+        available >= perReceiver,
+        "Error: --tile-memory of %s bytes doesn't hold a single receiver next to the emitters.", memoryBudget);
+    long tileSize = Math.min(available / perReceiver, Math.max(1, receiverCount));
+    if (tiledInterconnects) {
+      // The running minimums are one array of emitters x receivers per tile.
+      tileSize = Math.min(tileSize, (Integer.MAX_VALUE - 8) / Math.max(1, emitterCount));
+    }
+    return (int) tileSize;
+  }
+
+  @Override
+  public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+    InnerEngineRun.skipBufferTransfer(eventManager);
+
+    int emitterCount = emitters.size();
+    int receiverCount = receivers.size();
+    int interconnectCount = interconnects.size();
+    boolean tiledInterconnects = interconnectTileSize < interconnectCount;
+    int receiverTiles = (receiverCount + receiverTileSize - 1) / receiverTileSize;
+    int interconnectTiles =
+        tiledInterconnects ? (interconnectCount + interconnectTileSize - 1) / interconnectTileSize : 1;
+    double[] totals = new double[emitterCount];
+    double[] minimums = tiledInterconnects ? new double[emitterCount * receiverTileSize] : null;
+
+    eventManager.startComputation();
+    try (InnerEngineRun tiles = new InnerEngineRun()) {
+      for (int receiverTile = 0; receiverTile < receiverTiles; receiverTile++) {
+        int receiverStart = receiverTile * receiverTileSize;
+        int receiverEnd = Math.min(receiverCount, receiverStart + receiverTileSize);
+        int width = receiverEnd - receiverStart;
+        Geometry tileReceivers = receiverTiles == 1 ? receivers : receivers.slice(receiverStart, receiverEnd);
+
+        if (!tiledInterconnects) {
+          int[] nextEmitter = {0};
+          runTile(tiles, tileReceivers, interconnects, reduceOnDevice, row -> totals[nextEmitter[0]++] += sum(row));
+        } else {
+          for (int interconnectTile = 0; interconnectTile < interconnectTiles; interconnectTile++) {
+            int interconnectStart = interconnectTile * interconnectTileSize;
+            Geometry tileInterconnects = interconnects.slice(
+                interconnectStart, Math.min(interconnectCount, interconnectStart + interconnectTileSize));
+            boolean first = interconnectTile == 0;
+            int[] nextEmitter = {0};
+            runTile(tiles, tileReceivers, tileInterconnects, false, row -> {
+              int offset = nextEmitter[0]++ * width;
+              for (int column = 0; column < width; column++) {
+                minimums[offset + column] = first ? row[column] : Math.min(minimums[offset + column], row[column]);
+              }
+            });
+          }
+          for (int emitterIndex = 0; emitterIndex < emitterCount; emitterIndex++) {
+            for (int column = 0; column < width; column++) {
+              totals[emitterIndex] += minimums[emitterIndex * width + column];
+            }
+          }
+        }
+        eventManager.updateComputationProgress(receiverEnd, receiverCount);
+      }
+    }
+
+    double[] row = new double[1];
+    for (double total : totals) {
+      row[0] = total;
+      resultConsumer.accept(row);
+    }
+    eventManager.finishComputation(completionHandler.onComplete() / sum(emitters.getArea()));
+  }
+
+  // Runs the engine for one tile, rebinding the one before if the factory does.
+  private void runTile(
+      InnerEngineRun tiles,
+      Geometry tileReceivers,
+      Geometry tileInterconnects,
+      boolean reduce,
+      Consumer<double[]> rowConsumer) {
+    tiles.setEngine(tileEngineFactory.build(
+        tileReceivers, tileInterconnects, reduce, tiles.getEventManager(), tiles.getEngine()))
+        .calculate(rowConsumer, () -> 0);
+  }
+
+  private static double sum(double...values) {
+    double result = 0;
+    for (double value:values)
+      result += value;
+    return result;
+  }
+}
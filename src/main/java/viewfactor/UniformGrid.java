@@ -0,0 +1,321 @@
+package viewfactor;
+
+/**
+ * Uniform voxel grid over the triangles of a Geometry, walked with a 3D-DDA (Amanatides & Woo). Cell contents are
+ * stored CSR style: the triangles of cell i are triangleIndex[cellOffset[i], cellOffset[i + 1]). A triangle is listed
+ * in every cell its bounding box overlaps.
+ *
+ * Grids suit dense meshes of evenly sized triangles, where a BoundingVolumeHierarchy spends most of its time on box
+ * tests.
+ */
+class UniformGrid implements Occluders {
+
+  // Target average number of cells per triangle.
+  private static final double CELLS_PER_TRIANGLE = 2;
+  private static final int MAX_CELLS_PER_AXIS = 512;
+  private static final double INFINITE_SLAB = 1e300;
+
+  private final Geometry triangles;
+
+  private int dimX;
+  private int dimY;
+  private int dimZ;
+
+  private double minX;
+  private double minY;
+  private double minZ;
+  private double maxX;
+  private double maxY;
+  private double maxZ;
+
+  private double cellSizeX;
+  private double cellSizeY;
+  private double cellSizeZ;
+
+  private int[] cellOffset;
+  private int[] triangleIndex;
+
+  private UniformGrid(Geometry triangles) {
+    this.triangles = triangles;
+  }
+
+  static UniformGrid of(Geometry triangles) {
+    UniformGrid grid = new UniformGrid(triangles);
+    grid.build();
+    return grid;
+  }
+
+  int getDimX() {
+    return dimX;
+  }
+
+  int getDimY() {
+    return dimY;
+  }
+
+  int getDimZ() {
+    return dimZ;
+  }
+
+  double getMinX() {
+    return minX;
+  }
+
+  double getMinY() {
+    return minY;
+  }
+
+  double getMinZ() {
+    return minZ;
+  }
+
+  double getMaxX() {
+    return maxX;
+  }
+
+  double getMaxY() {
+    return maxY;
+  }
+
+  double getMaxZ() {
+    return maxZ;
+  }
+
+  double getCellSizeX() {
+    return cellSizeX;
+  }
+
+  double getCellSizeY() {
+    return cellSizeY;
+  }
+
+  double getCellSizeZ() {
+    return cellSizeZ;
+  }
+
+  int[] getCellOffset() {
+    return cellOffset;
+  }
+
+  int[] getTriangleIndex() {
+    return triangleIndex;
+  }
+
+  /**
+   * Whether any triangle blocks the segment from origin to origin + ray. Mirrors the traversal in IntersectionKernel.
+   */
+  @Override
+  public boolean isOccluded(double originX, double originY, double originZ, double rayX, double rayY, double rayZ) {
+    if (triangles.size() == 0) return false;
+
+    double inverseRayX = Intersections.inverseOf(rayX);
+    double inverseRayY = Intersections.inverseOf(rayY);
+    double inverseRayZ = Intersections.inverseOf(rayZ);
+
+    // Clip the segment to the grid.
+    double tNear = 0;
+    double tFar = 1;
+    double t1 = (minX - originX) * inverseRayX;
+    double t2 = (maxX - originX) * inverseRayX;
+    tNear = Math.max(tNear, Math.min(t1, t2));
+    tFar = Math.min(tFar, Math.max(t1, t2));
+    t1 = (minY - originY) * inverseRayY;
+    t2 = (maxY - originY) * inverseRayY;
+    tNear = Math.max(tNear, Math.min(t1, t2));
+    tFar = Math.min(tFar, Math.max(t1, t2));
+    t1 = (minZ - originZ) * inverseRayZ;
+    t2 = (maxZ - originZ) * inverseRayZ;
+    tNear = Math.max(tNear, Math.min(t1, t2));
+    tFar = Math.min(tFar, Math.max(t1, t2));
+    if (tNear > tFar) return false;
+
+    int cellX = clamp((int) ((originX + tNear * rayX - minX) / cellSizeX), dimX);
+    int cellY = clamp((int) ((originY + tNear * rayY - minY) / cellSizeY), dimY);
+    int cellZ = clamp((int) ((originZ + tNear * rayZ - minZ) / cellSizeZ), dimZ);
+
+    // Ray distance at which the next cell boundary is crossed on each axis.
+    int stepX = 0;
+    int stepY = 0;
+    int stepZ = 0;
+    double tMaxX = INFINITE_SLAB;
+    double tMaxY = INFINITE_SLAB;
+    double tMaxZ = INFINITE_SLAB;
+    if (rayX > 0) {
+      stepX = 1;
+      tMaxX = (minX + (cellX + 1) * cellSizeX - originX) * inverseRayX;
+    } else if (rayX < 0) {
+      stepX = -1;
+      tMaxX = (minX + cellX * cellSizeX - originX) * inverseRayX;
+    }
+    if (rayY > 0) {
+      stepY = 1;
+      tMaxY = (minY + (cellY + 1) * cellSizeY - originY) * inverseRayY;
+    } else if (rayY < 0) {
+      stepY = -1;
+      tMaxY = (minY + cellY * cellSizeY - originY) * inverseRayY;
+    }
+    if (rayZ > 0) {
+      stepZ = 1;
+      tMaxZ = (minZ + (cellZ + 1) * cellSizeZ - originZ) * inverseRayZ;
+    } else if (rayZ < 0) {
+      stepZ = -1;
+      tMaxZ = (minZ + cellZ * cellSizeZ - originZ) * inverseRayZ;
+    }
+
+    // Ray distance between consecutive boundaries on each axis.
+    double tDeltaX = Math.abs(cellSizeX * inverseRayX);
+    double tDeltaY = Math.abs(cellSizeY * inverseRayY);
+    double tDeltaZ = Math.abs(cellSizeZ * inverseRayZ);
+
+    while (true) {
+      int cell = cellX + dimX * (cellY + dimY * cellZ);
+      for (int slot = cellOffset[cell]; slot < cellOffset[cell + 1]; slot++) {
+        double distance = Intersections.intersectionDistance(
+            triangles, triangleIndex[slot], originX, originY, originZ, rayX, rayY, rayZ);
+        if (Intersections.blocksSegment(distance)) {
+          return true;
+        }
+      }
+
+      if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+        if (tMaxX > tFar) return false;
+        cellX += stepX;
+        if (cellX < 0 || cellX >= dimX) return false;
+        tMaxX += tDeltaX;
+      } else if (tMaxY < tMaxZ) {
+        if (tMaxY > tFar) return false;
+        cellY += stepY;
+        if (cellY < 0 || cellY >= dimY) return false;
+        tMaxY += tDeltaY;
+      } else {
+        if (tMaxZ > tFar) return false;
+        cellZ += stepZ;
+        if (cellZ < 0 || cellZ >= dimZ) return false;
+        tMaxZ += tDeltaZ;
+      }
+    }
+  }
+
+  private static int clamp(int cell, int dim) {
+    return cell < 0 ? 0 : cell >= dim ? dim - 1 : cell;
+  }
+
+  private void build() {
+    int size = triangles.size();
+    dimX = 1;
+    dimY = 1;
+    dimZ = 1;
+
+    if (size == 0) {
+      cellSizeX = 1;
+      cellSizeY = 1;
+      cellSizeZ = 1;
+      cellOffset = new int[2];
+      // Aparapi can't transfer empty arrays.
+      triangleIndex = new int[1];
+      return;
+    }
+
+    double[] triangleMin = new double[3];
+    double[] triangleMax = new double[3];
+    double[] lower = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] upper = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int index = 0; index < size; index++) {
+      boundsOf(index, triangleMin, triangleMax);
+      for (int axis = 0; axis < 3; axis++) {
+        lower[axis] = Math.min(lower[axis], triangleMin[axis]);
+        upper[axis] = Math.max(upper[axis], triangleMax[axis]);
+      }
+    }
+
+    // Pad the bounds so flat meshes still have volume and boundary triangles land inside a cell.
+    double largestExtent = Math.max(upper[0] - lower[0], Math.max(upper[1] - lower[1], upper[2] - lower[2]));
+    double padding = Math.max(largestExtent, 1) * 1e-6;
+    for (int axis = 0; axis < 3; axis++) {
+      lower[axis] -= padding;
+      upper[axis] += padding;
+    }
+    minX = lower[0];
+    minY = lower[1];
+    minZ = lower[2];
+    maxX = upper[0];
+    maxY = upper[1];
+    maxZ = upper[2];
+
+    // Pick a cubic cell size giving roughly CELLS_PER_TRIANGLE cells per triangle over the axes that have any extent.
+    double targetCells = CELLS_PER_TRIANGLE * size;
+    double volume = 1;
+    int activeAxes = 0;
+    for (int axis = 0; axis < 3; axis++) {
+      if (upper[axis] - lower[axis] > 4 * padding) {
+        volume *= upper[axis] - lower[axis];
+        activeAxes++;
+      }
+    }
+    double cellSize = activeAxes == 0 ? largestExtent + 2 * padding : Math.pow(volume / targetCells, 1.0 / activeAxes);
+    dimX = dimensionFor(maxX - minX, cellSize);
+    dimY = dimensionFor(maxY - minY, cellSize);
+    dimZ = dimensionFor(maxZ - minZ, cellSize);
+    cellSizeX = (maxX - minX) / dimX;
+    cellSizeY = (maxY - minY) / dimY;
+    cellSizeZ = (maxZ - minZ) / dimZ;
+
+    // Two passes over the triangles: count the entries per cell, then fill them in.
+    int cellCount = dimX * dimY * dimZ;
+    cellOffset = new int[cellCount + 1];
+    int[] cellRange = new int[6];
+    for (int index = 0; index < size; index++) {
+      boundsOf(index, triangleMin, triangleMax);
+      cellRangeOf(triangleMin, triangleMax, cellRange);
+      for (int z = cellRange[2]; z <= cellRange[5]; z++) {
+        for (int y = cellRange[1]; y <= cellRange[4]; y++) {
+          for (int x = cellRange[0]; x <= cellRange[3]; x++) {
+            cellOffset[x + dimX * (y + dimY * z) + 1]++;
+          }
+        }
+      }
+    }
+    for (int cell = 0; cell < cellCount; cell++) {
+      cellOffset[cell + 1] += cellOffset[cell];
+    }
+
+    triangleIndex = new int[Math.max(1, cellOffset[cellCount])];
+    int[] cursor = new int[cellCount];
+    System.arraycopy(cellOffset, 0, cursor, 0, cellCount);
+    for (int index = 0; index < size; index++) {
+      boundsOf(index, triangleMin, triangleMax);
+      cellRangeOf(triangleMin, triangleMax, cellRange);
+      for (int z = cellRange[2]; z <= cellRange[5]; z++) {
+        for (int y = cellRange[1]; y <= cellRange[4]; y++) {
+          for (int x = cellRange[0]; x <= cellRange[3]; x++) {
+            triangleIndex[cursor[x + dimX * (y + dimY * z)]++] = index;
+          }
+        }
+      }
+    }
+  }
+
+  private static int dimensionFor(double extent, double cellSize) {
+    return (int) Math.max(1, Math.min(MAX_CELLS_PER_AXIS, Math.ceil(extent / cellSize)));
+  }
+
+  private void boundsOf(int index, double[] triangleMin, double[] triangleMax) {
+    for (int axis = 0; axis < 3; axis++) {
+      double a = triangles.cornerOf(index, 0, axis);
+      double b = triangles.cornerOf(index, 1, axis);
+      double c = triangles.cornerOf(index, 2, axis);
+      triangleMin[axis] = Math.min(a, Math.min(b, c));
+      triangleMax[axis] = Math.max(a, Math.max(b, c));
+    }
+  }
+
+  // Writes the inclusive cell range {lowX, lowY, lowZ, highX, highY, highZ} covered by a bounding box.
+  private void cellRangeOf(double[] boxMin, double[] boxMax, int[] cellRange) {
+    cellRange[0] = clamp((int) ((boxMin[0] - minX) / cellSizeX), dimX);
+    cellRange[1] = clamp((int) ((boxMin[1] - minY) / cellSizeY), dimY);
+    cellRange[2] = clamp((int) ((boxMin[2] - minZ) / cellSizeZ), dimZ);
+    cellRange[3] = clamp((int) ((boxMax[0] - minX) / cellSizeX), dimX);
+    cellRange[4] = clamp((int) ((boxMax[1] - minY) / cellSizeY), dimY);
+    cellRange[5] = clamp((int) ((boxMax[2] - minZ) / cellSizeZ), dimZ);
+  }
+}
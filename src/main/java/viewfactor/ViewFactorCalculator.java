@@ -1,34 +1,678 @@
 package viewfactor;
 
+import com.aparapi.Kernel;
+import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import events.EventManager;
 import org.j3d.loaders.stl.STLFileReader;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
 public class ViewFactorCalculator {
 
+  private Provider<Geometry> geometryProvider;
   private IntersectionKernel.Builder kernelBuilder;
+  private FloatIntersectionKernel.Builder floatKernelBuilder;
+  private ForkJoinEngine.Builder forkJoinBuilder;
+  private HemicubeEngine.Builder hemicubeBuilder;
+  private MonteCarloEngine.Builder monteCarloBuilder;
+  private TiledEngine.Builder tiledBuilder;
+  private IncrementalEngine.Builder incrementalBuilder;
+  private ShardCoordinator.Builder coordinatorBuilder;
+  private ShardWorker.Builder workerBuilder;
   private EventManager eventManager;
-  private ThreadedAdder adder;
+  private Provider<ThreadedAdder> adderProvider;
+  private Configuration configuration;
+  // Set while a --batch runs, which keeps one Aparapi kernel for all of its jobs rather than compiling one per job.
+  private boolean keepsKernel;
+  // The kernel a --batch keeps, given each job's geometry in turn, or null.
+  private Kernel keptKernel;
 
   @Inject
   public ViewFactorCalculator(
+      Provider<Geometry> geometryProvider,
       IntersectionKernel.Builder kernelBuilder,
-      ThreadedAdder adder,
-      EventManager eventManager) {
+      FloatIntersectionKernel.Builder floatKernelBuilder,
+      ForkJoinEngine.Builder forkJoinBuilder,
+      HemicubeEngine.Builder hemicubeBuilder,
+      MonteCarloEngine.Builder monteCarloBuilder,
+      TiledEngine.Builder tiledBuilder,
+      IncrementalEngine.Builder incrementalBuilder,
+      ShardCoordinator.Builder coordinatorBuilder,
+      ShardWorker.Builder workerBuilder,
+      Provider<ThreadedAdder> adderProvider,
+      EventManager eventManager,
+      Configuration configuration) {
+    this.geometryProvider = geometryProvider;
     this.kernelBuilder = kernelBuilder;
-    this.adder = adder;
+    this.floatKernelBuilder = floatKernelBuilder;
+    this.forkJoinBuilder = forkJoinBuilder;
+    this.hemicubeBuilder = hemicubeBuilder;
+    this.monteCarloBuilder = monteCarloBuilder;
+    this.tiledBuilder = tiledBuilder;
+    this.incrementalBuilder = incrementalBuilder;
+    this.coordinatorBuilder = coordinatorBuilder;
+    this.workerBuilder = workerBuilder;
+    this.adderProvider = adderProvider;
     this.eventManager = eventManager;
+    this.configuration = configuration;
+  }
+
+  /**
+   * Reads the STL files with StlReader, which maps them and writes the facets straight into the geometry arrays,
+   * parsing large ASCII files on --threads threads. With --geometry-cache, files parsed before are loaded from the
+   * cache instead. With --off-heap-geometry, the arrays are memory-mapped columns instead of heap arrays.
+   */
+  public void run(File emitterFile, File receiverFile, File interconnectFile) {
+    run(emitterFile, receiverFile, interconnectFile, new HashMap<>());
+  }
+
+  /**
+   * Runs every job of a --batch manifest, see BatchManifest, in this JVM one after another. A mesh that several jobs
+   * use is loaded once and kept until the last of them is done. A job that fails is reported and the batch moves on.
+   *
+   * With --engine=aparapi, the jobs share one kernel, which is compiled once and given each job's geometry in turn,
+   * see IntersectionKernel.Builder.rebind. Tiled runs and the engines for parts of a job still build their own.
+   */
+  public void runBatch(File manifestFile) {
+    Preconditions.checkArgument(
+        configuration.getMatrixFile() == null && configuration.getSparseMatrixFile() == null
+            && configuration.getCheckpointFile() == null,
+        "Error: --batch can't be combined with matrix output or --checkpoint, every job would write the same file.");
+    List<BatchManifest.Job> jobs;
+    try {
+      jobs = BatchManifest.read(manifestFile.toPath()).getJobs();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    Map<String, Integer> lastUse = new HashMap<>();
+    for (int jobIndex = 0; jobIndex < jobs.size(); jobIndex++) {
+      BatchManifest.Job job = jobs.get(jobIndex);
+      lastUse.put(geometryKey(job.getEmitterFile(), false), jobIndex);
+      lastUse.put(geometryKey(job.getReceiverFile(), false), jobIndex);
+      if (job.getInterconnectFile() != null) {
+        lastUse.put(geometryKey(job.getInterconnectFile(), true), jobIndex);
+      }
+    }
+
+    Map<String, Geometry> loaded = new HashMap<>();
+    int failed = 0;
+    keepsKernel = true;
+    try {
+      for (int jobIndex = 0; jobIndex < jobs.size(); jobIndex++) {
+        BatchManifest.Job job = jobs.get(jobIndex);
+        eventManager.info(String.format("Batch job %d of %d: %s", jobIndex + 1, jobs.size(), job));
+        try {
+          run(job.getEmitterFile(), job.getReceiverFile(), job.getInterconnectFile(), loaded);
+        } catch (RuntimeException e) {
+          failed++;
+          eventManager.exception(e);
+          // The kernel may have stopped part way through, so the next job starts on a fresh one.
+          disposeKeptKernel();
+        }
+        // Off-heap meshes are unmapped here rather than whenever the collector gets to them.
+        for (Iterator<Map.Entry<String, Geometry>> entries = loaded.entrySet().iterator(); entries.hasNext(); ) {
+          Map.Entry<String, Geometry> entry = entries.next();
+          if (lastUse.get(entry.getKey()) == jobIndex) {
+            entries.remove();
+            entry.getValue().release();
+          }
+        }
+      }
+    } finally {
+      keepsKernel = false;
+      disposeKeptKernel();
+    }
+    eventManager.info(String.format("Batch finished: %d jobs, %d failed.", jobs.size(), failed));
+  }
+
+  // Loads each file unless it's in loaded already, and adds what it loads to loaded.
+  private void run(File emitterFile, File receiverFile, File interconnectFile, Map<String, Geometry> loaded) {
+    eventManager.start();
+
+    File cacheDirectory = configuration.getGeometryCacheDirectory();
+    GeometryCache cache = cacheDirectory == null ? null : new GeometryCache(cacheDirectory.toPath(), eventManager);
+    eventManager.startParseStl(cacheDirectory == null ? null : cacheDirectory.getPath());
+    Geometry emitters = load(emitterFile, false, cache, loaded);
+    Geometry receivers = load(receiverFile, false, cache, loaded);
+    Geometry interconnects = interconnectFile == null
+        ? newGeometry().empty() : load(interconnectFile, true, cache, loaded);
+    if (cache == null) {
+      eventManager.finishParseStl();
+    } else {
+      eventManager.finishParseStl(cache.getHits(), cache.getMisses());
+    }
+
+    calculate(emitters, receivers, interconnects);
+  }
+
+  // Only the interconnects are ever read straight from an indexed mesh, see Geometry.indexed(), so a file loaded as
+  // interconnects is kept apart from the same file loaded as emitters or receivers.
+  private String geometryKey(File stlFile, boolean interconnects) {
+    return stlFile.getAbsolutePath() + (interconnects && configuration.isIndexedMesh() ? " (indexed)" : "");
+  }
+
+  private Geometry load(File stlFile, boolean interconnects, GeometryCache cache, Map<String, Geometry> loaded) {
+    String key = geometryKey(stlFile, interconnects);
+    Geometry geometry = loaded.get(key);
+    if (geometry == null) {
+      geometry = interconnects && configuration.isIndexedMesh() ? newGeometry().indexed() : newGeometry();
+      geometry = load(stlFile, geometry, cache);
+      loaded.put(key, geometry);
+    }
+    return geometry;
+  }
+
+  private Geometry newGeometry() {
+    Geometry geometry = geometryProvider.get();
+    return configuration.isOffHeapGeometry() ? geometry.offHeap() : geometry;
+  }
+
+  private Geometry load(File stlFile, Geometry geometry, GeometryCache cache) {
+    if (cache == null) {
+      return geometry.from(stlFile.toPath(), configuration.getThreads());
+    }
+    return cache.load(stlFile.toPath(), geometry, configuration.getThreads());
   }
 
   public void run(STLFileReader emitterFile, STLFileReader receiverFile, STLFileReader interconnectFile) {
     eventManager.start();
-    kernelBuilder
-        .setEmitterReader(emitterFile)
-        .setInterconnectReader(interconnectFile)
-        .setReceiverReader(receiverFile)
-        .build()
+
+    eventManager.startParseStl();
+    Geometry emitters = geometryProvider.get().from(emitterFile);
+    Geometry receivers = geometryProvider.get().from(receiverFile);
+    Geometry interconnects = interconnectFile == null
+        ? geometryProvider.get().empty() : geometryProvider.get().from(interconnectFile);
+    eventManager.finishParseStl();
+
+    calculate(emitters, receivers, interconnects);
+  }
+
+  private void calculate(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    if (configuration.getPoseFile() != null) {
+      sweep(emitters, receivers, interconnects);
+      return;
+    }
+
+    File checkpointFile = configuration.getCheckpointFile();
+    Preconditions.checkArgument(
+        checkpointFile != null || !configuration.isResume(), "Error: --resume needs a --checkpoint file.");
+    long fingerprint = checkpointFile == null ? 0 : CheckpointWriter.fingerprintOf(emitters, receivers, interconnects);
+    CheckpointWriter.Progress resumed = resumedProgress(fingerprint, emitters.size());
+    int firstEmitter = resumed == null ? 0 : resumed.getCompletedEmitters();
+    if (firstEmitter == emitters.size() && firstEmitter > 0) {
+      finishFromCheckpoint(resumed, emitters, adderProvider.get());
+      return;
+    }
+
+    // The engine only sees the emitters left to do. Mirroring rows needs all of them, so resumed rows are computed in
+    // full.
+    Geometry remaining = firstEmitter == 0 ? emitters : emitters.slice(firstEmitter, emitters.size());
+    boolean upperTriangle = firstEmitter == 0 && configuration.getIncrementalStore() == null
+        && configuration.getCoordinatorPort() == 0 && configuration.getWorkerCoordinator() == null
+        && useReciprocity(emitters, receivers);
+    List<RowWriter> rowWriters = openRowWriters(remaining, receivers, interconnects);
+    boolean fullRows = !rowWriters.isEmpty();
+    if (checkpointFile != null) {
+      rowWriters.add(new CheckpointWriter(
+          checkpointFile.toPath(),
+          fingerprint,
+          emitters.size(),
+          resumed,
+          configuration.getCheckpointInterval(),
+          eventManager));
+    }
+    ThreadedAdder adder = adderProvider.get();
+    try {
+      Consumer<double[]> resultConsumer = adder::add;
+      for (RowWriter rowWriter : rowWriters) {
+        resultConsumer = resultConsumer.andThen(rowWriter);
+      }
+      if (upperTriangle) {
+        resultConsumer = new ReciprocalRows(resultConsumer, receivers.size(), fullRows);
+      }
+      double resumedSum = resumed == null ? 0 : resumed.getPartialSum();
+      // Engines divide by the area of the emitters they ran, so a resumed sum is scaled to that of all of them.
+      double areaScale = firstEmitter == 0 ? 1 : sum(remaining.getArea()) / sum(emitters.getArea());
+      ViewFactorEngine.KernelComplete completionHandler = () -> {
+        closeRowWriters(rowWriters);
+        return (resumedSum + adder.finishAndGet()) * areaScale;
+      };
+
+      ViewFactorEngine engine = buildEngine(remaining, receivers, interconnects, upperTriangle);
+      try {
         // TODO(Matthew Barry): we get the right result without dividing by area after summing. Why is this?
-        .calculate(adder::add, adder::finishAndGet);
+        engine.calculate(resultConsumer, completionHandler);
+      } finally {
+        dispose(engine);
+      }
+    } finally {
+      // Only does anything if the calculation failed, and stops a --batch from leaking the adder's threads.
+      adder.shutdown();
+    }
+    eventManager.finish();
+  }
+
+  /**
+   * Runs a --poses sweep. One engine is built on the untransformed geometry and then moved through the poses, so the
+   * geometry is parsed and sent to the device once and only the pose changes between computations. Each pose gets its
+   * own result, and the results are listed together at the end.
+   */
+  private void sweep(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    Preconditions.checkArgument(
+        configuration.getEngine() == Configuration.Engine.FORK_JOIN
+            || (configuration.getEngine() == Configuration.Engine.APARAPI
+                && configuration.getKernelPrecision() == Configuration.Precision.DOUBLE
+                && configuration.getTileMemory() == 0),
+        "Error: --poses needs --engine=fork-join, or --engine=aparapi in double precision without --tile-memory.");
+    Preconditions.checkArgument(
+        configuration.getCulling() == Configuration.Culling.NONE && !configuration.isSameSurface(),
+        "Error: --poses can't be combined with --cull or --same-surface, they only hold for unmoved receivers.");
+    Preconditions.checkArgument(
+        configuration.getMatrixFile() == null && configuration.getSparseMatrixFile() == null
+            && configuration.getCheckpointFile() == null && !configuration.isValidatePrecision(),
+        "Error: --poses can't be combined with matrix output, --checkpoint or --validate-precision.");
+    List<Pose> poses;
+    try {
+      poses = Pose.read(configuration.getPoseFile().toPath());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    PosedEngine engine = (PosedEngine) buildEngine(emitters, receivers, interconnects, false);
+    double emitterArea = sum(emitters.getArea());
+    StringBuilder results = new StringBuilder("View factor per pose:");
+    try {
+      for (int poseIndex = 0; poseIndex < poses.size(); poseIndex++) {
+        eventManager.info(String.format("Pose %d of %d.", poseIndex + 1, poses.size()));
+        engine.setReceiverPose(poses.get(poseIndex));
+        ThreadedAdder adder = adderProvider.get();
+        double[] total = new double[1];
+        try {
+          engine.calculate(adder::add, () -> total[0] = adder.finishAndGet());
+        } finally {
+          adder.shutdown();
+        }
+        results.append(String.format("%n%d %s", poseIndex + 1, total[0] / emitterArea));
+      }
+    } finally {
+      dispose(engine);
+    }
+    eventManager.info(results.toString());
     eventManager.finish();
   }
+
+  // The progress to resume from, or null to start from the first emitter.
+  private CheckpointWriter.Progress resumedProgress(long fingerprint, int emitterCount) {
+    if (!configuration.isResume()) return null;
+    Preconditions.checkArgument(
+        configuration.getEngine() != Configuration.Engine.MONTE_CARLO && configuration.getTileMemory() == 0,
+        "Error: --resume needs an engine that passes rows on as it goes, not --engine=monte-carlo or --tile-memory.");
+    Preconditions.checkArgument(
+        configuration.getMatrixFile() == null && configuration.getSparseMatrixFile() == null,
+        "Error: --resume can't be combined with matrix output.");
+    try {
+      CheckpointWriter.Progress resumed =
+          CheckpointWriter.read(configuration.getCheckpointFile().toPath(), fingerprint, emitterCount);
+      eventManager.info(resumed == null
+          ? "No checkpoint yet, starting from the first emitter."
+          : "Resuming after " + resumed.getCompletedEmitters() + " of " + emitterCount + " emitters.");
+      return resumed;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // For a checkpoint that covers every emitter: reports its result without running an engine.
+  private void finishFromCheckpoint(CheckpointWriter.Progress resumed, Geometry emitters, ThreadedAdder adder) {
+    eventManager.info("The checkpoint covers every emitter, nothing left to compute.");
+    eventManager.startBufferTransfer();
+    eventManager.finishBufferTransfer();
+    eventManager.startComputation();
+    eventManager.finishComputation((resumed.getPartialSum() + adder.finishAndGet()) / sum(emitters.getArea()));
+    eventManager.finish();
+  }
+
+  // Frees what an Aparapi engine holds, its OpenCL context, program and buffers or its thread pool. A --batch runs many
+  // jobs in this JVM, so each job's engine goes once its job is done, apart from the kernel it keeps.
+  private void dispose(ViewFactorEngine engine) {
+    if (engine instanceof Kernel && engine != keptKernel) {
+      ((Kernel) engine).dispose();
+    }
+  }
+
+  private void disposeKeptKernel() {
+    if (keptKernel != null) {
+      keptKernel.dispose();
+      keptKernel = null;
+    }
+  }
+
+  private static double sum(double...values) {
+    double result = 0;
+    for (double value:values)
+      result += value;
+    return result;
+  }
+
+  // Whether to compute only the upper triangle of the pairs and mirror the rest, see ReciprocalRows.
+  private boolean useReciprocity(Geometry emitters, Geometry receivers) {
+    boolean supported = configuration.getEngine() == Configuration.Engine.FORK_JOIN
+        || (configuration.getEngine() == Configuration.Engine.APARAPI && !reducesRows());
+    if (configuration.isSameSurface()) {
+      Preconditions.checkArgument(
+          emitters.size() == receivers.size(), "Error: --same-surface needs as many emitters as receivers.");
+      Preconditions.checkArgument(
+          supported,
+          "Error: --same-surface needs --engine=fork-join, or --engine=aparapi without --reduce-on-device or "
+              + "--tile-memory.");
+      return true;
+    }
+    if (supported && emitters.hasSameTrianglesAs(receivers)) {
+      // Mirroring full rows holds about n^2 / 2 doubles on the heap, which a mapped matrix may well not fit in.
+      if (passesFullRows()) {
+        eventManager.info("Emitters and receivers are the same surface, but full rows are passed on, so each pair "
+            + "is computed twice. --same-surface computes it once, holding half the matrix on the heap.");
+        return false;
+      }
+      eventManager.info("Emitters and receivers are the same surface, computing each pair once.");
+      return true;
+    }
+    return false;
+  }
+
+  // Whether rows go to matrix output or --validate-precision in full, rather than only being summed.
+  private boolean passesFullRows() {
+    return configuration.getMatrixFile() != null || configuration.getSparseMatrixFile() != null
+        || configuration.isValidatePrecision();
+  }
+
+  // Whether the Aparapi engine passes on each row's sum rather than the row, see TiledEngine.
+  private boolean reducesRows() {
+    return configuration.isReduceOnDevice() || configuration.getTileMemory() > 0;
+  }
+
+  private List<RowWriter> openRowWriters(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    // Reduced rows hold a single sum, not one value per receiver.
+    boolean writesMatrix = configuration.getMatrixFile() != null || configuration.getSparseMatrixFile() != null;
+    Preconditions.checkArgument(
+        !writesMatrix || configuration.getEngine() != Configuration.Engine.APARAPI || !reducesRows(),
+        "Error: matrix output can't be combined with --reduce-on-device or --tile-memory.");
+    Preconditions.checkArgument(
+        !writesMatrix || configuration.getEngine() != Configuration.Engine.MONTE_CARLO,
+        "Error: matrix output can't be combined with --engine=monte-carlo.");
+
+    List<RowWriter> rowWriters = new ArrayList<>();
+    try {
+      if (configuration.getMatrixFile() != null) {
+        rowWriters.add(new MatrixFileWriter(
+            configuration.getMatrixFile(), emitters, receivers, configuration.getMatrixPrecision()));
+      }
+      if (configuration.getSparseMatrixFile() != null) {
+        rowWriters.add(new SparseMatrixWriter(
+            configuration.getSparseMatrixFile(),
+            emitters,
+            receivers,
+            configuration.getMatrixPrecision(),
+            configuration.getSparseThreshold()));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    if (configuration.isValidatePrecision()) {
+      ForkJoinEngine reference = forkJoinBuilder
+          .setEmitters(emitters)
+          .setInterconnects(interconnects)
+          .setReceivers(receivers)
+          .setOcclusionIndex(configuration.getOcclusionIndex())
+          .setRefineDistance(configuration.getRefineDistance())
+          .setMaxSubdivision(configuration.getMaxSubdivision())
+          .build();
+      rowWriters.add(new PrecisionValidator(eventManager, reference, receivers.size()));
+    }
+    return rowWriters;
+  }
+
+  private static void closeRowWriters(List<RowWriter> rowWriters) {
+    try {
+      for (RowWriter rowWriter : rowWriters) {
+        rowWriter.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private ViewFactorEngine buildEngine(
+      Geometry emitters, Geometry receivers, Geometry interconnects, boolean upperTriangle) {
+    if (configuration.getCoordinatorPort() > 0 || configuration.getWorkerCoordinator() != null) {
+      return buildShardEngine(emitters, receivers, interconnects);
+    }
+    if (configuration.getIncrementalStore() != null) {
+      return buildIncrementalEngine(emitters, receivers, interconnects);
+    }
+    switch (configuration.getEngine()) {
+      case FORK_JOIN:
+        return forkJoinBuilder
+            .setEmitters(emitters)
+            .setInterconnects(interconnects)
+            .setReceivers(receivers)
+            .setOcclusionIndex(configuration.getOcclusionIndex())
+            .setRefineDistance(configuration.getRefineDistance())
+            .setMaxSubdivision(configuration.getMaxSubdivision())
+            .setCulling(configuration.getCulling())
+            .setUpperTriangle(upperTriangle)
+            .setParallelism(configuration.getThreads())
+            .build();
+      case HEMICUBE:
+        return hemicubeBuilder
+            .setEmitters(emitters)
+            .setInterconnects(interconnects)
+            .setReceivers(receivers)
+            .setResolution(configuration.getHemicubeResolution())
+            .setParallelism(configuration.getThreads())
+            .build();
+      case MONTE_CARLO:
+        return monteCarloBuilder
+            .setEmitters(emitters)
+            .setInterconnects(interconnects)
+            .setReceivers(receivers)
+            .setOcclusionIndex(configuration.getOcclusionIndex())
+            .setTolerance(configuration.getMonteCarloTolerance())
+            .setMaxSamples(configuration.getMonteCarloMaxSamples())
+            .setSeed(configuration.getMonteCarloSeed())
+            .setParallelism(configuration.getThreads())
+            .build();
+      case APARAPI:
+      default:
+        if (configuration.getTileMemory() > 0) {
+          return tiledBuilder
+              .setEmitters(emitters)
+              .setInterconnects(interconnects)
+              .setReceivers(receivers)
+              .setMemoryBudget(configuration.getTileMemory())
+              .setBatchSize(configuration.getBatchSize())
+              .setReduceOnDevice(configuration.isReduceOnDevice())
+              .setRefineDistance(configuration.getRefineDistance())
+              .setTileEngineFactory((tileReceivers, tileInterconnects, reduceOnDevice, tileEvents, previous) ->
+                  buildKernel(
+                      new IntersectionKernel.Builder(geometryProvider, tileEvents),
+                      new FloatIntersectionKernel.Builder(geometryProvider, tileEvents),
+                      emitters,
+                      tileReceivers,
+                      tileInterconnects,
+                      reduceOnDevice,
+                      false,
+                      (Kernel) previous))
+              .build();
+        }
+        ViewFactorEngine kernel = buildKernel(
+            kernelBuilder,
+            floatKernelBuilder,
+            emitters,
+            receivers,
+            interconnects,
+            configuration.isReduceOnDevice(),
+            upperTriangle,
+            keptKernel);
+        if (keepsKernel) {
+          keptKernel = (Kernel) kernel;
+        }
+        return kernel;
+    }
+  }
+
+  /**
+   * Wraps the configured engine in an IncrementalEngine. That needs an engine whose pair values only depend on the
+   * pair and the interconnects, and that passes on full rows.
+   */
+  private ViewFactorEngine buildIncrementalEngine(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    Configuration.Engine engine = configuration.getEngine();
+    Preconditions.checkArgument(
+        engine == Configuration.Engine.FORK_JOIN || (engine == Configuration.Engine.APARAPI && !reducesRows()),
+        "Error: --incremental needs --engine=fork-join, or --engine=aparapi without --reduce-on-device or "
+            + "--tile-memory.");
+    Preconditions.checkArgument(
+        !configuration.isResume() && configuration.getPoseFile() == null && !configuration.isSameSurface(),
+        "Error: --incremental can't be combined with --resume, --poses or --same-surface.");
+    String settings = String.join(
+        " ",
+        engine.toString(),
+        engine == Configuration.Engine.APARAPI ? configuration.getKernelPrecision().toString() : "",
+        Double.toString(configuration.getRefineDistance()),
+        Integer.toString(configuration.getMaxSubdivision()),
+        configuration.getCulling().toString());
+    return incrementalBuilder
+        .setEmitters(emitters)
+        .setInterconnects(interconnects)
+        .setReceivers(receivers)
+        .setStoreFile(configuration.getIncrementalStore().toPath())
+        .setSettings(settings)
+        .setRefineDistance(configuration.getRefineDistance())
+        .setMaxSubdivision(configuration.getMaxSubdivision())
+        .setParallelism(configuration.getThreads())
+        .setBlockEngineFactory((blockEmitters, blockReceivers, blockEvents) ->
+            buildPartEngine(blockEmitters, blockReceivers, interconnects, blockEvents))
+        .build();
+  }
+
+  /**
+   * The ShardCoordinator for --coordinator, or the ShardWorker for --worker. Either only passes on row sums, and
+   * workers run the configured engine on each shard.
+   */
+  private ViewFactorEngine buildShardEngine(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    Preconditions.checkArgument(
+        configuration.getCoordinatorPort() == 0 || configuration.getWorkerCoordinator() == null,
+        "Error: a run is either the --coordinator or a --worker.");
+    Preconditions.checkArgument(
+        configuration.getMatrixFile() == null && configuration.getSparseMatrixFile() == null
+            && configuration.getCheckpointFile() == null && !configuration.isValidatePrecision()
+            && configuration.getIncrementalStore() == null && configuration.getPoseFile() == null,
+        "Error: --coordinator and --worker only pass row sums on, which doesn't work with matrix output, "
+            + "--checkpoint, --validate-precision, --incremental or --poses.");
+    if (configuration.getCoordinatorPort() > 0) {
+      return coordinatorBuilder
+          .setEmitters(emitters)
+          .setInterconnects(interconnects)
+          .setReceivers(receivers)
+          .setPort(configuration.getCoordinatorPort())
+          .setShardSize(configuration.getShardSize())
+          .setShardTimeout(configuration.getShardTimeout())
+          .build();
+    }
+    Configuration.Engine engine = configuration.getEngine();
+    Preconditions.checkArgument(
+        (engine == Configuration.Engine.FORK_JOIN || engine == Configuration.Engine.APARAPI)
+            && configuration.getTileMemory() == 0,
+        "Error: --worker needs --engine=fork-join, or --engine=aparapi without --tile-memory.");
+    return workerBuilder
+        .setCoordinator(configuration.getWorkerCoordinator())
+        .setEmitters(emitters)
+        .setInterconnects(interconnects)
+        .setReceivers(receivers)
+        .setShardEngineFactory(shardEvents ->
+            (RangedEngine) buildPartEngine(emitters, receivers, interconnects, shardEvents))
+        .build();
+  }
+
+  /**
+   * The fork-join or Aparapi engine for part of a job, reporting to its own EventManager. Only the Aparapi engine
+   * reduces rows, with --reduce-on-device.
+   */
+  private ViewFactorEngine buildPartEngine(
+      Geometry emitters, Geometry receivers, Geometry interconnects, EventManager events) {
+    if (configuration.getEngine() == Configuration.Engine.FORK_JOIN) {
+      return new ForkJoinEngine.Builder(events)
+          .setEmitters(emitters)
+          .setInterconnects(interconnects)
+          .setReceivers(receivers)
+          .setOcclusionIndex(configuration.getOcclusionIndex())
+          .setRefineDistance(configuration.getRefineDistance())
+          .setMaxSubdivision(configuration.getMaxSubdivision())
+          .setCulling(configuration.getCulling())
+          .setParallelism(configuration.getThreads())
+          .build();
+    }
+    return buildKernel(
+        new IntersectionKernel.Builder(geometryProvider, events),
+        new FloatIntersectionKernel.Builder(geometryProvider, events),
+        emitters,
+        receivers,
+        interconnects,
+        configuration.isReduceOnDevice(),
+        false,
+        null);
+  }
+
+  /**
+   * Builds the configured precision's kernel, or gives kept, a kernel built here before with the same settings, the
+   * geometry instead.
+   */
+  private ViewFactorEngine buildKernel(
+      IntersectionKernel.Builder kernelBuilder,
+      FloatIntersectionKernel.Builder floatKernelBuilder,
+      Geometry emitters,
+      Geometry receivers,
+      Geometry interconnects,
+      boolean reduceOnDevice,
+      boolean upperTriangle,
+      Kernel kept) {
+    if (configuration.getKernelPrecision() == Configuration.Precision.FLOAT) {
+      floatKernelBuilder
+          .setEmitters(emitters)
+          .setInterconnects(interconnects)
+          .setReceivers(receivers)
+          .setOcclusionIndex(configuration.getOcclusionIndex())
+          .setRefineDistance(configuration.getRefineDistance())
+          .setMaxSubdivision(configuration.getMaxSubdivision())
+          .setBatchSize(configuration.getBatchSize())
+          .setReduceOnDevice(reduceOnDevice)
+          .setCulling(configuration.getCulling())
+          .setUpperTriangle(upperTriangle);
+      return kept == null ? floatKernelBuilder.build() : floatKernelBuilder.rebind((FloatIntersectionKernel) kept);
+    }
+    kernelBuilder
+        .setEmitters(emitters)
+        .setInterconnects(interconnects)
+        .setReceivers(receivers)
+        .setOcclusionIndex(configuration.getOcclusionIndex())
+        .setRefineDistance(configuration.getRefineDistance())
+        .setMaxSubdivision(configuration.getMaxSubdivision())
+        .setBatchSize(configuration.getBatchSize())
+        .setReduceOnDevice(reduceOnDevice)
+        .setCulling(configuration.getCulling())
+        .setUpperTriangle(upperTriangle);
+    return kept == null ? kernelBuilder.build() : kernelBuilder.rebind((IntersectionKernel) kept);
+  }
 }
@@ -0,0 +1,20 @@
+package viewfactor;
+
+import java.util.function.Consumer;
+
+/**
+ * Computes view factors between emitter and receiver geometry, one emitter triangle at a time.
+ */
+interface ViewFactorEngine {
+
+  interface KernelComplete {
+    double onComplete();
+  }
+
+  /**
+   * Passes the view factor contribution of each emitter triangle's dA, one value per receiver, incrementally back to
+   * resultConsumer. Engines that reduce on the device pass a single element array holding the row's sum instead. The
+   * array may be reused once the consumer returns. Calls completionHandler onComplete when the task is finished.
+   */
+  void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler);
+}
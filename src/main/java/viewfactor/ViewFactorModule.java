@@ -0,0 +1,16 @@
+package viewfactor;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+public class ViewFactorModule extends AbstractModule {
+
+  @Override
+  protected void configure() {}
+
+  @Provides @Singleton
+  public Configuration provideConfiguration() {
+    return new Configuration();
+  }
+}
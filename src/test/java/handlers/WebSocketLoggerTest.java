@@ -0,0 +1,247 @@
+package handlers;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import events.EventManager;
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class WebSocketLoggerTest {
+
+  private static final long PROGRESS_INTERVAL_MILLIS = 200;
+  private static final int QUEUE_CAPACITY = 64;
+  private static final int SMALL_QUEUE_CAPACITY = 4;
+  private static final long SLOW_CLIENT_MILLIS = 100;
+  private static final int JOBS = 10000;
+  // Large enough that a client that stops reading fills the socket buffers, and then its queue, in a few dozen events.
+  private static final int LARGE_MESSAGE_LENGTH = 1 << 19;
+  private static final int MAX_LARGE_MESSAGES = 1000;
+
+  private int port;
+  private WebSocketLogger logger;
+  private CountDownLatch started;
+  private CountDownLatch opened;
+  // The server's ends of the connections, in the order they opened.
+  private final List<WebSocket> connections = new CopyOnWriteArrayList<>();
+  private final List<WebSocketClient> clients = new ArrayList<>();
+  private final BlockingQueue<JSONObject> messages = new LinkedBlockingQueue<>();
+
+  @Before
+  public void setup() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (WebSocketClient client : clients) {
+      client.closeBlocking();
+    }
+    logger.close();
+  }
+
+  @Test
+  public void onEvent_shouldStreamEventsInOrder() throws Exception {
+    startLogger(QUEUE_CAPACITY);
+    connect(listener());
+    EventManager eventManager = run(3);
+
+    List<String> types = new ArrayList<>();
+    for (JSONObject message : receive("JobFinish")) {
+      types.add(message.getString("type"));
+    }
+    assertThat(types).containsAllOf(
+        "JobStart", "ParseStlStart", "ParseStlFinish", "ComputationStart", "ComputationFinish", "JobFinish")
+        .inOrder();
+    eventManager.shutdown();
+  }
+
+  @Test
+  public void onEvent_manyProgressEvents_shouldBeCoalesced() throws Exception {
+    startLogger(QUEUE_CAPACITY);
+    connect(listener());
+    EventManager eventManager = run(JOBS);
+
+    List<JSONObject> progress = new ArrayList<>();
+    for (JSONObject message : receive("ComputationFinish")) {
+      if (message.getString("type").equals("ComputationProgress")) {
+        progress.add(message);
+      }
+    }
+    assertThat(progress.size()).isAtLeast(1);
+    assertThat(progress.size()).isLessThan(JOBS / 10);
+    // The latest progress goes out before the next other event, so the last one isn't lost.
+    assertThat(progress.get(progress.size() - 1).getInt("current_job")).isEqualTo(JOBS);
+    eventManager.shutdown();
+  }
+
+  @Test
+  public void onEvent_burst_shouldReachClientThatKeepsUp() throws Exception {
+    startLogger(SMALL_QUEUE_CAPACITY);
+    connect(listener());
+    EventManager eventManager = new EventManager(Stopwatch::createUnstarted);
+    eventManager.registerSubscriber(logger);
+    // Far more events than the queue holds, faster than the sender runs.
+    for (int event = 0; event < 300; event++) {
+      eventManager.info("Event " + event);
+    }
+
+    for (int event = 0; event < 300; event++) {
+      assertThat(lastMessage(receive("Info"))).isEqualTo("Event " + event);
+    }
+    assertThat(connections.get(0).isOpen()).isTrue();
+    eventManager.shutdown();
+  }
+
+  @Test
+  public void onEvent_slowClient_shouldBeDisconnectedWithoutHoldingUpOthers() throws Exception {
+    startLogger(SMALL_QUEUE_CAPACITY);
+    connect(listener());
+    // Stops reading at its first message until keepReading is counted down.
+    CountDownLatch keepReading = new CountDownLatch(1);
+    CompletableFuture<Integer> slowCloseCode = new CompletableFuture<>();
+    connect(new WebSocketClient(URI.create("ws://localhost:" + port)) {
+      @Override
+      public void onOpen(ServerHandshake handshake) {}
+
+      @Override
+      public void onMessage(String message) {
+        try {
+          keepReading.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+        slowCloseCode.complete(code);
+      }
+
+      @Override
+      public void onError(Exception e) {}
+    });
+    WebSocket slowConnection = connections.get(1);
+
+    // Each event waits for the listener to get it, so only the slow client falls behind.
+    EventManager eventManager = new EventManager(Stopwatch::createUnstarted);
+    eventManager.registerSubscriber(logger);
+    String large = Strings.repeat("x", LARGE_MESSAGE_LENGTH);
+    for (int sent = 0; slowConnection.isOpen(); sent++) {
+      assertThat(sent).isLessThan(MAX_LARGE_MESSAGES);
+      eventManager.info(large + sent);
+      assertThat(lastMessage(receive("Info"))).isEqualTo(large + sent);
+    }
+    keepReading.countDown();
+
+    assertThat(slowCloseCode.get(30, TimeUnit.SECONDS)).isEqualTo(CloseFrame.POLICY_VALIDATION);
+    assertThat(connections.get(0).isOpen()).isTrue();
+    eventManager.info("Still there?");
+    assertThat(lastMessage(receive("Info"))).isEqualTo("Still there?");
+    eventManager.shutdown();
+  }
+
+  // Starts a logger with the given queue capacity and waits for it to listen.
+  private void startLogger(int queueCapacity) throws InterruptedException {
+    started = new CountDownLatch(1);
+    logger = new WebSocketLogger(port, PROGRESS_INTERVAL_MILLIS, queueCapacity, SLOW_CLIENT_MILLIS) {
+      @Override
+      public void onStart() {
+        super.onStart();
+        started.countDown();
+      }
+
+      @Override
+      public void onOpen(WebSocket connection, ClientHandshake handshake) {
+        super.onOpen(connection, handshake);
+        connections.add(connection);
+        opened.countDown();
+      }
+    };
+    logger.start();
+    assertThat(started.await(30, TimeUnit.SECONDS)).isTrue();
+  }
+
+  // Connects client and waits for the logger to have seen it open, as it only sends to clients it has.
+  private void connect(WebSocketClient client) throws InterruptedException {
+    opened = new CountDownLatch(1);
+    assertThat(client.connectBlocking()).isTrue();
+    clients.add(client);
+    assertThat(opened.await(30, TimeUnit.SECONDS)).isTrue();
+  }
+
+  // A client that puts what it receives on messages.
+  private WebSocketClient listener() {
+    return new WebSocketClient(URI.create("ws://localhost:" + port)) {
+      @Override
+      public void onOpen(ServerHandshake handshake) {}
+
+      @Override
+      public void onMessage(String message) {
+        messages.add(new JSONObject(message));
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {}
+
+      @Override
+      public void onError(Exception e) {}
+    };
+  }
+
+  // Walks an EventManager reporting to the logger through a run of the given number of jobs.
+  private EventManager run(int jobs) {
+    EventManager eventManager = new EventManager(Stopwatch::createUnstarted);
+    eventManager.registerSubscriber(logger);
+    eventManager.start();
+    eventManager.startParseStl();
+    eventManager.finishParseStl();
+    eventManager.startBufferTransfer();
+    eventManager.finishBufferTransfer();
+    eventManager.startComputation();
+    for (int job = 1; job <= jobs; job++) {
+      eventManager.updateComputationProgress(job, jobs);
+    }
+    eventManager.finishComputation(0.5);
+    eventManager.finish();
+    return eventManager;
+  }
+
+  // The messages received up to and including the first of the given type.
+  private List<JSONObject> receive(String lastType) throws InterruptedException {
+    List<JSONObject> received = new ArrayList<>();
+    while (true) {
+      JSONObject message = messages.poll(30, TimeUnit.SECONDS);
+      assertThat(message).isNotNull();
+      received.add(message);
+      if (message.getString("type").equals(lastType)) {
+        return received;
+      }
+    }
+  }
+
+  private static String lastMessage(List<JSONObject> received) {
+    return received.get(received.size() - 1).getString("message");
+  }
+}
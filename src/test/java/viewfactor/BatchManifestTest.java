@@ -0,0 +1,50 @@
+package viewfactor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BatchManifestTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void read_shouldListJobsInOrder() throws IOException {
+    Path directory = temporaryFolder.newFolder().toPath();
+    Path manifest = write(directory.resolve("jobs.txt"),
+        "# emitters receivers interconnects\n"
+            + "top.stl bottom.stl occluder.stl\n"
+            + "\n"
+            + "  meshes/top.stl\t/abs/bottom.stl  \n");
+
+    List<BatchManifest.Job> jobs = BatchManifest.read(manifest).getJobs();
+
+    assertThat(jobs).hasSize(2);
+    assertThat(jobs.get(0).getEmitterFile()).isEqualTo(directory.resolve("top.stl").toFile());
+    assertThat(jobs.get(0).getReceiverFile()).isEqualTo(directory.resolve("bottom.stl").toFile());
+    assertThat(jobs.get(0).getInterconnectFile()).isEqualTo(directory.resolve("occluder.stl").toFile());
+    assertThat(jobs.get(1).getEmitterFile()).isEqualTo(directory.resolve("meshes/top.stl").toFile());
+    assertThat(jobs.get(1).getReceiverFile()).isEqualTo(new File("/abs/bottom.stl"));
+    assertThat(jobs.get(1).getInterconnectFile()).isNull();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void read_singleFile_shouldThrow() throws IOException {
+    BatchManifest.read(write(temporaryFolder.newFile().toPath(), "top.stl bottom.stl\nlonely.stl\n"));
+  }
+
+  private static Path write(Path file, String contents) throws IOException {
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
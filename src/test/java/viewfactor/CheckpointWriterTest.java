@@ -0,0 +1,102 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CheckpointWriterTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private EventManager eventManager;
+  private Path file;
+
+  @Before
+  public void setup() throws IOException {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    file = temporaryFolder.newFolder().toPath().resolve("job.checkpoint");
+  }
+
+  @Test
+  public void read_noFile_shouldBeNull() throws IOException {
+    assertThat(CheckpointWriter.read(file, 42, 10)).isNull();
+  }
+
+  @Test
+  public void close_shouldRecordEveryRow() throws IOException {
+    CheckpointWriter writer = new CheckpointWriter(file, 42, 10, null, 0, eventManager);
+    writer.accept(new double[] {0.25, 0.5});
+    writer.accept(new double[] {0.125});
+    writer.accept(new double[] {1, 2, 4});
+    writer.close();
+
+    CheckpointWriter.Progress progress = CheckpointWriter.read(file, 42, 10);
+    assertThat(progress.getCompletedEmitters()).isEqualTo(3);
+    assertThat(progress.getPartialSum()).isEqualTo(7.875);
+    assertThat(Files.size(file)).isEqualTo((long) CheckpointWriter.BYTES);
+  }
+
+  @Test
+  public void accept_dueCheckpoints_shouldWriteBeforeClose() throws IOException, InterruptedException {
+    CheckpointWriter writer = new CheckpointWriter(file, 42, 1000, null, 0, eventManager);
+    for (int row = 0; row < 1000 && !Files.exists(file); row++) {
+      writer.accept(new double[] {1});
+      Thread.sleep(1);
+    }
+
+    CheckpointWriter.Progress progress = CheckpointWriter.read(file, 42, 1000);
+    assertThat(progress).isNotNull();
+    assertThat(progress.getPartialSum()).isEqualTo((double) progress.getCompletedEmitters());
+    writer.close();
+  }
+
+  @Test
+  public void accept_resumed_shouldContinueCounts() throws IOException {
+    CheckpointWriter first = new CheckpointWriter(file, 42, 10, null, 60_000, eventManager);
+    first.accept(new double[] {0.5});
+    first.accept(new double[] {0.25});
+    first.close();
+
+    CheckpointWriter second =
+        new CheckpointWriter(file, 42, 10, CheckpointWriter.read(file, 42, 10), 60_000, eventManager);
+    second.accept(new double[] {0.125});
+    second.close();
+
+    CheckpointWriter.Progress progress = CheckpointWriter.read(file, 42, 10);
+    assertThat(progress.getCompletedEmitters()).isEqualTo(3);
+    assertThat(progress.getPartialSum()).isEqualTo(0.875);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void read_otherJob_shouldThrow() throws IOException {
+    CheckpointWriter writer = new CheckpointWriter(file, 42, 10, null, 0, eventManager);
+    writer.accept(new double[] {1});
+    writer.close();
+
+    CheckpointWriter.read(file, 43, 10);
+  }
+
+  @Test
+  public void fingerprintOf_shouldDependOnGeometry() {
+    Geometry plate = TestGeometry.plate(3, 0, 0, 1);
+    Geometry other = TestGeometry.plate(3, 0, 0, 1.5);
+    Geometry empty = new Geometry().empty();
+
+    assertThat(CheckpointWriter.fingerprintOf(plate, plate, empty))
+        .isEqualTo(CheckpointWriter.fingerprintOf(TestGeometry.plate(3, 0, 0, 1), plate, empty));
+    assertThat(CheckpointWriter.fingerprintOf(plate, plate, empty))
+        .isNotEqualTo(CheckpointWriter.fingerprintOf(plate, other, empty));
+    assertThat(CheckpointWriter.fingerprintOf(plate, plate, empty))
+        .isNotEqualTo(CheckpointWriter.fingerprintOf(plate, empty, plate));
+  }
+}
@@ -0,0 +1,137 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class FloatIntersectionKernelTest {
+
+  // Float has a 24 bit mantissa; a few ulps of error per term is expected.
+  private static final double RELATIVE_TOLERANCE = 1e-5;
+
+  private EventManager eventManager;
+  private Geometry emitters;
+  private Geometry receivers;
+  private Geometry interconnects;
+
+  @Before
+  public void setup() {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    emitters = TestGeometry.plate(5, 0, 0, 1);
+    receivers = TestGeometry.plate(4, 1, 0, 1);
+    // Offset so that no emitter to receiver ray grazes an interconnect edge, where float and double may disagree.
+    interconnects = TestGeometry.plate(3, 0.5, 0.2137, 0.6071);
+  }
+
+  @Test
+  public void calculate_shouldMatchDoublePathWithinFloatPrecision() {
+    for (Configuration.OcclusionIndex index : Configuration.OcclusionIndex.values()) {
+      PrecisionValidator validator = validate(index, 1, false);
+
+      assertThat(validator.getMaxRelativeDeviation()).isLessThan(RELATIVE_TOLERANCE);
+      assertThat(validator.getVisibilityMismatches()).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void calculate_batchedAndReduced_shouldMatchDoublePathWithinFloatPrecision() {
+    assertThat(validate(Configuration.OcclusionIndex.BVH, 7, false).getMaxRelativeDeviation())
+        .isLessThan(RELATIVE_TOLERANCE);
+    assertThat(validate(Configuration.OcclusionIndex.BVH, 7, true).getMaxRelativeDeviation())
+        .isLessThan(RELATIVE_TOLERANCE);
+  }
+
+  @Test
+  public void calculate_culled_shouldMatchDoublePathWithinFloatPrecision() {
+    PrecisionValidator validator = validate(Configuration.OcclusionIndex.BVH, 7, false, Configuration.Culling.EDGE_ON);
+
+    assertThat(validator.getMaxRelativeDeviation()).isLessThan(RELATIVE_TOLERANCE);
+    assertThat(validator.getVisibilityMismatches()).isEqualTo(0L);
+  }
+
+  @Test
+  public void calculate_indexedInterconnects_shouldMatchDoublePathWithinFloatPrecision() {
+    interconnects = TestGeometry.indexedPlate(3, 0.5, 0.2137, 0.6071);
+    for (Configuration.OcclusionIndex index : Configuration.OcclusionIndex.values()) {
+      PrecisionValidator validator = validate(index, 1, false);
+
+      assertThat(validator.getMaxRelativeDeviation()).isLessThan(RELATIVE_TOLERANCE);
+      assertThat(validator.getVisibilityMismatches()).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void validator_doublePath_shouldReportNoDeviation() {
+    IntersectionKernel kernel = new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .build();
+    PrecisionValidator validator =
+        new PrecisionValidator(eventManager, reference(Configuration.OcclusionIndex.BVH), receivers.size());
+
+    TestRuns.run(kernel, eventManager, validator);
+    kernel.dispose();
+
+    assertThat(validator.getMaxAbsoluteDeviation()).isWithin(1e-15).of(0);
+  }
+
+  @Test
+  public void rebind_shouldMatchDoublePathWithinFloatPrecision() {
+    FloatIntersectionKernel kernel = new FloatIntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(TestGeometry.plate(2, 0.1, 0, 1))
+        .setReceivers(TestGeometry.plate(7, 1.2, 0.1, 0.9))
+        .setInterconnects(TestGeometry.plate(1, 0.6, 0.3, 0.7))
+        .setBatchSize(7)
+        .build();
+    TestRuns.run(kernel, eventManager, row -> {});
+    new FloatIntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setBatchSize(7)
+        .rebind(kernel);
+    PrecisionValidator validator =
+        new PrecisionValidator(eventManager, reference(Configuration.OcclusionIndex.BVH), receivers.size());
+
+    TestRuns.run(kernel, eventManager, validator);
+    kernel.dispose();
+
+    assertThat(validator.getMaxRelativeDeviation()).isLessThan(RELATIVE_TOLERANCE);
+    assertThat(validator.getVisibilityMismatches()).isEqualTo(0L);
+  }
+
+  private PrecisionValidator validate(Configuration.OcclusionIndex index, int batchSize, boolean reduceOnDevice) {
+    return validate(index, batchSize, reduceOnDevice, Configuration.Culling.NONE);
+  }
+
+  private PrecisionValidator validate(
+      Configuration.OcclusionIndex index, int batchSize, boolean reduceOnDevice, Configuration.Culling culling) {
+    FloatIntersectionKernel kernel = new FloatIntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setOcclusionIndex(index)
+        .setBatchSize(batchSize)
+        .setReduceOnDevice(reduceOnDevice)
+        .setCulling(culling)
+        .build();
+    PrecisionValidator validator = new PrecisionValidator(eventManager, reference(index), receivers.size());
+
+    TestRuns.run(kernel, eventManager, validator);
+    kernel.dispose();
+    return validator;
+  }
+
+  private ForkJoinEngine reference(Configuration.OcclusionIndex index) {
+    return new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setOcclusionIndex(index)
+        .build();
+  }
+}
@@ -0,0 +1,155 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ForkJoinEngineTest {
+
+  private static final double TOLERANCE = 1e-12;
+
+  private EventManager eventManager;
+  private Geometry emitters;
+  private Geometry receivers;
+  private Geometry interconnects;
+
+  @Before
+  public void setup() {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    // Differently sized plates, so emitter and receiver counts differ.
+    emitters = TestGeometry.plate(6, 0, 0, 1);
+    receivers = TestGeometry.plate(5, 1, 0, 1);
+    interconnects = TestGeometry.plate(4, 0.5, 0.2, 0.6);
+  }
+
+  @Test
+  public void calculate_shouldMatchIntersectionKernel() {
+    for (Configuration.OcclusionIndex index : Configuration.OcclusionIndex.values()) {
+      double expected = total(new IntersectionKernel.Builder(Geometry::new, eventManager)
+          .setEmitters(emitters)
+          .setReceivers(receivers)
+          .setInterconnects(interconnects)
+          .setOcclusionIndex(index)
+          .build());
+      double actual = total(new ForkJoinEngine.Builder(eventManager)
+          .setEmitters(emitters)
+          .setReceivers(receivers)
+          .setInterconnects(interconnects)
+          .setOcclusionIndex(index)
+          .setParallelism(3)
+          .build());
+
+      assertThat(actual).isWithin(TOLERANCE).of(expected);
+    }
+  }
+
+  @Test
+  public void calculate_offHeap_shouldMatchOnHeap() {
+    double expected = total(new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setParallelism(3)
+        .build());
+    double actual = total(new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(TestGeometry.offHeapPlate(6, 0, 0, 1))
+        .setReceivers(TestGeometry.offHeapPlate(5, 1, 0, 1))
+        .setInterconnects(TestGeometry.offHeapPlate(4, 0.5, 0.2, 0.6))
+        .setParallelism(3)
+        .build());
+
+    assertThat(actual).isWithin(TOLERANCE).of(expected);
+  }
+
+  @Test
+  public void calculate_refined_shouldMatchIntersectionKernel() {
+    // Plates closer than their triangles are wide, so that pairs are split.
+    Geometry top = TestGeometry.plate(3, 0.3, 0, 1);
+    Geometry middle = TestGeometry.plate(2, 0.15, 0.3, 0.6);
+    double expected = total(new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(top)
+        .setInterconnects(middle)
+        .setRefineDistance(4)
+        .setMaxSubdivision(4)
+        .build());
+    double actual = total(new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(top)
+        .setInterconnects(middle)
+        .setRefineDistance(4)
+        .setMaxSubdivision(4)
+        .setParallelism(3)
+        .build());
+
+    assertThat(actual).isWithin(TOLERANCE).of(expected);
+  }
+
+  @Test
+  public void calculate_posed_shouldMatchMovedReceivers() {
+    Pose pose = Pose.of(-0.2, 0.1, 0.3, 0, 45, 15);
+    double expected = total(new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(TestGeometry.moved(receivers, pose))
+        .setInterconnects(interconnects)
+        .setRefineDistance(4)
+        .setMaxSubdivision(3)
+        .setParallelism(3)
+        .build());
+    ForkJoinEngine engine = new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setRefineDistance(4)
+        .setMaxSubdivision(3)
+        .setParallelism(3)
+        .build();
+    engine.setReceiverPose(pose);
+
+    assertThat(total(engine)).isWithin(TOLERANCE).of(expected);
+  }
+
+  @Test
+  public void calculate_emitterRange_shouldMatchSlicedEmitters() {
+    double expected = total(new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters.slice(5, 40))
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setParallelism(3)
+        .build());
+    ForkJoinEngine engine = new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setParallelism(3)
+        .build();
+    engine.setEmitterRange(5, 40);
+
+    assertThat(total(engine)).isWithin(TOLERANCE).of(expected);
+  }
+
+  @Test
+  public void calculate_shouldPassOneRowPerEmitter() {
+    int[] rows = new int[1];
+    TestRuns.run(
+        new ForkJoinEngine.Builder(eventManager)
+            .setEmitters(emitters)
+            .setReceivers(receivers)
+            .setInterconnects(new Geometry().empty())
+            .build(),
+        eventManager,
+        row -> {
+          assertThat(row).hasLength(receivers.size());
+          rows[0]++;
+        });
+
+    assertThat(rows[0]).isEqualTo(emitters.size());
+  }
+
+  private double total(ViewFactorEngine engine) {
+    return TestRuns.total(engine, eventManager);
+  }
+}
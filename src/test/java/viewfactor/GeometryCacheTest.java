@@ -0,0 +1,144 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class GeometryCacheTest {
+
+  private static final String FACET = " facet normal 0 1 0\n  outer loop\n"
+      + "   vertex 0 0 0\n   vertex 0 0 1\n   vertex 1 0 0\n  endloop\n endfacet\n";
+  private static final String OTHER_FACET = " facet normal 0 0 1\n  outer loop\n"
+      + "   vertex 0.25 0.5 0\n   vertex 1e-3 -2 0\n   vertex 3.75 0 0\n  endloop\n endfacet\n";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path directory;
+  private GeometryCache cache;
+
+  @Before
+  public void setup() throws IOException {
+    directory = temporaryFolder.newFolder().toPath().resolve("cache");
+    cache = new GeometryCache(directory, new EventManager(Stopwatch::createUnstarted));
+  }
+
+  @Test
+  public void load_sameContents_shouldHitAndMatchParse() throws IOException {
+    Path stl = stl("solid a\n" + FACET + OTHER_FACET + "endsolid a\n");
+    Path copy = stl("solid a\n" + FACET + OTHER_FACET + "endsolid a\n");
+
+    Geometry parsed = cache.load(stl, new Geometry(), 1);
+    Geometry cached = cache.load(copy, new Geometry(), 1);
+
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertSameArrays(cached, new Geometry().from(stl, 1));
+    assertSameArrays(parsed, cached);
+  }
+
+  @Test
+  public void load_offHeap_shouldShareEntriesWithOnHeap() throws IOException {
+    Path stl = stl("solid a\n" + FACET + OTHER_FACET + "endsolid a\n");
+
+    Geometry parsed = cache.load(stl, new Geometry().offHeap(), 1);
+    Geometry cached = cache.load(stl, new Geometry().offHeap(), 1);
+    Geometry onHeap = cache.load(stl, new Geometry(), 1);
+
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(cache.getHits()).isEqualTo(2);
+    assertThat(cached.isOffHeap()).isTrue();
+    assertSameArrays(parsed, new Geometry().from(stl, 1));
+    assertSameArrays(cached, parsed);
+    assertSameArrays(onHeap, parsed);
+  }
+
+  @Test
+  public void load_changedContents_shouldMiss() throws IOException {
+    Path stl = stl("solid a\n" + FACET + "endsolid a\n");
+    cache.load(stl, new Geometry(), 1);
+    Files.write(stl, ("solid a\n" + OTHER_FACET + "endsolid a\n").getBytes(StandardCharsets.US_ASCII));
+
+    Geometry geometry = cache.load(stl, new Geometry(), 1);
+
+    assertThat(cache.getMisses()).isEqualTo(2);
+    assertThat(cache.getHits()).isEqualTo(0);
+    assertSameArrays(geometry, new Geometry().from(stl, 1));
+  }
+
+  @Test
+  public void load_truncatedEntry_shouldMissAndRewrite() throws IOException {
+    Path stl = stl("solid a\n" + FACET + OTHER_FACET + "endsolid a\n");
+    cache.load(stl, new Geometry(), 1);
+    File[] entries = directory.toFile().listFiles();
+    assertThat(entries).hasLength(1);
+    byte[] entry = Files.readAllBytes(entries[0].toPath());
+    Files.write(entries[0].toPath(), Arrays.copyOf(entry, entry.length - 1));
+
+    Geometry geometry = cache.load(stl, new Geometry(), 1);
+    Geometry cached = cache.load(stl, new Geometry(), 1);
+
+    assertThat(cache.getMisses()).isEqualTo(2);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertSameArrays(geometry, cached);
+    assertThat(directory.toFile().listFiles()).hasLength(1);
+  }
+
+  @Test
+  public void load_empty_shouldHit() throws IOException {
+    Path stl = stl("solid empty\nendsolid empty\n");
+    cache.load(stl, new Geometry(), 1);
+
+    Geometry cached = cache.load(stl, new Geometry(), 1);
+
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cached.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void load_indexed_shouldHitOnlyIndexedEntries() throws IOException {
+    Path stl = stl("solid a\n" + FACET + OTHER_FACET + "endsolid a\n");
+
+    Geometry parsed = cache.load(stl, new Geometry().indexed(), 1);
+    Geometry cached = cache.load(stl, new Geometry().indexed(), 1);
+    cache.load(stl, new Geometry(), 1);
+
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getMisses()).isEqualTo(2);
+    assertThat(cached.isIndexed()).isTrue();
+    assertSameArrays(cached, parsed);
+    assertThat(cached.getPoolSize()).isEqualTo(parsed.getPoolSize());
+    assertThat(cached.getPoolX()).isEqualTo(parsed.getPoolX());
+    assertThat(cached.getTriangleC()).isEqualTo(parsed.getTriangleC());
+    assertThat(cached.getEdgeBAY()).isEqualTo(new Geometry().from(stl, 1).getEdgeBAY());
+  }
+
+  private Path stl(String contents) throws IOException {
+    Path stl = temporaryFolder.newFile().toPath();
+    Files.write(stl, contents.getBytes(StandardCharsets.US_ASCII));
+    return stl;
+  }
+
+  private static void assertSameArrays(Geometry actual, Geometry expected) {
+    assertThat(actual.size()).isEqualTo(expected.size());
+    DoubleBuffer[] actualColumns = actual.getColumns();
+    DoubleBuffer[] expectedColumns = expected.getColumns();
+    assertThat(actualColumns).hasLength(expectedColumns.length);
+    for (int column = 0; column < expectedColumns.length; column++) {
+      assertThat(actualColumns[column]).isEqualTo(expectedColumns[column]);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package viewfactor;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class GeometryTest {
+
+  @Test
+  public void indexed_shouldStoreSharedVerticesOnce() {
+    Geometry indexed = TestGeometry.indexedPlate(3, 0.5, 0, 1);
+
+    assertThat(indexed.isIndexed()).isTrue();
+    assertThat(indexed.size()).isEqualTo(18);
+    // A 3 x 3 grid of squares has 4 x 4 distinct corners.
+    assertThat(indexed.getPoolSize()).isEqualTo(16);
+    assertThat(indexed.getColumns()).hasLength(4);
+  }
+
+  @Test
+  public void indexed_shouldComputeSameArraysAsPlain() {
+    Geometry plain = TestGeometry.plate(4, 0.5, 0.2137, 0.6071);
+    Geometry indexed = TestGeometry.indexedPlate(4, 0.5, 0.2137, 0.6071);
+
+    assertThat(indexed.getNormalY()).isEqualTo(plain.getNormalY());
+    assertThat(indexed.getArea()).isEqualTo(plain.getArea());
+    assertThat(indexed.getVertexAX()).isEqualTo(plain.getVertexAX());
+    assertThat(indexed.getVertexAZ()).isEqualTo(plain.getVertexAZ());
+    assertThat(indexed.getEdgeBAX()).isEqualTo(plain.getEdgeBAX());
+    assertThat(indexed.getEdgeCAZ()).isEqualTo(plain.getEdgeCAZ());
+    assertThat(indexed.getCenterX()).isEqualTo(plain.getCenterX());
+    assertThat(indexed.getCenterZ()).isEqualTo(plain.getCenterZ());
+    assertThat(indexed.hasSameTrianglesAs(plain)).isTrue();
+  }
+
+  @Test
+  public void cornerOf_shouldMatchBetweenModes() {
+    Geometry plain = TestGeometry.plate(4, 0.5, 0.2137, 0.6071);
+    Geometry indexed = TestGeometry.indexedPlate(4, 0.5, 0.2137, 0.6071);
+
+    for (int index = 0; index < plain.size(); index++) {
+      for (int corner = 0; corner < 3; corner++) {
+        for (int axis = 0; axis < 3; axis++) {
+          assertThat(indexed.cornerOf(index, corner, axis)).isWithin(1e-15).of(plain.cornerOf(index, corner, axis));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void indexed_empty_shouldHoldPlaceholders() {
+    Geometry empty = new Geometry().indexed().empty();
+
+    assertThat(empty.size()).isEqualTo(0);
+    assertThat(empty.getPoolSize()).isEqualTo(0);
+    assertThat(empty.getPoolX()).hasLength(1);
+    assertThat(empty.getTriangleA()).hasLength(1);
+  }
+
+  @Test
+  public void offHeap_shouldMatchOnHeap() {
+    Geometry plain = TestGeometry.plate(4, 0.5, 0.2137, 0.6071);
+    Geometry offHeap = TestGeometry.offHeapPlate(4, 0.5, 0.2137, 0.6071);
+
+    assertThat(offHeap.isOffHeap()).isTrue();
+    assertThat(plain.isOffHeap()).isFalse();
+    assertThat(offHeap.getColumns()).hasLength(16);
+    assertThat(offHeap.getNormalY()).isEqualTo(plain.getNormalY());
+    assertThat(offHeap.getArea()).isEqualTo(plain.getArea());
+    assertThat(offHeap.getEdgeCAZ()).isEqualTo(plain.getEdgeCAZ());
+    assertThat(offHeap.getCenterX()).isEqualTo(plain.getCenterX());
+    assertThat(offHeap.hasSameTrianglesAs(plain)).isTrue();
+    for (int index = 0; index < plain.size(); index++) {
+      assertThat(offHeap.vertexAZ(index)).isEqualTo(plain.vertexAZ(index));
+      assertThat(offHeap.edgeBAX(index)).isEqualTo(plain.edgeBAX(index));
+      assertThat(offHeap.centerZ(index)).isEqualTo(plain.centerZ(index));
+      assertThat(offHeap.area(index)).isEqualTo(plain.area(index));
+    }
+  }
+
+  @Test
+  public void release_offHeap_shouldUnmapColumns() {
+    Geometry offHeap = TestGeometry.offHeapPlate(4, 0.5, 0.2137, 0.6071);
+    Geometry plain = TestGeometry.plate(4, 0.5, 0.2137, 0.6071);
+
+    offHeap.release();
+    plain.release();
+
+    assertThat(offHeap.isOffHeap()).isFalse();
+    assertThat(plain.getArea()).isEqualTo(TestGeometry.plate(4, 0.5, 0.2137, 0.6071).getArea());
+  }
+
+  @Test
+  public void scalarAccessors_shouldMatchArraysInEveryMode() {
+    Geometry plain = TestGeometry.plate(3, 0.5, 0.2137, 0.6071);
+    Geometry indexed = TestGeometry.indexedPlate(3, 0.5, 0.2137, 0.6071);
+
+    for (int index = 0; index < plain.size(); index++) {
+      assertThat(plain.vertexAX(index)).isEqualTo(plain.getVertexAX()[index]);
+      assertThat(plain.centerY(index)).isEqualTo(plain.getCenterY()[index]);
+      assertThat(indexed.vertexAX(index)).isEqualTo(indexed.getVertexAX()[index]);
+      assertThat(indexed.edgeCAZ(index)).isEqualTo(indexed.getEdgeCAZ()[index]);
+      assertThat(indexed.centerX(index)).isEqualTo(indexed.getCenterX()[index]);
+      assertThat(indexed.normalY(index)).isEqualTo(indexed.getNormalY()[index]);
+    }
+  }
+
+  @Test
+  public void offHeap_empty_shouldHoldPlaceholders() {
+    Geometry empty = new Geometry().offHeap().empty();
+
+    assertThat(empty.size()).isEqualTo(0);
+    assertThat(empty.getVertexAX()).hasLength(1);
+    assertThat(empty.getArea()).hasLength(1);
+  }
+}
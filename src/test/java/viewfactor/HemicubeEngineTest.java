@@ -0,0 +1,82 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class HemicubeEngineTest {
+
+  private EventManager eventManager;
+  private Geometry emitters;
+  private Geometry receivers;
+  private Geometry interconnects;
+
+  @Before
+  public void setup() {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    emitters = TestGeometry.plate(3, 0, 0, 1);
+    receivers = TestGeometry.plate(4, 1, 0, 1);
+    interconnects = TestGeometry.plate(2, 0.5, 0.3, 0.7);
+  }
+
+  @Test
+  public void calculate_shouldPassRowSumsCloseToFinelyMeshedForkJoinEngine() {
+    // The pairwise engines see each receiver as a point, so give them a receiver mesh much finer than the pixels.
+    List<double[]> expected = rows(new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(TestGeometry.plate(40, 1, 0, 1))
+        .setInterconnects(interconnects)
+        .build());
+    List<double[]> actual = rows(hemicube(interconnects, 256));
+
+    assertThat(actual).hasSize(emitters.size());
+    for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+      assertThat(actual.get(emitterIndex)).hasLength(receivers.size());
+      assertThat(TestRuns.sum(actual.get(emitterIndex))).isWithin(0.05 * TestRuns.sum(expected.get(emitterIndex)))
+          .of(TestRuns.sum(expected.get(emitterIndex)));
+    }
+  }
+
+  @Test
+  public void calculate_unoccluded_shouldMatchPointToSquareViewFactor() {
+    Geometry point = TestGeometry.plate(1, 0, 0.49, 0.51);
+    List<double[]> rows = rows(new HemicubeEngine.Builder(eventManager)
+        .setEmitters(point)
+        .setReceivers(receivers)
+        .setInterconnects(new Geometry().empty())
+        .setResolution(512)
+        .build());
+
+    // Differential area one unit below the center of a unit square, facing it.
+    double expected = 2 / Math.PI * Math.atan(0.5 / Math.sqrt(1.25)) * 2 * 0.5 / Math.sqrt(1.25);
+    assertThat(TestRuns.sum(rows.get(0)) / point.getArea()[0]).isWithin(1e-3).of(expected);
+  }
+
+  @Test
+  public void calculate_fullyOccluded_shouldPassZeroRows() {
+    List<double[]> rows = rows(hemicube(TestGeometry.plate(2, 0.5, -10, 10), 64));
+
+    for (double[] row : rows) {
+      assertThat(TestRuns.sum(row)).isEqualTo(0.0);
+    }
+  }
+
+  private HemicubeEngine hemicube(Geometry interconnects, int resolution) {
+    return new HemicubeEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setResolution(resolution)
+        .setParallelism(3)
+        .build();
+  }
+
+  private List<double[]> rows(ViewFactorEngine engine) {
+    return TestRuns.rows(engine, eventManager);
+  }
+}
@@ -0,0 +1,158 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class IncrementalEngineTest {
+
+  private static final double TOLERANCE = 1e-15;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private EventManager eventManager;
+  private Geometry emitters;
+  private Geometry receivers;
+  private Geometry interconnects;
+  private Path storeFile;
+  // Pairs the block engines of the last run computed.
+  private long computedPairs;
+
+  @Before
+  public void setup() throws IOException {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    emitters = TestGeometry.plate(5, 0, 0, 1);
+    receivers = TestGeometry.plate(4, 1, 0, 1);
+    interconnects = TestGeometry.plate(3, 0.5, 0.2, 0.6);
+    storeFile = temporaryFolder.newFolder().toPath().resolve("pairs.vfps");
+  }
+
+  @Test
+  public void calculate_noStore_shouldComputeEveryPair() {
+    assertSameRows(fullRows(emitters, receivers, interconnects), incrementalRows(emitters, receivers, interconnects));
+    assertThat(computedPairs).isEqualTo((long) emitters.size() * receivers.size());
+  }
+
+  @Test
+  public void calculate_unchanged_shouldReuseEveryPair() {
+    incrementalRows(emitters, receivers, interconnects);
+
+    assertSameRows(fullRows(emitters, receivers, interconnects), incrementalRows(emitters, receivers, interconnects));
+    assertThat(computedPairs).isEqualTo(0);
+  }
+
+  @Test
+  public void calculate_addedInterconnect_shouldOnlyRecomputeAffectedPairs() {
+    incrementalRows(emitters, receivers, interconnects);
+    // A small occluder over one corner, which most rays pass well clear of.
+    Geometry changed = TestGeometry.union(interconnects, TestGeometry.plate(1, 0.8, 0.8, 0.95));
+
+    assertSameRows(fullRows(emitters, receivers, changed), incrementalRows(emitters, receivers, changed));
+    assertThat(computedPairs).isGreaterThan(0L);
+    assertThat(computedPairs).isLessThan((long) emitters.size() * receivers.size());
+  }
+
+  @Test
+  public void calculate_removedInterconnect_shouldMatchFullRun() {
+    incrementalRows(emitters, receivers, interconnects);
+    Geometry changed = interconnects.slice(2, interconnects.size());
+
+    assertSameRows(fullRows(emitters, receivers, changed), incrementalRows(emitters, receivers, changed));
+  }
+
+  @Test
+  public void calculate_addedAndReorderedFacets_shouldMatchFullRun() {
+    incrementalRows(emitters, receivers, interconnects);
+    Geometry changedEmitters = TestGeometry.union(emitters.slice(10, emitters.size()), emitters.slice(0, 10));
+    Geometry changedReceivers = TestGeometry.union(TestGeometry.plate(1, 1, 1, 1.2), receivers.slice(1, 32));
+
+    assertSameRows(
+        fullRows(changedEmitters, changedReceivers, interconnects),
+        incrementalRows(changedEmitters, changedReceivers, interconnects));
+    // Only the new receivers' columns.
+    assertThat(computedPairs).isEqualTo(2L * changedEmitters.size());
+  }
+
+  @Test
+  public void calculate_otherSettings_shouldComputeEveryPair() {
+    incrementalRows(emitters, receivers, interconnects);
+
+    run(emitters, receivers, interconnects, "other", rows -> {});
+    assertThat(computedPairs).isEqualTo((long) emitters.size() * receivers.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void calculate_notAStore_shouldThrow() throws IOException {
+    Files.write(storeFile, "emitters,receivers\n".getBytes(StandardCharsets.UTF_8));
+    incrementalRows(emitters, receivers, interconnects);
+  }
+
+  private List<double[]> fullRows(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    return TestRuns.rows(forkJoin(emitters, receivers, interconnects, eventManager), eventManager);
+  }
+
+  private List<double[]> incrementalRows(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    List<double[]> rows = new ArrayList<>();
+    run(emitters, receivers, interconnects, "fork-join", row -> rows.add(row.clone()));
+    return rows;
+  }
+
+  private void run(
+      Geometry emitters,
+      Geometry receivers,
+      Geometry interconnects,
+      String settings,
+      Consumer<double[]> rowConsumer) {
+    computedPairs = 0;
+    TestRuns.run(
+        new IncrementalEngine.Builder(eventManager)
+            .setEmitters(emitters)
+            .setReceivers(receivers)
+            .setInterconnects(interconnects)
+            .setStoreFile(storeFile)
+            .setSettings(settings)
+            .setBlockEngineFactory((blockEmitters, blockReceivers, blockEvents) -> {
+              computedPairs += (long) blockEmitters.size() * blockReceivers.size();
+              return forkJoin(blockEmitters, blockReceivers, interconnects, blockEvents);
+            })
+            .build(),
+        eventManager,
+        rowConsumer);
+    // A fresh EventManager per run, as the application has.
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+  }
+
+  private static ViewFactorEngine forkJoin(
+      Geometry emitters, Geometry receivers, Geometry interconnects, EventManager eventManager) {
+    return new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setParallelism(2)
+        .build();
+  }
+
+  private static void assertSameRows(List<double[]> expected, List<double[]> actual) {
+    assertThat(actual).hasSize(expected.size());
+    for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+      assertThat(actual.get(emitterIndex))
+          .usingTolerance(TOLERANCE)
+          .containsExactly(expected.get(emitterIndex))
+          .inOrder();
+    }
+  }
+}
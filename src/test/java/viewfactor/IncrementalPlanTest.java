@@ -0,0 +1,65 @@
+package viewfactor;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class IncrementalPlanTest {
+
+  @Test
+  public void match_shouldMatchEachStoredFacetOnce() {
+    double[] a = {0, 0, 0, 1, 0, 0, 0, 0, 1};
+    double[] b = {0, 1, 0, 1, 0, 0, 0, 0, 1};
+    double[] c = {5, 5, 5, 1, 0, 0, 0, 0, 1};
+
+    int[] matches = IncrementalPlan.match(concat(a, b, a), concat(b, a, a, a, c));
+
+    assertThat(matches).asList().containsExactly(1, 0, 2, -1, -1).inOrder();
+  }
+
+  @Test
+  public void mayBeAffected_shouldFollowTheCenterRay() {
+    Geometry emitters = TestGeometry.plate(1, 0, 0, 1);
+    Geometry receivers = TestGeometry.plate(1, 1, 0, 1);
+    // Over the emitter at index 0's corner, between it and the receiver at index 0.
+    BoundingVolumeHierarchy boxes = BoundingVolumeHierarchy.ofBoxes(IncrementalPlan.changedBoxes(
+        new double[0], PairStore.facetsOf(TestGeometry.plate(1, 0.5, 0.2, 0.4))));
+
+    assertThat(IncrementalPlan.mayBeAffected(emitters, 0, receivers, 0, boxes, 0, 1)).isTrue();
+    assertThat(IncrementalPlan.mayBeAffected(emitters, 1, receivers, 1, boxes, 0, 1)).isFalse();
+    // Refined pairs look at the box around both triangles instead, which the occluder is in.
+    assertThat(IncrementalPlan.mayBeAffected(emitters, 1, receivers, 1, boxes, 4, 8)).isTrue();
+  }
+
+  @Test
+  public void of_shouldOnlyPlanNewAndAffectedPairs() {
+    Geometry emitters = TestGeometry.plate(2, 0, 0, 1);
+    Geometry receivers = TestGeometry.plate(2, 1, 0, 1);
+    Geometry interconnects = TestGeometry.plate(1, 0.5, 0.1, 0.2);
+    double[] emitterFacets = PairStore.facetsOf(emitters);
+    double[] receiverFacets = PairStore.facetsOf(receivers);
+
+    IncrementalPlan unchanged = IncrementalPlan.of(
+        emitterFacets, receiverFacets, PairStore.facetsOf(interconnects), emitters, receivers, interconnects, 0, 1, 2);
+    IncrementalPlan fresh = IncrementalPlan.of(
+        new double[0], new double[0], new double[0], emitters, receivers, interconnects, 0, 1, 2);
+    IncrementalPlan moved = IncrementalPlan.of(
+        emitterFacets, receiverFacets, PairStore.facetsOf(interconnects), emitters, receivers,
+        TestGeometry.plate(1, 0.5, 0.8, 0.9), 0, 1, 2);
+
+    assertThat(unchanged.getBlocks()).isEmpty();
+    assertThat(unchanged.getChangedInterconnects()).isEqualTo(0);
+    assertThat(fresh.getRecomputedPairs()).isEqualTo(64L);
+    assertThat(moved.getChangedInterconnects()).isEqualTo(4);
+    assertThat(moved.getRecomputedPairs()).isGreaterThan(0L);
+    assertThat(moved.getRecomputedPairs()).isLessThan(64L);
+  }
+
+  private static double[] concat(double[]... parts) {
+    double[] result = new double[parts.length * PairStore.FACET_VALUES];
+    for (int part = 0; part < parts.length; part++) {
+      System.arraycopy(parts[part], 0, result, part * PairStore.FACET_VALUES, PairStore.FACET_VALUES);
+    }
+    return result;
+  }
+}
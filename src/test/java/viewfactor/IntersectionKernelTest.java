@@ -0,0 +1,271 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class IntersectionKernelTest {
+
+  private static final double TOLERANCE = 1e-15;
+
+  private EventManager eventManager;
+  private Geometry emitters;
+  private Geometry receivers;
+  private Geometry interconnects;
+
+  @Before
+  public void setup() {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    emitters = TestGeometry.plate(5, 0, 0, 1);
+    receivers = TestGeometry.plate(4, 1, 0, 1);
+    interconnects = TestGeometry.plate(3, 0.5, 0.2, 0.6);
+  }
+
+  @Test
+  public void calculate_batched_shouldPassSameRowsAsUnbatched() {
+    List<double[]> expected = rows(1);
+    // 50 emitters: an uneven last batch, and a batch larger than the emitter count.
+    for (int batchSize : new int[] {7, 64}) {
+      List<double[]> actual = rows(batchSize);
+
+      assertThat(actual).hasSize(expected.size());
+      for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+        assertThat(actual.get(emitterIndex)).isEqualTo(expected.get(emitterIndex));
+      }
+    }
+  }
+
+  @Test
+  public void calculate_reduceOnDevice_shouldPassRowSums() {
+    List<double[]> expected = rows(1);
+    List<double[]> actual = rows(7, true);
+
+    assertThat(actual).hasSize(expected.size());
+    for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+      double rowSum = 0;
+      for (double value : expected.get(emitterIndex)) {
+        rowSum += value;
+      }
+      assertThat(actual.get(emitterIndex)).hasLength(1);
+      assertThat(actual.get(emitterIndex)[0]).isWithin(TOLERANCE).of(rowSum);
+    }
+  }
+
+  @Test
+  public void calculate_culledEdgeOn_shouldPassSameRowsAsUnculled() {
+    List<double[]> expected = rows(1);
+    for (int batchSize : new int[] {1, 7}) {
+      List<double[]> actual = rows(batchSize, false, Configuration.Culling.EDGE_ON);
+
+      assertThat(actual).hasSize(expected.size());
+      for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+        assertThat(actual.get(emitterIndex)).isEqualTo(expected.get(emitterIndex));
+      }
+    }
+  }
+
+  @Test
+  public void calculate_culledAndReduced_shouldPassRowSums() {
+    List<double[]> expected = rows(7, true);
+    List<double[]> actual = rows(7, true, Configuration.Culling.EDGE_ON);
+
+    assertThat(actual).hasSize(expected.size());
+    for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+      assertThat(actual.get(emitterIndex)[0]).isWithin(TOLERANCE).of(expected.get(emitterIndex)[0]);
+    }
+  }
+
+  @Test
+  public void calculate_refinedFarPairs_shouldPassSameRowsAsUnrefined() {
+    List<double[]> expected = rows(1);
+    // Every pair is at least 0.5 apart and every triangle is 0.14 across, so nothing needs splitting.
+    List<double[]> actual = refinedRows(emitters, receivers, interconnects, 3, 8);
+
+    for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+      assertThat(actual.get(emitterIndex)).isEqualTo(expected.get(emitterIndex));
+    }
+  }
+
+  @Test
+  public void calculate_refinedNearPairs_shouldApproachAnalyticViewFactor() {
+    // Two unit squares 0.2 apart, much closer than the triangles are wide.
+    Geometry bottom = TestGeometry.plate(2, 0, 0, 1);
+    Geometry top = TestGeometry.plate(2, 0.2, 0, 1);
+    Geometry none = new Geometry().empty();
+    double expected = parallelSquaresViewFactor(1, 0.2);
+
+    double coarseError = Math.abs(TestRuns.total(refinedRows(bottom, top, none, 0, 8)) - expected);
+    double refinedError = Math.abs(TestRuns.total(refinedRows(bottom, top, none, 10, 8)) - expected);
+
+    assertThat(refinedError).isLessThan(coarseError / 10);
+  }
+
+  @Test
+  public void calculate_indexedInterconnects_shouldPassSameRows() {
+    Geometry indexed = TestGeometry.indexedPlate(3, 0.5, 0.2, 0.6);
+    for (Configuration.OcclusionIndex index : Configuration.OcclusionIndex.values()) {
+      List<double[]> expected = occludedRows(interconnects, index);
+      List<double[]> actual = occludedRows(indexed, index);
+
+      for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+        assertThat(actual.get(emitterIndex)).isEqualTo(expected.get(emitterIndex));
+      }
+    }
+  }
+
+  @Test
+  public void calculate_posed_shouldMatchMovedReceivers() {
+    Pose pose = Pose.of(0.1, 0.2, -0.1, 10, 20, 30);
+    List<double[]> expectedUnmoved = refinedRows(emitters, receivers, interconnects, 4, 3);
+    List<double[]> expectedMoved = refinedRows(emitters, TestGeometry.moved(receivers, pose), interconnects, 4, 3);
+
+    // The second calculation only sends the pose; the geometry is still on the device from the first.
+    IntersectionKernel kernel = new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setRefineDistance(4)
+        .setMaxSubdivision(3)
+        .build();
+    List<double[]> unmoved = new ArrayList<>();
+    List<double[]> moved = new ArrayList<>();
+    TestRuns.startJob(eventManager);
+    kernel.calculate(row -> unmoved.add(row.clone()), () -> 0);
+    kernel.setReceiverPose(pose);
+    kernel.calculate(row -> moved.add(row.clone()), () -> 0);
+    eventManager.finish();
+    kernel.dispose();
+
+    assertSameRows(expectedUnmoved, unmoved);
+    assertSameRows(expectedMoved, moved);
+    assertThat(TestRuns.total(moved)).isNotWithin(1e-6).of(TestRuns.total(unmoved));
+  }
+
+  @Test
+  public void calculate_emitterRanges_shouldPassSameRowsAsWholeRun() {
+    List<double[]> expected = run(builder(emitters, receivers, interconnects).build());
+
+    // The first range is smaller than a batch, and the buffers it sizes have to fit the later ones.
+    IntersectionKernel kernel = builder(emitters, receivers, interconnects).build();
+    List<double[]> ranged = new ArrayList<>();
+    TestRuns.startJob(eventManager);
+    for (int[] range : new int[][] {{0, 3}, {3, 25}, {25, emitters.size()}}) {
+      kernel.setEmitterRange(range[0], range[1]);
+      kernel.calculate(row -> ranged.add(row.clone()), () -> 0);
+    }
+    eventManager.finish();
+    kernel.dispose();
+
+    assertSameRows(expected, ranged);
+  }
+
+  @Test
+  public void rebind_shouldPassSameRowsAsNewKernel() {
+    Geometry otherEmitters = TestGeometry.plate(3, 0.1, 0, 1);
+    Geometry otherReceivers = TestGeometry.plate(6, 1.2, 0.1, 0.9);
+    Geometry otherInterconnects = TestGeometry.indexedPlate(2, 0.6, 0.3, 0.7);
+    List<double[]> expected = run(builder(otherEmitters, otherReceivers, otherInterconnects).build());
+
+    // Rebinding replaces the geometry of every size, the culled pairs and the pose.
+    IntersectionKernel kernel = builder(emitters, receivers, interconnects).build();
+    kernel.setReceiverPose(Pose.of(0.1, 0.2, -0.1, 10, 20, 30));
+    List<double[]> first = new ArrayList<>();
+    TestRuns.startJob(eventManager);
+    kernel.calculate(row -> first.add(row.clone()), () -> 0);
+    eventManager.finish();
+    List<double[]> rebound = run(builder(otherEmitters, otherReceivers, otherInterconnects).rebind(kernel));
+
+    assertThat(first).hasSize(emitters.size());
+    assertSameRows(expected, rebound);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rebind_otherSettings_shouldThrow() {
+    IntersectionKernel kernel = builder(emitters, receivers, interconnects).build();
+    try {
+      builder(emitters, receivers, interconnects).setBatchSize(3).rebind(kernel);
+    } finally {
+      kernel.dispose();
+    }
+  }
+
+  private IntersectionKernel.Builder builder(Geometry emitters, Geometry receivers, Geometry interconnects) {
+    return new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setBatchSize(7)
+        .setCulling(Configuration.Culling.EDGE_ON)
+        .setRefineDistance(4)
+        .setMaxSubdivision(3);
+  }
+
+  private List<double[]> occludedRows(Geometry interconnects, Configuration.OcclusionIndex occlusionIndex) {
+    return run(new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setOcclusionIndex(occlusionIndex)
+        .build());
+  }
+
+  private List<double[]> rows(int batchSize) {
+    return rows(batchSize, false);
+  }
+
+  private List<double[]> rows(int batchSize, boolean reduceOnDevice) {
+    return rows(batchSize, reduceOnDevice, Configuration.Culling.NONE);
+  }
+
+  private List<double[]> refinedRows(
+      Geometry emitters, Geometry receivers, Geometry interconnects, double refineDistance, int maxSubdivision) {
+    return run(new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setRefineDistance(refineDistance)
+        .setMaxSubdivision(maxSubdivision)
+        .build());
+  }
+
+  private List<double[]> rows(int batchSize, boolean reduceOnDevice, Configuration.Culling culling) {
+    IntersectionKernel kernel = new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setBatchSize(batchSize)
+        .setReduceOnDevice(reduceOnDevice)
+        .setCulling(culling)
+        .build();
+    return run(kernel);
+  }
+
+  private List<double[]> run(IntersectionKernel kernel) {
+    try {
+      return TestRuns.rows(kernel, eventManager);
+    } finally {
+      kernel.dispose();
+    }
+  }
+
+  private static void assertSameRows(List<double[]> expected, List<double[]> actual) {
+    assertThat(actual).hasSize(expected.size());
+    for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+      assertThat(actual.get(emitterIndex)).usingTolerance(TOLERANCE).containsExactly(expected.get(emitterIndex));
+    }
+  }
+
+  // Area times the view factor between two parallel, directly opposed squares of the given side and separation.
+  private static double parallelSquaresViewFactor(double side, double separation) {
+    double x = side / separation;
+    double root = Math.sqrt(1 + x * x);
+    return side * side * 2 / (Math.PI * x * x)
+        * (Math.log((1 + x * x) / Math.sqrt(1 + 2 * x * x)) + 2 * x * root * Math.atan(x / root) - 2 * x * Math.atan(x));
+  }
+}
@@ -0,0 +1,93 @@
+package viewfactor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MatrixFileWriterTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Geometry emitters;
+  private Geometry receivers;
+
+  @Before
+  public void setup() {
+    emitters = TestGeometry.plate(1, 0, 0, 1);
+    receivers = TestGeometry.plate(2, 1, 0, 1);
+  }
+
+  @Test
+  public void accept_double_shouldWriteHeaderAndViewFactors() throws IOException {
+    ByteBuffer matrix = write(Configuration.Precision.DOUBLE);
+
+    assertHeader(matrix, Double.BYTES);
+    for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+      for (int receiverIndex = 0; receiverIndex < receivers.size(); receiverIndex++) {
+        assertThat(matrix.getDouble()).isEqualTo(value(emitterIndex, receiverIndex) / emitters.getArea()[emitterIndex]);
+      }
+    }
+    assertThat(matrix.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void accept_float_shouldWriteHeaderAndViewFactors() throws IOException {
+    ByteBuffer matrix = write(Configuration.Precision.FLOAT);
+
+    assertHeader(matrix, Float.BYTES);
+    for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+      for (int receiverIndex = 0; receiverIndex < receivers.size(); receiverIndex++) {
+        assertThat(matrix.getFloat())
+            .isEqualTo((float) (value(emitterIndex, receiverIndex) / emitters.getArea()[emitterIndex]));
+      }
+    }
+    assertThat(matrix.hasRemaining()).isFalse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void accept_tooManyRows_shouldThrow() throws IOException {
+    try (MatrixFileWriter writer = new MatrixFileWriter(
+        temporaryFolder.newFile(), emitters, receivers, Configuration.Precision.DOUBLE)) {
+      for (int emitterIndex = 0; emitterIndex <= emitters.size(); emitterIndex++) {
+        writer.accept(new double[receivers.size()]);
+      }
+    }
+  }
+
+  private ByteBuffer write(Configuration.Precision precision) throws IOException {
+    File output = temporaryFolder.newFile();
+    try (MatrixFileWriter writer = new MatrixFileWriter(output, emitters, receivers, precision)) {
+      for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+        double[] row = new double[receivers.size()];
+        for (int receiverIndex = 0; receiverIndex < row.length; receiverIndex++) {
+          row[receiverIndex] = value(emitterIndex, receiverIndex);
+        }
+        writer.accept(row);
+      }
+    }
+    return ByteBuffer.wrap(Files.readAllBytes(output.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void assertHeader(ByteBuffer matrix, int bytesPerValue) {
+    assertThat(matrix.getInt()).isEqualTo(MatrixFileWriter.MAGIC);
+    assertThat(matrix.getInt()).isEqualTo(MatrixFileWriter.VERSION);
+    assertThat(matrix.getLong()).isEqualTo((long) emitters.size());
+    assertThat(matrix.getLong()).isEqualTo((long) receivers.size());
+    assertThat(matrix.getInt()).isEqualTo(bytesPerValue);
+    matrix.position(MatrixFileWriter.HEADER_BYTES);
+  }
+
+  private static double value(int emitterIndex, int receiverIndex) {
+    return 0.001 * (emitterIndex + 1) + receiverIndex;
+  }
+}
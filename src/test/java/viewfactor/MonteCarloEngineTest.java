@@ -0,0 +1,88 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MonteCarloEngineTest {
+
+  // View factor between two parallel, directly opposed unit squares one unit apart.
+  private static final double PARALLEL_UNIT_SQUARES = 0.19982489569838746;
+
+  private EventManager eventManager;
+  private Geometry emitters;
+  private Geometry receivers;
+
+  @Before
+  public void setup() {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    emitters = TestGeometry.plate(3, 0, 0, 1);
+    receivers = TestGeometry.plate(4, 1, 0, 1);
+  }
+
+  @Test
+  public void calculate_shouldConvergeToAnalyticViewFactor() {
+    MonteCarloEngine engine = builder(new Geometry().empty()).setTolerance(2e-3).build();
+
+    double total = TestRuns.total(rows(engine));
+
+    assertThat(engine.getHalfWidth()).isAtMost(2e-3);
+    assertThat(engine.getSamples()).isLessThan(1L << 26);
+    assertThat(total / TestGeometry.area(emitters)).isWithin(3 * engine.getHalfWidth()).of(PARALLEL_UNIT_SQUARES);
+  }
+
+  @Test
+  public void calculate_shouldPassOneValuePerEmitter() {
+    List<double[]> rows = rows(builder(new Geometry().empty()).setMaxSamples(1000).build());
+
+    assertThat(rows).hasSize(emitters.size());
+    for (double[] row : rows) {
+      assertThat(row).hasLength(1);
+    }
+  }
+
+  @Test
+  public void calculate_shouldStopAtSampleBudget() {
+    MonteCarloEngine engine = builder(new Geometry().empty()).setTolerance(0).setMaxSamples(100_000).build();
+
+    rows(engine);
+
+    assertThat(engine.getSamples()).isEqualTo(100_000L);
+  }
+
+  @Test
+  public void calculate_sameSeed_shouldPassSameRows() {
+    List<double[]> expected = rows(builder(new Geometry().empty()).setSeed(7).setParallelism(1).build());
+    List<double[]> actual = rows(builder(new Geometry().empty()).setSeed(7).setParallelism(4).build());
+
+    for (int emitterIndex = 0; emitterIndex < expected.size(); emitterIndex++) {
+      assertThat(actual.get(emitterIndex)).isEqualTo(expected.get(emitterIndex));
+    }
+  }
+
+  @Test
+  public void calculate_fullyOccluded_shouldPassZero() {
+    // Larger than both plates, so every ray from the emitters to the receivers crosses it.
+    Geometry wall = TestGeometry.plate(2, 0.5, -10, 10);
+    for (Configuration.OcclusionIndex index : Configuration.OcclusionIndex.values()) {
+      MonteCarloEngine engine = builder(wall).setOcclusionIndex(index).setMaxSamples(10_000).build();
+      assertThat(TestRuns.total(rows(engine))).isEqualTo(0.0);
+    }
+  }
+
+  private MonteCarloEngine.Builder builder(Geometry interconnects) {
+    return new MonteCarloEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects);
+  }
+
+  private List<double[]> rows(MonteCarloEngine engine) {
+    return TestRuns.rows(engine, eventManager);
+  }
+}
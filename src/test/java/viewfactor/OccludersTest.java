@@ -0,0 +1,189 @@
+package viewfactor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class OccludersTest {
+
+  private static final int NUM_TRIANGLES = 500;
+  private static final int NUM_SEGMENTS = 2000;
+
+  private Random random;
+
+  @Before
+  public void setup() {
+    random = new Random(42);
+  }
+
+  @Test
+  public void isOccluded_emptyGeometry_shouldNeverOcclude() {
+    Geometry empty = new Geometry().empty();
+
+    assertThat(BoundingVolumeHierarchy.of(empty).getNodeCount()).isEqualTo(0);
+    for (Configuration.OcclusionIndex index : Configuration.OcclusionIndex.values()) {
+      assertThat(Occluders.of(empty, index).isOccluded(0, 0, 0, 1, 1, 1)).isFalse();
+    }
+  }
+
+  @Test
+  public void isOccluded_triangleBetweenEndpoints_shouldOcclude() {
+    Geometry wall = new Geometry().from(
+        new double[][] {{0, 1, 0}},
+        new double[][][] {{{-1, 0.5, -1}, {1, 0.5, -1}, {0, 0.5, 1}}});
+
+    for (Configuration.OcclusionIndex index : Configuration.OcclusionIndex.values()) {
+      Occluders occluders = Occluders.of(wall, index);
+      assertThat(occluders.isOccluded(0, 0, 0, 0, 1, 0)).isTrue();
+      // Same line, but the segment stops short of the triangle.
+      assertThat(occluders.isOccluded(0, 0, 0, 0, 0.4, 0)).isFalse();
+      // Triangle is behind the origin.
+      assertThat(occluders.isOccluded(0, 1, 0, 0, 1, 0)).isFalse();
+    }
+  }
+
+  @Test
+  public void isOccluded_hierarchy_shouldMatchBruteForce() {
+    assertMatchesBruteForce(randomTriangles(NUM_TRIANGLES, false), Configuration.OcclusionIndex.BVH);
+  }
+
+  @Test
+  public void isOccluded_grid_shouldMatchBruteForce() {
+    assertMatchesBruteForce(randomTriangles(NUM_TRIANGLES, false), Configuration.OcclusionIndex.GRID);
+  }
+
+  @Test
+  public void isOccluded_gridOverFlatMesh_shouldMatchBruteForce() {
+    assertMatchesBruteForce(randomTriangles(NUM_TRIANGLES, true), Configuration.OcclusionIndex.GRID);
+  }
+
+  @Test
+  public void firstHit_shouldMatchBruteForceNearest() {
+    Geometry triangles = randomTriangles(NUM_TRIANGLES, false);
+    BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.of(triangles);
+
+    int hits = 0;
+    for (int segment = 0; segment < NUM_SEGMENTS; segment++) {
+      double[] origin = randomPoint();
+      double[] ray = randomPoint();
+      for (int axis = 0; axis < 3; axis++) {
+        ray[axis] -= origin[axis];
+      }
+
+      int expected = -1;
+      double nearest = 1;
+      for (int index = 0; index < triangles.size(); index++) {
+        double distance = Intersections.intersectionDistance(
+            triangles, index, origin[0], origin[1], origin[2], ray[0], ray[1], ray[2]);
+        if (distance > 0 && distance < nearest) {
+          expected = index;
+          nearest = distance;
+        }
+      }
+      assertThat(hierarchy.firstHit(origin[0], origin[1], origin[2], ray[0], ray[1], ray[2])).isEqualTo(expected);
+      if (expected >= 0) hits++;
+    }
+
+    assertThat(hits).isGreaterThan(0);
+    assertThat(hits).isLessThan(NUM_SEGMENTS);
+  }
+
+  @Test
+  public void ofBoxes_shouldMatchBruteForce() {
+    double[] boxes = new double[NUM_TRIANGLES * 6];
+    for (int box = 0; box < NUM_TRIANGLES; box++) {
+      double[] corner = randomPoint();
+      for (int axis = 0; axis < 3; axis++) {
+        boxes[box * 6 + axis] = corner[axis];
+        boxes[box * 6 + 3 + axis] = corner[axis] + random.nextDouble() * 0.05;
+      }
+    }
+    BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.ofBoxes(boxes);
+
+    int hits = 0;
+    int overlaps = 0;
+    for (int segment = 0; segment < NUM_SEGMENTS; segment++) {
+      double[] origin = randomPoint();
+      double[] ray = randomPoint();
+      for (int axis = 0; axis < 3; axis++) {
+        ray[axis] = (ray[axis] - origin[axis]) * 0.2;
+      }
+      double[] other = new double[6];
+      for (int axis = 0; axis < 3; axis++) {
+        other[axis] = Math.min(origin[axis], origin[axis] + ray[axis]);
+        other[axis + 3] = Math.max(origin[axis], origin[axis] + ray[axis]);
+      }
+
+      boolean expectedHit = false;
+      boolean expectedOverlap = false;
+      for (int box = 0; box < boxes.length; box += 6) {
+        expectedHit |= Intersections.segmentHitsBox(
+            origin[0], origin[1], origin[2],
+            Intersections.inverseOf(ray[0]), Intersections.inverseOf(ray[1]), Intersections.inverseOf(ray[2]),
+            boxes[box], boxes[box + 1], boxes[box + 2], boxes[box + 3], boxes[box + 4], boxes[box + 5]);
+        boolean apart = false;
+        for (int axis = 0; axis < 3; axis++) {
+          apart |= other[axis] > boxes[box + 3 + axis] || other[axis + 3] < boxes[box + axis];
+        }
+        expectedOverlap |= !apart;
+      }
+      assertThat(hierarchy.segmentHitsBox(origin[0], origin[1], origin[2], ray[0], ray[1], ray[2]))
+          .isEqualTo(expectedHit);
+      assertThat(hierarchy.overlapsBox(other)).isEqualTo(expectedOverlap);
+      if (expectedHit) hits++;
+      if (expectedOverlap) overlaps++;
+    }
+
+    assertThat(hits).isGreaterThan(0);
+    assertThat(hits).isLessThan(NUM_SEGMENTS);
+    assertThat(overlaps).isGreaterThan(0);
+    assertThat(overlaps).isLessThan(NUM_SEGMENTS);
+  }
+
+  private void assertMatchesBruteForce(Geometry triangles, Configuration.OcclusionIndex index) {
+    Occluders bruteForce = Occluders.of(triangles, Configuration.OcclusionIndex.BRUTE_FORCE);
+    Occluders occluders = Occluders.of(triangles, index);
+
+    int occluded = 0;
+    for (int segment = 0; segment < NUM_SEGMENTS; segment++) {
+      double[] origin = randomPoint();
+      double[] ray = randomPoint();
+      for (int axis = 0; axis < 3; axis++) {
+        ray[axis] -= origin[axis];
+      }
+
+      boolean expected = bruteForce.isOccluded(origin[0], origin[1], origin[2], ray[0], ray[1], ray[2]);
+      assertThat(occluders.isOccluded(origin[0], origin[1], origin[2], ray[0], ray[1], ray[2])).isEqualTo(expected);
+      if (expected) occluded++;
+    }
+
+    // Make sure the comparison exercised both outcomes.
+    assertThat(occluded).isGreaterThan(0);
+    assertThat(occluded).isLessThan(NUM_SEGMENTS);
+  }
+
+  // Small random triangles in the unit cube, or in the plane y = 0.5 if flat.
+  private Geometry randomTriangles(int count, boolean flat) {
+    double[][] normals = new double[count][3];
+    double[][][] facets = new double[count][3][3];
+    for (int index = 0; index < count; index++) {
+      double[] anchor = randomPoint();
+      for (int vertex = 0; vertex < 3; vertex++) {
+        for (int axis = 0; axis < 3; axis++) {
+          facets[index][vertex][axis] = anchor[axis] + random.nextDouble() * 0.1;
+        }
+        if (flat) {
+          facets[index][vertex][1] = 0.5;
+        }
+      }
+    }
+    return new Geometry().from(normals, facets);
+  }
+
+  private double[] randomPoint() {
+    return new double[] {random.nextDouble(), random.nextDouble(), random.nextDouble()};
+  }
+}
@@ -0,0 +1,111 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PairCullerTest {
+
+  private static final double TOLERANCE = 1e-12;
+
+  @Test
+  public void cullRow_none_shouldKeepEveryPair() {
+    Geometry emitters = TestGeometry.plate(2, 0, 0, 1);
+    Geometry receivers = TestGeometry.plate(2, 1, 0, 1);
+    PairCuller culler = PairCuller.of(Configuration.Culling.NONE, emitters, receivers, new Geometry().empty());
+
+    assertThat(culler.isEnabled()).isFalse();
+    assertThat(culler.cullRow(0, new int[receivers.size()], 0)).isEqualTo(receivers.size());
+  }
+
+  @Test
+  public void cullRow_edgeOn_shouldDropCoplanarPairs() {
+    Geometry emitters = TestGeometry.plate(2, 0, 0, 1);
+    Geometry coplanar = TestGeometry.plate(3, 0, 2, 3);
+    PairCuller culler = PairCuller.of(Configuration.Culling.EDGE_ON, emitters, coplanar, new Geometry().empty());
+
+    for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+      assertThat(culler.cullRow(emitterIndex, new int[coplanar.size()], 0)).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void cullRow_backFacing_shouldDropPairsBehindEitherTriangle() {
+    Geometry emitters = TestGeometry.plate(2, 0, 0, 1);
+    Geometry facing = TestGeometry.plate(2, 1, 0, 1, -1);
+    Geometry facingAway = TestGeometry.plate(2, 1, 0, 1);
+    Geometry below = TestGeometry.plate(2, -1, 0, 1, -1);
+    Geometry none = new Geometry().empty();
+
+    int[] pairReceivers = new int[facing.size()];
+    assertThat(PairCuller.of(Configuration.Culling.BACK_FACING, emitters, facing, none)
+        .cullRow(0, pairReceivers, 0)).isEqualTo(facing.size());
+    assertThat(PairCuller.of(Configuration.Culling.BACK_FACING, emitters, facingAway, none)
+        .cullRow(0, pairReceivers, 0)).isEqualTo(0);
+    assertThat(PairCuller.of(Configuration.Culling.BACK_FACING, emitters, below, none)
+        .cullRow(0, pairReceivers, 0)).isEqualTo(0);
+  }
+
+  @Test
+  public void cullRow_shouldMarkPairsThatMissTheInterconnects() {
+    Geometry emitters = TestGeometry.plate(4, 0, 0, 1);
+    Geometry receivers = TestGeometry.plate(4, 1, 0, 1);
+    Geometry interconnects = TestGeometry.plate(1, 0.5, 0, 0.25);
+    PairCuller culler = PairCuller.of(Configuration.Culling.EDGE_ON, emitters, receivers, interconnects);
+
+    int[] pairReceivers = new int[receivers.size()];
+    // The emitter in the interconnect's corner: rays to near receivers cross it, rays to far ones pass beside it.
+    int emitterIndex = 0;
+    int count = culler.cullRow(emitterIndex, pairReceivers, 0);
+
+    assertThat(count).isEqualTo(receivers.size());
+    List<Integer> unoccludable = new ArrayList<>();
+    for (int slot = 0; slot < count; slot++) {
+      int receiverIndex = PairCuller.receiverOf(pairReceivers[slot]);
+      assertThat(receiverIndex).isEqualTo(slot);
+      if (pairReceivers[slot] < 0) {
+        unoccludable.add(receiverIndex);
+      } else {
+        assertThat(culler.mayBeOccluded(emitterIndex, receiverIndex)).isTrue();
+      }
+    }
+    assertThat(unoccludable).isNotEmpty();
+    assertThat(unoccludable.size()).isLessThan(count);
+  }
+
+  @Test
+  public void engines_backFacing_shouldAgree() {
+    EventManager eventManager = new EventManager(Stopwatch::createUnstarted);
+    Geometry emitters = TestGeometry.plate(5, 0, 0, 1);
+    Geometry receivers = TestGeometry.plate(4, 1, 0, 1, -1);
+    Geometry interconnects = TestGeometry.plate(3, 0.5, 0.2, 0.6);
+
+    double culled = TestRuns.total(new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setBatchSize(3)
+        .setCulling(Configuration.Culling.BACK_FACING)
+        .build(), eventManager);
+    double forkJoin = TestRuns.total(new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setCulling(Configuration.Culling.BACK_FACING)
+        .build(), eventManager);
+    double unculled = TestRuns.total(new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .build(), eventManager);
+
+    // The plates face each other, so nothing is culled.
+    assertThat(culled).isWithin(TOLERANCE).of(unculled);
+    assertThat(forkJoin).isWithin(TOLERANCE).of(unculled);
+  }
+}
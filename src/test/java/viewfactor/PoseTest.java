@@ -0,0 +1,74 @@
+package viewfactor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PoseTest {
+
+  private static final double TOLERANCE = 1e-12;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void of_shouldRotateThenTranslate() {
+    // A quarter turn about z takes x to y.
+    Pose pose = Pose.of(1, 2, 3, 0, 0, 90);
+
+    assertThat(pose.pointX(1, 0, 0)).isWithin(TOLERANCE).of(1);
+    assertThat(pose.pointY(1, 0, 0)).isWithin(TOLERANCE).of(3);
+    assertThat(pose.pointZ(1, 0, 0)).isWithin(TOLERANCE).of(3);
+    assertThat(pose.rotatedX(1, 0, 0)).isWithin(TOLERANCE).of(0);
+    assertThat(pose.rotatedY(1, 0, 0)).isWithin(TOLERANCE).of(1);
+    assertThat(pose.rotatedZ(1, 0, 0)).isWithin(TOLERANCE).of(0);
+  }
+
+  @Test
+  public void of_shouldRotateAboutXBeforeY() {
+    // x: y goes to z. Then y: z goes to x.
+    Pose pose = Pose.of(0, 0, 0, 90, 90, 0);
+
+    assertThat(pose.rotatedX(0, 1, 0)).isWithin(TOLERANCE).of(1);
+    assertThat(pose.rotatedY(0, 1, 0)).isWithin(TOLERANCE).of(0);
+    assertThat(pose.rotatedZ(0, 1, 0)).isWithin(TOLERANCE).of(0);
+  }
+
+  @Test
+  public void read_shouldAcceptAnglesAndMatrices() throws IOException {
+    List<Pose> poses = Pose.read(write(
+        "# x y z angleX angleY angleZ\n"
+            + "0 0.5 0 0 0 90\n"
+            + "\n"
+            + "0, -1, 0, 1, 0, 0, 0, 0, 1, 0, 0.5, 0\n"));
+
+    assertThat(poses).hasSize(2);
+    for (Pose pose : poses) {
+      assertThat(pose.toArray()).usingTolerance(TOLERANCE).containsExactly(poses.get(0).toArray()).inOrder();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void read_scaling_shouldThrow() throws IOException {
+    Pose.read(write("2 0 0 0 1 0 0 0 1 0 0 0\n"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void read_wrongValueCount_shouldThrow() throws IOException {
+    Pose.read(write("0 0 0 0 0\n"));
+  }
+
+  private Path write(String contents) throws IOException {
+    Path file = temporaryFolder.newFile().toPath();
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
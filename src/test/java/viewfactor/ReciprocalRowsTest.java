@@ -0,0 +1,134 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ReciprocalRowsTest {
+
+  private static final double TOLERANCE = 1e-15;
+
+  private EventManager eventManager;
+  private Geometry surface;
+  private Geometry interconnects;
+
+  @Before
+  public void setup() {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    // Two facing plates as one surface, so that the surface sees itself.
+    surface = TestGeometry.union(TestGeometry.plate(3, 0, 0, 1), TestGeometry.plate(2, 1, 0, 1));
+    // Offset so that no ray grazes an interconnect edge, where the two directions of a pair may disagree.
+    interconnects = TestGeometry.plate(2, 0.5, 0.2137, 0.6071);
+  }
+
+  @Test
+  public void accept_fullRows_shouldMirrorUpperTriangle() {
+    List<double[]> rows = new ArrayList<>();
+    ReciprocalRows reciprocalRows = new ReciprocalRows(rows::add, 4, true);
+    for (double[] upper : upperTriangleOf(symmetricMatrix(4))) {
+      reciprocalRows.accept(upper);
+    }
+
+    assertThat(rows).hasSize(4);
+    for (int row = 0; row < 4; row++) {
+      assertThat(rows.get(row)).isEqualTo(symmetricMatrix(4)[row]);
+    }
+  }
+
+  @Test
+  public void accept_sumsOnly_shouldPassFullRowSums() {
+    List<double[]> rows = new ArrayList<>();
+    ReciprocalRows reciprocalRows = new ReciprocalRows(rows::add, 4, false);
+    for (double[] upper : upperTriangleOf(symmetricMatrix(4))) {
+      reciprocalRows.accept(upper);
+    }
+
+    for (int row = 0; row < 4; row++) {
+      assertThat(rows.get(row)).hasLength(1);
+      assertThat(rows.get(row)[0]).isWithin(TOLERANCE).of(TestRuns.sum(symmetricMatrix(4)[row]));
+    }
+  }
+
+  @Test
+  public void upperTriangle_kernel_shouldMatchFullRowsOffTheDiagonal() {
+    for (int batchSize : new int[] {1, 7}) {
+      List<double[]> expected = rows(kernel(false, batchSize), false);
+      List<double[]> actual = rows(kernel(true, batchSize), true);
+
+      assertMatchesOffDiagonal(actual, expected);
+    }
+  }
+
+  @Test
+  public void upperTriangle_forkJoin_shouldMatchFullRowsOffTheDiagonal() {
+    List<double[]> expected = rows(forkJoin(false), false);
+    List<double[]> actual = rows(forkJoin(true), true);
+
+    assertMatchesOffDiagonal(actual, expected);
+  }
+
+  private IntersectionKernel kernel(boolean upperTriangle, int batchSize) {
+    return new IntersectionKernel.Builder(Geometry::new, eventManager)
+        .setEmitters(surface)
+        .setReceivers(surface)
+        .setInterconnects(interconnects)
+        .setBatchSize(batchSize)
+        .setUpperTriangle(upperTriangle)
+        .build();
+  }
+
+  private ForkJoinEngine forkJoin(boolean upperTriangle) {
+    return new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(surface)
+        .setReceivers(surface)
+        .setInterconnects(interconnects)
+        .setUpperTriangle(upperTriangle)
+        .build();
+  }
+
+  private void assertMatchesOffDiagonal(List<double[]> actual, List<double[]> expected) {
+    assertThat(actual).hasSize(surface.size());
+    for (int emitterIndex = 0; emitterIndex < surface.size(); emitterIndex++) {
+      assertThat(actual.get(emitterIndex)[emitterIndex]).isEqualTo(0.0);
+      for (int receiverIndex = 0; receiverIndex < surface.size(); receiverIndex++) {
+        if (receiverIndex == emitterIndex) continue;
+        double value = expected.get(emitterIndex)[receiverIndex];
+        assertThat(actual.get(emitterIndex)[receiverIndex]).isWithin(1e-12 * Math.abs(value)).of(value);
+      }
+    }
+  }
+
+  private List<double[]> rows(ViewFactorEngine engine, boolean mirror) {
+    List<double[]> rows = new ArrayList<>();
+    Consumer<double[]> consumer = row -> rows.add(row.clone());
+    TestRuns.run(engine, eventManager, mirror ? new ReciprocalRows(consumer, surface.size(), true) : consumer);
+    return rows;
+  }
+
+  private static double[][] symmetricMatrix(int size) {
+    double[][] matrix = new double[size][size];
+    for (int row = 0; row < size; row++) {
+      for (int column = 0; column < size; column++) {
+        matrix[row][column] = row == column ? 0 : 1.0 / (1 + row + column) + 0.01 * row * column;
+      }
+    }
+    return matrix;
+  }
+
+  private static double[][] upperTriangleOf(double[][] matrix) {
+    double[][] upper = new double[matrix.length][matrix.length];
+    for (int row = 0; row < matrix.length; row++) {
+      for (int column = row + 1; column < matrix.length; column++) {
+        upper[row][column] = matrix[row][column];
+      }
+    }
+    return upper;
+  }
+}
@@ -0,0 +1,261 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ShardCoordinatorTest {
+
+  private static final double TOLERANCE = 1e-12;
+  private static final int SHARD_SIZE = 7;
+  private static final long SHARD_TIMEOUT_MILLIS = 60_000;
+  // Long enough for a worker that keeps up to get its shards in.
+  private static final long SHORT_SHARD_TIMEOUT_MILLIS = 2000;
+
+  private Geometry emitters;
+  private Geometry receivers;
+  private Geometry interconnects;
+  private int port;
+  private ExecutorService threads;
+  private CountDownLatch listening;
+  private final AtomicInteger engineBuilds = new AtomicInteger();
+
+  @Before
+  public void setup() throws IOException {
+    emitters = TestGeometry.plate(5, 0, 0, 1);
+    receivers = TestGeometry.plate(4, 1, 0, 1);
+    interconnects = TestGeometry.plate(3, 0.5, 0.2, 0.6);
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    threads = Executors.newCachedThreadPool();
+    listening = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    threads.shutdownNow();
+  }
+
+  @Test
+  public void calculate_severalWorkers_shouldMatchLocalRun() throws Exception {
+    Future<Double> coordinator = startCoordinator(SHARD_TIMEOUT_MILLIS);
+    List<Future<Double>> workers = new ArrayList<>();
+    for (int worker = 0; worker < 3; worker++) {
+      workers.add(startWorker(emitters, new AtomicBoolean()));
+    }
+
+    assertThat(coordinator.get(30, TimeUnit.SECONDS)).isWithin(TOLERANCE).of(localTotal());
+    double workerTotal = 0;
+    for (Future<Double> worker : workers) {
+      workerTotal += worker.get(30, TimeUnit.SECONDS);
+    }
+    assertThat(workerTotal).isWithin(TOLERANCE).of(localTotal());
+    // One engine per worker, however many shards it took.
+    assertThat(engineBuilds.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void calculate_failedShard_shouldBeReassigned() throws Exception {
+    Future<Double> coordinator = startCoordinator(SHARD_TIMEOUT_MILLIS);
+    AtomicBoolean failNext = new AtomicBoolean(true);
+    startWorker(emitters, failNext);
+
+    assertThat(coordinator.get(30, TimeUnit.SECONDS)).isWithin(TOLERANCE).of(localTotal());
+    assertThat(failNext.get()).isFalse();
+  }
+
+  @Test
+  public void calculate_lostWorker_shouldReassignItsShard() throws Exception {
+    Future<Double> coordinator = startCoordinator(SHARD_TIMEOUT_MILLIS);
+    // Takes a shard and leaves without computing it.
+    BlockingQueue<JSONObject> received = new LinkedBlockingQueue<>();
+    WebSocketClient deserter = connectIdler(received, new CountDownLatch(1));
+    assertThat(received.poll(30, TimeUnit.SECONDS)).isNotNull();
+    deserter.closeBlocking();
+    Future<Double> worker = startWorker(emitters, new AtomicBoolean());
+
+    assertThat(coordinator.get(30, TimeUnit.SECONDS)).isWithin(TOLERANCE).of(localTotal());
+    assertThat(worker.get(30, TimeUnit.SECONDS)).isWithin(TOLERANCE).of(localTotal());
+  }
+
+  @Test
+  public void calculate_stalledWorker_shouldLoseItsShard() throws Exception {
+    Future<Double> coordinator = startCoordinator(SHORT_SHARD_TIMEOUT_MILLIS);
+    // Takes a shard and sits on it with the connection open.
+    BlockingQueue<JSONObject> received = new LinkedBlockingQueue<>();
+    CountDownLatch closed = new CountDownLatch(1);
+    connectIdler(received, closed);
+    assertThat(received.poll(30, TimeUnit.SECONDS)).isNotNull();
+    Future<Double> worker = startWorker(emitters, new AtomicBoolean());
+
+    assertThat(coordinator.get(30, TimeUnit.SECONDS)).isWithin(TOLERANCE).of(localTotal());
+    assertThat(worker.get(30, TimeUnit.SECONDS)).isWithin(TOLERANCE).of(localTotal());
+    assertThat(closed.await(30, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void calculate_secondHello_shouldNotAssignAnotherShard() throws Exception {
+    Future<Double> coordinator = startCoordinator(SHORT_SHARD_TIMEOUT_MILLIS);
+    BlockingQueue<JSONObject> received = new LinkedBlockingQueue<>();
+    CountDownLatch closed = new CountDownLatch(1);
+    WebSocketClient idler = connectIdler(received, closed);
+    assertThat(received.poll(30, TimeUnit.SECONDS)).isNotNull();
+    idler.send(hello());
+    Future<Double> worker = startWorker(emitters, new AtomicBoolean());
+
+    // Every shard still comes in, the idler's once it times out.
+    assertThat(coordinator.get(30, TimeUnit.SECONDS)).isWithin(TOLERANCE).of(localTotal());
+    assertThat(worker.get(30, TimeUnit.SECONDS)).isWithin(TOLERANCE).of(localTotal());
+    assertThat(closed.await(30, TimeUnit.SECONDS)).isTrue();
+    assertThat(received).isEmpty();
+  }
+
+  @Test
+  public void calculate_shardFailingEveryTime_shouldThrow() throws Exception {
+    Future<Double> coordinator = startCoordinator(SHARD_TIMEOUT_MILLIS);
+    startWorker(emitters, null);
+
+    try {
+      coordinator.get(30, TimeUnit.SECONDS);
+      throw new AssertionError("Expected the run to fail.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Test
+  public void calculate_otherGeometry_shouldRejectWorker() throws Exception {
+    startCoordinator(SHARD_TIMEOUT_MILLIS);
+    Future<Double> worker = startWorker(TestGeometry.plate(5, 0.1, 0, 1), new AtomicBoolean());
+
+    try {
+      worker.get(30, TimeUnit.SECONDS);
+      throw new AssertionError("Expected the worker to be rejected.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  // Runs the coordinator, returning the sum of the rows it passes on, once it's ready for workers.
+  private Future<Double> startCoordinator(long shardTimeout) throws InterruptedException {
+    EventManager eventManager = new EventManager(Stopwatch::createUnstarted);
+    eventManager.registerSubscriber(event -> {
+      if (event.getMessage().startsWith("Waiting for workers")) listening.countDown();
+    });
+    ShardCoordinator coordinator = new ShardCoordinator.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setPort(port)
+        .setShardSize(SHARD_SIZE)
+        .setShardTimeout(shardTimeout)
+        .build();
+    Future<Double> total = threads.submit(() -> TestRuns.total(coordinator, eventManager));
+    assertThat(listening.await(30, TimeUnit.SECONDS)).isTrue();
+    return total;
+  }
+
+  // Runs a worker on the given emitters, returning the sum of the rows it computed. If failNext is null every shard
+  // fails, otherwise the next one does if it's set.
+  private Future<Double> startWorker(Geometry workerEmitters, AtomicBoolean failNext) {
+    EventManager eventManager = new EventManager(Stopwatch::createUnstarted);
+    ShardWorker worker = new ShardWorker.Builder(eventManager)
+        .setCoordinator(URI.create("ws://localhost:" + port))
+        .setEmitters(workerEmitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setShardEngineFactory(shardEvents -> {
+          engineBuilds.incrementAndGet();
+          ForkJoinEngine engine = forkJoin(workerEmitters, shardEvents);
+          return new RangedEngine() {
+            @Override
+            public void setEmitterRange(int start, int end) {
+              engine.setEmitterRange(start, end);
+            }
+
+            @Override
+            public void calculate(Consumer<double[]> resultConsumer, KernelComplete completionHandler) {
+              if (failNext == null || failNext.getAndSet(false)) {
+                throw new IllegalStateException("Failing on purpose.");
+              }
+              engine.calculate(resultConsumer, completionHandler);
+            }
+          };
+        })
+        .build();
+    return threads.submit(() -> TestRuns.total(worker, eventManager));
+  }
+
+  // Connects a client that says hello like a worker and then never answers. It puts what it receives on received and
+  // counts closed down once the connection closes.
+  private WebSocketClient connectIdler(BlockingQueue<JSONObject> received, CountDownLatch closed)
+      throws InterruptedException {
+    WebSocketClient idler = new WebSocketClient(URI.create("ws://localhost:" + port)) {
+      @Override
+      public void onOpen(ServerHandshake handshake) {}
+
+      @Override
+      public void onMessage(String message) {
+        received.add(new JSONObject(message));
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+        closed.countDown();
+      }
+
+      @Override
+      public void onError(Exception e) {}
+    };
+    assertThat(idler.connectBlocking()).isTrue();
+    idler.send(hello());
+    return idler;
+  }
+
+  private String hello() {
+    return new JSONObject()
+        .put(ShardCoordinator.TYPE_JSON_KEY, ShardCoordinator.HELLO)
+        .put(ShardCoordinator.FINGERPRINT_JSON_KEY, CheckpointWriter.fingerprintOf(emitters, receivers, interconnects))
+        .put(ShardCoordinator.EMITTERS_JSON_KEY, emitters.size())
+        .toString();
+  }
+
+  private double localTotal() {
+    EventManager eventManager = new EventManager(Stopwatch::createUnstarted);
+    return TestRuns.total(forkJoin(emitters, eventManager), eventManager);
+  }
+
+  private ForkJoinEngine forkJoin(Geometry engineEmitters, EventManager eventManager) {
+    return new ForkJoinEngine.Builder(eventManager)
+        .setEmitters(engineEmitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setParallelism(2)
+        .build();
+  }
+}
@@ -0,0 +1,111 @@
+package viewfactor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class SparseMatrixWriterTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Geometry emitters;
+  private Geometry receivers;
+
+  @Before
+  public void setup() {
+    emitters = TestGeometry.plate(2, 0, 0, 1);
+    receivers = TestGeometry.plate(3, 1, 0, 1);
+  }
+
+  @Test
+  public void accept_shouldWriteEntriesAtOrAboveThreshold() throws IOException {
+    double threshold = 0.5;
+    ByteBuffer matrix = write(Configuration.Precision.DOUBLE, threshold);
+
+    long[] rowPointer = readHeaderAndRowPointers(matrix, Double.BYTES);
+    int nonZeros = (int) rowPointer[emitters.size()];
+    int[] columnIndex = new int[nonZeros];
+    for (int entry = 0; entry < nonZeros; entry++) {
+      columnIndex[entry] = matrix.getInt();
+    }
+    double[] values = new double[nonZeros];
+    for (int entry = 0; entry < nonZeros; entry++) {
+      values[entry] = matrix.getDouble();
+    }
+    assertThat(matrix.hasRemaining()).isFalse();
+
+    int entry = 0;
+    for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+      assertThat(rowPointer[emitterIndex]).isEqualTo((long) entry);
+      for (int receiverIndex = 0; receiverIndex < receivers.size(); receiverIndex++) {
+        double expected = value(emitterIndex, receiverIndex) / emitters.getArea()[emitterIndex];
+        if (expected == 0 || Math.abs(expected) < threshold) continue;
+        assertThat(columnIndex[entry]).isEqualTo(receiverIndex);
+        assertThat(values[entry]).isEqualTo(expected);
+        entry++;
+      }
+    }
+    assertThat(entry).isEqualTo(nonZeros);
+    assertThat(nonZeros).isGreaterThan(0);
+    assertThat(nonZeros).isLessThan(emitters.size() * receivers.size());
+  }
+
+  @Test
+  public void accept_float_shouldWriteFloatValues() throws IOException {
+    ByteBuffer matrix = write(Configuration.Precision.FLOAT, 0);
+
+    long[] rowPointer = readHeaderAndRowPointers(matrix, Float.BYTES);
+    int nonZeros = (int) rowPointer[emitters.size()];
+    matrix.position(matrix.position() + nonZeros * Integer.BYTES);
+    assertThat(matrix.remaining()).isEqualTo(nonZeros * Float.BYTES);
+    assertThat(matrix.getFloat()).isEqualTo((float) (value(0, 1) / emitters.getArea()[0]));
+  }
+
+  private ByteBuffer write(Configuration.Precision precision, double threshold) throws IOException {
+    File output = temporaryFolder.newFile();
+    try (SparseMatrixWriter writer = new SparseMatrixWriter(output, emitters, receivers, precision, threshold)) {
+      for (int emitterIndex = 0; emitterIndex < emitters.size(); emitterIndex++) {
+        double[] row = new double[receivers.size()];
+        for (int receiverIndex = 0; receiverIndex < row.length; receiverIndex++) {
+          row[receiverIndex] = value(emitterIndex, receiverIndex);
+        }
+        writer.accept(row);
+      }
+    }
+    // The spooled values file is cleaned up.
+    assertThat(temporaryFolder.getRoot().list()).hasLength(1);
+    return ByteBuffer.wrap(Files.readAllBytes(output.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private long[] readHeaderAndRowPointers(ByteBuffer matrix, int bytesPerValue) {
+    assertThat(matrix.getInt()).isEqualTo(SparseMatrixWriter.MAGIC);
+    assertThat(matrix.getInt()).isEqualTo(SparseMatrixWriter.VERSION);
+    assertThat(matrix.getLong()).isEqualTo((long) emitters.size());
+    assertThat(matrix.getLong()).isEqualTo((long) receivers.size());
+    long nonZeros = matrix.getLong();
+    assertThat(matrix.getInt()).isEqualTo(bytesPerValue);
+    matrix.position(SparseMatrixWriter.HEADER_BYTES);
+
+    long[] rowPointer = new long[emitters.size() + 1];
+    for (int row = 0; row < rowPointer.length; row++) {
+      rowPointer[row] = matrix.getLong();
+    }
+    assertThat(rowPointer[emitters.size()]).isEqualTo(nonZeros);
+    return rowPointer;
+  }
+
+  // Every third receiver sees nothing from each emitter, the rest vary in size around the threshold.
+  private static double value(int emitterIndex, int receiverIndex) {
+    return (receiverIndex + emitterIndex) % 3 == 0 ? 0 : 0.02 * receiverIndex + 0.01 * emitterIndex;
+  }
+}
@@ -0,0 +1,214 @@
+package viewfactor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class StlReaderTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final double[][] NORMALS = {{0, 1, 0}, {0, -1, 0}};
+  private static final double[][][] FACETS = {
+      {{1, 0, 0.9375001}, {1, 0, 0.875}, {0.9375001, 0, 0.9375001}},
+      {{-2.5, 3e-7, 12345.678}, {0.1, -0.2, 0.3}, {1e-3, 250, -0.0625}},
+  };
+
+  @Test
+  public void from_ascii_shouldMatchFacets() throws IOException {
+    String stl = "solid plates exported by some tool\n"
+        + facet("%.6e", 0) + facet("%s", 1)
+        + "endsolid plates exported by some tool\n";
+
+    assertSameFacets(read(stl.getBytes(StandardCharsets.US_ASCII)), expected());
+  }
+
+  @Test
+  public void from_asciiWithCrLfAndTabs_shouldMatchFacets() throws IOException {
+    String stl = ("solid\n" + facet("%s", 0) + facet("%s", 1) + "endsolid\n")
+        .replace("\n", "\r\n").replace("   ", "\t");
+
+    assertSameFacets(read(stl.getBytes(StandardCharsets.US_ASCII)), expected());
+  }
+
+  @Test
+  public void from_asciiNumbers_shouldMatchParseDouble() throws IOException {
+    String[] numbers = {
+        "0", "-0.0", "+1.5", "9.375001e-001", "1.000000e+000", "1E3", "123456789012345678901234", "0.1",
+        "3.141592653589793238", "-2.2250738585072014E-308", "4.9e-324", ".5", "7.", "1e22", "1e23", "123.456e-20",
+    };
+    StringBuilder stl = new StringBuilder("solid numbers\n");
+    for (int index = 0; index + 2 < numbers.length; index += 3) {
+      stl.append(" facet normal 0 0 1\n  outer loop\n")
+          .append("   vertex ").append(numbers[index]).append(' ').append(numbers[index + 1]).append(' ')
+          .append(numbers[index + 2]).append("\n   vertex 0 0 0\n   vertex 0 0 0\n  endloop\n endfacet\n");
+    }
+    stl.append("endsolid numbers\n");
+
+    Geometry geometry = read(stl.toString().getBytes(StandardCharsets.US_ASCII));
+
+    for (int index = 0; index + 2 < numbers.length; index += 3) {
+      int facet = index / 3;
+      assertThat(geometry.getVertexAX()[facet]).isEqualTo(Double.parseDouble(numbers[index]));
+      assertThat(geometry.getVertexAY()[facet]).isEqualTo(Double.parseDouble(numbers[index + 1]));
+      assertThat(geometry.getVertexAZ()[facet]).isEqualTo(Double.parseDouble(numbers[index + 2]));
+    }
+  }
+
+  @Test
+  public void from_binary_shouldMatchFacets() throws IOException {
+    ByteBuffer stl = ByteBuffer.allocate(84 + 50 * FACETS.length).order(ByteOrder.LITTLE_ENDIAN);
+    // Binary headers are free text, and some start with "solid".
+    stl.put("solid but binary".getBytes(StandardCharsets.US_ASCII));
+    stl.putInt(80, FACETS.length);
+    stl.position(84);
+    for (int index = 0; index < FACETS.length; index++) {
+      for (double value : NORMALS[index]) {
+        stl.putFloat((float) value);
+      }
+      for (double[] vertex : FACETS[index]) {
+        for (double value : vertex) {
+          stl.putFloat((float) value);
+        }
+      }
+      stl.putShort((short) 0);
+    }
+
+    assertSameFacets(read(stl.array()), new Geometry().from(NORMALS, floats(FACETS)));
+  }
+
+  @Test
+  public void from_emptyAscii_shouldBeEmpty() throws IOException {
+    assertThat(read("solid empty\nendsolid empty\n".getBytes(StandardCharsets.US_ASCII)).size()).isEqualTo(0);
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void from_facetMissingVertex_shouldThrow() throws IOException {
+    read(("solid\n" + facet("%s", 0)).replace("   vertex 1.0 0.0 0.875\n", "").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void read_asciiInChunks_shouldKeepFacetOrder() throws IOException {
+    StringBuilder stl = new StringBuilder("solid many endfacet\n");
+    for (int index = 0; index < 200; index++) {
+      stl.append(" facet normal 0 1 0\n  outer loop\n")
+          .append("   vertex ").append(index).append(" 0 0\n")
+          .append("   vertex ").append(index).append(" 0 1\n")
+          .append("   vertex ").append(index + 1).append(" 0 0\n")
+          .append("  endloop\n endfacet\n");
+    }
+    stl.append("endsolid many endfacet\n");
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), stl.toString().getBytes(StandardCharsets.US_ASCII));
+
+    Geometry expected = new Geometry();
+    StlReader.read(file.toPath(), expected, 1, 1);
+    for (int parallelism : new int[] {2, 3, 8, 64, 1000}) {
+      Geometry actual = new Geometry();
+      StlReader.read(file.toPath(), actual, parallelism, 1);
+
+      assertSameFacets(actual, expected);
+    }
+    assertThat(expected.size()).isEqualTo(200);
+    for (int index = 0; index < 200; index++) {
+      assertThat(expected.getVertexAX()[index]).isEqualTo((double) index);
+    }
+  }
+
+  @Test
+  public void read_indexedAscii_shouldWeldWhileParsing() throws IOException {
+    StringBuilder stl = new StringBuilder("solid strip\n");
+    for (int index = 0; index < 200; index++) {
+      stl.append(" facet normal 0 1 0\n  outer loop\n")
+          .append("   vertex ").append(index).append(" 0 0\n")
+          .append("   vertex ").append(index).append(" 0 1\n")
+          .append("   vertex ").append(index + 1).append(" 0 0\n")
+          .append("  endloop\n endfacet\n");
+    }
+    stl.append("endsolid strip\n");
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), stl.toString().getBytes(StandardCharsets.US_ASCII));
+
+    Geometry expected = new Geometry();
+    StlReader.read(file.toPath(), expected, 1, 1);
+    Geometry actual = new Geometry().indexed().from(file.toPath(), 8);
+
+    // The strip shares corners between neighbours: (i, 0, 0) for i up to 200 and (i, 0, 1) for i below 200.
+    assertThat(actual.getPoolSize()).isEqualTo(401);
+    assertThat(actual.getTriangleA()[1]).isEqualTo(actual.getTriangleC()[0]);
+    assertSameFacets(actual, expected);
+  }
+
+  @Test(expected = IOException.class)
+  public void read_asciiInChunks_shouldPassOnErrors() throws IOException {
+    StringBuilder stl = new StringBuilder("solid\n");
+    for (int index = 0; index < 20; index++) {
+      stl.append(facet("%s", 0));
+    }
+    stl.append(" facet normal 0 1 0\n  outer loop\n   vertex 1 2 x\n");
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), stl.toString().getBytes(StandardCharsets.US_ASCII));
+
+    StlReader.read(file.toPath(), new Geometry(), 4, 1);
+  }
+
+  private Geometry read(byte[] contents) throws IOException {
+    File file = temporaryFolder.newFile();
+    Files.write(file.toPath(), contents);
+    return new Geometry().from(file.toPath(), 1);
+  }
+
+  private static String facet(String format, int index) {
+    StringBuilder facet = new StringBuilder("  facet normal");
+    for (double value : NORMALS[index]) {
+      facet.append(' ').append(String.format(Locale.ROOT, format, value));
+    }
+    facet.append("\n    outer loop\n");
+    for (double[] vertex : FACETS[index]) {
+      facet.append("   vertex");
+      for (double value : vertex) {
+        facet.append(' ').append(String.format(Locale.ROOT, format, value));
+      }
+      facet.append('\n');
+    }
+    return facet.append("    endloop\n  endfacet\n").toString();
+  }
+
+  private static Geometry expected() {
+    return new Geometry().from(NORMALS, FACETS);
+  }
+
+  private static double[][][] floats(double[][][] facets) {
+    double[][][] rounded = new double[facets.length][3][3];
+    for (int index = 0; index < facets.length; index++) {
+      for (int vertex = 0; vertex < 3; vertex++) {
+        for (int axis = 0; axis < 3; axis++) {
+          rounded[index][vertex][axis] = (float) facets[index][vertex][axis];
+        }
+      }
+    }
+    return rounded;
+  }
+
+  private static void assertSameFacets(Geometry actual, Geometry expected) {
+    assertThat(actual.size()).isEqualTo(expected.size());
+    assertThat(actual.getNormalX()).isEqualTo(expected.getNormalX());
+    assertThat(actual.getNormalY()).isEqualTo(expected.getNormalY());
+    assertThat(actual.getNormalZ()).isEqualTo(expected.getNormalZ());
+    assertThat(actual.hasSameTrianglesAs(expected)).isTrue();
+    assertThat(actual.getArea()).isEqualTo(expected.getArea());
+    assertThat(actual.getCenterX()).isEqualTo(expected.getCenterX());
+  }
+}
@@ -0,0 +1,102 @@
+package viewfactor;
+
+/**
+ * Small meshes for tests.
+ */
+final class TestGeometry {
+
+  private TestGeometry() {}
+
+  // Square plate in the plane y = height, spanning [low, high] in x and z, split into 2 * n * n triangles.
+  static Geometry plate(int n, double height, double low, double high) {
+    return plate(n, height, low, high, 1);
+  }
+
+  // As above, with every normal set to (0, normalY, 0).
+  static Geometry plate(int n, double height, double low, double high, double normalY) {
+    return plate(new Geometry(), n, height, low, high, normalY);
+  }
+
+  // As plate(n, height, low, high), but loaded as an indexed mesh.
+  static Geometry indexedPlate(int n, double height, double low, double high) {
+    return plate(new Geometry().indexed(), n, height, low, high, 1);
+  }
+
+  // As plate(n, height, low, high), but stored off-heap.
+  static Geometry offHeapPlate(int n, double height, double low, double high) {
+    return plate(new Geometry().offHeap(), n, height, low, high, 1);
+  }
+
+  private static Geometry plate(Geometry geometry, int n, double height, double low, double high, double normalY) {
+    double step = (high - low) / n;
+    double[][] normals = new double[2 * n * n][];
+    double[][][] facets = new double[2 * n * n][][];
+    int index = 0;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        double x = low + i * step;
+        double z = low + j * step;
+        normals[index] = new double[] {0, normalY, 0};
+        facets[index++] = new double[][] {{x, height, z}, {x + step, height, z}, {x, height, z + step}};
+        normals[index] = new double[] {0, normalY, 0};
+        facets[index++] = new double[][] {{x + step, height, z}, {x + step, height, z + step}, {x, height, z + step}};
+      }
+    }
+    return geometry.from(normals, facets);
+  }
+
+  // The total area of the triangles.
+  static double area(Geometry triangles) {
+    double sum = 0;
+    for (double area : triangles.getArea()) {
+      sum += area;
+    }
+    return sum;
+  }
+
+  // All triangles of the given geometries, in order.
+  static Geometry union(Geometry... parts) {
+    int size = 0;
+    for (Geometry part : parts) {
+      size += part.size();
+    }
+    double[][] normals = new double[size][];
+    double[][][] facets = new double[size][][];
+    int index = 0;
+    for (Geometry part : parts) {
+      for (int i = 0; i < part.size(); i++) {
+        double[] a = {part.getVertexAX()[i], part.getVertexAY()[i], part.getVertexAZ()[i]};
+        normals[index] = new double[] {part.getNormalX()[i], part.getNormalY()[i], part.getNormalZ()[i]};
+        facets[index++] = new double[][] {
+            a,
+            {a[0] + part.getEdgeBAX()[i], a[1] + part.getEdgeBAY()[i], a[2] + part.getEdgeBAZ()[i]},
+            {a[0] + part.getEdgeCAX()[i], a[1] + part.getEdgeCAY()[i], a[2] + part.getEdgeCAZ()[i]}};
+      }
+    }
+    return new Geometry().from(normals, facets);
+  }
+
+  // The triangles of part with pose applied, as a --poses sweep would see them.
+  static Geometry moved(Geometry part, Pose pose) {
+    double[][] normals = new double[part.size()][];
+    double[][][] facets = new double[part.size()][][];
+    for (int i = 0; i < part.size(); i++) {
+      double[] a = {part.vertexAX(i), part.vertexAY(i), part.vertexAZ(i)};
+      double[] b = {a[0] + part.edgeBAX(i), a[1] + part.edgeBAY(i), a[2] + part.edgeBAZ(i)};
+      double[] c = {a[0] + part.edgeCAX(i), a[1] + part.edgeCAY(i), a[2] + part.edgeCAZ(i)};
+      normals[i] = new double[] {
+          pose.rotatedX(part.normalX(i), part.normalY(i), part.normalZ(i)),
+          pose.rotatedY(part.normalX(i), part.normalY(i), part.normalZ(i)),
+          pose.rotatedZ(part.normalX(i), part.normalY(i), part.normalZ(i))};
+      facets[i] = new double[][] {movedPoint(a, pose), movedPoint(b, pose), movedPoint(c, pose)};
+    }
+    return new Geometry().from(normals, facets);
+  }
+
+  private static double[] movedPoint(double[] point, Pose pose) {
+    return new double[] {
+        pose.pointX(point[0], point[1], point[2]),
+        pose.pointY(point[0], point[1], point[2]),
+        pose.pointZ(point[0], point[1], point[2])};
+  }
+}
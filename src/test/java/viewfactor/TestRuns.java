@@ -0,0 +1,66 @@
+package viewfactor;
+
+import events.EventManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Consumer;
+
+/**
+ * Engine runs for tests, walking the EventManager through a job the way the application does.
+ */
+final class TestRuns {
+
+  private TestRuns() {}
+
+  // Takes eventManager up to where an engine's calculate starts. Any number of calculations can follow before
+  // eventManager.finish().
+  static void startJob(EventManager eventManager) {
+    eventManager.start();
+    eventManager.startParseStl();
+    eventManager.finishParseStl();
+  }
+
+  // Runs engine as one job, passing its rows on to rowConsumer.
+  static void run(ViewFactorEngine engine, EventManager eventManager, Consumer<double[]> rowConsumer) {
+    startJob(eventManager);
+    engine.calculate(rowConsumer, () -> 0);
+    eventManager.finish();
+  }
+
+  // Copies of the rows engine passes on, in order, as engines may reuse the arrays.
+  static List<double[]> rows(ViewFactorEngine engine, EventManager eventManager) {
+    List<double[]> rows = new ArrayList<>();
+    run(engine, eventManager, row -> rows.add(row.clone()));
+    return rows;
+  }
+
+  // The sum of every value engine passes on.
+  static double total(ViewFactorEngine engine, EventManager eventManager) {
+    DoubleAdder total = new DoubleAdder();
+    run(engine, eventManager, row -> {
+      for (double value : row) {
+        total.add(value);
+      }
+    });
+    return total.sum();
+  }
+
+  // The sum of every value of rows.
+  static double total(List<double[]> rows) {
+    double total = 0;
+    for (double[] row : rows) {
+      total += sum(row);
+    }
+    return total;
+  }
+
+  static double sum(double[] row) {
+    double sum = 0;
+    for (double value : row) {
+      sum += value;
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,116 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TiledEngineTest {
+
+  private static final double TOLERANCE = 1e-15;
+
+  private EventManager eventManager;
+  private Geometry emitters;
+  private Geometry receivers;
+  private Geometry interconnects;
+  // Each tile's kernel, in the order the tiles ran.
+  private final List<IntersectionKernel> tileKernels = new ArrayList<>();
+
+  @Before
+  public void setup() {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    emitters = TestGeometry.plate(5, 0, 0, 1);
+    receivers = TestGeometry.plate(4, 1, 0, 1);
+    interconnects = TestGeometry.plate(3, 0.5, 0.2, 0.6);
+  }
+
+  @Test
+  public void tileSizes_shouldFitBudget() {
+    // 50 emitters take 6400 bytes, 18 interconnects 4608.
+    assertThat(TiledEngine.interconnectTileSize(16000, 50, 18)).isEqualTo(18);
+    assertThat(TiledEngine.receiverTileSize(16000, 50, 32, 18, false, 64)).isEqualTo(4);
+    assertThat(TiledEngine.receiverTileSize(1 << 20, 50, 32, 18, false, 64)).isEqualTo(32);
+    assertThat(TiledEngine.interconnectTileSize(8000, 50, 18)).isEqualTo(3);
+    assertThat(TiledEngine.receiverTileSize(8000, 50, 32, 3, true, 1)).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tileSizes_budgetBelowEmitters_shouldThrow() {
+    TiledEngine.interconnectTileSize(6400, 50, 18);
+  }
+
+  @Test
+  public void calculate_receiverTiles_shouldPassRowSums() {
+    assertRowSums(untiledRowSums(), tiledRows(16000, 64, false, 0));
+    assertRowSums(untiledRowSums(), tiledRows(16000, 64, true, 0));
+  }
+
+  @Test
+  public void calculate_receiverTiles_shouldRebindOneKernel() {
+    tiledRows(16000, 64, false, 0);
+
+    assertThat(tileKernels.size()).isGreaterThan(1);
+    assertThat(new HashSet<>(tileKernels)).hasSize(1);
+  }
+
+  @Test
+  public void calculate_interconnectTiles_shouldPassRowSums() {
+    assertRowSums(untiledRowSums(), tiledRows(8000, 1, false, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void build_interconnectTilesWithRefinement_shouldThrow() {
+    tiledRows(8000, 1, false, 4);
+  }
+
+  private double[] untiledRowSums() {
+    List<double[]> rows = TestRuns.rows(
+        new IntersectionKernel.Builder(Geometry::new, eventManager)
+            .setEmitters(emitters)
+            .setReceivers(receivers)
+            .setInterconnects(interconnects)
+            .build(),
+        eventManager);
+    return rows.stream().mapToDouble(TestRuns::sum).toArray();
+  }
+
+  private List<double[]> tiledRows(long memoryBudget, int batchSize, boolean reduceOnDevice, double refineDistance) {
+    TiledEngine engine = new TiledEngine.Builder(eventManager)
+        .setEmitters(emitters)
+        .setReceivers(receivers)
+        .setInterconnects(interconnects)
+        .setMemoryBudget(memoryBudget)
+        .setBatchSize(batchSize)
+        .setReduceOnDevice(reduceOnDevice)
+        .setRefineDistance(refineDistance)
+        .setTileEngineFactory((tileReceivers, tileInterconnects, reduce, tileEvents, previous) -> {
+          IntersectionKernel.Builder builder = new IntersectionKernel.Builder(Geometry::new, tileEvents)
+              .setEmitters(emitters)
+              .setReceivers(tileReceivers)
+              .setInterconnects(tileInterconnects)
+              .setBatchSize(batchSize)
+              .setReduceOnDevice(reduce)
+              .setRefineDistance(refineDistance);
+          IntersectionKernel kernel =
+              previous == null ? builder.build() : builder.rebind((IntersectionKernel) previous);
+          tileKernels.add(kernel);
+          return kernel;
+        })
+        .build();
+    return TestRuns.rows(engine, eventManager);
+  }
+
+  private static void assertRowSums(double[] expected, List<double[]> actual) {
+    assertThat(actual).hasSize(expected.length);
+    for (int emitterIndex = 0; emitterIndex < expected.length; emitterIndex++) {
+      assertThat(actual.get(emitterIndex)).hasLength(1);
+      assertThat(actual.get(emitterIndex)[0]).isWithin(TOLERANCE).of(expected[emitterIndex]);
+    }
+  }
+}
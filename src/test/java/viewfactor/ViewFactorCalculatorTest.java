@@ -0,0 +1,178 @@
+package viewfactor;
+
+import com.google.common.base.Stopwatch;
+import events.EventManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ViewFactorCalculatorTest {
+
+  private static final double TOLERANCE = 1e-12;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private EventManager eventManager;
+  private Configuration configuration;
+  private ViewFactorCalculator calculator;
+  private Path directory;
+  // What the geometries the calculator asks for do, in order: "load <file>" and "release <file>".
+  private final List<String> geometryLog = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void setup() throws IOException {
+    eventManager = new EventManager(Stopwatch::createUnstarted);
+    eventManager.registerSubscriber(event -> messages.add(event.getMessage()));
+    configuration = new Configuration();
+    configuration.parseFlag("--engine=fork-join");
+    calculator = new ViewFactorCalculator(
+        RecordingGeometry::new,
+        new IntersectionKernel.Builder(RecordingGeometry::new, eventManager),
+        new FloatIntersectionKernel.Builder(RecordingGeometry::new, eventManager),
+        new ForkJoinEngine.Builder(eventManager),
+        new HemicubeEngine.Builder(eventManager),
+        new MonteCarloEngine.Builder(eventManager),
+        new TiledEngine.Builder(eventManager),
+        new IncrementalEngine.Builder(eventManager),
+        new ShardCoordinator.Builder(eventManager),
+        new ShardWorker.Builder(eventManager),
+        () -> new ThreadedAdder(new DoubleAdder()),
+        eventManager,
+        configuration);
+    directory = temporaryFolder.newFolder().toPath();
+    writeStl("a.stl", TestGeometry.plate(3, 0, 0, 1));
+    writeStl("b.stl", TestGeometry.plate(2, 1, 0, 1, -1));
+    writeStl("c.stl", TestGeometry.plate(2, 0.5, 0.2, 0.6, -1));
+  }
+
+  @Test
+  public void runBatch_shouldShareGeometryAndDropItAfterItsLastJob() throws IOException {
+    calculator.runBatch(writeManifest("a.stl b.stl\na.stl c.stl\nc.stl b.stl\n"));
+    eventManager.shutdown();
+
+    assertThat(geometryLog.subList(0, 4)).containsExactly("load a.stl", "load b.stl", "load c.stl", "release a.stl")
+        .inOrder();
+    assertThat(geometryLog.subList(4, geometryLog.size())).containsExactly("release b.stl", "release c.stl");
+    assertResults(expected("a.stl", "b.stl"), expected("a.stl", "c.stl"), expected("c.stl", "b.stl"));
+    assertThat(messages).contains("Batch finished: 3 jobs, 0 failed.");
+  }
+
+  @Test
+  public void runBatch_failedJob_shouldCarryOn() throws IOException {
+    calculator.runBatch(writeManifest("a.stl b.stl\na.stl missing.stl\nc.stl b.stl\n"));
+    eventManager.shutdown();
+
+    assertThat(geometryLog.subList(0, 4)).containsExactly("load a.stl", "load b.stl", "release a.stl", "load c.stl")
+        .inOrder();
+    assertThat(geometryLog.subList(4, geometryLog.size())).containsExactly("release b.stl", "release c.stl");
+    assertResults(expected("a.stl", "b.stl"), expected("c.stl", "b.stl"));
+    assertThat(messages).contains("Batch finished: 3 jobs, 1 failed.");
+  }
+
+  @Test
+  public void runBatch_sameSurface_shouldComputeEachPairOnce() throws IOException {
+    calculator.runBatch(writeManifest("a.stl a.stl\n"));
+    eventManager.shutdown();
+
+    assertThat(messages).contains("Emitters and receivers are the same surface, computing each pair once.");
+  }
+
+  @Test
+  public void runBatch_sameSurfaceWithFullRows_shouldNotMirrorRows() throws IOException {
+    // Mirroring the full rows the validator needs would hold half the matrix on the heap.
+    configuration.parseFlag("--validate-precision=true");
+    calculator.runBatch(writeManifest("a.stl a.stl\n"));
+    eventManager.shutdown();
+
+    assertThat(messages).doesNotContain("Emitters and receivers are the same surface, computing each pair once.");
+    assertThat(messages).contains("Batch finished: 1 jobs, 0 failed.");
+  }
+
+  // Checks the results the calculator reported, in order.
+  private void assertResults(double... expected) {
+    List<Double> results = new ArrayList<>();
+    for (String message : messages) {
+      int start = message.indexOf("Result: ");
+      if (start >= 0) {
+        results.add(Double.parseDouble(message.substring(start + "Result: ".length()).trim()));
+      }
+    }
+    assertThat(results).hasSize(expected.length);
+    for (int job = 0; job < expected.length; job++) {
+      assertThat(results.get(job)).isWithin(TOLERANCE).of(expected[job]);
+    }
+  }
+
+  // The view factor of a fork-join run on the given files.
+  private double expected(String emitterFile, String receiverFile) {
+    Geometry emitters = new Geometry().from(directory.resolve(emitterFile), 1);
+    Geometry receivers = new Geometry().from(directory.resolve(receiverFile), 1);
+    EventManager localEvents = new EventManager(Stopwatch::createUnstarted);
+    double total = TestRuns.total(
+        new ForkJoinEngine.Builder(localEvents)
+            .setEmitters(emitters)
+            .setReceivers(receivers)
+            .setInterconnects(new Geometry().empty())
+            .build(),
+        localEvents);
+    localEvents.shutdown();
+    return total / TestGeometry.area(emitters);
+  }
+
+  private File writeManifest(String contents) throws IOException {
+    return Files.write(directory.resolve("jobs.txt"), contents.getBytes(StandardCharsets.UTF_8)).toFile();
+  }
+
+  private void writeStl(String name, Geometry geometry) throws IOException {
+    StringBuilder stl = new StringBuilder("solid " + name + "\n");
+    for (int index = 0; index < geometry.size(); index++) {
+      double[] a = {geometry.vertexAX(index), geometry.vertexAY(index), geometry.vertexAZ(index)};
+      stl.append(String.format(" facet normal %s %s %s%n  outer loop%n",
+          geometry.normalX(index), geometry.normalY(index), geometry.normalZ(index)));
+      stl.append(String.format("   vertex %s %s %s%n", a[0], a[1], a[2]));
+      stl.append(String.format("   vertex %s %s %s%n",
+          a[0] + geometry.edgeBAX(index), a[1] + geometry.edgeBAY(index), a[2] + geometry.edgeBAZ(index)));
+      stl.append(String.format("   vertex %s %s %s%n",
+          a[0] + geometry.edgeCAX(index), a[1] + geometry.edgeCAY(index), a[2] + geometry.edgeCAZ(index)));
+      stl.append("  endloop\n endfacet\n");
+    }
+    stl.append("endsolid ").append(name).append("\n");
+    Files.write(directory.resolve(name), stl.toString().getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Logs what the calculator does with each geometry to geometryLog.
+   */
+  private final class RecordingGeometry extends Geometry {
+    private String name;
+
+    @Override
+    Geometry from(Path stlFile, int parallelism) {
+      super.from(stlFile, parallelism);
+      name = stlFile.getFileName().toString();
+      geometryLog.add("load " + name);
+      return this;
+    }
+
+    @Override
+    void release() {
+      geometryLog.add("release " + name);
+      super.release();
+    }
+  }
+}